@@ -169,7 +169,8 @@ public class FleetController implements NodeStateOrHostInfoChangeHandler, NodeAd
                 options.nodeStateRequestTimeoutMS,
                 options.nodeStateRequestTimeoutEarliestPercentage,
                 options.nodeStateRequestTimeoutLatestPercentage,
-                options.nodeStateRequestRoundTripTimeMaxSeconds);
+                options.nodeStateRequestRoundTripTimeMaxSeconds,
+                options.rpcNetworkThreads);
         DatabaseHandler database = new DatabaseHandler(timer, options.zooKeeperServerAddress, options.fleetControllerIndex, timer);
         NodeLookup lookUp = new SlobrokClient(timer);
         StateChangeHandler stateGenerator = new StateChangeHandler(timer, log, metricUpdater);
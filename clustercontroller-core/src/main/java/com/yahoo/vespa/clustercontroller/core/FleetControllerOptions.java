@@ -102,6 +102,9 @@ public class FleetControllerOptions implements Cloneable {
     public int nodeStateRequestTimeoutLatestPercentage = 95;
     public int nodeStateRequestRoundTripTimeMaxSeconds = 5;
 
+    /** The number of network threads used for RPC communication with the nodes. */
+    public int rpcNetworkThreads = 1;
+
     public int minTimeBetweenNewSystemStates = 0;
     public boolean showLocalSystemStatesInEventLog = true;
 
@@ -194,6 +197,7 @@ public class FleetControllerOptions implements Cloneable {
         sb.append("<tr><td><nobr>Slobrok mirror backoff policy</nobr></td><td align=\"right\">").append(slobrokBackOffPolicy == null ? "default" : "overridden").append("</td></tr>");
 
         sb.append("<tr><td><nobr>Node state request timeout</nobr></td><td align=\"right\">").append(RealTimer.printDuration(nodeStateRequestTimeoutMS)).append("</td></tr>");
+        sb.append("<tr><td><nobr>RPC network threads</nobr></td><td align=\"right\">").append(rpcNetworkThreads).append("</td></tr>");
         sb.append("<tr><td><nobr>VDS 4.1 node state polling frequency</nobr></td><td align=\"right\">").append(RealTimer.printDuration(statePollingFrequency)).append("</td></tr>");
         sb.append("<tr><td><nobr>Maximum distributor transition time</nobr></td><td align=\"right\">").append(RealTimer.printDuration(maxTransitionTime.get(NodeType.DISTRIBUTOR))).append("</td></tr>");
         sb.append("<tr><td><nobr>Maximum storage transition time</nobr></td><td align=\"right\">").append(RealTimer.printDuration(maxTransitionTime.get(NodeType.STORAGE))).append("</td></tr>");
@@ -40,6 +40,18 @@ public class RPCCommunicator implements Communicator {
             final int nodeStateRequestTimeoutIntervalStartPercentage,
             final int nodeStateRequestTimeoutIntervalStopPercentage,
             final int nodeStateRequestRoundTripTimeMaxSeconds) {
+        this(t, index, nodeStateRequestTimeoutIntervalMaxMs, nodeStateRequestTimeoutIntervalStartPercentage,
+             nodeStateRequestTimeoutIntervalStopPercentage, nodeStateRequestRoundTripTimeMaxSeconds, 1);
+    }
+
+    public RPCCommunicator(
+            final Timer t,
+            final int index,
+            final int nodeStateRequestTimeoutIntervalMaxMs,
+            final int nodeStateRequestTimeoutIntervalStartPercentage,
+            final int nodeStateRequestTimeoutIntervalStopPercentage,
+            final int nodeStateRequestRoundTripTimeMaxSeconds,
+            final int networkThreads) {
         this.timer = t;
         this.fleetControllerIndex = index;
         checkArgument(nodeStateRequestTimeoutIntervalMaxMs > 0);
@@ -52,7 +64,7 @@ public class RPCCommunicator implements Communicator {
         this.nodeStateRequestTimeoutIntervalStartPercentage = nodeStateRequestTimeoutIntervalStartPercentage;
         this.nodeStateRequestTimeoutIntervalStopPercentage = nodeStateRequestTimeoutIntervalStopPercentage;
         this.nodeStateRequestRoundTripTimeMaxSeconds = nodeStateRequestRoundTripTimeMaxSeconds;
-        this.supervisor = new Supervisor(new Transport());
+        this.supervisor = new Supervisor(new Transport(networkThreads));
     }
 
     public void shutdown() {
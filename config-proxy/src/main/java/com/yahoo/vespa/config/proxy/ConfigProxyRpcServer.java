@@ -27,13 +27,21 @@ public class ConfigProxyRpcServer implements Runnable, TargetWatcher, RpcServer
     private final static Logger log = Logger.getLogger(ConfigProxyRpcServer.class.getName());
     private static final int TRACELEVEL = 6;
 
+    /** The default number of network threads used to serve clients */
+    static final int DEFAULT_NETWORK_THREADS = 1;
+
     private final Spec spec;
-    private final Supervisor supervisor = new Supervisor(new Transport());
+    private final Supervisor supervisor;
     private final ProxyServer proxyServer;
 
     ConfigProxyRpcServer(ProxyServer proxyServer, Spec spec) {
+        this(proxyServer, spec, DEFAULT_NETWORK_THREADS);
+    }
+
+    ConfigProxyRpcServer(ProxyServer proxyServer, Spec spec, int networkThreads) {
         this.proxyServer = proxyServer;
         this.spec = spec;
+        this.supervisor = new Supervisor(new Transport(networkThreads));
         setUp();
     }
 
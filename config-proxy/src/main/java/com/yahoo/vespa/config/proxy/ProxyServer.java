@@ -71,7 +71,7 @@ public class ProxyServer implements Runnable {
     private ProxyServer(Spec spec, DelayedResponses delayedResponses, ConfigSource source,
                         ConfigProxyStatistics statistics, TimingValues timingValues,
                         boolean delayedResponseHandling, MemoryCache memoryCache,
-                        ConfigSourceClient configClient) {
+                        ConfigSourceClient configClient, int rpcNetworkThreads) {
         this.delayedResponses = delayedResponses;
         this.configSource = source;
         log.log(LogLevel.DEBUG, "Using config source '" + source);
@@ -79,7 +79,7 @@ public class ProxyServer implements Runnable {
         this.timingValues = timingValues;
         this.delayedResponseHandling = delayedResponseHandling;
         this.memoryCache = memoryCache;
-        this.rpcServer = createRpcServer(spec);
+        this.rpcServer = createRpcServer(spec, rpcNetworkThreads);
         clientUpdater = new ClientUpdater(rpcServer, statistics, delayedResponses);
         this.configClient = createClient(clientUpdater, delayedResponses, source, timingValues, memoryCache, configClient);
     }
@@ -96,7 +96,7 @@ public class ProxyServer implements Runnable {
         final boolean delayedResponseHandling = false;
         return new ProxyServer(null, new DelayedResponses(statistics),
                                source, statistics, defaultTimingValues(), delayedResponseHandling,
-                               memoryCache, configSourceClient);
+                               memoryCache, configSourceClient, ConfigProxyRpcServer.DEFAULT_NETWORK_THREADS);
     }
 
     public void run() {
@@ -160,8 +160,8 @@ public class ProxyServer implements Runnable {
                 : client;
     }
 
-    private ConfigProxyRpcServer createRpcServer(Spec spec) {
-        return  (spec == null) ? null : new ConfigProxyRpcServer(this, spec); // TODO: Try to avoid first argument being 'this'
+    private ConfigProxyRpcServer createRpcServer(Spec spec, int networkThreads) {
+        return  (spec == null) ? null : new ConfigProxyRpcServer(this, spec, networkThreads); // TODO: Try to avoid first argument being 'this'
     }
 
     private RpcConfigSourceClient createRpcClient() {
@@ -207,7 +207,8 @@ public class ProxyServer implements Runnable {
         ConfigSourceSet configSources = new ConfigSourceSet(properties.configSources);
         DelayedResponses delayedResponses = new DelayedResponses(statistics);
         ProxyServer proxyServer = new ProxyServer(new Spec(null, port), delayedResponses, configSources, statistics,
-                                                  defaultTimingValues(), true, new MemoryCache(), null);
+                                                  defaultTimingValues(), true, new MemoryCache(), null,
+                                                  properties.rpcNetworkThreads);
         // catch termination signal
         proxyServer.setupSigTermHandler();
         Thread proxyserverThread = new Thread(proxyServer);
@@ -220,16 +221,19 @@ public class ProxyServer implements Runnable {
         // Read system properties
         long eventInterval = Long.getLong("eventinterval", ConfigProxyStatistics.defaultEventInterval);
         final String[] inputConfigSources = System.getProperty("proxyconfigsources", DEFAULT_PROXY_CONFIG_SOURCES).split(",");
-        return new Properties(eventInterval, inputConfigSources);
+        int rpcNetworkThreads = Integer.getInteger("rpcnetworkthreads", ConfigProxyRpcServer.DEFAULT_NETWORK_THREADS);
+        return new Properties(eventInterval, inputConfigSources, rpcNetworkThreads);
     }
 
     static class Properties {
         final long eventInterval;
         final String[] configSources;
+        final int rpcNetworkThreads;
 
-        Properties(long eventInterval, String[] configSources) {
+        Properties(long eventInterval, String[] configSources, int rpcNetworkThreads) {
             this.eventInterval = eventInterval;
             this.configSources = configSources;
+            this.rpcNetworkThreads = rpcNetworkThreads;
         }
     }
 
@@ -68,7 +68,7 @@ public class RpcServer implements Runnable, ReloadListener, TenantListener {
     static final int TRACELEVEL_DEBUG = 9;
     private static final String THREADPOOL_NAME = "rpcserver worker pool";
     private static final long SHUTDOWN_TIMEOUT = 60;
-    private final Supervisor supervisor = new Supervisor(new Transport());
+    private final Supervisor supervisor;
     private Spec spec = null;
     private final boolean useRequestVersion;
     private final boolean hostedVespa;
@@ -97,6 +97,7 @@ public class RpcServer implements Runnable, ReloadListener, TenantListener {
                      HostRegistries hostRegistries, HostLivenessTracker hostLivenessTracker) {
         this.superModelRequestHandler = superModelRequestHandler;
         this.metricUpdaterFactory = metrics;
+        this.supervisor = new Supervisor(new Transport(config.numRpcNetworkThreads()));
         this.supervisor.setMaxOutputBufferSize(config.maxoutputbuffersize());
         this.metrics = metrics.getOrCreateMetricUpdater(Collections.<String, String>emptyMap());
         this.hostLivenessTracker = hostLivenessTracker;
@@ -84,6 +84,7 @@ public final class SessionCache extends AbstractComponent {
         }
         LoadTypeSet loadTypeSet = new LoadTypeSet(loadTypeConfigId);
         DocumentProtocol protocol = new DocumentProtocol(documentTypeManager, identity, loadTypeSet);
+        protocol.setLazyDocumentDecoding(mbusConfig.lazydocumentdecoding());
         messageBus = createSharedMessageBus(mbusConfig, slobrokConfigId, identity, protocol);
         // TODO: stop doing subscriptions to config when that is to be solved in slobrok as well
         configAgent = new ConfigAgent(messagebusConfigId, messageBus.messageBus());
@@ -111,7 +112,8 @@ public final class SessionCache extends AbstractComponent {
                 .setSlobrokConfigId(slobrokConfigId)
                 .setIdentity(new Identity(identity))
                 .setOOSServerPattern("search/cluster.*/rtx/*/clustercontroller")
-                .setListenPort(mbusConfig.port());
+                .setListenPort(mbusConfig.port())
+                .setNumNetworkThreads(mbusConfig.numnetworkthreads());
         return SharedMessageBus.newInstance(mbusParams, netParams);
     }
 
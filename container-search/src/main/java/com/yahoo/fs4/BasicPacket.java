@@ -155,6 +155,41 @@ public abstract class BasicPacket {
         return this;
     }
 
+    /**
+     * Encodes this package onto the given buffer like {@link #encode(ByteBuffer)}, but never compressed
+     * and without keeping a copy of the encoded body in this packet. This is for storing the encoded form
+     * of a packet which is not to be sent, and does not change the state of this.
+     *
+     * @throws UnsupportedOperationException if not implemented in the subclass
+     */
+    public final void encodeUncompressed(ByteBuffer buffer) throws BufferTooSmallException {
+        int oldLimit = buffer.limit();
+        int startPosition = buffer.position();
+
+        buffer.limit(buffer.capacity());
+        try {
+            encodeUncompressedHeader(buffer);
+            encodeBody(buffer);
+            buffer.putInt(startPosition, buffer.position() - startPosition - 4); // Encoded length 4 less than actual length
+            buffer.limit(buffer.position());
+        }
+        catch (java.nio.BufferOverflowException e) {
+            // reset buffer to expected state
+            buffer.position(startPosition);
+            buffer.limit(oldLimit);
+            throw new BufferTooSmallException("Destination buffer too small while encoding packet");
+        }
+    }
+
+    /**
+     * Encodes the header of this packet for {@link #encodeUncompressed}, with a placeholder for the length,
+     * which is written when the body is encoded.
+     */
+    protected void encodeUncompressedHeader(ByteBuffer buffer) {
+        buffer.putInt(4); // Real length written later, when we know it
+        buffer.putInt(getCode());
+    }
+
     protected void encodeAndCompressBody(ByteBuffer buffer, int startPosition) {
         int startOfBody = buffer.position();
         encodeBody(buffer);
@@ -8,13 +8,15 @@ import java.nio.ByteBuffer;
 /**
  * An "extended query result" packet. This is the query result
  * packets used today, they allow more flexible sets of parameters
- * to be shipped with query results. This packet can be decoded only.
+ * to be shipped with query results. This packet is decoded from the wire, and can be
+ * encoded again for storage in the packet cache.
  *
  * @author  bratseth
  */
 public class DocsumPacket extends Packet {
 
-    private GlobalId globalId = new GlobalId(new byte[GlobalId.LENGTH]);
+    /** The global id of this. This is set on decoding, to avoid allocating a placeholder for every received packet */
+    private GlobalId globalId;
 
     private byte[] data;
 
@@ -25,6 +27,7 @@ public class DocsumPacket extends Packet {
      * Constructor used by streaming search
      */
     public DocsumPacket(byte[] buffer) {
+        globalId = new GlobalId(new byte[GlobalId.LENGTH]);
         data = buffer.clone();
     }
 
@@ -46,12 +49,19 @@ public class DocsumPacket extends Packet {
         buffer.get(data);
     }
 
+    /** Encodes the body of this packet in the same format as it is decoded */
+    @Override
+    protected void encodeBody(ByteBuffer buffer) {
+        buffer.put(globalId.getRawId());
+        buffer.put(data);
+    }
+
     public GlobalId getGlobalId() { return globalId; }
 
     public byte[] getData() { return data; }
 
     public String toString() {
-        return "docsum packet [globalId: " + globalId.toString() +
+        return "docsum packet [globalId: " + (globalId == null ? "(not decoded)" : globalId.toString()) +
             ", size: " + (data==null ? "(no data)" : data.length +
                           " bytes") + " ]";
     }
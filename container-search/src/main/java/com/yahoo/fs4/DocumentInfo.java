@@ -34,6 +34,16 @@ public class DocumentInfo implements Cloneable {
         this.distributionKey = distributionKey;
     }
 
+    /** Encodes this in the format it is decoded from in a query result packet */
+    void encode(ByteBuffer buffer, boolean mldFeature) {
+        buffer.put(globalId.getRawId());
+        buffer.putDouble(metric);
+        if (mldFeature) {
+            buffer.putInt(partId);
+            buffer.putInt(distributionKey);
+        }
+    }
+
     private double decodeMetric(ByteBuffer buffer) {
         return buffer.getDouble();
     }
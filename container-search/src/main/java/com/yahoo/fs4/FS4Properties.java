@@ -40,6 +40,23 @@ public class FS4Properties {
         }
     }
 
+    void encode(ByteBuffer buffer) {
+        byte[] utf8name = Utf8.toBytes(name);
+        buffer.putInt(utf8name.length);
+        buffer.put(utf8name);
+
+        buffer.putInt(entries.length);
+        for (Entry entry : entries) {
+            byte[] key = Utf8.toBytes(entry.key);
+            buffer.putInt(key.length);
+            buffer.put(key);
+
+            byte[] value = Utf8.toBytes(entry.val);
+            buffer.putInt(value.length);
+            buffer.put(value);
+        }
+    }
+
     public Entry[] getEntries() {
         return entries;
     }
@@ -85,6 +85,14 @@ public abstract class Packet extends BasicPacket {
         return this;
     }
 
+    /** Encodes the header like {@link #encode(ByteBuffer, int)} does, with the current channel */
+    @Override
+    protected void encodeUncompressedHeader(ByteBuffer buffer) {
+        buffer.putInt(8); // Real length written later, when we know it
+        buffer.putInt(getCode());
+        buffer.putInt(channel);
+    }
+
     /**
      * Get the channel id of the packet.  In the FS4 transport protocol,
      * there is the concept of a channel.  This must <b>not</b> be confused
@@ -14,7 +14,7 @@ import java.util.logging.Logger;
 /**
  * An "extended query result" packet. This is the query result packets used today,
  * they allow more flexible sets of parameters to be shipped with query results.
- * This packet can be decoded only.
+ * This packet is decoded from the wire, and can be encoded again for storage in the packet cache.
  *
  * @author bratseth
  */
@@ -142,6 +142,40 @@ public class QueryResultPacket extends Packet {
         }
     }
 
+    /**
+     * Encodes the body of this packet in the same format as it is decoded.
+     * This is used to store decoded packets in serialized form, and is not sent to backends.
+     */
+    @Override
+    protected void encodeBody(ByteBuffer buffer) {
+        buffer.putInt(encodeFeatures());
+        buffer.putInt(offset);
+        buffer.putInt(documents.size());
+        buffer.putLong(totalDocumentCount);
+        buffer.putDouble(maxRank == null ? 0.0 : maxRank.doubleValue());
+        buffer.putInt(docstamp);
+        if (datasetFeature) buffer.putInt(dataset);
+        if (groupDataFeature) {
+            buffer.putInt(groupData.length);
+            buffer.put(groupData);
+        }
+        if (coverageFeature) {
+            buffer.putLong(coverageDocs);
+            buffer.putLong(activeDocs);
+        }
+        if (coverageExtendedFeature) {
+            buffer.putLong(soonActiveDocs);
+            buffer.putInt(degradedReason);
+        }
+        for (DocumentInfo document : documents)
+            document.encode(buffer, mldFeature);
+        if (propsFeature) {
+            buffer.putInt(propsArray.length);
+            for (FS4Properties properties : propsArray)
+                properties.encode(buffer);
+        }
+    }
+
     private Number decodeMaxRank(ByteBuffer buffer) {
         return Double.valueOf(buffer.getDouble());
     }
@@ -179,6 +213,17 @@ public class QueryResultPacket extends Packet {
         }
     }
 
+    private int encodeFeatures() {
+        int features = 0;
+        if (mldFeature) features |= QRF_MLD;
+        if (datasetFeature) features |= 0x002;
+        if (coverageExtendedFeature) features |= QRF_EXTENDED_COVERAGE;
+        if (coverageFeature) features |= QRF_COVERAGE;
+        if (groupDataFeature) features |= QRF_GROUPDATA;
+        if (propsFeature) features |= QRF_PROPERTIES;
+        return features;
+    }
+
     private void decodeDocuments(ByteBuffer buffer, int documentCount) {
         for (int i=0; i<documentCount; i++) {
             documents.add(new DocumentInfo(buffer, this));
@@ -41,6 +41,12 @@ public class FS4Channel
     private Query query;
     private boolean isPingChannel = false;
 
+    /** The id of another channel whose packets are received on this, or null. See {@link #mergeResponsesFrom} */
+    private volatile Integer mergedChannelId = null;
+
+    /** Whether the response queue of this belongs to another channel. See {@link #mergeResponsesFrom} */
+    private volatile boolean usesMergedQueue = false;
+
     /** for unit testing.  do not use */
     protected FS4Channel () {
     }
@@ -86,11 +92,25 @@ public class FS4Channel
         } else {
             backend.removeChannel(channelId);
         }
-        if (q != null) {
+        if (q != null && ! usesMergedQueue) {
             q.clear();
         }
     }
 
+    /**
+     * Makes packets received on the given channel available from this channel, such that receiving packets on this
+     * returns packets from whichever of the two channels responds first. This is used to hedge a request by
+     * sending it to another backend and using the first response.
+     * Packets must not be received from the given channel after this is called.
+     *
+     * @throws InvalidChannelException if this channel is closed
+     */
+    public void mergeResponsesFrom(FS4Channel other) throws InvalidChannelException {
+        other.responseQueue = ensureValidQ();
+        other.usesMergedQueue = true;
+        mergedChannelId = other.getChannelId();
+    }
+
     /**
      * Legacy interface.
      */
@@ -124,7 +144,7 @@ public class FS4Channel
                 BasicPacket p = nextPacket(timeLeft);
                 if (p == null) throw new ChannelTimeoutException("Timed out");
 
-                if (!isPingChannel && ((Packet)p).getChannel() != getChannelId().intValue()) {
+                if (!isPingChannel && ! isReceivedOnThis((Packet)p)) {
                     log.warning("Ignoring received " + p + ", when excepting channel " + getChannelId());
                     continue;
                 }
@@ -159,6 +179,12 @@ public class FS4Channel
         throw new ChannelTimeoutException();
     }
 
+    private boolean isReceivedOnThis(Packet packet) {
+        if (packet.getChannel() == getChannelId().intValue()) return true;
+        Integer mergedChannelId = this.mergedChannelId;
+        return mergedChannelId != null && packet.getChannel() == mergedChannelId.intValue();
+    }
+
     private static boolean hasEnoughPackets(int packetCount,List<BasicPacket> packets) {
         if (packetCount<0) return false;
         return packets.size()>=packetCount;
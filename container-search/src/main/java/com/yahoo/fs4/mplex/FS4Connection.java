@@ -47,6 +47,9 @@ public class FS4Connection implements Connection
     private ByteBuffer fixedReadBuffer = ByteBuffer.allocateDirect(256 * 1024);
     private ByteBuffer readBuffer = fixedReadBuffer;
 
+    /** The buffers used instead of fixedReadBuffer when a packet is larger than it, shared by all connections */
+    private static final ReadBufferPool largeReadBuffers = new ReadBufferPool(32 * 1024 * 1024);
+
     private volatile boolean valid = true;
 
     private final PacketListener packetListener;
@@ -176,9 +179,12 @@ public class FS4Connection implements Connection
 
         do {
             try {
-                if (readBuffer == fixedReadBuffer) {
+                if (readBuffer.isDirect()) {
+                    // the fixed buffer, or a pooled large buffer which can be read into without copying
                     bytesRead = channel.read(readBuffer);
                 } else {
+                    // read unpooled heap buffers through the fixed buffer, as reading into a heap buffer
+                    // makes the JDK allocate and cache a temporary direct buffer of the same size
                     fixedReadBuffer.clear();
                     if (readBuffer.remaining() < fixedReadBuffer.capacity()) {
                         fixedReadBuffer.limit(readBuffer.remaining());
@@ -340,16 +346,19 @@ public class FS4Connection implements Connection
             size = readBuffer.capacity() * 2;
         }
 
-        ByteBuffer tmp = ByteBuffer.allocate(size);
+        ByteBuffer tmp = largeReadBuffers.acquire(size);
         tmp.put(readBuffer);
-        log.fine("Extended readBuffer to " + size + " bytes"
+        log.fine("Extended readBuffer to " + tmp.capacity() + " bytes"
                  + "from " + readBuffer.capacity() + " bytes");
+        if (readBuffer != fixedReadBuffer) {
+            largeReadBuffers.release(readBuffer);
+        }
         readBuffer = tmp;
     }
 
     /**
-     * Clear the readBuffer, and if temporarily allocated bigger
-     * buffer is in use: ditch it and reset the reference to the
+     * Clear the readBuffer, and if a bigger buffer from the pool is in
+     * use: return it to the pool and reset the reference to the
      * fixed readBuffer.
      */
     private void resetReadBuffer () {
@@ -358,6 +367,7 @@ public class FS4Connection implements Connection
             return;
         }
         log.fine("Resetting readbuffer");
+        largeReadBuffers.release(readBuffer);
         readBuffer = fixedReadBuffer;
     }
 
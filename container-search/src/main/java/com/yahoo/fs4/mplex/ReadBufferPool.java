@@ -0,0 +1,90 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.fs4.mplex;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of the large read buffers used by {@link FS4Connection}s to hold packets which do not fit
+ * in their fixed size read buffer, shared by all connections. Pooled buffers are direct buffers, such that
+ * channels can read into them without going through a temporary direct buffer, and have power of two capacities
+ * such that a buffer released by one connection can be reused for a packet of similar size on any other.
+ * Buffers larger than the largest size class are heap buffers which are not pooled.
+ * <p>
+ * The pool keeps free buffers up to a total capacity, and drops buffers released beyond that.
+ * <p>
+ * This class is multithread safe.
+ *
+ * @author bratseth
+ */
+final class ReadBufferPool {
+
+    /** The capacity of the smallest buffer size class */
+    static final int minBufferSize = 512 * 1024;
+
+    /** The number of size classes, such that the largest pooled buffer is minBufferSize * 2^(sizeClasses - 1) */
+    static final int sizeClasses = 5;
+
+    /** The max total capacity of the free buffers of this */
+    private final long maxRetainedBytes;
+
+    /** The free buffers of each size class */
+    private final Queue<ByteBuffer>[] freeBuffers;
+
+    /** The total capacity of the buffers in freeBuffers */
+    private final AtomicLong retainedBytes = new AtomicLong(0);
+
+    @SuppressWarnings("unchecked")
+    ReadBufferPool(long maxRetainedBytes) {
+        this.maxRetainedBytes = maxRetainedBytes;
+        freeBuffers = new Queue[sizeClasses];
+        for (int i = 0; i < sizeClasses; i++)
+            freeBuffers[i] = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Returns a cleared buffer with at least the given capacity. This is a direct buffer if the size is within
+     * the pooled size classes, which is taken from the pool if one of the right size class is free,
+     * and a new heap buffer otherwise.
+     */
+    ByteBuffer acquire(int minimumCapacity) {
+        int sizeClass = sizeClassOf(minimumCapacity);
+        if (sizeClass >= sizeClasses) return ByteBuffer.allocate(minimumCapacity);
+
+        ByteBuffer buffer = freeBuffers[sizeClass].poll();
+        if (buffer == null) return ByteBuffer.allocateDirect(minBufferSize << sizeClass);
+
+        retainedBytes.addAndGet(-buffer.capacity());
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer acquired from this to the pool. The caller must not access the buffer, or any view of it,
+     * after this is called.
+     */
+    void release(ByteBuffer buffer) {
+        if ( ! buffer.isDirect()) return;
+        int sizeClass = sizeClassOf(buffer.capacity());
+        if (sizeClass >= sizeClasses) return;
+        if (buffer.capacity() != minBufferSize << sizeClass) return; // not allocated by this
+        if (retainedBytes.addAndGet(buffer.capacity()) > maxRetainedBytes) {
+            retainedBytes.addAndGet(-buffer.capacity());
+            return;
+        }
+        freeBuffers[sizeClass].add(buffer);
+    }
+
+    /** Returns the total capacity of the free buffers currently kept by this */
+    long retainedBytes() { return retainedBytes.get(); }
+
+    /** Returns the index of the smallest size class holding buffers of at least the given capacity */
+    private static int sizeClassOf(int capacity) {
+        if (capacity <= minBufferSize) return 0;
+        int capacityInMinBuffers = (capacity - 1) / minBufferSize + 1;
+        return 32 - Integer.numberOfLeadingZeros(capacityInMinBuffers - 1);
+    }
+
+}
@@ -0,0 +1,82 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.prelude.cluster;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks the load on a backend as the number of outstanding requests and an exponentially weighted
+ * moving average of its response times, and combines them into a score where lower is better.
+ * Ping round-trip times are averaged separately, and only used until the backend has answered a request,
+ * as they say little about the time a backend takes to evaluate a query.
+ * This class is multithread safe.
+ *
+ * @author bratseth
+ */
+public class BackendLoad {
+
+    /** The weight given to each new latency sample in the moving average */
+    static final double sampleWeight = 0.1;
+
+    private final AtomicInteger outstandingRequests = new AtomicInteger(0);
+
+    /** The moving average of response times in milliseconds, or a negative value if no samples are received */
+    private volatile double averageLatency = -1;
+
+    /** The moving average of ping round-trip times in milliseconds, or a negative value if no pings are answered */
+    private volatile double averagePingLatency = -1;
+
+    /** Call when a request is sent to this backend */
+    public void requestStarted() {
+        outstandingRequests.incrementAndGet();
+    }
+
+    /** Call when a response, or error, is received for a request started on this backend */
+    public void requestCompleted(long latencyMillis) {
+        outstandingRequests.decrementAndGet();
+        addLatencySample(latencyMillis);
+    }
+
+    /** Adds the response time of a request to this backend which is not tracked through {@link #requestStarted} */
+    public synchronized void addLatencySample(long latencyMillis) {
+        averageLatency = movingAverage(averageLatency, latencyMillis);
+    }
+
+    /** Adds the round-trip time of a ping to this backend */
+    public synchronized void addPingSample(long latencyMillis) {
+        averagePingLatency = movingAverage(averagePingLatency, latencyMillis);
+    }
+
+    private static double movingAverage(double average, long sample) {
+        if (average < 0) return sample;
+        return sampleWeight * sample + (1 - sampleWeight) * average;
+    }
+
+    /** Returns the number of requests currently sent to this backend without a response */
+    public int outstandingRequests() { return outstandingRequests.get(); }
+
+    /**
+     * Returns the moving average response time in milliseconds, the average ping round-trip time if no
+     * responses are received yet, or 0 if there are no pings either
+     */
+    public double averageLatency() {
+        double latency = averageLatency;
+        if (latency >= 0) return latency;
+        return Math.max(0, averagePingLatency);
+    }
+
+    /**
+     * Returns the load score of this backend, which is the expected time a new request will take to be
+     * answered, assuming requests are processed sequentially: (outstanding requests + 1) * average latency.
+     * Lower is better.
+     */
+    public double score() {
+        return (outstandingRequests() + 1) * averageLatency();
+    }
+
+    @Override
+    public String toString() {
+        return "load score " + score() + " (" + outstandingRequests() + " outstanding, " +
+               averageLatency() + " ms average latency)";
+    }
+
+}
@@ -16,6 +16,7 @@ import com.yahoo.fs4.mplex.Backend;
 import com.yahoo.container.search.LegacyEmulationConfig;
 import com.yahoo.net.HostName;
 import com.yahoo.search.dispatch.Dispatcher;
+import com.yahoo.search.dispatch.HedgingPolicy;
 import com.yahoo.prelude.fastsearch.FS4ResourcePool;
 import com.yahoo.prelude.IndexFacts;
 import com.yahoo.prelude.Ping;
@@ -25,6 +26,7 @@ import com.yahoo.prelude.fastsearch.CacheParams;
 import com.yahoo.prelude.fastsearch.ClusterParams;
 import com.yahoo.prelude.fastsearch.DocumentdbInfoConfig;
 import com.yahoo.prelude.fastsearch.FastSearcher;
+import com.yahoo.prelude.fastsearch.SegmentedPacketCache;
 import com.yahoo.prelude.fastsearch.SummaryParameters;
 import com.yahoo.prelude.fastsearch.VespaBackEndSearcher;
 import com.yahoo.search.Query;
@@ -45,6 +47,7 @@ import java.net.UnknownHostException;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.LongSupplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -70,6 +73,12 @@ public class ClusterSearcher extends Searcher {
 
     private final Value cacheHitRatio;
 
+    /** The statistics manager used to create the load score value of each backend */
+    private final Statistics statistics;
+
+    /** The load score value of each backend, by identity */
+    private final Map<VespaBackEndSearcher, Value> loadScores = Collections.synchronizedMap(new IdentityHashMap<>());
+
     private final String clusterModelName;
 
     private final List<Backend> backends = new ArrayList<>();
@@ -105,7 +114,8 @@ public class ClusterSearcher extends Searcher {
                            FS4ResourcePool fs4ResourcePool,
                            VipStatus vipStatus) {
         super(id);
-        this.hasher = new Hasher();
+        this.hasher = new Hasher(clusterConfig.adaptiveDispatcherSelection());
+        this.statistics = manager;
         this.fs4ResourcePool = fs4ResourcePool;
 
         Dispatcher dispatcher = new Dispatcher(dispatchConfig, fs4ResourcePool, clusterInfoConfig.nodeCount(), vipStatus);
@@ -124,12 +134,18 @@ public class ClusterSearcher extends Searcher {
         String eventName = clusterModelName + ".cache_hit_ratio";
         cacheHitRatio = new Value(eventName, manager, new Value.Parameters().setNameExtension(false)
                                                                             .setLogRaw(false).setLogMean(true));
+        if (dispatcher.queryHedging().isEnabled())
+            addHedgingStatistics(clusterModelName + ".query", dispatcher.queryHedging(), manager);
+        if (dispatcher.docsumHedging().isEnabled())
+            addHedgingStatistics(clusterModelName + ".docsum", dispatcher.docsumHedging(), manager);
 
         maxQueryTimeout = ParameterParser.asMilliSeconds(clusterConfig.maxQueryTimeout(), DEFAULT_MAX_QUERY_TIMEOUT);
         maxQueryCacheTimeout = ParameterParser.asMilliSeconds(clusterConfig.maxQueryCacheTimeout(),
                                                               DEFAULT_MAX_QUERY_CACHE_TIMEOUT);
 
         CacheParams cacheParams = new CacheParams(createCache(clusterConfig, clusterModelName));
+        if (cacheParams.cacheControl.getSegmentedCache() != null)
+            addCacheStatistics(clusterModelName, cacheParams.cacheControl.getSegmentedCache(), manager);
         SummaryParameters docSumParams = new SummaryParameters(qrsConfig
                 .com().yahoo().prelude().fastsearch().FastSearcher().docsum()
                 .defaultclass());
@@ -176,6 +192,31 @@ public class ClusterSearcher extends Searcher {
         monitor.startPingThread();
     }
 
+    /** Logs the hedge rate and hedge win rate of the given policy each logging cycle */
+    private static void addHedgingStatistics(String prefix, HedgingPolicy policy, Statistics manager) {
+        new Value(prefix + "_hedge_rate", manager,
+                  new Value.Parameters().setNameExtension(false).setLogRaw(true)
+                                        .setCallback((handle, firstTime) -> ((Value)handle).put(policy.hedgeRate())));
+        new Value(prefix + "_hedge_win_rate", manager,
+                  new Value.Parameters().setNameExtension(false).setLogRaw(true)
+                                        .setCallback((handle, firstTime) -> ((Value)handle).put(policy.hedgeWinRate())));
+    }
+
+    /** Logs the lookup, eviction and expiration counts and the size of the given cache each logging cycle */
+    private static void addCacheStatistics(String prefix, SegmentedPacketCache cache, Statistics manager) {
+        addCacheStatistic(prefix + ".cache_hits", cache::hitCount, manager);
+        addCacheStatistic(prefix + ".cache_misses", cache::missCount, manager);
+        addCacheStatistic(prefix + ".cache_evictions", cache::evictionCount, manager);
+        addCacheStatistic(prefix + ".cache_expirations", cache::expirationCount, manager);
+        addCacheStatistic(prefix + ".cache_bytes", cache::totalPacketSize, manager);
+    }
+
+    private static void addCacheStatistic(String name, LongSupplier value, Statistics manager) {
+        new Value(name, manager,
+                  new Value.Parameters().setNameExtension(false).setLogRaw(true)
+                                        .setCallback((handle, firstTime) -> ((Value)handle).put(value.getAsLong())));
+    }
+
     private static QrSearchersConfig.Searchcluster getSearchClusterConfigFromClusterName(QrSearchersConfig config, String name) {
         for (QrSearchersConfig.Searchcluster searchCluster : config.searchcluster()) {
             if (searchCluster.name().equals(name)) {
@@ -243,6 +284,7 @@ public class ClusterSearcher extends Searcher {
     /** Do not use, for internal testing purposes only. **/
     ClusterSearcher(Set<String> documentTypes) {
         this.hasher = new Hasher();
+        this.statistics = Statistics.nullImplementation;
         this.failoverToRemote = false;
         this.documentTypes = documentTypes;
         monitor = new ClusterMonitor(this, new QrMonitorConfig(new QrMonitorConfig.Builder()), Optional.of(new VipStatus()));
@@ -269,9 +311,12 @@ public class ClusterSearcher extends Searcher {
     private static CacheControl createCache(ClusterConfig config, String clusterModelName) {
         log.log(Level.INFO, "Enabling cache for search cluster "
                             + clusterModelName + " (size=" + config.cacheSize()
-                            + ", timeout=" + config.cacheTimeout() + ")");
+                            + ", timeout=" + config.cacheTimeout()
+                            + ", implementation=" + config.cacheImplementation() + ")");
 
-        return new CacheControl(config.cacheSize(), config.cacheTimeout());
+        return new CacheControl(config.cacheSize(), config.cacheTimeout(),
+                                config.cacheImplementation() == ClusterConfig.CacheImplementation.SEGMENTED,
+                                config.cacheImplementation() == ClusterConfig.CacheImplementation.SEGMENTED_OFF_HEAP);
     }
 
     public String getClusterModelName() {
@@ -285,6 +330,9 @@ public class ClusterSearcher extends Searcher {
     void addBackendSearcher(VespaBackEndSearcher searcher) {
         monitor.add(searcher);
         hasher.add(searcher);
+        loadScores.put(searcher, new Value(clusterModelName + ".load_score." + searcher.getName(), statistics,
+                                           new Value.Parameters().setNameExtension(false)
+                                                                 .setLogRaw(false).setLogMean(true)));
     }
 
     void addValidRankProfile(String profileName, String docTypeName) {
@@ -361,7 +409,12 @@ public class ClusterSearcher extends Searcher {
             VespaBackEndSearcher searcher = hasher.select(tries++);
             if (searcher != null) {
                 if (query.getTimeLeft() > 0) {
-                    doFill(searcher, result, summaryClass, execution);
+                    long startTime = requestStarted(searcher);
+                    try {
+                        doFill(searcher, result, summaryClass, execution);
+                    } finally {
+                        requestCompleted(searcher, startTime);
+                    }
                 } else {
                     if (result.hits().getErrorHit() == null) {
                         result.hits().setError(ErrorMessage.createTimeout("No time left to get summaries"));
@@ -412,7 +465,12 @@ public class ClusterSearcher extends Searcher {
                 return new Result(query, ErrorMessage.createTimeout("No time left for searching"));
             }
 
-            result = doSearch(searcher, query, execution);
+            long startTime = requestStarted(searcher);
+            try {
+                result = doSearch(searcher, query, execution);
+            } finally {
+                requestCompleted(searcher, startTime);
+            }
 
             // no error: good result, let's return
             if (result.hits().getError() == null) {
@@ -430,6 +488,23 @@ public class ClusterSearcher extends Searcher {
         return result;
     }
 
+    private long requestStarted(VespaBackEndSearcher searcher) {
+        hasher.loadOf(searcher).requestStarted();
+        return System.currentTimeMillis();
+    }
+
+    private void requestCompleted(VespaBackEndSearcher searcher, long startTime) {
+        BackendLoad load = hasher.loadOf(searcher);
+        load.requestCompleted(System.currentTimeMillis() - startTime);
+        updateLoadScore(searcher, load);
+    }
+
+    private void updateLoadScore(VespaBackEndSearcher searcher, BackendLoad load) {
+        Value loadScore = loadScores.get(searcher);
+        if (loadScore != null)
+            loadScore.put(load.score());
+    }
+
     private void validateQueryTimeout(Query query) {
         if (query.getTimeout() <= maxQueryTimeout) return;
 
@@ -567,6 +642,7 @@ public class ClusterSearcher extends Searcher {
         log.fine("Sending ping to: " + node);
         Pinger pinger = new Pinger(node);
 
+        long startTime = System.currentTimeMillis();
         getExecutor().execute(pinger);
         Pong pong = pinger.getPong(); // handles timeout
         if (pong == null) {
@@ -574,6 +650,9 @@ public class ClusterSearcher extends Searcher {
         } else if (pong.badResponse()) {
             monitor.failed(node, pong.getError(0));
         } else {
+            BackendLoad load = hasher.loadOf(node);
+            load.addPingSample(System.currentTimeMillis() - startTime);
+            updateLoadScore(node, load);
             monitor.responded(node, backendCanServeDocuments(pong));
         }
     }
@@ -1,7 +1,11 @@
 // Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
 package com.yahoo.prelude.cluster;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
@@ -28,10 +32,29 @@ public class Hasher {
 
     private AtomicInteger avoidAllQrsHitSameTld = new AtomicInteger(tldSeed());
 
+    /** Whether to select among two nodes by their load score rather than strictly round robin */
+    private final boolean adaptive;
+
+    /** The load of each node ever added to this, by identity */
+    private final Map<VespaBackEndSearcher, BackendLoad> loads = Collections.synchronizedMap(new IdentityHashMap<>());
+
     /**
      * Creates a hasher independent of the {@linkplain VipStatus programmatic VIP API}.
      */
     public Hasher() {
+        this(false);
+    }
+
+    /**
+     * Creates a hasher independent of the {@linkplain VipStatus programmatic VIP API}.
+     *
+     * @param adaptive if true, each selection picks the node with the lowest {@link BackendLoad#score}
+     *                 of the next node in round robin order and a randomly chosen node.
+     *                 This avoids slow nodes while still spreading load, as a node which is
+     *                 chosen too often will get a worse score. If false, nodes are selected round robin.
+     */
+    public Hasher(boolean adaptive) {
+        this.adaptive = adaptive;
     }
 
     private static synchronized int tldSeed() {
@@ -53,6 +76,7 @@ public class Hasher {
      * @param node the backend searcher (must never be null)
      */
     public void add(VespaBackEndSearcher node) {
+        loads.computeIfAbsent(node, n -> new BackendLoad());
         allNodes = addNode(node, allNodes);
 
         if (node.isLocalDispatching()) {
@@ -128,7 +152,23 @@ public class Hasher {
         if (nodes.length > 1) {
             idx = Math.abs(avoidAllQrsHitSameTld.incrementAndGet() % nodes.length);
         }
+        if (adaptive && nodes.length > 1) {
+            int other = (idx + 1 + ThreadLocalRandom.current().nextInt(nodes.length - 1)) % nodes.length;
+            if (loadOf(nodes[other]).score() < loadOf(nodes[idx]).score())
+                idx = other;
+        }
         return nodes[idx];
     }
 
+    /** Returns whether this selects nodes by load */
+    public boolean isAdaptive() { return adaptive; }
+
+    /**
+     * Returns the load statistics of the given node. Nodes which are removed retain their statistics,
+     * such that they are not preferred as fresh nodes when they are added back.
+     */
+    public BackendLoad loadOf(VespaBackEndSearcher node) {
+        return loads.computeIfAbsent(node, n -> new BackendLoad());
+    }
+
 }
@@ -21,37 +21,90 @@ public class CacheControl {
     /** Whether this CacheControl actually should cache hits at all. */
     private final boolean activeCache;
 
-    /** Direct unsychronized cache access */
+    /** Direct unsychronized cache access, or null if the segmented cache is used */
     private final PacketCache packetCache;
 
+    /** Internally synchronized cache, or null if the single lock cache is used */
+    private final SegmentedPacketCache segmentedCache;
+
     public CacheControl(int sizeMegaBytes, double cacheTimeOutSeconds) {
+        this(sizeMegaBytes, cacheTimeOutSeconds, false);
+    }
+
+    /**
+     * Creates a cache control
+     *
+     * @param sizeMegaBytes the cache size in megabytes, 0 or less disables caching
+     * @param cacheTimeOutSeconds seconds a cache entry is valid, 0 or less disables caching
+     * @param segmented whether to use a {@link SegmentedPacketCache} rather than a single lock {@link PacketCache}
+     */
+    public CacheControl(int sizeMegaBytes, double cacheTimeOutSeconds, boolean segmented) {
+        this(sizeMegaBytes, cacheTimeOutSeconds, segmented, false);
+    }
+
+    /**
+     * Creates a cache control
+     *
+     * @param sizeMegaBytes the cache size in megabytes, 0 or less disables caching
+     * @param cacheTimeOutSeconds seconds a cache entry is valid, 0 or less disables caching
+     * @param segmented whether to use a {@link SegmentedPacketCache} rather than a single lock {@link PacketCache}
+     * @param offHeap whether the segmented cache should store packets serialized outside the heap.
+     *                Implies segmented.
+     */
+    public CacheControl(int sizeMegaBytes, double cacheTimeOutSeconds, boolean segmented, boolean offHeap) {
         activeCache = sizeMegaBytes > 0 && cacheTimeOutSeconds > 0.0d;
-        if (activeCache) {
+        if (activeCache && (segmented || offHeap)) {
+            packetCache = null;
+            segmentedCache = new SegmentedPacketCache(((long) sizeMegaBytes) << 20, cacheTimeOutSeconds,
+                                                      SegmentedPacketCache.defaultSegmentCount, offHeap);
+        } else if (activeCache) {
             packetCache = new PacketCache(sizeMegaBytes, 0, cacheTimeOutSeconds);
+            segmentedCache = null;
         } else {
             packetCache = null;
+            segmentedCache = null;
         }
     }
 
     /** Returns the capacity of the packet cache in megabytes */
     public final int capacity() {
+        if (segmentedCache != null)
+            return (int) Math.min(Integer.MAX_VALUE, segmentedCache.getCapacity());
         return packetCache.getCapacity();
     }
 
+    /** Returns the segmented cache used by this, or null if it uses a single lock cache or caching is disabled */
+    public SegmentedPacketCache getSegmentedCache() { return segmentedCache; }
+
     public final boolean useCache(Query query) {
         return (activeCache && !query.getNoCache());
     }
 
     public final PacketWrapper lookup(CacheKey key, Query query) {
         if ((key != null) && useCache(query)) {
-            long now = System.currentTimeMillis();
-            synchronized (packetCache) {
-                return packetCache.get(key, now);
-            }
+            return get(key, System.currentTimeMillis());
         }
         return null;
     }
 
+    private PacketWrapper get(CacheKey key, long now) {
+        if (segmentedCache != null)
+            return segmentedCache.get(key, now);
+        synchronized (packetCache) {
+            return packetCache.get(key, now);
+        }
+    }
+
+    private void put(CacheKey key, PacketWrapper wrapper, long timestamp) {
+        if (segmentedCache != null) {
+            segmentedCache.put(key, wrapper, timestamp);
+            return;
+        }
+        synchronized (packetCache) {
+            packetCache.put(key, wrapper, timestamp);
+        }
+    }
+
     // updates first phase in multi phase search
     void updateCacheEntry(CacheKey key, Query query, QueryResultPacket resultPacket) {
         long oldTimestamp;
@@ -65,9 +118,7 @@ public class CacheControl {
         oldTimestamp = wrapper.getTimestamp();
         wrapper = (PacketWrapper) wrapper.clone();
         wrapper.addResultPacket(resultPacket);
-        synchronized (packetCache) {
-            packetCache.put(key, wrapper, oldTimestamp);
-        }
+        put(key, wrapper, oldTimestamp);
     }
 
     // updates phases after first phase phase in multi phase search
@@ -79,9 +130,7 @@ public class CacheControl {
 
         wrapper = (PacketWrapper) wrapper.clone();
         wrapper.addDocsums(packetKeys, packets);
-        synchronized (packetCache) {
-            packetCache.put(key, wrapper, wrapper.getTimestamp());
-        }
+        put(key, wrapper, wrapper.getTimestamp());
     }
 
     void cache(CacheKey key, Query query, DocsumPacketKey[] packetKeys, Packet[] packets) {
@@ -93,17 +142,12 @@ public class CacheControl {
         PacketWrapper wrapper = lookup(key, query);
         if (wrapper == null) {
             wrapper = new PacketWrapper(key, packetKeys,packets);
-            long now = System.currentTimeMillis();
-            synchronized (packetCache) {
-                packetCache.put(key, wrapper, now);
-            }
+            put(key, wrapper, System.currentTimeMillis());
         } else {
             wrapper = (PacketWrapper) wrapper.clone();
             wrapper.addResultPacket((QueryResultPacket) packets[0]);
             wrapper.addDocsums(packetKeys, packets, 1);
-            synchronized (packetCache) {
-                packetCache.put(key, wrapper, wrapper.getTimestamp());
-            }
+            put(key, wrapper, wrapper.getTimestamp());
         }
     }
 
@@ -112,6 +156,9 @@ public class CacheControl {
         if (packetCache != null) {
             packetCache.clear();
         }
+        if (segmentedCache != null) {
+            segmentedCache.clear();
+        }
     }
 
 }
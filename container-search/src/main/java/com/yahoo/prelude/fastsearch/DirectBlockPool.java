@@ -0,0 +1,116 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.prelude.fastsearch;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A bounded amount of memory outside the Java heap, handed out in blocks of a fixed size.
+ * The memory is allocated in direct buffers of many blocks when first needed, and is kept for reuse
+ * when blocks are freed. This avoids allocating a direct buffer for each stored item, which may force
+ * a full GC when many are allocated, and whose memory is only released when the buffer is collected.
+ * <p>
+ * This is not thread safe.
+ *
+ * @author bratseth
+ */
+final class DirectBlockPool {
+
+    /** The default number of bytes in each block */
+    static final int defaultBlockSize = 1024;
+
+    /** The number of blocks allocated in each direct buffer, except possibly the last */
+    private static final int blocksPerSlab = 1024;
+
+    private final int blockSize;
+
+    /** The max number of blocks in this */
+    private final int maxBlocks;
+
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+
+    /** The number of blocks in the slabs allocated so far */
+    private int allocatedBlocks = 0;
+
+    /** A stack of the ids of the allocated blocks which are not in use */
+    private int[] freeBlocks = new int[0];
+    private int freeCount = 0;
+
+    /**
+     * Creates a pool
+     *
+     * @param capacity the number of bytes of the blocks of this, rounded up to a whole number of blocks
+     * @param blockSize the number of bytes in each block
+     */
+    DirectBlockPool(long capacity, int blockSize) {
+        if (blockSize < 1)
+            throw new IllegalArgumentException("Block size must be positive, got " + blockSize);
+        this.blockSize = blockSize;
+        this.maxBlocks = (int) Math.min(Integer.MAX_VALUE, (capacity + blockSize - 1) / blockSize);
+    }
+
+    /** Returns the ids of free blocks which together can hold the given number of bytes, or null if there are too few */
+    int[] allocate(int bytes) {
+        int count = (bytes + blockSize - 1) / blockSize;
+        if (count > freeCount + maxBlocks - allocatedBlocks) return null;
+
+        int[] blocks = new int[count];
+        for (int i = 0; i < count; i++) {
+            if (freeCount == 0)
+                allocateSlab();
+            blocks[i] = freeBlocks[--freeCount];
+        }
+        return blocks;
+    }
+
+    /** Returns the given blocks to this */
+    void free(int[] blocks) {
+        for (int i = blocks.length - 1; i >= 0; i--)
+            freeBlocks[freeCount++] = blocks[i];
+    }
+
+    /** Writes the remaining bytes of the given buffer to the given blocks, and advances the buffer past them */
+    void write(int[] blocks, ByteBuffer source) {
+        int sourceLimit = source.limit();
+        for (int block : blocks) {
+            source.limit(Math.min(sourceLimit, source.position() + blockSize));
+            position(block).put(source);
+        }
+        source.limit(sourceLimit);
+    }
+
+    /** Reads the given number of bytes from the given blocks into a new array */
+    byte[] read(int[] blocks, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0, offset = 0; offset < length; i++, offset += blockSize)
+            position(blocks[i]).get(bytes, offset, Math.min(blockSize, length - offset));
+        return bytes;
+    }
+
+    /** Returns the number of blocks which may be allocated before this is full */
+    int freeBlockCount() { return freeCount + maxBlocks - allocatedBlocks; }
+
+    /** Returns the number of bytes of direct buffers allocated by this so far */
+    long allocatedBytes() { return (long) allocatedBlocks * blockSize; }
+
+    /** Returns the slab containing the given block, positioned at the start of the block */
+    private ByteBuffer position(int block) {
+        ByteBuffer slab = slabs.get(block / blocksPerSlab);
+        slab.clear();
+        slab.position((block % blocksPerSlab) * blockSize);
+        return slab;
+    }
+
+    private void allocateSlab() {
+        int count = Math.min(blocksPerSlab, maxBlocks - allocatedBlocks);
+        slabs.add(ByteBuffer.allocateDirect(count * blockSize));
+        if (freeBlocks.length < allocatedBlocks + count)
+            freeBlocks = Arrays.copyOf(freeBlocks, allocatedBlocks + count);
+        for (int block = allocatedBlocks + count - 1; block >= allocatedBlocks; block--)
+            freeBlocks[freeCount++] = block;
+        allocatedBlocks += count;
+    }
+
+}
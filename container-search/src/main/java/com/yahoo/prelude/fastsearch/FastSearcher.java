@@ -23,6 +23,7 @@ import com.yahoo.processing.request.CompoundName;
 import com.yahoo.search.Query;
 import com.yahoo.search.Result;
 import com.yahoo.search.dispatch.Dispatcher;
+import com.yahoo.search.dispatch.HedgingPolicy;
 import com.yahoo.search.dispatch.SearchCluster;
 import com.yahoo.search.grouping.GroupingRequest;
 import com.yahoo.search.grouping.request.GroupingOperation;
@@ -172,10 +173,15 @@ public class FastSearcher extends VespaBackEndSearcher {
         try {
             if (dispatcher.searchCluster().groupSize() == 1)
                 forceSinglePassGrouping(query);
-            channel = chooseBackend(query).openChannel();
+            Optional<SearchCluster.Node> directDispatchTarget = chooseDirectDispatchTarget(query);
+            channel = backendFor(directDispatchTarget, query).openChannel();
             channel.setQuery(query);
 
-            Result result = searchTwoPhase(channel, query, queryPacket, cacheKey);
+            Optional<SearchCluster.Node> hedgeTarget = Optional.empty();
+            if (directDispatchTarget.isPresent() && dispatcher.queryHedging().hedgeDelay() >= 0)
+                hedgeTarget = dispatcher.searchCluster().hedgeTargetFor(directDispatchTarget.get());
+
+            Result result = searchTwoPhase(channel, query, queryPacket, cacheKey, hedgeTarget);
 
             if (query.properties().getBoolean(Ranking.RANKFEATURES, false)) {
                 // There is currently no correct choice for which
@@ -221,14 +227,10 @@ public class FastSearcher extends VespaBackEndSearcher {
      * for efficiency.
      */
     private Backend chooseBackend(Query query) {
-        // TODO 2016-08-16: Turn this on by default (by changing the 'false' below to 'true')
-        if ( ! query.properties().getBoolean(dispatchDirect, false)) return dispatchBackend;
-
-        // Don't use direct dispatch if the upstream ClusterSearcher did not chose the local dispatch
-        // as that probably means that we are in a failover situation
-        if ( ! dispatchBackend.getHost().equals(selfHostname)) return dispatchBackend;
+        return backendFor(chooseDirectDispatchTarget(query), query);
+    }
 
-        Optional<SearchCluster.Node> directDispatchRecipient = dispatcher.searchCluster().directDispatchTarget();
+    private Backend backendFor(Optional<SearchCluster.Node> directDispatchRecipient, Query query) {
         if ( ! directDispatchRecipient.isPresent()) return dispatchBackend;
 
         query.trace(false, 2, "Dispatching directly to ", directDispatchRecipient.get());
@@ -236,6 +238,18 @@ public class FastSearcher extends VespaBackEndSearcher {
                                           directDispatchRecipient.get().fs4port());
     }
 
+    /** Returns the local search node to dispatch directly to, or empty to use the dispatch node of this */
+    private Optional<SearchCluster.Node> chooseDirectDispatchTarget(Query query) {
+        // TODO 2016-08-16: Turn this on by default (by changing the 'false' below to 'true')
+        if ( ! query.properties().getBoolean(dispatchDirect, false)) return Optional.empty();
+
+        // Don't use direct dispatch if the upstream ClusterSearcher did not chose the local dispatch
+        // as that probably means that we are in a failover situation
+        if ( ! dispatchBackend.getHost().equals(selfHostname)) return Optional.empty();
+
+        return dispatcher.searchCluster().directDispatchTarget();
+    }
+
     /**
      * Only used to fill the sddocname field when using direct dispatching as that is normally done in VespaBackEndSearcher.decodeSummary
      * @param result The result
@@ -281,7 +295,7 @@ public class FastSearcher extends VespaBackEndSearcher {
             packetWrapper = cacheLookupTwoPhase(cacheKey, result,summaryClass);
         }
 
-        FS4Channel channel = chooseBackend(query).openChannel();
+        FS4Channel channel = fillBackendFor(result).openChannel();
         channel.setQuery(query);
         Packet[] receivedPackets;
         try {
@@ -373,7 +387,8 @@ public class FastSearcher extends VespaBackEndSearcher {
         return null;
     }
 
-    private Result searchTwoPhase(FS4Channel channel, Query query, QueryPacket queryPacket, CacheKey cacheKey) throws IOException {
+    private Result searchTwoPhase(FS4Channel channel, Query query, QueryPacket queryPacket, CacheKey cacheKey,
+                                  Optional<SearchCluster.Node> hedgeTarget) throws IOException {
 
         if (isLoggingFine())
             getLogger().finest("sending query packet");
@@ -391,7 +406,7 @@ public class FastSearcher extends VespaBackEndSearcher {
         BasicPacket[] basicPackets;
 
         try {
-            basicPackets = channel.receivePackets(Math.max(50, query.getTimeLeft()), 1);
+            basicPackets = receiveQueryResult(channel, query, queryPacket, hedgeTarget);
         } catch (ChannelTimeoutException e) {
             return new Result(query,ErrorMessage.createTimeout("Timeout while waiting for " + getName()));
         } catch (InvalidChannelException e) {
@@ -419,6 +434,8 @@ public class FastSearcher extends VespaBackEndSearcher {
         addMetaInfo(query, queryPacket.getQueryPacketData(), resultPacket, result, false);
 
         addUnfilledHits(result, resultPacket.getDocuments(), false, queryPacket.getQueryPacketData(), cacheKey);
+        if (hedgeTarget.isPresent() && resultPacket.getChannel() != channel.getChannelId())
+            setAnsweringNode(result, hedgeTarget.get());
         Packet[] packets;
         PacketWrapper packetWrapper = cacheControl.lookup(cacheKey, query);
 
@@ -439,6 +456,78 @@ public class FastSearcher extends VespaBackEndSearcher {
         return result;
     }
 
+    /**
+     * Receives the result packet of a query sent on the given channel. If a hedge target is given
+     * and the query is not answered within the hedging delay, the query is also sent to the hedge target,
+     * and the first result packet received is returned.
+     */
+    private BasicPacket[] receiveQueryResult(FS4Channel channel, Query query, QueryPacket queryPacket,
+                                             Optional<SearchCluster.Node> hedgeTarget)
+            throws InvalidChannelException, ChannelTimeoutException, IOException {
+        HedgingPolicy hedging = dispatcher.queryHedging();
+        if (hedging.isEnabled())
+            hedging.requestSent();
+        long startTime = System.currentTimeMillis();
+        long hedgeDelay = hedging.hedgeDelay();
+        if ( ! hedgeTarget.isPresent() || hedgeDelay < 0 || hedgeDelay >= query.getTimeLeft()) {
+            BasicPacket[] packets = channel.receivePackets(Math.max(50, query.getTimeLeft()), 1);
+            hedging.responseReceived(System.currentTimeMillis() - startTime);
+            return packets;
+        }
+
+        try {
+            BasicPacket[] packets = channel.receivePackets(hedgeDelay, 1);
+            hedging.responseReceived(System.currentTimeMillis() - startTime);
+            return packets;
+        } catch (ChannelTimeoutException e) {
+            // Not answered in time: Hedge below
+        }
+
+        query.trace(false, 2, "Hedging query to ", hedgeTarget.get());
+        FS4Channel hedgeChannel = fs4ResourcePool.getBackend(hedgeTarget.get().hostname(),
+                                                             hedgeTarget.get().fs4port()).openChannel();
+        try {
+            hedgeChannel.setQuery(query);
+            channel.mergeResponsesFrom(hedgeChannel);
+            if (hedgeChannel.sendPacket(queryPacket))
+                hedging.hedgeSent();
+            BasicPacket[] packets = channel.receivePackets(Math.max(50, query.getTimeLeft()), 1);
+            if (packets.length > 0 && packets[0] instanceof Packet && isFromOtherChannel((Packet)packets[0], channel, hedgeChannel))
+                hedging.hedgeWon();
+            hedging.responseReceived(System.currentTimeMillis() - startTime);
+            return packets;
+        } finally {
+            hedgeChannel.close(); // cancels the losing request, if it is the hedged one
+        }
+    }
+
+    /**
+     * Marks the hits of the given result as returned by the given node, such that summaries are fetched from it,
+     * rather than from the node the query was first sent to, which is slow.
+     */
+    private void setAnsweringNode(Result result, SearchCluster.Node node) {
+        for (Iterator<Hit> i = hitIterator(result); i.hasNext(); ) {
+            Hit hit = i.next();
+            if ( ! (hit instanceof FastHit)) continue;
+            hit.setSearcherSpecificMetaData(this, node);
+            ((FastHit)hit).setDistributionKey(node.key()); // used to choose the node to fill from over rpc
+        }
+    }
+
+    /** Returns the backend to fetch summaries for the given result from */
+    private Backend fillBackendFor(Result result) {
+        for (Iterator<Hit> i = hitIterator(result); i.hasNext(); ) {
+            Object answeringNode = i.next().getSearcherSpecificMetaData(this);
+            if (answeringNode instanceof SearchCluster.Node)
+                return backendFor(Optional.of((SearchCluster.Node)answeringNode), result.getQuery());
+        }
+        return chooseBackend(result.getQuery());
+    }
+
+    private boolean isFromOtherChannel(Packet packet, FS4Channel channel, FS4Channel otherChannel) {
+        return packet.getChannel() == otherChannel.getChannelId() && packet.getChannel() != channel.getChannelId();
+    }
+
     private Packet[] convertBasicPackets(BasicPacket[] basicPackets) throws ClassCastException {
         // trying to cast a BasicPacket[] to Packet[] will compile,
         // but lead to a runtime error. At least that's what I got
@@ -71,6 +71,13 @@ public class PacketWrapper implements Cloneable {
 
     }
 
+    /** Creates a wrapper from packets restored from serialized form */
+    PacketWrapper(int keySize, List<BasicPacket> resultPackets, LinkedHashMap<DocsumPacketKey, BasicPacket> packets) {
+        this.keySize = keySize;
+        this.resultPackets.addAll(resultPackets);
+        this.packets = packets;
+    }
+
     public QueryResultPacket getFirstResultPacket() {
         if (resultPackets.size() > 0) {
             return (QueryResultPacket) resultPackets.get(0);
@@ -186,7 +193,7 @@ public class PacketWrapper implements Cloneable {
         }
     }
 
-    /** Only for testing. */
+    /** Returns the result packets of this, sorted by offset. The returned list must not be modified. */
     public List<BasicPacket> getResultPackets() {
         return resultPackets;
     }
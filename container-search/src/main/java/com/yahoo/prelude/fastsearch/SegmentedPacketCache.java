@@ -0,0 +1,360 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.prelude.fastsearch;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A thread safe packet cache which splits its entries over a number of independently locked
+ * LRU segments, such that concurrent lookups and inserts only contend when they hash to the
+ * same segment. Sizes are accounted in bytes using longs, so capacities above 2 GB are supported.
+ * <p>
+ * This offers the same get/put semantics as {@link PacketCache}, but needs no external synchronization.
+ * <p>
+ * If created with <code>offHeap</code> set, packets are stored encoded in blocks of direct buffers outside the
+ * Java heap and decoded into a new {@link PacketWrapper} on each hit. This keeps large caches from growing the old
+ * generation at the cost of decoding on lookup. Each segment allocates direct buffers up to its capacity when first
+ * needed, and reuses their blocks for new entries, such that cache churn does not allocate direct memory.
+ *
+ * @author bratseth
+ */
+public class SegmentedPacketCache {
+
+    /** The default number of segments, which must be a power of two */
+    public static final int defaultSegmentCount = 16;
+
+    private final Segment[] segments;
+    private final int segmentMask;
+
+    /** The maximum number of bytes of packets in this cache */
+    private final long capacity;
+
+    /** The max age for a valid cache entry in milliseconds */
+    private final long maxAge;
+
+    /** Whether packets are stored serialized outside the heap */
+    private final boolean offHeap;
+
+    /** The max size of a cached item compared to the total size */
+    private volatile int maxCacheItemPercentage = 1;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    /**
+     * Creates a cache with the default number of segments
+     *
+     * @param capacityBytes the total cache size in bytes
+     * @param maxAge seconds a cache entry is valid, 0 or less are illegal arguments
+     */
+    public SegmentedPacketCache(long capacityBytes, double maxAge) {
+        this(capacityBytes, maxAge, defaultSegmentCount, false);
+    }
+
+    /**
+     * Creates a cache
+     *
+     * @param capacityBytes the total cache size in bytes
+     * @param maxAge seconds a cache entry is valid, 0 or less are illegal arguments
+     * @param segmentCount the number of independently locked segments, rounded up to a power of two
+     */
+    public SegmentedPacketCache(long capacityBytes, double maxAge, int segmentCount) {
+        this(capacityBytes, maxAge, segmentCount, false);
+    }
+
+    /**
+     * Creates a cache
+     *
+     * @param capacityBytes the total cache size in bytes
+     * @param maxAge seconds a cache entry is valid, 0 or less are illegal arguments
+     * @param segmentCount the number of independently locked segments, rounded up to a power of two
+     * @param offHeap whether to store packets serialized in direct buffers rather than as packet objects
+     */
+    public SegmentedPacketCache(long capacityBytes, double maxAge, int segmentCount, boolean offHeap) {
+        if (maxAge <= 0.0d)
+            throw new IllegalArgumentException("maxAge <= 0 not legal, use some very large number for no timeout.");
+        if (capacityBytes <= 0)
+            throw new IllegalArgumentException("Total cache size set to 0 or less bytes. If no caching is desired, avoid creating this object instead.");
+        if (segmentCount < 1)
+            throw new IllegalArgumentException("Segment count must be positive, got " + segmentCount);
+
+        int count = Integer.highestOneBit(segmentCount);
+        if (count < segmentCount) count <<= 1;
+        while (count > 1 && capacityBytes / count == 0) // don't create segments which can hold nothing
+            count >>= 1;
+
+        this.capacity = capacityBytes;
+        this.maxAge = (long) (maxAge * 1000.0d);
+        this.offHeap = offHeap;
+        this.segmentMask = count - 1;
+        this.segments = new Segment[count];
+        long segmentCapacity = capacityBytes / count;
+        for (int i = 0; i < count; i++)
+            segments[i] = new Segment(i == count - 1 ? capacityBytes - segmentCapacity * (count - 1) : segmentCapacity);
+    }
+
+    /**
+     * Sets the max size of a cached item compared to the total size
+     * Cache requests for larger objects will be ignored
+     */
+    public void setMaxCacheItemPercentage(int maxCapacityPercentage) {
+        maxCacheItemPercentage = maxCapacityPercentage;
+    }
+
+    /** Returns the capacity of this in megabytes */
+    public long getCapacity() { return capacity >> 20; }
+
+    /** Returns the capacity of this in bytes */
+    public long getByteCapacity() { return capacity; }
+
+    /** Returns the number of segments of this */
+    public int getSegmentCount() { return segments.length; }
+
+    /** Returns whether this stores packets serialized outside the heap */
+    public boolean isOffHeap() { return offHeap; }
+
+    public PacketWrapper get(CacheKey key) {
+        return get(key, System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the entry for this key, or null if it is not present or has expired at the given time.
+     * If this is off heap, the returned wrapper is a new instance decoded from the stored packets.
+     */
+    public PacketWrapper get(CacheKey key, long now) {
+        Supplier<PacketWrapper> result = segmentOf(key).get(key, now);
+        if (result == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return result.get(); // decode outside the segment lock
+    }
+
+    public void put(CacheKey key, PacketWrapper value) {
+        put(key, value, System.currentTimeMillis());
+    }
+
+    /**
+     * Adds a packet wrapper to this cache,
+     * unless the size is more than maxCacheItemPercentage of the total size
+     *
+     * @param timestamp the timestamp for the first packet in the array, unit milliseconds
+     */
+    public void put(CacheKey key, PacketWrapper value, long timestamp) {
+        long size = value.getPacketsSize();
+        if (size > 0)
+            value.setTimestamp(timestamp);
+
+        Segment segment = segmentOf(key);
+        if (size * 100 > capacity * maxCacheItemPercentage || size > segment.capacity) {
+            segment.remove(key); // remove the old one since that is now stale
+            return;
+        }
+        if (offHeap)
+            segment.putSerialized(key, SerializedPacketWrapper.encode(value)); // encode outside the segment lock
+        else
+            segment.put(key, new HeapEntry(value, size));
+    }
+
+    /** Removes the entry of the given key, and returns whether there was one */
+    public boolean remove(CacheKey key) {
+        return segmentOf(key).remove(key);
+    }
+
+    public void clear() {
+        for (Segment segment : segments)
+            segment.clear();
+    }
+
+    /** Returns the number of entries in this */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments)
+            size += segment.size();
+        return size;
+    }
+
+    /** Returns the current number of bytes of packets in this cache */
+    public long totalPacketSize() {
+        long size = 0;
+        for (Segment segment : segments)
+            size += segment.totalSize();
+        return size;
+    }
+
+    /** Returns the number of lookups which returned an entry */
+    public long hitCount() { return hits.sum(); }
+
+    /** Returns the number of lookups which did not return an entry, including expired entries */
+    public long missCount() { return misses.sum(); }
+
+    /** Returns the number of entries removed to make room for new ones */
+    public long evictionCount() { return evictions.sum(); }
+
+    /** Returns the number of entries removed because they were older than max age on lookup */
+    public long expirationCount() { return expirations.sum(); }
+
+    private Segment segmentOf(CacheKey key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16); // spread the high bits as the segment mask only picks the low ones
+        return segments[hash & segmentMask];
+    }
+
+    /** A cached value, either a packet wrapper as-is or its serialized form */
+    private static abstract class Entry {
+
+        /** Returns the size of the entry, as accounted against the capacity */
+        abstract long size();
+
+        abstract long timestamp();
+
+        /**
+         * Returns a supplier of the packets of this, which may be called after the segment lock is released.
+         * This is called with the lock of the segment of this held.
+         */
+        abstract Supplier<PacketWrapper> packets(DirectBlockPool pool);
+
+        /** Releases any storage held by this. This is called with the lock of the segment of this held. */
+        void free(DirectBlockPool pool) {}
+
+    }
+
+    private static final class HeapEntry extends Entry {
+
+        private final PacketWrapper wrapper;
+        private final long size;
+
+        HeapEntry(PacketWrapper wrapper, long size) {
+            this.wrapper = wrapper;
+            this.size = size;
+        }
+
+        @Override
+        long size() { return size; }
+
+        @Override
+        long timestamp() { return wrapper.getTimestamp(); }
+
+        @Override
+        Supplier<PacketWrapper> packets(DirectBlockPool pool) { return () -> wrapper; }
+
+    }
+
+    private static final class SerializedEntry extends Entry {
+
+        private final SerializedPacketWrapper wrapper;
+
+        SerializedEntry(SerializedPacketWrapper wrapper) { this.wrapper = wrapper; }
+
+        @Override
+        long size() { return wrapper.getPacketsSize(); }
+
+        @Override
+        long timestamp() { return wrapper.getTimestamp(); }
+
+        @Override
+        Supplier<PacketWrapper> packets(DirectBlockPool pool) {
+            byte[] packets = pool.read(wrapper.blocks(), wrapper.length()); // the blocks may be reused once unlocked
+            return () -> wrapper.toPacketWrapper(packets);
+        }
+
+        @Override
+        void free(DirectBlockPool pool) { pool.free(wrapper.blocks()); }
+
+    }
+
+    /** A single LRU segment of the cache, guarded by its own monitor */
+    private final class Segment {
+
+        private final LinkedHashMap<CacheKey, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+        private final long capacity;
+
+        /** The storage of the serialized entries of this, or null if this is not off heap */
+        private final DirectBlockPool pool;
+
+        private long totalSize = 0;
+
+        Segment(long capacity) {
+            this.capacity = capacity;
+            this.pool = offHeap ? new DirectBlockPool(capacity, DirectBlockPool.defaultBlockSize) : null;
+        }
+
+        synchronized Supplier<PacketWrapper> get(CacheKey key, long now) {
+            Entry result = entries.get(key);
+            if (result == null) return null;
+
+            if ((now - result.timestamp()) > maxAge) {
+                entries.remove(key);
+                totalSize -= result.size();
+                result.free(pool);
+                expirations.increment();
+                return null;
+            }
+            return result.packets(pool);
+        }
+
+        synchronized void put(CacheKey key, Entry entry) {
+            Entry previous = entries.put(key, entry);
+            totalSize += entry.size();
+            if (previous != null) {
+                totalSize -= previous.size();
+                previous.free(pool);
+            }
+            removeOverflow();
+        }
+
+        /** Stores the given encoded packets in the pool of this, evicting entries to make room if necessary */
+        synchronized void putSerialized(CacheKey key, SerializedPacketWrapper encoded) {
+            remove(key); // free its blocks before allocating new ones
+            int[] blocks;
+            Iterator<Entry> eldest = entries.values().iterator();
+            while ((blocks = pool.allocate(encoded.length())) == null && eldest.hasNext()) {
+                Entry evicted = eldest.next();
+                eldest.remove();
+                totalSize -= evicted.size();
+                evicted.free(pool);
+                evictions.increment();
+            }
+            if (blocks == null) return; // the entry is too large to be stored in blocks of this segment
+            put(key, new SerializedEntry(encoded.storeIn(pool, blocks)));
+        }
+
+        synchronized boolean remove(CacheKey key) {
+            Entry removed = entries.remove(key);
+            if (removed == null) return false;
+            totalSize -= removed.size();
+            removed.free(pool);
+            return true;
+        }
+
+        synchronized void clear() {
+            for (Entry entry : entries.values())
+                entry.free(pool);
+            entries.clear();
+            totalSize = 0;
+        }
+
+        synchronized int size() { return entries.size(); }
+
+        synchronized long totalSize() { return totalSize; }
+
+        /** Removes the least recently used entries until this is within capacity */
+        private void removeOverflow() {
+            for (Iterator<Entry> i = entries.values().iterator(); totalSize > capacity && i.hasNext(); ) {
+                Entry evicted = i.next();
+                totalSize -= evicted.size();
+                evicted.free(pool);
+                i.remove();
+                evictions.increment();
+            }
+        }
+
+    }
+
+}
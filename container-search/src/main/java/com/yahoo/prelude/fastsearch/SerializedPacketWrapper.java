@@ -0,0 +1,135 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.prelude.fastsearch;
+
+import com.yahoo.fs4.BasicPacket;
+import com.yahoo.fs4.BufferTooSmallException;
+import com.yahoo.fs4.PacketDecoder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The packets of a {@link PacketWrapper} stored as encoded FS4 packets in blocks of a {@link DirectBlockPool},
+ * outside the Java heap. Only the docsum keys and some bookkeeping stay on the heap.
+ * <p>
+ * Instances are created in two steps: {@link #encode} encodes the packets into a buffer of the calling thread,
+ * which {@link #storeIn} then copies to blocks of a pool. The packets are decoded on each access
+ * by {@link #toPacketWrapper}.
+ *
+ * @author bratseth
+ */
+final class SerializedPacketWrapper {
+
+    private static final int initialScratchSize = 64 * 1024;
+
+    /** The largest scratch buffer kept by a thread between encodings */
+    private static final int maxRetainedScratchSize = 1024 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> scratch = ThreadLocal.withInitial(() -> ByteBuffer.allocate(initialScratchSize));
+
+    private final int keySize;
+    private final int resultPacketCount;
+    private final DocsumPacketKey[] docsumKeys;
+    private final long timestamp;
+
+    /** The number of bytes of encoded packets */
+    private final int length;
+
+    /** The encoded result packets followed by the encoded docsum packets, or null if stored in blocks */
+    private final ByteBuffer encoded;
+
+    /** The blocks holding the encoded packets, or null if not stored yet */
+    private final int[] blocks;
+
+    private SerializedPacketWrapper(int keySize, int resultPacketCount, DocsumPacketKey[] docsumKeys,
+                                    long timestamp, int length, ByteBuffer encoded, int[] blocks) {
+        this.keySize = keySize;
+        this.resultPacketCount = resultPacketCount;
+        this.docsumKeys = docsumKeys;
+        this.timestamp = timestamp;
+        this.length = length;
+        this.encoded = encoded;
+        this.blocks = blocks;
+    }
+
+    /** Returns the timestamp of the first result packet of the wrapper this was created from */
+    long getTimestamp() { return timestamp; }
+
+    /** Returns the size of this in the same unit as {@link PacketWrapper#getPacketsSize} */
+    int getPacketsSize() { return length + keySize; }
+
+    /** Returns the number of bytes of encoded packets */
+    int length() { return length; }
+
+    /** Returns the blocks holding the packets of this, or null if this is not stored */
+    int[] blocks() { return blocks; }
+
+    /**
+     * Copies the encoded packets of this to the given blocks of a pool, and returns the stored instance.
+     * This must be called by the thread which encoded this, before it encodes again.
+     */
+    SerializedPacketWrapper storeIn(DirectBlockPool pool, int[] blocks) {
+        if (encoded == null)
+            throw new IllegalStateException("These packets are already stored");
+        pool.write(blocks, encoded.duplicate());
+        return new SerializedPacketWrapper(keySize, resultPacketCount, docsumKeys, timestamp, length, null, blocks);
+    }
+
+    /** Decodes the given bytes, which are the packets of this read from the pool they are stored in, into a new wrapper */
+    PacketWrapper toPacketWrapper(byte[] packets) {
+        ByteBuffer buffer = ByteBuffer.wrap(packets);
+        List<BasicPacket> resultPackets = new ArrayList<>(resultPacketCount);
+        for (int i = 0; i < resultPacketCount; i++)
+            resultPackets.add(PacketDecoder.decode(buffer));
+        LinkedHashMap<DocsumPacketKey, BasicPacket> docsums = new LinkedHashMap<>();
+        for (DocsumPacketKey key : docsumKeys)
+            docsums.put(key, PacketDecoder.decode(buffer));
+
+        PacketWrapper wrapper = new PacketWrapper(keySize, resultPackets, docsums);
+        wrapper.setTimestamp(timestamp);
+        return wrapper;
+    }
+
+    /**
+     * Encodes all the packets of the given wrapper into a buffer of the calling thread, which is valid until
+     * the thread encodes again. The returned instance must be stored by {@link #storeIn} before that.
+     */
+    static SerializedPacketWrapper encode(PacketWrapper wrapper) {
+        List<BasicPacket> resultPackets = wrapper.getResultPackets();
+        DocsumPacketKey[] docsumKeys = new DocsumPacketKey[wrapper.packets.size()];
+        ByteBuffer buffer = scratch.get();
+        while (true) {
+            buffer.clear();
+            try {
+                for (BasicPacket packet : resultPackets)
+                    encode(packet, buffer);
+                int i = 0;
+                for (Map.Entry<DocsumPacketKey, BasicPacket> docsum : wrapper.packets.entrySet()) {
+                    docsumKeys[i++] = docsum.getKey();
+                    encode(docsum.getValue(), buffer);
+                }
+                break;
+            }
+            catch (BufferTooSmallException e) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                if (buffer.capacity() <= maxRetainedScratchSize)
+                    scratch.set(buffer);
+            }
+        }
+        buffer.flip();
+        if (buffer.capacity() > maxRetainedScratchSize)
+            scratch.remove(); // don't keep the buffer of an oversized wrapper
+        return new SerializedPacketWrapper(wrapper.keySize, resultPackets.size(), docsumKeys,
+                                           wrapper.getTimestamp(), buffer.remaining(), buffer.asReadOnlyBuffer(), null);
+    }
+
+    private static void encode(BasicPacket packet, ByteBuffer buffer) throws BufferTooSmallException {
+        int limit = buffer.capacity(); // encoding leaves the limit at the end of the packet
+        packet.encodeUncompressed(buffer); // leaves the packet unchanged, as it may be in use by other threads
+        buffer.limit(limit);
+    }
+
+}
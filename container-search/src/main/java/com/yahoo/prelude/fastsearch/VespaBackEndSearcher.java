@@ -90,7 +90,8 @@ public abstract class VespaBackEndSearcher extends PingableSearcher {
     /** Searchcluster number */
     private int sourceNumber;
 
-    protected final String getName()          { return name; }
+    /** Returns the name of this backend, unique within its cluster */
+    public final String getName()             { return name; }
     protected final String getDefaultDocsumClass() { return defaultDocsumClass; }
 
     /** Sets default document summary class. Default is null */
@@ -2,7 +2,11 @@
 package com.yahoo.search.dispatch;
 
 import com.yahoo.compress.CompressionType;
+import com.yahoo.compress.Compressor;
+import com.yahoo.data.access.Inspector;
+import com.yahoo.data.access.slime.SlimeAdapter;
 import com.yahoo.prelude.fastsearch.FastHit;
+import com.yahoo.slime.BinaryFormat;
 
 import java.util.List;
 import java.util.Optional;
@@ -14,13 +18,38 @@ import java.util.Optional;
  */
 interface Client {
 
-    void getDocsums(List<FastHit> hits, NodeConnection node, CompressionType compression,
-                    int uncompressedLength, byte[] compressedSlime, Dispatcher.GetDocsumsResponseReceiver responseReceiver,
-                    double timeoutSeconds);
+    /**
+     * Requests docsums for the given hits from a node.
+     * Exactly one response or error is passed to the response receiver, unless the returned request is cancelled.
+     *
+     * @return the request made, which can be used to cancel it
+     */
+    RequestHandle getDocsums(List<FastHit> hits, NodeConnection node, CompressionType compression,
+                             int uncompressedLength, byte[] compressedSlime, ResponseReceiver responseReceiver,
+                             double timeoutSeconds);
 
     /** Creates a connection to a particular node in this */
     NodeConnection createConnection(String hostname, int port);
 
+    /** A request which has been sent */
+    interface RequestHandle {
+
+        /**
+         * Cancels this request if it is not already completed.
+         * The response receiver of a cancelled request may or may not receive an error.
+         */
+        void cancel();
+
+    }
+
+    /** Receives the response to a getDocsums request */
+    interface ResponseReceiver {
+
+        /** Called by a thread belonging to the client when a response or error becomes available */
+        void receive(GetDocsumsResponseOrError response);
+
+    }
+
     class GetDocsumsResponseOrError {
 
         // One of these will be non empty and the other not
@@ -50,34 +79,84 @@ interface Client {
 
     class GetDocsumsResponse {
 
-        private final byte compression;
-        private final int uncompressedSize;
-        private final byte[] compressedSlimeBytes;
+        private final Payload payload;
         private final List<FastHit> hitsContext;
+        private final int offset;
 
         public GetDocsumsResponse(byte compression, int uncompressedSize, byte[] compressedSlimeBytes, List<FastHit> hitsContext) {
-            this.compression = compression;
-            this.uncompressedSize = uncompressedSize;
-            this.compressedSlimeBytes = compressedSlimeBytes;
+            this(new Payload(compression, uncompressedSize, compressedSlimeBytes), hitsContext, 0);
+        }
+
+        private GetDocsumsResponse(Payload payload, List<FastHit> hitsContext, int offset) {
+            this.payload = payload;
             this.hitsContext = hitsContext;
+            this.offset = offset;
         }
 
         public byte compression() {
-            return compression;
+            return payload.compression;
         }
 
         public int uncompressedSize() {
-            return uncompressedSize;
+            return payload.uncompressedSize;
         }
 
         public byte[] compressedSlimeBytes() {
-            return compressedSlimeBytes;
+            return payload.compressedSlimeBytes;
         }
 
         public List<FastHit> hitsContext() {
             return hitsContext;
         }
 
+        /** Returns the index of the docsum of the first hit in the hits context in the docsums of the payload */
+        public int offset() { return offset; }
+
+        /**
+         * Returns a response for a sublist of the hits of this request, whose docsums start at the given offset.
+         * The returned response shares the payload of this, such that it is only decoded once.
+         */
+        public GetDocsumsResponse slice(List<FastHit> hits, int offset) {
+            return new GetDocsumsResponse(payload, hits, this.offset + offset);
+        }
+
+        /**
+         * Returns the docsums array of this, decoding it on the first invocation.
+         * This is multithread safe.
+         *
+         * @throws IllegalArgumentException if the payload does not contain a docsums array
+         */
+        public Inspector docsums(Compressor compressor) {
+            return payload.docsums(compressor);
+        }
+
+    }
+
+    /** The payload of a getDocsums response, which may be shared by the slices of a coalesced response */
+    final class Payload {
+
+        private final byte compression;
+        private final int uncompressedSize;
+        private final byte[] compressedSlimeBytes;
+
+        private Inspector docsums = null;
+
+        private Payload(byte compression, int uncompressedSize, byte[] compressedSlimeBytes) {
+            this.compression = compression;
+            this.uncompressedSize = uncompressedSize;
+            this.compressedSlimeBytes = compressedSlimeBytes;
+        }
+
+        private synchronized Inspector docsums(Compressor compressor) {
+            if (docsums != null) return docsums;
+
+            byte[] slimeBytes = compressor.decompress(compressedSlimeBytes, CompressionType.valueOf(compression), uncompressedSize);
+            Inspector summaries = new SlimeAdapter(BinaryFormat.decode(slimeBytes).get().field("docsums"));
+            if ( ! summaries.valid())
+                throw new IllegalArgumentException("Expected a Slime root object containing a 'docsums' field");
+            return docsums = summaries;
+        }
+
     }
 
     interface NodeConnection {
@@ -8,7 +8,6 @@ import com.yahoo.component.AbstractComponent;
 import com.yahoo.compress.CompressionType;
 import com.yahoo.compress.Compressor;
 import com.yahoo.container.handler.VipStatus;
-import com.yahoo.data.access.slime.SlimeAdapter;
 import com.yahoo.prelude.fastsearch.FS4ResourcePool;
 import com.yahoo.prelude.fastsearch.FastHit;
 import com.yahoo.prelude.fastsearch.TimeoutException;
@@ -27,8 +26,11 @@ import com.yahoo.vespa.config.search.DispatchConfig;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -51,12 +53,34 @@ public class Dispatcher extends AbstractComponent {
     /** Connections to the search nodes this talks to, indexed by node id ("partid") */
     private final ImmutableMap<Integer, Client.NodeConnection> nodeConnections;
 
+    /**
+     * Coalescers of getDocsums requests to each search node, indexed by node id,
+     * or empty if requests should not be coalesced
+     */
+    private final ImmutableMap<Integer, GetDocsumsCoalescer> coalescers;
+
     private final Compressor compressor = new Compressor();
 
+    /** Decides when to hedge queries dispatched directly to a search node */
+    private final HedgingPolicy queryHedging;
+
+    /** Decides when to hedge getDocsums requests */
+    private final HedgingPolicy docsumHedging;
+
+    /** Used to send hedged requests, or null if requests are not hedged */
+    private final ScheduledExecutorService hedgeScheduler;
+
+    /** Used to send coalesced getDocsums requests when an outstanding request completes */
+    private final Executor executor;
+
     public Dispatcher(DispatchConfig dispatchConfig, FS4ResourcePool fs4ResourcePool,
                       int containerClusterSize, VipStatus vipStatus) {
-        this.client = new RpcClient();
+        this.client = new RpcClient(dispatchConfig.numNetworkThreads());
         this.searchCluster = new SearchCluster(dispatchConfig, fs4ResourcePool, containerClusterSize, vipStatus);
+        this.queryHedging = createHedgingPolicy(dispatchConfig);
+        this.docsumHedging = createHedgingPolicy(dispatchConfig);
+        this.hedgeScheduler = fs4ResourcePool.getScheduledExecutor();
+        this.executor = fs4ResourcePool.getExecutor();
 
         // Create node rpc connections, indexed by the legacy "partid", which allows us to bridge
         // between fs4 calls (for search) and rpc calls (for summary fetch)
@@ -65,18 +89,60 @@ public class Dispatcher extends AbstractComponent {
             nodeConnectionsBuilder.put(node.key(), client.createConnection(node.host(), node.port()));
         }
         nodeConnections = nodeConnectionsBuilder.build();
+        coalescers = createCoalescers(dispatchConfig.coalesceDocsumRequests(), dispatchConfig.maxOutstandingDocsumRequests());
     }
 
     /** For testing */
     public Dispatcher(Map<Integer, Client.NodeConnection> nodeConnections, Client client) {
-        this.searchCluster = null;
+        this(nodeConnections, client, 0);
+    }
+
+    /**
+     * For testing
+     *
+     * @param maxOutstandingDocsumRequests the number of getDocsums requests which can be outstanding to a node
+     *                                     before further requests are coalesced, or 0 to not coalesce requests
+     */
+    Dispatcher(Map<Integer, Client.NodeConnection> nodeConnections, Client client, int maxOutstandingDocsumRequests) {
+        this(null, nodeConnections, client, maxOutstandingDocsumRequests, HedgingPolicy.disabled(), null);
+    }
+
+    /** For testing */
+    Dispatcher(SearchCluster searchCluster, Map<Integer, Client.NodeConnection> nodeConnections, Client client,
+               int maxOutstandingDocsumRequests, HedgingPolicy docsumHedging, ScheduledExecutorService hedgeScheduler) {
+        this.searchCluster = searchCluster;
         this.nodeConnections = ImmutableMap.copyOf(nodeConnections);
         this.client = client;
+        this.queryHedging = HedgingPolicy.disabled();
+        this.docsumHedging = docsumHedging;
+        this.hedgeScheduler = hedgeScheduler;
+        this.executor = Runnable::run;
+        this.coalescers = createCoalescers(maxOutstandingDocsumRequests > 0, maxOutstandingDocsumRequests);
+    }
+
+    private static HedgingPolicy createHedgingPolicy(DispatchConfig dispatchConfig) {
+        if ( ! dispatchConfig.hedgeRequests()) return HedgingPolicy.disabled();
+        return new HedgingPolicy(dispatchConfig.hedgeDelayPercentile(), (long)(dispatchConfig.minHedgeDelay() * 1000));
+    }
+
+    private ImmutableMap<Integer, GetDocsumsCoalescer> createCoalescers(boolean coalesce, int maxOutstandingRequests) {
+        ImmutableMap.Builder<Integer, GetDocsumsCoalescer> coalescersBuilder = new ImmutableMap.Builder<>();
+        if (coalesce) {
+            for (Map.Entry<Integer, Client.NodeConnection> node : nodeConnections.entrySet())
+                coalescersBuilder.put(node.getKey(), new GetDocsumsCoalescer(client, node.getValue(), compressor, maxOutstandingRequests, executor));
+        }
+        return coalescersBuilder.build();
     }
     
     /** Returns the search cluster this dispatches to */
     public SearchCluster searchCluster() { return searchCluster; }
 
+    /** Returns the policy deciding when to hedge queries dispatched directly to search nodes */
+    public HedgingPolicy queryHedging() { return queryHedging; }
+
+    /** Returns the policy deciding when to hedge getDocsums requests */
+    public HedgingPolicy docsumHedging() { return docsumHedging; }
+
     /** Fills the given summary class by sending RPC requests to the right search nodes */
     public void fill(Result result, String summaryClass, CompressionType compression) {
         try {
@@ -119,14 +185,35 @@ public class Dispatcher extends AbstractComponent {
 
         Query query = result.getQuery();
         String rankProfile = query.getRanking().getProfile();
-        byte[] serializedSlime = BinaryFormat.encode(toSlime(rankProfile, summaryClass, query.getSessionId(false), hits));
+        SessionId sessionId = query.getSessionId(false);
         double timeoutSeconds = ((double)query.getTimeLeft()-3.0)/1000.0;
+        GetDocsumsCoalescer coalescer = coalescers.get(nodeId);
+        if (coalescer != null && sessionId == null) {
+            coalescer.getDocsums(hits, summaryClass, rankProfile, compression, timeoutSeconds, responseReceiver);
+            return;
+        }
+
+        byte[] serializedSlime = BinaryFormat.encode(toSlime(rankProfile, summaryClass, sessionId, hits));
         Compressor.Compression compressionResult = compressor.compress(compression, serializedSlime);
+        if (docsumHedging.isEnabled() && sessionId == null) { // sessions are only held by the node which ran the query
+            new HedgedGetDocsums(client, docsumHedging, hits, compressionResult.type(), serializedSlime.length,
+                                 compressionResult.data(), timeoutSeconds, responseReceiver)
+                    .send(node, hedgeNodeFor(nodeId).orElse(null), docsumHedging.hedgeDelay(), hedgeScheduler);
+            return;
+        }
         client.getDocsums(hits, node, compressionResult.type(),
                           serializedSlime.length, compressionResult.data(), responseReceiver, timeoutSeconds);
     }
 
-    static private Slime toSlime(String rankProfile, String summaryClass, SessionId sessionId, List<FastHit> hits) {
+    /** Returns the connection to the node to send a hedged request to instead of the given node, if any */
+    private Optional<Client.NodeConnection> hedgeNodeFor(int nodeId) {
+        if (searchCluster == null) return Optional.empty();
+        return searchCluster.nodeWithKey(nodeId)
+                            .flatMap(searchCluster::hedgeTargetFor)
+                            .map(hedgeNode -> nodeConnections.get(hedgeNode.key()));
+    }
+
+    static Slime toSlime(String rankProfile, String summaryClass, SessionId sessionId, List<FastHit> hits) {
         Slime slime = new Slime();
         Cursor root = slime.setObject();
         if (summaryClass != null) {
@@ -151,8 +238,11 @@ public class Dispatcher extends AbstractComponent {
             nodeConnection.close();
     }
 
-    /** Receiver of the responses to a set of getDocsums requests */
-    public static class GetDocsumsResponseReceiver {
+    /**
+     * Receiver of the responses to a set of getDocsums requests.
+     * Each response is decoded and filled into its hits as soon as it arrives, while waiting for the others.
+     */
+    public static class GetDocsumsResponseReceiver implements Client.ResponseReceiver {
 
         private final BlockingQueue<Client.GetDocsumsResponseOrError> responses;
         private final Compressor compressor;
@@ -172,6 +262,7 @@ public class Dispatcher extends AbstractComponent {
         }
 
         /** Called by a thread belonging to the client when a valid response becomes available */
+        @Override
         public void receive(Client.GetDocsumsResponseOrError response) {
             responses.add(response);
         }
@@ -212,18 +303,13 @@ public class Dispatcher extends AbstractComponent {
             }
             else {
                 Client.GetDocsumsResponse response = responseOrError.response().get();
-                CompressionType compression = CompressionType.valueOf(response.compression());
-                byte[] slimeBytes = compressor.decompress(response.compressedSlimeBytes(), compression, response.uncompressedSize());
-                fill(response.hitsContext(), slimeBytes);
+                fill(response.hitsContext(), response.docsums(compressor), response.offset());
             }
         }
 
-        private void fill(List<FastHit> hits, byte[] slimeBytes) {
-            Inspector summaries = new SlimeAdapter(BinaryFormat.decode(slimeBytes).get().field("docsums"));
-            if ( ! summaries.valid())
-                throw new IllegalArgumentException("Expected a Slime root object containing a 'docsums' field");
+        private void fill(List<FastHit> hits, Inspector summaries, int offset) {
             for (int i = 0; i < hits.size(); i++) {
-                fill(hits.get(i), summaries.entry(i).field("docsum"));
+                fill(hits.get(i), summaries.entry(offset + i).field("docsum"));
             }
         }
 
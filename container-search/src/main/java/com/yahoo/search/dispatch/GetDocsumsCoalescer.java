@@ -0,0 +1,193 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.search.dispatch;
+
+import com.yahoo.compress.CompressionType;
+import com.yahoo.compress.Compressor;
+import com.yahoo.prelude.fastsearch.FastHit;
+import com.yahoo.slime.BinaryFormat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+/**
+ * Sends getDocsums requests to a single node, coalescing requests from concurrent queries into one rpc
+ * when there are already a given number of requests outstanding to the node.
+ * Requests are only coalesced when they ask for the same summary class and rank profile
+ * using the same compression, and have no session id.
+ * <p>
+ * Requests are sent immediately while fewer than the max number of requests are outstanding,
+ * so this adds no latency at low load. At high load, requests queue up while waiting for outstanding requests
+ * to complete, and each completion sends all requests queued for one request type as a single rpc.
+ * Those are encoded and sent in the given executor, as completions happen in the network thread of the client.
+ * <p>
+ * This class is multithread safe.
+ *
+ * @author bratseth
+ */
+class GetDocsumsCoalescer {
+
+    private final Client client;
+    private final Client.NodeConnection node;
+    private final Compressor compressor;
+    private final int maxOutstandingRequests;
+    private final Executor executor;
+
+    /** Requests waiting to be sent, by request type, in the order of the oldest waiting request. Guarded by this */
+    private final Map<RequestType, List<PendingRequest>> pending = new LinkedHashMap<>();
+
+    /** The number of rpcs currently outstanding to this node. Guarded by this */
+    private int outstandingRequests = 0;
+
+    /** The total number of rpcs and coalesced requests sent, for statistics */
+    private long sentRpcs = 0, sentRequests = 0;
+
+    /**
+     * Creates a coalescer
+     *
+     * @param maxOutstandingRequests the number of rpcs which may be outstanding to the node before requests are coalesced
+     * @param executor the executor in which queued requests are sent when an outstanding rpc completes
+     */
+    GetDocsumsCoalescer(Client client, Client.NodeConnection node, Compressor compressor, int maxOutstandingRequests,
+                        Executor executor) {
+        if (maxOutstandingRequests < 1)
+            throw new IllegalArgumentException("Max outstanding requests must be positive, got " + maxOutstandingRequests);
+        this.client = client;
+        this.node = node;
+        this.compressor = compressor;
+        this.maxOutstandingRequests = maxOutstandingRequests;
+        this.executor = executor;
+    }
+
+    /**
+     * Requests docsums for the given hits. Exactly one response or error will be passed to the given receiver,
+     * containing the docsums of these hits only.
+     */
+    void getDocsums(List<FastHit> hits, String summaryClass, String rankProfile, CompressionType compression,
+                    double timeoutSeconds, Client.ResponseReceiver receiver) {
+        PendingRequest request = new PendingRequest(hits, receiver, System.currentTimeMillis() + (long)(timeoutSeconds * 1000));
+        RequestType type = new RequestType(summaryClass, rankProfile, compression);
+        synchronized (this) {
+            if (outstandingRequests >= maxOutstandingRequests) {
+                pending.computeIfAbsent(type, k -> new ArrayList<>()).add(request);
+                return;
+            }
+            outstandingRequests++;
+        }
+        send(type, Collections.singletonList(request));
+    }
+
+    /** Returns the ratio of requests to rpcs sent by this so far. This is 1 if no requests have been coalesced */
+    synchronized double coalescingFactor() {
+        return sentRpcs == 0 ? 1 : (double)sentRequests / sentRpcs;
+    }
+
+    /** Sends the given requests as one rpc. The caller must have incremented outstandingRequests. */
+    private void send(RequestType type, List<PendingRequest> requests) {
+        List<FastHit> hits;
+        long deadline = 0;
+        if (requests.size() == 1) {
+            hits = requests.get(0).hits;
+            deadline = requests.get(0).deadline;
+        }
+        else {
+            hits = new ArrayList<>();
+            for (PendingRequest request : requests) {
+                hits.addAll(request.hits);
+                deadline = Math.max(deadline, request.deadline);
+            }
+        }
+        synchronized (this) {
+            sentRpcs++;
+            sentRequests += requests.size();
+        }
+
+        byte[] serializedSlime = BinaryFormat.encode(Dispatcher.toSlime(type.rankProfile, type.summaryClass, null, hits));
+        Compressor.Compression compressionResult = compressor.compress(type.compression, serializedSlime);
+        double timeoutSeconds = Math.max(0, deadline - System.currentTimeMillis()) / 1000.0;
+        client.getDocsums(hits, node, compressionResult.type(), serializedSlime.length, compressionResult.data(),
+                          response -> complete(requests, response), timeoutSeconds);
+    }
+
+    /** Distributes the response of one rpc to the requests it was made for, and sends the next requests if any */
+    private void complete(List<PendingRequest> requests, Client.GetDocsumsResponseOrError response) {
+        if (response.response().isPresent() && requests.size() > 1) {
+            Client.GetDocsumsResponse coalescedResponse = response.response().get();
+            int offset = 0;
+            for (PendingRequest request : requests) {
+                request.receiver.receive(Client.GetDocsumsResponseOrError.fromResponse(coalescedResponse.slice(request.hits, offset)));
+                offset += request.hits.size();
+            }
+        }
+        else {
+            for (PendingRequest request : requests)
+                request.receiver.receive(response);
+        }
+
+        RequestType nextType;
+        List<PendingRequest> next;
+        synchronized (this) {
+            Iterator<Map.Entry<RequestType, List<PendingRequest>>> oldest = pending.entrySet().iterator();
+            if ( ! oldest.hasNext()) {
+                outstandingRequests--;
+                return;
+            }
+            Map.Entry<RequestType, List<PendingRequest>> entry = oldest.next();
+            oldest.remove();
+            nextType = entry.getKey();
+            next = entry.getValue();
+        }
+        // reuse the outstanding request slot of the completed rpc, but don't encode it in the network thread
+        executor.execute(() -> send(nextType, next));
+    }
+
+    private static class PendingRequest {
+
+        final List<FastHit> hits;
+        final Client.ResponseReceiver receiver;
+        final long deadline;
+
+        PendingRequest(List<FastHit> hits, Client.ResponseReceiver receiver, long deadline) {
+            this.hits = hits;
+            this.receiver = receiver;
+            this.deadline = deadline;
+        }
+
+    }
+
+    /** The parameters which must be equal for requests to be coalesced */
+    private static class RequestType {
+
+        final String summaryClass;
+        final String rankProfile;
+        final CompressionType compression;
+
+        RequestType(String summaryClass, String rankProfile, CompressionType compression) {
+            this.summaryClass = summaryClass;
+            this.rankProfile = rankProfile;
+            this.compression = compression;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) return true;
+            if ( ! (o instanceof RequestType)) return false;
+            RequestType other = (RequestType)o;
+            return Objects.equals(summaryClass, other.summaryClass) &&
+                   Objects.equals(rankProfile, other.rankProfile) &&
+                   compression == other.compression;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(summaryClass, rankProfile, compression);
+        }
+
+    }
+
+}
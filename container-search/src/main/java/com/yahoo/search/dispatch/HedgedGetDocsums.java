@@ -0,0 +1,117 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.search.dispatch;
+
+import com.yahoo.compress.CompressionType;
+import com.yahoo.prelude.fastsearch.FastHit;
+
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A getDocsums request which is sent to a second node holding the same documents if the first
+ * has not responded after the delay given by a hedging policy. The first successful response is passed on
+ * and the other request is cancelled. An error is only passed on if there is no other request outstanding.
+ * <p>
+ * This class is multithread safe.
+ *
+ * @author bratseth
+ */
+class HedgedGetDocsums {
+
+    private final Client client;
+    private final HedgingPolicy policy;
+    private final List<FastHit> hits;
+    private final CompressionType compression;
+    private final int uncompressedLength;
+    private final byte[] compressedSlime;
+    private final double timeoutSeconds;
+    private final Client.ResponseReceiver receiver;
+
+    // All the following fields are guarded by this
+    private long startTime;
+    private boolean completed = false;
+    private int outstandingRequests = 0;
+    private Client.RequestHandle primaryRequest = null;
+    private Client.RequestHandle hedgeRequest = null;
+    private ScheduledFuture<?> hedgeTimer = null;
+
+    HedgedGetDocsums(Client client, HedgingPolicy policy, List<FastHit> hits, CompressionType compression,
+                     int uncompressedLength, byte[] compressedSlime, double timeoutSeconds,
+                     Client.ResponseReceiver receiver) {
+        this.client = client;
+        this.policy = policy;
+        this.hits = hits;
+        this.compression = compression;
+        this.uncompressedLength = uncompressedLength;
+        this.compressedSlime = compressedSlime;
+        this.timeoutSeconds = timeoutSeconds;
+        this.receiver = receiver;
+    }
+
+    /**
+     * Sends this request to the given node, and schedules it to be sent to the hedge node
+     * after the given delay if no response is received by then.
+     *
+     * @param hedgeNode the node to send the hedged request to, or null to not hedge this
+     *                  (but still pass the latency to the hedging policy)
+     * @param hedgeDelayMillis the delay before hedging, or a negative value to not hedge this
+     */
+    void send(Client.NodeConnection node, Client.NodeConnection hedgeNode, long hedgeDelayMillis,
+              ScheduledExecutorService scheduler) {
+        policy.requestSent();
+        synchronized (this) {
+            startTime = System.currentTimeMillis();
+            outstandingRequests++;
+        }
+        Client.RequestHandle request = client.getDocsums(hits, node, compression, uncompressedLength, compressedSlime,
+                                                         response -> receive(response, false), timeoutSeconds);
+        synchronized (this) {
+            primaryRequest = request;
+            if (completed || hedgeNode == null || hedgeDelayMillis < 0) return;
+            hedgeTimer = scheduler.schedule(() -> sendHedge(hedgeNode), hedgeDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void sendHedge(Client.NodeConnection hedgeNode) {
+        synchronized (this) {
+            if (completed) return;
+            outstandingRequests++;
+        }
+        policy.hedgeSent();
+        double timeLeftSeconds = timeoutSeconds - (System.currentTimeMillis() - startTime) / 1000.0;
+        Client.RequestHandle request = client.getDocsums(hits, hedgeNode, compression, uncompressedLength, compressedSlime,
+                                                         response -> receive(response, true), Math.max(0, timeLeftSeconds));
+        boolean cancel;
+        synchronized (this) {
+            hedgeRequest = request;
+            cancel = completed;
+        }
+        if (cancel)
+            request.cancel();
+    }
+
+    private void receive(Client.GetDocsumsResponseOrError response, boolean fromHedge) {
+        Client.RequestHandle loser;
+        synchronized (this) {
+            if (completed) return;
+            outstandingRequests--;
+            if (response.error().isPresent() && outstandingRequests > 0)
+                return; // wait for the other request
+            completed = true;
+            if (hedgeTimer != null)
+                hedgeTimer.cancel(false);
+            loser = fromHedge ? primaryRequest : hedgeRequest;
+        }
+        if (loser != null)
+            loser.cancel();
+        if (response.response().isPresent()) {
+            if (fromHedge)
+                policy.hedgeWon();
+            policy.responseReceived(System.currentTimeMillis() - startTime);
+        }
+        receiver.receive(response);
+    }
+
+}
@@ -0,0 +1,140 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.search.dispatch;
+
+import com.google.common.annotations.Beta;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides when to hedge a request, that is, send a duplicate of it to another node holding the same data
+ * and use whichever response arrives first. A request is hedged when it is not answered within a given
+ * percentile of the latencies of recent requests of the same kind, such that only the slowest requests are hedged.
+ * This also keeps statistics on how often requests are hedged and how often the hedged request wins.
+ * <p>
+ * This class is multithread safe.
+ *
+ * @author bratseth
+ */
+@Beta
+public class HedgingPolicy {
+
+    private static final HedgingPolicy disabled = new HedgingPolicy(false, 100, 0, 1, 1);
+
+    private final boolean enabled;
+
+    /** The latency percentile, in the range 0-100, after which requests are hedged */
+    private final double percentile;
+
+    /** The minimum delay in milliseconds before hedging a request */
+    private final long minDelayMillis;
+
+    /** The number of recent latencies to compute the percentile over */
+    private final int windowSize;
+
+    /** The number of latency samples to receive between each recomputation of the delay */
+    private final int recomputeInterval;
+
+    /** The latest latencies in milliseconds, as a ring buffer. Guarded by this */
+    private final long[] latencies;
+
+    /** The total number of latencies received. Guarded by this */
+    private long sampleCount = 0;
+
+    /** The current delay in milliseconds, or -1 if not enough latencies are received to determine it */
+    private volatile long delayMillis = -1;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder wins = new LongAdder();
+
+    /**
+     * Creates an enabled hedging policy
+     *
+     * @param percentile the percentile, in the range 0-100, of recent latencies after which a request should be hedged
+     * @param minDelayMillis the minimum number of milliseconds to wait before hedging a request
+     */
+    public HedgingPolicy(double percentile, long minDelayMillis) {
+        this(true, percentile, minDelayMillis, 1000, 100);
+    }
+
+    /** For testing: Creates an enabled hedging policy which computes the delay from the given window of samples */
+    HedgingPolicy(double percentile, long minDelayMillis, int windowSize, int recomputeInterval) {
+        this(true, percentile, minDelayMillis, windowSize, recomputeInterval);
+    }
+
+    private HedgingPolicy(boolean enabled, double percentile, long minDelayMillis, int windowSize, int recomputeInterval) {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("Hedge delay percentile must be in the range 0-100, got " + percentile);
+        this.enabled = enabled;
+        this.percentile = percentile;
+        this.minDelayMillis = minDelayMillis;
+        this.windowSize = windowSize;
+        this.recomputeInterval = recomputeInterval;
+        this.latencies = new long[enabled ? windowSize : 0];
+    }
+
+    /** Returns a policy which never hedges */
+    public static HedgingPolicy disabled() { return disabled; }
+
+    /** Returns whether this may hedge requests */
+    public boolean isEnabled() { return enabled; }
+
+    /**
+     * Returns the number of milliseconds to wait for a response before hedging a request,
+     * or -1 if requests should not currently be hedged.
+     */
+    public long hedgeDelay() {
+        if ( ! enabled) return -1;
+        return delayMillis;
+    }
+
+    /** Call when a request which may be hedged is sent */
+    public void requestSent() { requests.increment(); }
+
+    /** Call when a hedged request is sent */
+    public void hedgeSent() { hedges.increment(); }
+
+    /** Call when the response to a hedged request arrived before the response to the original request */
+    public void hedgeWon() { wins.increment(); }
+
+    /** Call with the time from a request was sent until the first response to it (or its hedge) arrived */
+    public void responseReceived(long latencyMillis) {
+        if ( ! enabled) return;
+
+        long[] window = null;
+        synchronized (this) {
+            latencies[(int)(sampleCount % windowSize)] = latencyMillis;
+            sampleCount++;
+            if (sampleCount >= windowSize && sampleCount % recomputeInterval == 0)
+                window = latencies.clone();
+        }
+        if (window != null)
+            delayMillis = Math.max(minDelayMillis, percentileOf(window));
+    }
+
+    private long percentileOf(long[] window) {
+        Arrays.sort(window);
+        int index = (int)Math.ceil(percentile / 100 * window.length) - 1;
+        return window[Math.max(0, Math.min(window.length - 1, index))];
+    }
+
+    /** Returns the fraction of the requests sent so far which were hedged */
+    public double hedgeRate() {
+        long requestCount = requests.sum();
+        return requestCount == 0 ? 0 : (double)hedges.sum() / requestCount;
+    }
+
+    /** Returns the fraction of the hedged requests sent so far where the hedged request won */
+    public double hedgeWinRate() {
+        long hedgeCount = hedges.sum();
+        return hedgeCount == 0 ? 0 : (double)wins.sum() / hedgeCount;
+    }
+
+    @Override
+    public String toString() {
+        if ( ! enabled) return "hedging disabled";
+        return "hedging after the " + percentile + " percentile latency (currently " + delayMillis + " ms)";
+    }
+
+}
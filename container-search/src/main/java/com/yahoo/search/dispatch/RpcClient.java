@@ -24,7 +24,11 @@ import java.util.concurrent.atomic.AtomicReference;
  */
 class RpcClient implements Client {
 
-    private final Supervisor supervisor = new Supervisor(new Transport());
+    private final Supervisor supervisor;
+
+    RpcClient(int networkThreads) {
+        supervisor = new Supervisor(new Transport(networkThreads));
+    }
 
     @Override
     public NodeConnection createConnection(String hostname, int port) {
@@ -32,8 +36,8 @@ class RpcClient implements Client {
     }
 
     @Override
-    public void getDocsums(List<FastHit> hits, NodeConnection node, CompressionType compression, int uncompressedLength,
-                           byte[] compressedSlime, Dispatcher.GetDocsumsResponseReceiver responseReceiver, double timeoutSeconds) {
+    public RequestHandle getDocsums(List<FastHit> hits, NodeConnection node, CompressionType compression, int uncompressedLength,
+                                    byte[] compressedSlime, ResponseReceiver responseReceiver, double timeoutSeconds) {
         Request request = new Request("proton.getDocsums");
         request.parameters().add(new Int8Value(compression.getCode()));
         request.parameters().add(new Int32Value(uncompressedLength));
@@ -42,6 +46,27 @@ class RpcClient implements Client {
         request.setContext(hits);
         RpcNodeConnection rpcNode = ((RpcNodeConnection) node);
         rpcNode.invokeAsync(request, timeoutSeconds, new RpcResponseWaiter(rpcNode, responseReceiver));
+        return new RpcRequestHandle(request);
+    }
+
+    private static class RpcRequestHandle implements RequestHandle {
+
+        private final Request request;
+
+        RpcRequestHandle(Request request) {
+            this.request = request;
+        }
+
+        @Override
+        public void cancel() {
+            try {
+                request.abort();
+            }
+            catch (IllegalStateException e) {
+                // not invoked (connection failure) - nothing to cancel
+            }
+        }
+
     }
 
     private static class RpcNodeConnection implements NodeConnection {
@@ -90,9 +115,9 @@ class RpcClient implements Client {
         private final RpcNodeConnection node;
 
         /** The handler to which the response is forwarded */
-        private final Dispatcher.GetDocsumsResponseReceiver handler;
+        private final ResponseReceiver handler;
 
-        public RpcResponseWaiter(RpcNodeConnection node, Dispatcher.GetDocsumsResponseReceiver handler) {
+        public RpcResponseWaiter(RpcNodeConnection node, ResponseReceiver handler) {
             this.node = node;
             this.handler = handler;
         }
@@ -31,6 +31,7 @@ import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -54,6 +55,9 @@ public class SearchCluster implements NodeManager<SearchCluster.Node> {
     private final ClusterMonitor<Node> clusterMonitor;
     private final VipStatus vipStatus;
 
+    /** Used to spread hedged requests over the eligible groups */
+    private final AtomicInteger hedgeTargetCounter = new AtomicInteger(0);
+
     /**
      * A search node on this local machine having the entire corpus, which we therefore
      * should prefer to dispatch directly to, or empty if there is no such local search node.
@@ -138,7 +142,7 @@ public class SearchCluster implements NodeManager<SearchCluster.Node> {
     private static ImmutableList<Node> toNodes(DispatchConfig dispatchConfig) {
         ImmutableList.Builder<Node> nodesBuilder = new ImmutableList.Builder<>();
         for (DispatchConfig.Node node : dispatchConfig.node())
-            nodesBuilder.add(new Node(node.host(), node.fs4port(), node.group()));
+            nodesBuilder.add(new Node(node.key(), node.host(), node.fs4port(), node.group()));
         return nodesBuilder.build();
     }
 
@@ -177,6 +181,35 @@ public class SearchCluster implements NodeManager<SearchCluster.Node> {
         return directDispatchTarget;
     }
 
+    /**
+     * Returns a node which can answer any request the given node can, to send a hedged (duplicate) request to
+     * when the given node is slow to respond, or empty if there is no such node.
+     * This is only possible when groups contain a single node, such that every node has the entire corpus.
+     * The returned node is working, belongs to another group which has sufficient coverage,
+     * and is chosen round robin among those satisfying this.
+     */
+    public Optional<Node> hedgeTargetFor(Node node) {
+        if (groupSize() != 1) return Optional.empty();
+
+        List<Node> candidates = groups.values().stream()
+                                      .filter(group -> group.id() != node.group())
+                                      .filter(group -> group.nodes().size() == 1)
+                                      .filter(Group::hasSufficientCoverage)
+                                      .map(group -> group.nodes().get(0))
+                                      .filter(Node::isWorking)
+                                      .collect(Collectors.toList());
+        if (candidates.isEmpty()) return Optional.empty();
+        return Optional.of(candidates.get(Math.abs(hedgeTargetCounter.getAndIncrement() % candidates.size())));
+    }
+
+    /** Returns the node having the given distribution key, or empty if there is no such node in this */
+    public Optional<Node> nodeWithKey(int key) {
+        for (Group group : groups.values())
+            for (Node node : group.nodes())
+                if (node.key() == key) return Optional.of(node);
+        return Optional.empty();
+    }
+
     /** Used by the cluster monitor to manage node status */
     @Override
     public void working(Node node) {
@@ -361,6 +394,7 @@ public class SearchCluster implements NodeManager<SearchCluster.Node> {
     /** A node in a search cluster. This class is multithread safe. */
     public static class Node {
 
+        private final int key;
         private final String hostname;
         private final int fs4port;
         private final int group;
@@ -369,11 +403,19 @@ public class SearchCluster implements NodeManager<SearchCluster.Node> {
         private final AtomicLong activeDocuments = new AtomicLong(0);
 
         public Node(String hostname, int fs4port, int group) {
+            this(0, hostname, fs4port, group);
+        }
+
+        public Node(int key, String hostname, int fs4port, int group) {
+            this.key = key;
             this.hostname = hostname;
             this.fs4port = fs4port;
             this.group = group;
         }
 
+        /** Returns the unique distribution key ("partid") of this node */
+        public int key() { return key; }
+
         public String hostname() { return hostname; }
 
         public int fs4port() { return fs4port; }
@@ -0,0 +1,72 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.fs4.mplex;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author bratseth
+ */
+public class ReadBufferPoolTestCase {
+
+    @Test
+    public void testSizeClasses() {
+        ReadBufferPool pool = new ReadBufferPool(0);
+        assertEquals(ReadBufferPool.minBufferSize, pool.acquire(1000).capacity());
+        assertEquals(ReadBufferPool.minBufferSize, pool.acquire(ReadBufferPool.minBufferSize).capacity());
+        assertEquals(ReadBufferPool.minBufferSize * 2, pool.acquire(ReadBufferPool.minBufferSize + 1).capacity());
+        assertEquals(ReadBufferPool.minBufferSize * 4, pool.acquire(ReadBufferPool.minBufferSize * 3).capacity());
+        assertEquals(ReadBufferPool.minBufferSize * 4, pool.acquire(ReadBufferPool.minBufferSize * 4).capacity());
+        assertEquals(ReadBufferPool.minBufferSize * 20 + 7, pool.acquire(ReadBufferPool.minBufferSize * 20 + 7).capacity());
+    }
+
+    @Test
+    public void testOnlyPooledSizesAreDirect() {
+        ReadBufferPool pool = new ReadBufferPool(0);
+        int largestPooled = ReadBufferPool.minBufferSize << (ReadBufferPool.sizeClasses - 1);
+        assertTrue(pool.acquire(largestPooled).isDirect());
+        ByteBuffer unpooled = pool.acquire(largestPooled + 1);
+        assertFalse(unpooled.isDirect());
+        assertEquals(largestPooled + 1, unpooled.capacity());
+    }
+
+    @Test
+    public void testReuse() {
+        ReadBufferPool pool = new ReadBufferPool(ReadBufferPool.minBufferSize * 2);
+        ByteBuffer buffer = pool.acquire(ReadBufferPool.minBufferSize * 2);
+        buffer.put((byte)1);
+        pool.release(buffer);
+
+        ByteBuffer reused = pool.acquire(ReadBufferPool.minBufferSize + 100);
+        assertSame(buffer, reused);
+        assertEquals("Reused buffers are cleared", 0, reused.position());
+        assertEquals(reused.capacity(), reused.limit());
+        assertNotSame("The pool is empty", buffer, pool.acquire(ReadBufferPool.minBufferSize * 2));
+    }
+
+    @Test
+    public void testMaxRetainedBytes() {
+        ReadBufferPool pool = new ReadBufferPool(ReadBufferPool.minBufferSize * 3);
+        ByteBuffer small1 = pool.acquire(ReadBufferPool.minBufferSize);
+        ByteBuffer small2 = pool.acquire(ReadBufferPool.minBufferSize);
+        ByteBuffer large = pool.acquire(ReadBufferPool.minBufferSize * 2);
+        pool.release(large);
+        pool.release(small1);
+        pool.release(small2); // dropped
+        assertEquals(ReadBufferPool.minBufferSize * 3, pool.retainedBytes());
+
+        assertSame(small1, pool.acquire(ReadBufferPool.minBufferSize));
+        ByteBuffer small3 = pool.acquire(ReadBufferPool.minBufferSize);
+        assertTrue(small3 != small1 && small3 != small2);
+        assertSame(large, pool.acquire(ReadBufferPool.minBufferSize * 2));
+        assertEquals(0, pool.retainedBytes());
+    }
+
+}
@@ -3,6 +3,7 @@ package com.yahoo.prelude.cluster.test;
 
 import com.yahoo.container.handler.VipStatus;
 import com.yahoo.fs4.QueryPacket;
+import com.yahoo.prelude.cluster.BackendLoad;
 import com.yahoo.prelude.cluster.Hasher;
 import com.yahoo.prelude.fastsearch.CacheKey;
 import com.yahoo.prelude.fastsearch.VespaBackEndSearcher;
@@ -125,4 +126,52 @@ public class HasherTestCase extends junit.framework.TestCase {
         assertTrue(hasher.select(0).isLocalDispatching());
     }
 
+    public void testAdaptiveSelection() {
+        Hasher hasher = new Hasher(true);
+        VespaBackEndSearcher fast = new MockBackend();
+        VespaBackEndSearcher slow = new MockBackend();
+        hasher.add(fast);
+        hasher.add(slow);
+        hasher.loadOf(fast).addLatencySample(10);
+        hasher.loadOf(slow).addLatencySample(100);
+        for (int i = 0; i < 10; i++)
+            assertSame(fast, hasher.select(i));
+
+        // Outstanding requests make the fast node the most loaded one
+        for (int i = 0; i < 10; i++)
+            hasher.loadOf(fast).requestStarted();
+        for (int i = 0; i < 10; i++)
+            assertSame(slow, hasher.select(i));
+
+        hasher = new Hasher(false);
+        hasher.add(fast);
+        hasher.add(slow);
+        assertNotSame(hasher.select(0), hasher.select(1));
+    }
+
+    public void testBackendLoad() {
+        BackendLoad load = new BackendLoad();
+        assertEquals(0.0, load.score());
+        load.addLatencySample(100);
+        assertEquals(100.0, load.score(), 0.0001);
+        load.requestStarted();
+        assertEquals(1, load.outstandingRequests());
+        assertEquals(200.0, load.score(), 0.0001);
+        load.requestCompleted(200);
+        assertEquals(0, load.outstandingRequests());
+        assertEquals(110.0, load.averageLatency(), 0.0001);
+    }
+
+    public void testPingsAreOnlyUsedUntilRequestsAreAnswered() {
+        BackendLoad load = new BackendLoad();
+        load.addPingSample(2);
+        assertEquals(2.0, load.averageLatency(), 0.0001);
+        load.requestStarted();
+        load.requestCompleted(100);
+        assertEquals(100.0, load.averageLatency(), 0.0001);
+        for (int i = 0; i < 10; i++)
+            load.addPingSample(1);
+        assertEquals(100.0, load.averageLatency(), 0.0001);
+    }
+
 }
@@ -0,0 +1,215 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.prelude.fastsearch.test;
+
+import com.yahoo.fs4.BasicPacket;
+import com.yahoo.fs4.BufferTooSmallException;
+import com.yahoo.fs4.DocumentInfo;
+import com.yahoo.fs4.PacketDecoder;
+import com.yahoo.fs4.QueryPacket;
+import com.yahoo.fs4.QueryResultPacket;
+import com.yahoo.prelude.fastsearch.CacheKey;
+import com.yahoo.prelude.fastsearch.PacketWrapper;
+import com.yahoo.prelude.fastsearch.SegmentedPacketCache;
+import com.yahoo.search.Query;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the segmented packet cache
+ *
+ * @author bratseth
+ */
+public class SegmentedPacketCacheTestCase {
+
+    private static final int length = PacketCacheTestCase.length;
+
+    private static final CacheKey key1 = PacketCacheTestCase.key1;
+    private static final CacheKey key2 = PacketCacheTestCase.key2;
+    private static final CacheKey key3 = PacketCacheTestCase.key3;
+
+    @Test
+    public void testPutAndGetWithSingleSegment() throws BufferTooSmallException {
+        SegmentedPacketCache cache = new SegmentedPacketCache((length + 30) * 3 - 1, 1e64, 1);
+        cache.setMaxCacheItemPercentage(50);
+        assertEquals(1, cache.getSegmentCount());
+
+        cache.put(key1, createCacheEntry(key1));
+        cache.put(key2, createCacheEntry(key2));
+        assertNotNull(cache.get(key1));
+        assertNotNull(cache.get(key2));
+        assertEquals((30 + length) * 2, cache.totalPacketSize());
+
+        // key1 is the least recently used, and is evicted to make room for key3
+        cache.get(key2);
+        cache.put(key3, createCacheEntry(key3));
+        assertNull(cache.get(key1));
+        assertNotNull(cache.get(key2));
+        assertNotNull(cache.get(key3));
+        assertEquals((30 + length) * 2, cache.totalPacketSize());
+
+        assertEquals(1, cache.evictionCount());
+        assertEquals(5, cache.hitCount());
+        assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    public void testSegmentCountIsRoundedToPowerOfTwo() {
+        assertEquals(8, new SegmentedPacketCache(1 << 20, 1e64, 5).getSegmentCount());
+        assertEquals(16, new SegmentedPacketCache(1 << 20, 1e64).getSegmentCount());
+        assertEquals(2, new SegmentedPacketCache(2, 1e64, 16).getSegmentCount());
+    }
+
+    @Test
+    public void testManyKeysAreKeptWithinCapacity() throws BufferTooSmallException {
+        long capacity = length * 100;
+        SegmentedPacketCache cache = new SegmentedPacketCache(capacity, 1e64, 4);
+        cache.setMaxCacheItemPercentage(10);
+        for (int i = 0; i < 1000; i++)
+            cache.put(new CacheKey(QueryPacket.create(new Query("/?query=key" + i))), createCacheEntry(null));
+        assertEquals(cache.size() * length, cache.totalPacketSize());
+        assertEquals(1000, cache.size() + cache.evictionCount());
+        assertEquals(true, cache.totalPacketSize() <= capacity);
+    }
+
+    @Test
+    public void testCapacityAbove2Gb() {
+        SegmentedPacketCache cache = new SegmentedPacketCache(3L << 30, 1e64);
+        assertEquals(3L << 30, cache.getByteCapacity());
+        assertEquals(3072, cache.getCapacity());
+    }
+
+    @Test
+    public void testTooLargeItem() throws BufferTooSmallException {
+        SegmentedPacketCache cache = new SegmentedPacketCache(100, 1e64, 1);
+        cache.setMaxCacheItemPercentage(50);
+        cache.put(key1, createCacheEntry(null));
+        assertNull(cache.get(key1));
+        assertEquals(0, cache.totalPacketSize());
+    }
+
+    @Test
+    public void testEntryAging() throws BufferTooSmallException {
+        SegmentedPacketCache cache = new SegmentedPacketCache(1024, 5 * 3600, 1);
+        cache.setMaxCacheItemPercentage(50);
+        cache.put(key1, createCacheEntry(null), System.currentTimeMillis() - 10 * 3600 * 1000);
+        cache.put(key2, createCacheEntry(null), System.currentTimeMillis());
+        assertNull(cache.get(key1));
+        assertNotNull(cache.get(key2));
+        assertEquals(1, cache.expirationCount());
+        assertEquals(length, cache.totalPacketSize());
+    }
+
+    @Test
+    public void testClearingAndRemoving() throws BufferTooSmallException {
+        SegmentedPacketCache cache = new SegmentedPacketCache(length * 8, 1e64, 2);
+        cache.setMaxCacheItemPercentage(50);
+        cache.put(key1, createCacheEntry(null));
+        cache.put(key2, createCacheEntry(null));
+        cache.remove(key1);
+        assertNull(cache.get(key1));
+        assertNotNull(cache.get(key2));
+        assertEquals(length, cache.totalPacketSize());
+        cache.clear();
+        assertNull(cache.get(key2));
+        assertEquals(0, cache.totalPacketSize());
+    }
+
+    @Test
+    public void testOffHeapStorage() throws BufferTooSmallException {
+        SegmentedPacketCache cache = new SegmentedPacketCache(length * 8, 1e64, 1, true);
+        cache.setMaxCacheItemPercentage(50);
+        assertTrue(cache.isOffHeap());
+
+        PacketWrapper original = new PacketWrapper(key1, new BasicPacket[] { createResultPacket() });
+        long timestamp = System.currentTimeMillis();
+        cache.put(key1, original, timestamp);
+        assertEquals(original.getPacketsSize(), cache.totalPacketSize());
+
+        PacketWrapper cached = cache.get(key1);
+        assertNotNull(cached);
+        assertNotSame(original, cached);
+        assertNotSame(cached, cache.get(key1));
+        assertEquals(original.getPacketsSize(), cached.getPacketsSize());
+
+        QueryResultPacket originalPacket = original.getFirstResultPacket();
+        QueryResultPacket cachedPacket = cached.getFirstResultPacket();
+        assertEquals(timestamp, cachedPacket.getTimestamp());
+        assertEquals(originalPacket.getOffset(), cachedPacket.getOffset());
+        assertEquals(originalPacket.getTotalDocumentCount(), cachedPacket.getTotalDocumentCount());
+        assertEquals(originalPacket.getDocstamp(), cachedPacket.getDocstamp());
+        assertEquals(originalPacket.getCoverageDocs(), cachedPacket.getCoverageDocs());
+        assertEquals(originalPacket.getActiveDocs(), cachedPacket.getActiveDocs());
+        assertEquals(2, cachedPacket.getDocumentCount());
+        for (int i = 0; i < originalPacket.getDocumentCount(); i++) {
+            DocumentInfo originalDocument = originalPacket.getDocuments().get(i);
+            DocumentInfo cachedDocument = cachedPacket.getDocuments().get(i);
+            assertEquals(originalDocument.getGlobalId(), cachedDocument.getGlobalId());
+            assertEquals(originalDocument.getMetric(), cachedDocument.getMetric(), 0.0);
+            assertEquals(originalDocument.getPartId(), cachedDocument.getPartId());
+            assertEquals(originalDocument.getDistributionKey(), cachedDocument.getDistributionKey());
+        }
+
+        cache.remove(key1);
+        assertNull(cache.get(key1));
+        assertEquals(0, cache.totalPacketSize());
+    }
+
+    @Test
+    public void testOffHeapStorageReusesBlocksOfEvictedEntries() {
+        SegmentedPacketCache cache = new SegmentedPacketCache(4 * 1024, 1e64, 1, true); // 4 blocks of 1 kb
+        cache.setMaxCacheItemPercentage(50);
+        CacheKey last = null;
+        for (int i = 0; i < 1000; i++) {
+            last = new CacheKey(QueryPacket.create(new Query("/?query=key" + i)));
+            cache.put(last, new PacketWrapper(last, new BasicPacket[] { createResultPacket() }));
+        }
+        assertEquals(4, cache.size());
+        assertEquals(1000, cache.size() + cache.evictionCount());
+
+        PacketWrapper cached = cache.get(last);
+        assertNotNull(cached);
+        assertEquals(2, cached.getFirstResultPacket().getDocumentCount());
+        assertEquals(97, cached.getFirstResultPacket().getDocstamp());
+    }
+
+    /** Creates a result packet with coverage and two hits with partition information */
+    private QueryResultPacket createResultPacket() {
+        ByteBuffer data = ByteBuffer.allocate(1024);
+        data.putInt(0); // length, set below
+        data.putInt(217);
+        data.putInt(1); // channel
+        data.putInt(QueryResultPacket.QRF_MLD | QueryResultPacket.QRF_COVERAGE);
+        data.putInt(0); // offset
+        data.putInt(2); // document count
+        data.putLong(5); // total document count
+        data.putDouble(25.0); // max rank
+        data.putInt(97); // docstamp
+        data.putLong(1000); // coverage docs
+        data.putLong(2000); // active docs
+        for (int i = 1; i <= 2; i++) {
+            data.put(new byte[] { (byte)i, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1 });
+            data.putDouble(20.0 + i); // metric
+            data.putInt(i); // partition
+            data.putInt(10 + i); // distribution key
+        }
+        data.putInt(0, data.position() - 4);
+        data.flip();
+        return (QueryResultPacket) PacketDecoder.decode(data);
+    }
+
+    private PacketWrapper createCacheEntry(CacheKey key) throws BufferTooSmallException {
+        ByteBuffer data = ByteBuffer.allocate(length);
+        data.put(PacketCacheTestCase.queryResultPacketData);
+        data.flip();
+        BasicPacket[] content = new BasicPacket[] { PacketDecoder.extractPacket(data).packet };
+        return new PacketWrapper(key, content);
+    }
+
+}
@@ -2,14 +2,23 @@
 package com.yahoo.search.dispatch;
 
 import com.yahoo.compress.CompressionType;
+import com.yahoo.compress.Compressor;
+import com.yahoo.container.handler.VipStatus;
 import com.yahoo.prelude.fastsearch.FastHit;
+import com.yahoo.prelude.fastsearch.TimeoutException;
 import com.yahoo.search.Query;
 import com.yahoo.search.Result;
+import com.yahoo.search.result.Hit;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 
 /**
@@ -73,6 +82,111 @@ public class FillTestCase {
         assertEquals("Malfunctioning", result.hits().getError().getDetailedMessage());
     }
 
+    @Test
+    public void testCoalescingOfConcurrentRequests() throws TimeoutException {
+        Client.NodeConnection node = client.createConnection("host0", 123);
+        client.setDeferResponses(true);
+        Compressor compressor = new Compressor();
+        List<Runnable> executor = new ArrayList<>();
+        GetDocsumsCoalescer coalescer = new GetDocsumsCoalescer(client, node, compressor, 1, executor::add);
+
+        for (int i = 0; i < 4; i++)
+            client.setDocsumReponse("host0", i, "summaryClass1", map("field1", "s.0." + i, "field2", i));
+
+        Result result1 = new Result(new Query());
+        result1.hits().add(createHit(0, 0));
+        result1.hits().add(createHit(0, 1));
+        Result result2 = new Result(new Query());
+        result2.hits().add(createHit(0, 2));
+        Result result3 = new Result(new Query());
+        result3.hits().add(createHit(0, 3));
+
+        List<Dispatcher.GetDocsumsResponseReceiver> receivers = new ArrayList<>();
+        for (Result result : Arrays.asList(result1, result2, result3)) {
+            Dispatcher.GetDocsumsResponseReceiver receiver = new Dispatcher.GetDocsumsResponseReceiver(1, compressor, result);
+            receivers.add(receiver);
+            coalescer.getDocsums(fastHits(result), "summaryClass1", "default", CompressionType.LZ4, 10.0, receiver);
+        }
+        assertEquals("The first request is sent at once, the others wait for it", 1, client.getDocsumsCount());
+
+        client.sendDeferredResponses();
+        assertEquals("The waiting requests are not sent in the thread completing the first", 1, client.getDocsumsCount());
+        assertEquals(1, executor.size());
+        executor.get(0).run();
+        assertEquals("The waiting requests are sent in one rpc", 2, client.getDocsumsCount());
+        assertEquals(1.5, coalescer.coalescingFactor(), 0.0000001);
+        client.sendDeferredResponses();
+
+        receivers.get(0).processResponses(result1.getQuery());
+        receivers.get(1).processResponses(result2.getQuery());
+        receivers.get(2).processResponses(result3.getQuery());
+        assertEquals("s.0.0", result1.hits().get("hit:0").getField("field1").toString());
+        assertEquals("s.0.1", result1.hits().get("hit:1").getField("field1").toString());
+        assertEquals("s.0.2", result2.hits().get("hit:2").getField("field1").toString());
+        assertEquals("s.0.3", result3.hits().get("hit:3").getField("field1").toString());
+        assertEquals(3L, result3.hits().get("hit:3").getField("field2"));
+    }
+
+    @Test
+    public void testFillingWithCoalescingEnabled() {
+        Map<Integer, Client.NodeConnection> nodes = new HashMap<>();
+        nodes.put(0, client.createConnection("host0", 123));
+        nodes.put(1, client.createConnection("host1", 123));
+        Dispatcher dispatcher = new Dispatcher(nodes, client, 2);
+
+        Result result = new Result(new Query());
+        result.hits().add(createHit(0, 0));
+        result.hits().add(createHit(1, 1));
+        result.hits().add(createHit(0, 2));
+        client.setDocsumReponse("host0", 0, "summaryClass1", map("field1", "s.0.0", "field2", 0));
+        client.setDocsumReponse("host1", 1, "summaryClass1", map("field1", "s.1.1", "field2", 1));
+        client.setDocsumReponse("host0", 2, "summaryClass1", map("field1", "s.0.2", "field2", 2));
+        dispatcher.fill(result, "summaryClass1", CompressionType.valueOf("LZ4"));
+
+        assertEquals("s.0.0", result.hits().get("hit:0").getField("field1").toString());
+        assertEquals("s.1.1", result.hits().get("hit:1").getField("field1").toString());
+        assertEquals("s.0.2", result.hits().get("hit:2").getField("field1").toString());
+    }
+
+    @Test
+    public void testHedgedFilling() {
+        Map<Integer, Client.NodeConnection> nodes = new HashMap<>();
+        nodes.put(0, client.createConnection("host0", 123));
+        nodes.put(1, client.createConnection("host1", 123));
+        SearchCluster searchCluster = new SearchCluster(97.0,
+                                                        Arrays.asList(new SearchCluster.Node(0, "host0", 123, 0),
+                                                                      new SearchCluster.Node(1, "host1", 123, 1)),
+                                                        null, 1, new VipStatus());
+        HedgingPolicy hedging = new HedgingPolicy(95.0, 0, 1, 1);
+        hedging.responseReceived(10);
+        assertEquals(10, hedging.hedgeDelay());
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        Dispatcher dispatcher = new Dispatcher(searchCluster, nodes, client, 0, hedging, scheduler);
+
+        client.setStalling("host0");
+        Result result = new Result(new Query());
+        result.hits().add(createHit(0, 0));
+        result.hits().add(createHit(0, 1));
+        client.setDocsumReponse("host1", 0, "summaryClass1", map("field1", "s.1.0", "field2", 0));
+        client.setDocsumReponse("host1", 1, "summaryClass1", map("field1", "s.1.1", "field2", 1));
+        dispatcher.fill(result, "summaryClass1", CompressionType.valueOf("LZ4"));
+        scheduler.shutdown();
+
+        assertEquals("s.1.0", result.hits().get("hit:0").getField("field1").toString());
+        assertEquals("s.1.1", result.hits().get("hit:1").getField("field1").toString());
+        assertEquals(2, client.getDocsumsCount());
+        assertEquals("The stalled request is cancelled", 1, client.cancelCount());
+        assertEquals(1.0, hedging.hedgeRate(), 0.000001);
+        assertEquals(1.0, hedging.hedgeWinRate(), 0.000001);
+    }
+
+    private List<FastHit> fastHits(Result result) {
+        List<FastHit> hits = new ArrayList<>();
+        for (Hit hit : result.hits())
+            hits.add((FastHit)hit);
+        return hits;
+    }
+
     private FastHit createHit(int sourceNodeId, int hitId) {
         FastHit hit = new FastHit("hit:" + hitId, 1.0);
         hit.setPartId(sourceNodeId, 0);
@@ -0,0 +1,53 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.search.dispatch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * @author bratseth
+ */
+public class HedgingPolicyTestCase {
+
+    @Test
+    public void testHedgeDelay() {
+        HedgingPolicy policy = new HedgingPolicy(90.0, 5, 10, 5);
+        for (int i = 1; i <= 9; i++)
+            policy.responseReceived(i * 10);
+        assertEquals("No delay until the window is filled", -1, policy.hedgeDelay());
+        policy.responseReceived(100);
+        assertEquals(90, policy.hedgeDelay());
+
+        for (int i = 0; i < 5; i++)
+            policy.responseReceived(1000);
+        assertEquals("Oldest samples are replaced", 1000, policy.hedgeDelay());
+
+        for (int i = 0; i < 10; i++)
+            policy.responseReceived(1);
+        assertEquals("Min delay is respected", 5, policy.hedgeDelay());
+    }
+
+    @Test
+    public void testStatistics() {
+        HedgingPolicy policy = new HedgingPolicy(95.0, 0);
+        assertEquals(0, policy.hedgeRate(), 0.000001);
+        for (int i = 0; i < 4; i++)
+            policy.requestSent();
+        policy.hedgeSent();
+        policy.hedgeSent();
+        policy.hedgeWon();
+        assertEquals(0.5, policy.hedgeRate(), 0.000001);
+        assertEquals(0.5, policy.hedgeWinRate(), 0.000001);
+    }
+
+    @Test
+    public void testDisabled() {
+        HedgingPolicy policy = HedgingPolicy.disabled();
+        assertFalse(policy.isEnabled());
+        policy.responseReceived(10);
+        assertEquals(-1, policy.hedgeDelay());
+    }
+
+}
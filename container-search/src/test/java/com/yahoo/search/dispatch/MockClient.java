@@ -14,8 +14,10 @@ import com.yahoo.slime.Slime;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * @author bratseth
@@ -25,19 +27,60 @@ public class MockClient implements Client {
     private final Map<DocsumKey, Map<String, Object>> docsums = new HashMap<>();
     private final Compressor compressor = new Compressor();
     private boolean malfunctioning = false;
+    private boolean deferResponses = false;
+    private final List<Runnable> deferredResponses = new ArrayList<>();
+    private final Set<String> stallingNodes = new HashSet<>();
+    private int getDocsumsCount = 0;
+    private int cancelCount = 0;
 
     /** Set to true to cause this to produce an error instead of a regular response */
     public void setMalfunctioning(boolean malfunctioning) { this.malfunctioning = malfunctioning; }
 
+    /** Set to true to hold back responses until {@link #sendDeferredResponses} is called */
+    public void setDeferResponses(boolean deferResponses) { this.deferResponses = deferResponses; }
+
+    /** Sends all deferred responses, including those to requests made while sending them */
+    public void sendDeferredResponses() {
+        while ( ! deferredResponses.isEmpty()) {
+            List<Runnable> responses = new ArrayList<>(deferredResponses);
+            deferredResponses.clear();
+            responses.forEach(Runnable::run);
+        }
+    }
+
+    /** Returns the number of getDocsums requests made to this */
+    public int getDocsumsCount() { return getDocsumsCount; }
+
+    /** Causes responses from the given node to be deferred as with {@link #setDeferResponses} */
+    public void setStalling(String nodeId) { stallingNodes.add(nodeId); }
+
+    /** Returns the number of requests which have been cancelled */
+    public int cancelCount() { return cancelCount; }
+
     @Override
     public NodeConnection createConnection(String hostname, int port) {
         return new MockNodeConnection(hostname, port);
     }
 
     @Override
-    public void getDocsums(List<FastHit> hitsContext, NodeConnection node, CompressionType compression,
-                           int uncompressedSize, byte[] compressedSlime, Dispatcher.GetDocsumsResponseReceiver responseReceiver,
-                           double timeoutSeconds) {
+    public RequestHandle getDocsums(List<FastHit> hitsContext, NodeConnection node, CompressionType compression,
+                                    int uncompressedSize, byte[] compressedSlime, ResponseReceiver responseReceiver,
+                                    double timeoutSeconds) {
+        getDocsumsCount++;
+        MockRequestHandle request = new MockRequestHandle();
+        if (deferResponses || stallingNodes.contains(node.toString())) {
+            deferredResponses.add(() -> {
+                if ( ! request.cancelled)
+                    respond(hitsContext, node, compression, uncompressedSize, compressedSlime, responseReceiver);
+            });
+            return request;
+        }
+        respond(hitsContext, node, compression, uncompressedSize, compressedSlime, responseReceiver);
+        return request;
+    }
+
+    private void respond(List<FastHit> hitsContext, NodeConnection node, CompressionType compression,
+                         int uncompressedSize, byte[] compressedSlime, ResponseReceiver responseReceiver) {
         if (malfunctioning) {
             responseReceiver.receive(GetDocsumsResponseOrError.fromError("Malfunctioning"));
             return;
@@ -80,6 +123,19 @@ public class MockClient implements Client {
         return new GlobalId(new IdIdString("", "test", "", String.valueOf(hitId)));
     }
 
+    private class MockRequestHandle implements RequestHandle {
+
+        boolean cancelled = false;
+
+        @Override
+        public void cancel() {
+            if (cancelled) return;
+            cancelled = true;
+            cancelCount++;
+        }
+
+    }
+
     private static class MockNodeConnection implements Client.NodeConnection {
 
         private final String hostname;
@@ -163,6 +163,36 @@ public class Call implements Cloneable {
         }
     }
 
+    /**
+     * Call the DocumentProcessor of this call with a batch of processings.
+     *
+     * @param processings the Processing objects to use
+     * @return the progress of each processing, in the same order as the given processings
+     * @throws IllegalStateException if the DocumentProcessor does not return one progress per processing
+     */
+    public List<DocumentProcessor.Progress> call(List<Processing> processings) {
+        try {
+            int numDocs = 0;
+            for (Processing processing : processings) {
+                numDocs += processing.getDocumentOperations().size();
+                schemaMapProcessing(processing);
+            }
+            long startTime = SystemTimer.INSTANCE.milliTime();
+            List<DocumentProcessor.Progress> retval = processor.processBatch(processings);
+            incrementProcTime(SystemTimer.INSTANCE.milliTime() - startTime);
+            incrementDocs(numDocs);
+            if (retval.size() != processings.size()) {
+                throw new IllegalStateException(processor + " returned " + retval.size() + " progresses for " +
+                                                processings.size() + " processings");
+            }
+            return retval;
+        } finally {
+            for (Processing processing : processings) {
+                unwrapSchemaMapping(processing);
+            }
+        }
+    }
+
     public String toString() {
         return "call to class " + processor.getClass().getName() + " (id: " + getDocumentProcessorId() + ")";
     }
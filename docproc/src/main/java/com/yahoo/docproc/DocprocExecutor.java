@@ -1,6 +1,7 @@
 // Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
 package com.yahoo.docproc;
 
+import com.yahoo.component.ComponentId;
 import com.yahoo.document.DocumentOperation;
 import com.yahoo.document.DocumentPut;
 import com.yahoo.document.json.JsonWriter;
@@ -9,7 +10,14 @@ import com.yahoo.log.LogLevel;
 import com.yahoo.statistics.Counter;
 import com.yahoo.text.Utf8;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
 /**
@@ -20,6 +28,7 @@ import java.util.logging.Logger;
 public class DocprocExecutor {
 
     private final static String METRIC_NAME_DOCUMENTS_PROCESSED = "documents_processed";
+    private final static String METRIC_NAME_BATCH_SIZE = "batch_size";
 
     private static final Logger log = Logger.getLogger(DocprocExecutor.class.getName());
 
@@ -29,6 +38,7 @@ public class DocprocExecutor {
     private final Metric metric;
     private Metric.Context context;
     private final CallStack callStack;
+    private volatile Set<ComponentId> batchingProcessors = Collections.emptySet();
 
     /**
      * Creates a new named DocprocExecutor with the given CallStack.
@@ -67,6 +77,7 @@ public class DocprocExecutor {
         this.metric = oldExecutor.metric;
         this.context = oldExecutor.context;
         this.callStack = callStack;
+        this.batchingProcessors = oldExecutor.batchingProcessors;
     }
 
     public CallStack getCallStack() {
@@ -77,6 +88,34 @@ public class DocprocExecutor {
         return name;
     }
 
+    /**
+     * Sets the ids of the document processors which should receive batches when processing
+     * several processings at once. Other processors are called with one processing at a time.
+     *
+     * @param batchingProcessors the ids of the processors to call with batches
+     */
+    public void setBatchingProcessors(Set<ComponentId> batchingProcessors) {
+        this.batchingProcessors = Collections.unmodifiableSet(batchingProcessors);
+    }
+
+    /** Returns the ids of the document processors which receive batches */
+    public Set<ComponentId> getBatchingProcessors() {
+        return batchingProcessors;
+    }
+
+    /** Returns true if any of the processors in the CallStack of this executor receive batches */
+    public boolean hasBatchingProcessors() {
+        if (batchingProcessors.isEmpty()) {
+            return false;
+        }
+        for (Iterator<Call> i = callStack.iterator(); i.hasNext(); ) {
+            if (batchingProcessors.contains(i.next().getDocumentProcessorId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void incrementNumDocsProcessed(int num) {
         docCounter.increment(num);
         metric.add(docCounterName, num, null);
@@ -131,6 +170,96 @@ public class DocprocExecutor {
         return progress;
     }
 
+    /**
+     * Processes a batch of Processings through the CallStack of this executor. The processings are moved
+     * through their call stacks in step, and whenever several of them are to be passed to the same batching
+     * document processor, they are passed to it together, see {@link DocumentProcessor#processBatch}.
+     * Processings for which a processor returns anything but DONE are not processed further.
+     * If a processor which does not receive batches throws an exception, only the processing passed to it fails,
+     * and its progress is a {@link FailureProgress} holding the exception.
+     *
+     * @param processings the Processings to process. The CallStack of each Processing will be set to a clone of the CallStack of this executor, iff. it is currently null.
+     * @return the Progress of each Processing, in the same order as the given processings; if this is LATER, the Processing is not done and must be reprocessed later.
+     * @throws RuntimeException if a document processor receiving a batch throws an exception during processing.
+     * @see #process(Processing)
+     */
+    public List<DocumentProcessor.Progress> process(List<Processing> processings) {
+        DocumentProcessor.Progress[] progress = new DocumentProcessor.Progress[processings.size()];
+        Arrays.fill(progress, DocumentProcessor.Progress.DONE);
+        List<Integer> active = new ArrayList<>(processings.size());
+        for (int i = 0; i < processings.size(); i++) {
+            Processing processing = processings.get(i);
+            processing.setServiceName(getName());
+            if (processing.callStack() == null) {
+                processing.setCallStack(new CallStack(getCallStack()));
+            }
+            //TODO: As in process(Processing), documents are counted several times in case of Progress.LATER
+            incrementNumDocsProcessed(processing);
+            active.add(i);
+        }
+        metric.set(METRIC_NAME_BATCH_SIZE, processings.size(), this.context);
+
+        while ( ! active.isEmpty()) {
+            // Group the processings by the processor they are to be passed to next, keeping the order
+            Map<DocumentProcessor, List<Integer>> groups = new IdentityHashMap<>();
+            List<DocumentProcessor> order = new ArrayList<>();
+            Call[] calls = new Call[processings.size()];
+            for (int i : active) {
+                Call call = processings.get(i).callStack().pop();
+                if (call == null) continue; // No more processors - done
+                calls[i] = call;
+                List<Integer> group = groups.get(call.getDocumentProcessor());
+                if (group == null) {
+                    group = new ArrayList<>();
+                    groups.put(call.getDocumentProcessor(), group);
+                    order.add(call.getDocumentProcessor());
+                }
+                group.add(i);
+            }
+
+            active = new ArrayList<>(active.size());
+            for (DocumentProcessor processor : order) {
+                List<Integer> group = groups.get(processor);
+                List<DocumentProcessor.Progress> groupProgress = call(group, calls, processings);
+                for (int j = 0; j < group.size(); j++) {
+                    int i = group.get(j);
+                    progress[i] = groupProgress.get(j);
+                    if (log.isLoggable(LogLevel.SPAM)) {
+                        logProgress(processings.get(i), progress[i], calls[i]);
+                    }
+                    if (DocumentProcessor.Progress.LATER.equals(progress[i])) {
+                        processings.get(i).callStack().addNext(calls[i]);
+                    } else if (DocumentProcessor.Progress.DONE.equals(progress[i])) {
+                        active.add(i);
+                    }
+                }
+            }
+            Collections.sort(active);
+        }
+        return Arrays.asList(progress);
+    }
+
+    private List<DocumentProcessor.Progress> call(List<Integer> group, Call[] calls, List<Processing> processings) {
+        Call first = calls[group.get(0)];
+        if (group.size() > 1 && batchingProcessors.contains(first.getDocumentProcessorId())) {
+            List<Processing> batch = new ArrayList<>(group.size());
+            for (int i : group) {
+                batch.add(processings.get(i));
+            }
+            //might throw exception, which is OK:
+            return first.call(batch);
+        }
+        List<DocumentProcessor.Progress> progress = new ArrayList<>(group.size());
+        for (int i : group) {
+            try {
+                progress.add(calls[i].call(processings.get(i)));
+            } catch (Exception e) {
+                progress.add(new FailureProgress(e));
+            }
+        }
+        return progress;
+    }
+
     private void logProgress(Processing processing, DocumentProcessor.Progress progress, Call call) {
         StringBuilder message = new StringBuilder();
         boolean first = true;
@@ -182,4 +311,24 @@ public class DocprocExecutor {
         }
         return progress;
     }
+    /**
+     * The progress of a processing which failed because a document processor threw an exception when the
+     * processing was processed in a batch. This equals {@link DocumentProcessor.Progress#FAILED}.
+     */
+    public static final class FailureProgress extends DocumentProcessor.Progress {
+
+        private final Exception exception;
+
+        private FailureProgress(Exception exception) {
+            super("failed", String.valueOf(exception.getMessage()));
+            this.exception = exception;
+        }
+
+        /** Returns the exception thrown by the document processor */
+        public Exception getException() {
+            return exception;
+        }
+
+    }
+
 }
@@ -4,7 +4,9 @@ package com.yahoo.docproc;
 import com.yahoo.collections.Pair;
 import com.yahoo.component.chain.ChainedComponent;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
@@ -72,6 +74,23 @@ public abstract class DocumentProcessor extends ChainedComponent {
      */
     public abstract Progress process(Processing processing);
 
+    /**
+     * Processes a batch of processings which have all reached this processor. This is only called
+     * for processors which are configured to receive batches, and allows processors which have a
+     * large fixed cost per call to amortize it over several processings. The default implementation
+     * processes each processing in turn by calling {@link #process(Processing)}.
+     *
+     * @param processings the processings to process
+     * @return the outcome of each processing, in the same order as the given processings
+     */
+    public List<Progress> processBatch(List<Processing> processings) {
+        List<Progress> progress = new ArrayList<>(processings.size());
+        for (Processing processing : processings) {
+            progress.add(process(processing));
+        }
+        return progress;
+    }
+
     public String toString() {
         return "processor " + getId().stringValue();
     }
@@ -0,0 +1,114 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.docproc.jdisc;
+
+import com.yahoo.docproc.DocprocService;
+import com.yahoo.jdisc.Metric;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Gathers the tasks of concurrent requests to the same docproc service into batches, such that document
+ * processors which process batches can amortize their cost per call. A batch is submitted when it reaches
+ * the max batch size, or when the linger time has passed since its first task was added.
+ *
+ * @author bratseth
+ */
+class DocumentProcessingBatcher {
+
+    private final static String METRIC_NAME_BATCH_LINGER_TIME = "batch_linger_time";
+
+    private final int maxBatchSize;
+    private final long lingerMs;
+    private final ScheduledExecutorService timer;
+    private final Consumer<DocumentProcessingTask> submitter;
+    private final Metric metric;
+
+    /** The batches which are not yet submitted, per service. Guarded by this */
+    private final Map<DocprocService, Batch> pending = new IdentityHashMap<>();
+
+    /**
+     * Creates a batcher.
+     *
+     * @param maxBatchSize the max number of tasks to submit as one batch
+     * @param lingerMs the max time in milliseconds to wait for more tasks before submitting a batch
+     * @param timer the executor used to submit batches when the linger time has passed
+     * @param submitter receives the first task of each batch, with the rest of the batch added to it
+     * @param metric the metric receiving the time spent waiting for more tasks
+     */
+    DocumentProcessingBatcher(int maxBatchSize, long lingerMs, ScheduledExecutorService timer,
+                              Consumer<DocumentProcessingTask> submitter, Metric metric) {
+        if (maxBatchSize < 1)
+            throw new IllegalArgumentException("Max batch size must be at least 1, but was " + maxBatchSize);
+        if (lingerMs < 0)
+            throw new IllegalArgumentException("Linger time can not be negative, but was " + lingerMs);
+        this.maxBatchSize = maxBatchSize;
+        this.lingerMs = lingerMs;
+        this.timer = timer;
+        this.submitter = submitter;
+        this.metric = metric;
+    }
+
+    /** Adds a task to the batch of the given service, and submits the batch if it is full */
+    void add(DocumentProcessingTask task, DocprocService service) {
+        Batch full = null;
+        synchronized (this) {
+            Batch batch = pending.get(service);
+            if (batch == null) {
+                batch = new Batch();
+                pending.put(service, batch);
+                if (lingerMs > 0 && maxBatchSize > 1) {
+                    Batch lingering = batch;
+                    timer.schedule(() -> expire(service, lingering), lingerMs, TimeUnit.MILLISECONDS);
+                }
+            }
+            batch.tasks.add(task);
+            if (batch.tasks.size() >= maxBatchSize || lingerMs == 0) {
+                pending.remove(service);
+                full = batch;
+            }
+        }
+        if (full != null) {
+            submit(full);
+        }
+    }
+
+    /** Returns the number of tasks which are waiting to be submitted */
+    synchronized int pendingCount() {
+        int count = 0;
+        for (Batch batch : pending.values()) {
+            count += batch.tasks.size();
+        }
+        return count;
+    }
+
+    private void expire(DocprocService service, Batch batch) {
+        synchronized (this) {
+            if (pending.get(service) != batch) return; // already submitted
+            pending.remove(service);
+        }
+        submit(batch);
+    }
+
+    private void submit(Batch batch) {
+        metric.set(METRIC_NAME_BATCH_LINGER_TIME, System.currentTimeMillis() - batch.createdMs, null);
+        DocumentProcessingTask first = batch.tasks.get(0);
+        if (batch.tasks.size() > 1) {
+            first.batchWith(batch.tasks.subList(1, batch.tasks.size()));
+        }
+        submitter.accept(first);
+    }
+
+    private static class Batch {
+
+        private final List<DocumentProcessingTask> tasks = new ArrayList<>();
+        private final long createdMs = System.currentTimeMillis();
+
+    }
+
+}
@@ -2,6 +2,7 @@
 package com.yahoo.docproc.jdisc;
 
 import com.google.inject.Inject;
+import com.yahoo.component.ComponentId;
 import com.yahoo.component.chain.Chain;
 import com.yahoo.component.chain.model.ChainsModel;
 import com.yahoo.component.provider.ComponentRegistry;
@@ -30,6 +31,9 @@ import com.yahoo.messagebus.jdisc.MbusRequest;
 import com.yahoo.processing.execution.chain.ChainRegistry;
 import com.yahoo.statistics.Statistics;
 
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
 import java.util.TimerTask;
 import java.util.concurrent.*;
 import java.util.logging.Logger;
@@ -53,6 +57,7 @@ public class DocumentProcessingHandler extends AbstractRequestHandler {
             new ScheduledThreadPoolExecutor(2, new DaemonThreadFactory("docproc-later-"));
     private ContainerDocumentConfig containerDocConfig;
     private final DocumentTypeManager documentTypeManager;
+    private final DocumentProcessingBatcher batcher;
 
     public DocumentProcessingHandler(ComponentRegistry<DocprocService> docprocServiceRegistry,
                                      ComponentRegistry<DocumentProcessor> documentProcessorComponentRegistry,
@@ -61,6 +66,23 @@ public class DocumentProcessingHandler extends AbstractRequestHandler {
                                      ChainsModel chainsModel, SchemaMap schemaMap, Statistics statistics,
                                      Metric metric,
                                      ContainerDocumentConfig containerDocConfig) {
+        this(docprocServiceRegistry, documentProcessorComponentRegistry, docFactoryRegistry, threadPool,
+             documentTypeManager, chainsModel, schemaMap, statistics, metric, containerDocConfig,
+             1, 1, Collections.emptySet());
+    }
+
+    /**
+     * Creates a handler which processes concurrent requests to the same chain together as batches
+     * if maxBatchSize is larger than 1 and the chain contains any of the given batching processors.
+     */
+    public DocumentProcessingHandler(ComponentRegistry<DocprocService> docprocServiceRegistry,
+                                     ComponentRegistry<DocumentProcessor> documentProcessorComponentRegistry,
+                                     ComponentRegistry<AbstractConcreteDocumentFactory> docFactoryRegistry,
+                                     DocprocThreadPoolExecutor threadPool, DocumentTypeManager documentTypeManager,
+                                     ChainsModel chainsModel, SchemaMap schemaMap, Statistics statistics,
+                                     Metric metric,
+                                     ContainerDocumentConfig containerDocConfig,
+                                     int maxBatchSize, long batchLingerMs, Set<ComponentId> batchingProcessors) {
         this.docprocServiceRegistry = docprocServiceRegistry;
         this.docFactoryRegistry = docFactoryRegistry;
         this.threadPool = threadPool;
@@ -70,6 +92,9 @@ public class DocumentProcessingHandler extends AbstractRequestHandler {
         threadPool.prestartCoreThread();
         laterExecutor.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
         laterExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.batcher = (maxBatchSize > 1) ? new DocumentProcessingBatcher(maxBatchSize, batchLingerMs, laterExecutor,
+                                                                         this::submit, metric)
+                                          : null;
 
         if (chainsModel != null) {
             prepareChainRegistry(chainRegistry, chainsModel, documentProcessorComponentRegistry);
@@ -78,6 +103,7 @@ public class DocumentProcessingHandler extends AbstractRequestHandler {
                 log.config("Setting up call stack for chain " + chain.getId());
                 DocprocService service =
                         new DocprocService(chain.getId(), convertToCallStack(chain, statistics, metric), documentTypeManager);
+                service.getExecutor().setBatchingProcessors(batchingProcessors);
                 service.setInService(true);
                 docprocServiceRegistry.register(service.getId(), service);
             }
@@ -103,7 +129,10 @@ public class DocumentProcessingHandler extends AbstractRequestHandler {
              params.getDocumentTypeManager(), params.getChainsModel(), params.getSchemaMap(),
              params.getStatisticsManager(),
              params.getMetric(),
-             params.getContainerDocConfig());
+             params.getContainerDocConfig(),
+             params.getMaxBatchSize(),
+             params.getBatchLingerMs(),
+             params.getBatchingProcessors());
     }
 
     @Inject
@@ -128,7 +157,18 @@ public class DocumentProcessingHandler extends AbstractRequestHandler {
                      .setChainsModel(buildFromConfig(chainsConfig)).setSchemaMap(configureMapping(mappingConfig))
                      .setStatisticsManager(manager)
                      .setMetric(metric)
-                     .setContainerDocumentConfig(containerDocConfig));
+                     .setContainerDocumentConfig(containerDocConfig)
+                     .setMaxBatchSize(docprocConfig.batching().maxsize())
+                     .setBatchLingerMs(docprocConfig.batching().lingerms())
+                     .setBatchingProcessors(toComponentIds(docprocConfig.batching().processors())));
+    }
+
+    private static Set<ComponentId> toComponentIds(Iterable<String> ids) {
+        Set<ComponentId> componentIds = new LinkedHashSet<>();
+        for (String id : ids) {
+            componentIds.add(ComponentId.fromString(id));
+        }
+        return componentIds;
     }
 
     @Override
@@ -190,7 +230,11 @@ public class DocumentProcessingHandler extends AbstractRequestHandler {
         }
 
         DocumentProcessingTask task = new DocumentProcessingTask(requestContext, this, service);
-        submit(task);
+        if (batcher != null && service.getExecutor().hasBatchingProcessors()) {
+            batcher.add(task, service);
+        } else {
+            submit(task);
+        }
         return null;
     }
 
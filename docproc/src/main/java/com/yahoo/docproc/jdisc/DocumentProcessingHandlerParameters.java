@@ -1,6 +1,7 @@
 // Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
 package com.yahoo.docproc.jdisc;
 
+import com.yahoo.component.ComponentId;
 import com.yahoo.component.chain.model.ChainsModel;
 import com.yahoo.container.core.document.ContainerDocumentConfig;
 import com.yahoo.docproc.jdisc.metric.NullMetric;
@@ -9,6 +10,9 @@ import com.yahoo.document.DocumentTypeManager;
 import com.yahoo.jdisc.Metric;
 import com.yahoo.statistics.Statistics;
 
+import java.util.Collections;
+import java.util.Set;
+
 /**
  * Class to hold parameters given to DocumentProcessingHandler, typically used by unit tests.
  *
@@ -27,6 +31,9 @@ public class DocumentProcessingHandlerParameters {
     private Statistics statisticsManager = Statistics.nullImplementation;
     private Metric metric = new NullMetric();
     private ContainerDocumentConfig containerDocConfig;
+    private int maxBatchSize = 1;
+    private long batchLingerMs = 1;
+    private Set<ComponentId> batchingProcessors = Collections.emptySet();
 
     public DocumentProcessingHandlerParameters() {
     }
@@ -166,4 +173,47 @@ public class DocumentProcessingHandlerParameters {
     public ContainerDocumentConfig getContainerDocConfig() {
         return containerDocConfig;
     }
+
+    /**
+     * Returns the max number of concurrent requests to the same chain which are processed together.&nbsp;The
+     * default value of 1 disables batching.
+     *
+     * @return the max number of concurrent requests to the same chain which are processed together.
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public DocumentProcessingHandlerParameters setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    /**
+     * Returns the max time (in milliseconds) to wait for more requests before processing a batch.
+     *
+     * @return the max time (in milliseconds) to wait for more requests before processing a batch.
+     */
+    public long getBatchLingerMs() {
+        return batchLingerMs;
+    }
+
+    public DocumentProcessingHandlerParameters setBatchLingerMs(long batchLingerMs) {
+        this.batchLingerMs = batchLingerMs;
+        return this;
+    }
+
+    /**
+     * Returns the ids of the document processors which should receive batches.
+     *
+     * @return the ids of the document processors which should receive batches.
+     */
+    public Set<ComponentId> getBatchingProcessors() {
+        return batchingProcessors;
+    }
+
+    public DocumentProcessingHandlerParameters setBatchingProcessors(Set<ComponentId> batchingProcessors) {
+        this.batchingProcessors = batchingProcessors;
+        return this;
+    }
 }
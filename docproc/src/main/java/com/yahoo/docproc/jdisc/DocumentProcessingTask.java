@@ -15,6 +15,7 @@ import com.yahoo.yolean.Exceptions;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
@@ -34,6 +35,9 @@ public class DocumentProcessingTask implements Comparable<DocumentProcessingTask
     private final DocumentProcessingHandler docprocHandler;
     private RequestContext requestContext;
     private int waitCounter;
+    private List<DocumentProcessingTask> batch = Collections.emptyList();
+    /** The size of the tasks batched with this, kept after they are run to keep the size of this unchanged */
+    private int batchApproxSize = 0;
 
     private final static AtomicLong seq = new AtomicLong();
     private final long seqNum;
@@ -48,24 +52,27 @@ public class DocumentProcessingTask implements Comparable<DocumentProcessingTask
         this.service = service;
     }
 
+    /**
+     * Makes this process the processings of the given tasks together with its own when it is run, such that
+     * document processors which process batches can process all of them at once. The given tasks must
+     * use the same DocprocService as this, and must not be submitted separately.
+     *
+     * @param tasks the tasks to process together with this
+     */
+    void batchWith(List<DocumentProcessingTask> tasks) {
+        batch = new ArrayList<>(tasks);
+        for (DocumentProcessingTask task : tasks) {
+            batchApproxSize += task.getApproxSize();
+        }
+    }
+
     @Override
     public void run() {
         try {
-            try {
-                processings.addAll(requestContext.getProcessings());
-            } catch (Exception e) {
-                //deserialization failed:
-                log.log(LogLevel.WARNING, "Deserialization of message failed.", e);
-                requestContext.processingFailed(e);
-                return;
-            }
-
-            DocprocExecutor executor = service.getExecutor();
-            DocumentProcessor.Progress progress = process(executor);
-
-            if (DocumentProcessor.Progress.LATER.equals(progress) && !processings.isEmpty()) {
-                DocumentProcessor.LaterProgress laterProgress = (DocumentProcessor.LaterProgress) progress;
-                docprocHandler.submit(this, laterProgress.getDelay());
+            if (batch.isEmpty()) {
+                runSingle();
+            } else {
+                runBatch();
             }
         } catch (Error error) {
             try {
@@ -78,6 +85,75 @@ public class DocumentProcessingTask implements Comparable<DocumentProcessingTask
         }
     }
 
+    private void runSingle() {
+        if ( ! addProcessings()) return;
+
+        DocprocExecutor executor = service.getExecutor();
+        DocumentProcessor.Progress progress = process(executor);
+        submitIfLater(progress);
+    }
+
+    /**
+     * Processes the processings of this and the tasks batched with it together. Tasks which are not done
+     * after this are resubmitted separately.
+     */
+    private void runBatch() {
+        List<DocumentProcessingTask> tasks = new ArrayList<>(batch.size() + 1);
+        tasks.add(this);
+        tasks.addAll(batch);
+        batch = Collections.emptyList();
+
+        List<DocumentProcessingTask> processable = new ArrayList<>(tasks.size());
+        List<Processing> allProcessings = new ArrayList<>();
+        for (DocumentProcessingTask task : tasks) {
+            if ( ! task.addProcessings()) continue;
+            if (task.requestContext.hasExpired()) {
+                task.timeUp(task.processings.isEmpty() ? null : task.processings.get(0));
+                continue;
+            }
+            processable.add(task);
+            allProcessings.addAll(task.processings);
+        }
+
+        List<DocumentProcessor.Progress> progress;
+        try {
+            progress = service.getExecutor().process(allProcessings);
+        } catch (Exception e) {
+            // A processor receiving the whole batch failed, so we cannot tell which processing caused it
+            log.log(Level.WARNING, "Processing of a batch of " + processable.size() + " requests failed", e);
+            for (DocumentProcessingTask task : processable) {
+                task.requestContext.processingFailed(e);
+            }
+            return;
+        }
+
+        int offset = 0;
+        for (DocumentProcessingTask task : processable) {
+            int count = task.processings.size();
+            task.submitIfLater(task.processed(progress.subList(offset, offset + count)));
+            offset += count;
+        }
+    }
+
+    private boolean addProcessings() {
+        try {
+            processings.addAll(requestContext.getProcessings());
+            return true;
+        } catch (Exception e) {
+            //deserialization failed:
+            log.log(LogLevel.WARNING, "Deserialization of message failed.", e);
+            requestContext.processingFailed(e);
+            return false;
+        }
+    }
+
+    private void submitIfLater(DocumentProcessor.Progress progress) {
+        if (DocumentProcessor.Progress.LATER.equals(progress) && !processings.isEmpty()) {
+            DocumentProcessor.LaterProgress laterProgress = (DocumentProcessor.LaterProgress) progress;
+            docprocHandler.submit(this, laterProgress.getDelay());
+        }
+    }
+
     /**
      * Used by DocprocThreadManager. If a ProcessingTask has been taken by a thread, it can wait() no longer than
      * waitCounter (currently 10) times before being executed. This is to prevent large tasks from being delayed
@@ -102,27 +178,8 @@ public class DocumentProcessingTask implements Comparable<DocumentProcessingTask
             Processing processing = iterator.next();
             iterator.remove();
             if (requestContext.hasExpired()) {
-                DocumentProcessor.Progress progress = DocumentProcessor.Progress.FAILED;
-                final String location;
-                if (processing != null) {
-                    final CallStack callStack = processing.callStack();
-                    if (callStack != null) {
-                        final Call lastPopped = callStack.getLastPopped();
-                        if (lastPopped != null) {
-                            location = lastPopped.toString();
-                        } else {
-                            location = "empty call stack or no processors popped";
-                        }
-                    } else {
-                        location = "no call stack";
-                    }
-                } else {
-                    location = "no processing instance";
-                }
-                String errorMsg = processing + " failed, " + location;
-                log.log(Level.FINE, "Time is up for '" + errorMsg + "'.");
-                requestContext.processingFailed(RequestContext.ErrorCode.ERROR_PROCESSING_FAILURE, "Time is up.");
-                return progress;
+                timeUp(processing);
+                return DocumentProcessor.Progress.FAILED;
             }
 
             DocumentProcessor.Progress progress = DocumentProcessor.Progress.FAILED;
@@ -134,24 +191,60 @@ public class DocumentProcessingTask implements Comparable<DocumentProcessingTask
                 return progress;
             }
 
-            if (DocumentProcessor.Progress.LATER.equals(progress)) {
-                later.add(new Tuple2<>(progress, processing));
-            } else if (DocumentProcessor.Progress.DONE.equals(progress)) {
-                processingsDone.add(processing);
-            } else if (DocumentProcessor.Progress.FAILED.equals(progress)) {
-                logProcessingFailure(processing, null);
-                requestContext.processingFailed(RequestContext.ErrorCode.ERROR_PROCESSING_FAILURE,
-                        progress.getReason().orElse("Document processing failed."));
-                return progress;
-            } else if (DocumentProcessor.Progress.PERMANENT_FAILURE.equals(progress)) {
-                logProcessingFailure(processing, null);
-                requestContext.processingFailed(RequestContext.ErrorCode.ERROR_PROCESSING_FAILURE,
-                        progress.getReason().orElse("Document processing failed."));
+            if ( ! handleProgress(progress, processing, later)) {
                 return progress;
             }
         }
 
-        // Processings that have FAILED will have made this method terminate by now.
+        return finish(later);
+    }
+
+    /**
+     * Handles the outcome of processing the current processings of this in a batch.
+     *
+     * @param progress the progress of each processing of this, in order
+     * @return the progress of this task
+     */
+    private DocumentProcessor.Progress processed(List<DocumentProcessor.Progress> progress) {
+        List<Processing> processed = new ArrayList<>(processings);
+        processings.clear();
+        List<Tuple2<DocumentProcessor.Progress, Processing>> later = new ArrayList<>();
+        for (int i = 0; i < processed.size(); i++) {
+            if ( ! handleProgress(progress.get(i), processed.get(i), later)) {
+                return progress.get(i);
+            }
+        }
+        return finish(later);
+    }
+
+    /**
+     * Records the progress of a processing, and fails the message if this processing failed.
+     *
+     * @return false if the processing failed, true otherwise
+     */
+    private boolean handleProgress(DocumentProcessor.Progress progress, Processing processing,
+                                   List<Tuple2<DocumentProcessor.Progress, Processing>> later) {
+        if (progress instanceof DocprocExecutor.FailureProgress) {
+            Exception exception = ((DocprocExecutor.FailureProgress) progress).getException();
+            logProcessingFailure(processing, exception);
+            requestContext.processingFailed(exception);
+            return false;
+        } else if (DocumentProcessor.Progress.LATER.equals(progress)) {
+            later.add(new Tuple2<>(progress, processing));
+        } else if (DocumentProcessor.Progress.DONE.equals(progress)) {
+            processingsDone.add(processing);
+        } else if (DocumentProcessor.Progress.FAILED.equals(progress)
+                   || DocumentProcessor.Progress.PERMANENT_FAILURE.equals(progress)) {
+            logProcessingFailure(processing, null);
+            requestContext.processingFailed(RequestContext.ErrorCode.ERROR_PROCESSING_FAILURE,
+                                            progress.getReason().orElse("Document processing failed."));
+            return false;
+        }
+        return true;
+    }
+
+    private DocumentProcessor.Progress finish(List<Tuple2<DocumentProcessor.Progress, Processing>> later) {
+        // Processings that have FAILED will have made this terminate by now.
         // We now have successful Processings in 'processingsDone' and
         // the ones that have returned LATER in 'later'.
 
@@ -176,11 +269,35 @@ public class DocumentProcessingTask implements Comparable<DocumentProcessingTask
         }
     }
 
+    private void timeUp(Processing processing) {
+        final String location;
+        if (processing != null) {
+            final CallStack callStack = processing.callStack();
+            if (callStack != null) {
+                final Call lastPopped = callStack.getLastPopped();
+                if (lastPopped != null) {
+                    location = lastPopped.toString();
+                } else {
+                    location = "empty call stack or no processors popped";
+                }
+            } else {
+                location = "no call stack";
+            }
+        } else {
+            location = "no processing instance";
+        }
+        String errorMsg = processing + " failed, " + location;
+        log.log(Level.FINE, "Time is up for '" + errorMsg + "'.");
+        requestContext.processingFailed(RequestContext.ErrorCode.ERROR_PROCESSING_FAILURE, "Time is up.");
+    }
 
     void queueFull() {
         requestContext.processingFailed(RequestContext.ErrorCode.ERROR_BUSY,
                                         "Queue temporarily full. Returning message " + requestContext +
                                         ". Will be automatically resent.");
+        for (DocumentProcessingTask task : batch) {
+            task.queueFull();
+        }
     }
 
     public int compareTo(DocumentProcessingTask other) {
@@ -204,7 +321,7 @@ public class DocumentProcessingTask implements Comparable<DocumentProcessingTask
     }
 
     public int getApproxSize() {
-        return requestContext.getApproxSize();
+        return requestContext.getApproxSize() + batchApproxSize;
     }
 
     final long getSeqNum() {
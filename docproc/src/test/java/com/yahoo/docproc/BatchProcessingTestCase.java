@@ -0,0 +1,184 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.docproc;
+
+import com.yahoo.component.ComponentId;
+import com.yahoo.document.DataType;
+import com.yahoo.document.DocumentPut;
+import com.yahoo.document.DocumentType;
+import com.yahoo.document.datatypes.StringFieldValue;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author bratseth
+ */
+public class BatchProcessingTestCase {
+
+    private static final DocumentType type = new DocumentType("batch");
+    static {
+        type.addField("title", DataType.STRING);
+    }
+
+    @Test
+    public void requireThatBatchingProcessorsReceiveAllProcessingsAtOnce() {
+        RecordingProcessor single = new RecordingProcessor("single");
+        RecordingProcessor batching = new RecordingProcessor("batching");
+        DocprocExecutor executor = createExecutor(Collections.singleton(batching.getId()), single, batching);
+
+        List<Processing> processings = createProcessings(3, executor);
+        List<DocumentProcessor.Progress> progress = executor.process(processings);
+
+        assertEquals(Arrays.asList(DocumentProcessor.Progress.DONE, DocumentProcessor.Progress.DONE,
+                                   DocumentProcessor.Progress.DONE), progress);
+        assertEquals(Arrays.asList(1, 1, 1), single.batchSizes);
+        assertEquals(Collections.singletonList(3), batching.batchSizes);
+        for (Processing processing : processings) {
+            assertEquals(new StringFieldValue("single batching"), title(processing));
+        }
+    }
+
+    @Test
+    public void requireThatProcessingsWhichAreNotDoneAreNotProcessedFurther() {
+        RecordingProcessor first = new RecordingProcessor("first");
+        first.progress.put("id:ns:batch::1", DocumentProcessor.Progress.later(5));
+        first.progress.put("id:ns:batch::2", DocumentProcessor.Progress.FAILED);
+        RecordingProcessor second = new RecordingProcessor("second");
+        DocprocExecutor executor = createExecutor(new HashSet<>(Arrays.asList(first.getId(), second.getId())),
+                                                  first, second);
+
+        List<Processing> processings = createProcessings(3, executor);
+        List<DocumentProcessor.Progress> progress = executor.process(processings);
+
+        assertEquals(DocumentProcessor.Progress.DONE, progress.get(0));
+        assertEquals(DocumentProcessor.Progress.LATER, progress.get(1));
+        assertEquals(5, ((DocumentProcessor.LaterProgress) progress.get(1)).getDelay());
+        assertEquals(DocumentProcessor.Progress.FAILED, progress.get(2));
+        assertEquals(Collections.singletonList(3), first.batchSizes);
+        assertEquals(Collections.singletonList(1), second.batchSizes);
+
+        // The processing returning LATER continues at the same processor
+        first.progress.clear();
+        progress = executor.process(Collections.singletonList(processings.get(1)));
+        assertEquals(Collections.singletonList(DocumentProcessor.Progress.DONE), progress);
+        assertEquals(new StringFieldValue("first second"), title(processings.get(1)));
+    }
+
+    @Test
+    public void requireThatProcessingsAreOnlyBatchedWhenTheyReachTheSameProcessor() {
+        RecordingProcessor first = new RecordingProcessor("first");
+        RecordingProcessor second = new RecordingProcessor("second");
+        RecordingProcessor third = new RecordingProcessor("third");
+        DocprocExecutor executor = createExecutor(new HashSet<>(Arrays.asList(second.getId(), third.getId())),
+                                                  first, second, third);
+
+        List<Processing> processings = createProcessings(3, executor);
+        processings.get(0).callStack().pop(); // skip the first processor for one processing
+        List<DocumentProcessor.Progress> progress = executor.process(processings);
+
+        assertEquals(Collections.nCopies(3, DocumentProcessor.Progress.DONE), progress);
+        assertEquals(Arrays.asList(1, 1), first.batchSizes);
+        assertEquals(Arrays.asList(1, 2), second.batchSizes);
+        assertEquals(Arrays.asList(1, 2), third.batchSizes);
+        assertEquals(new StringFieldValue("second third"), title(processings.get(0)));
+        assertEquals(new StringFieldValue("first second third"), title(processings.get(1)));
+    }
+
+    @Test
+    public void requireThatExceptionsFromProcessorsNotReceivingBatchesOnlyFailTheirProcessing() {
+        RecordingProcessor first = new RecordingProcessor("first");
+        first.failing.add("id:ns:batch::1");
+        RecordingProcessor second = new RecordingProcessor("second");
+        DocprocExecutor executor = createExecutor(Collections.singleton(second.getId()), first, second);
+
+        List<Processing> processings = createProcessings(3, executor);
+        List<DocumentProcessor.Progress> progress = executor.process(processings);
+
+        assertEquals(DocumentProcessor.Progress.DONE, progress.get(0));
+        assertEquals(DocumentProcessor.Progress.FAILED, progress.get(1));
+        assertEquals("Failing id:ns:batch::1",
+                     ((DocprocExecutor.FailureProgress) progress.get(1)).getException().getMessage());
+        assertEquals(DocumentProcessor.Progress.DONE, progress.get(2));
+        assertEquals(Collections.singletonList(2), second.batchSizes);
+        assertEquals(new StringFieldValue("first second"), title(processings.get(0)));
+        assertEquals(new StringFieldValue("first second"), title(processings.get(2)));
+    }
+
+    private static DocprocExecutor createExecutor(Set<ComponentId> batching,
+                                                  DocumentProcessor ... processors) {
+        CallStack stack = new CallStack("batch");
+        for (DocumentProcessor processor : processors) {
+            stack.addLast(processor);
+        }
+        DocprocExecutor executor = new DocprocExecutor("batch", stack);
+        executor.setBatchingProcessors(batching);
+        return executor;
+    }
+
+    private static List<Processing> createProcessings(int count, DocprocExecutor executor) {
+        List<Processing> processings = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Processing processing = new Processing();
+            processing.addDocumentOperation(new DocumentPut(type, "id:ns:batch::" + i));
+            processing.setCallStack(new CallStack(executor.getCallStack()));
+            processings.add(processing);
+        }
+        return processings;
+    }
+
+    private static StringFieldValue title(Processing processing) {
+        return (StringFieldValue) ((DocumentPut) processing.getDocumentOperations().get(0)).getDocument().getFieldValue("title");
+    }
+
+    private static class RecordingProcessor extends DocumentProcessor {
+
+        final List<Integer> batchSizes = new ArrayList<>();
+        final Map<String, Progress> progress = new HashMap<>();
+        final Set<String> failing = new HashSet<>();
+
+        RecordingProcessor(String id) {
+            initId(new ComponentId(id));
+        }
+
+        @Override
+        public Progress process(Processing processing) {
+            batchSizes.add(1);
+            return processOne(processing);
+        }
+
+        @Override
+        public List<Progress> processBatch(List<Processing> processings) {
+            batchSizes.add(processings.size());
+            List<Progress> result = new ArrayList<>();
+            for (Processing processing : processings) {
+                result.add(processOne(processing));
+            }
+            return result;
+        }
+
+        private Progress processOne(Processing processing) {
+            DocumentPut put = (DocumentPut) processing.getDocumentOperations().get(0);
+            if (failing.contains(put.getId().toString())) {
+                throw new IllegalArgumentException("Failing " + put.getId());
+            }
+            Progress result = progress.getOrDefault(put.getId().toString(), Progress.DONE);
+            if (result.equals(Progress.DONE)) {
+                StringFieldValue title = (StringFieldValue) put.getDocument().getFieldValue("title");
+                String prefix = title == null ? "" : title.getString() + " ";
+                put.getDocument().setFieldValue("title", new StringFieldValue(prefix + getId().getName()));
+            }
+            return result;
+        }
+
+    }
+
+}
@@ -0,0 +1,174 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.docproc.jdisc;
+
+import com.yahoo.concurrent.DaemonThreadFactory;
+import com.yahoo.docproc.CallStack;
+import com.yahoo.docproc.DocprocService;
+import com.yahoo.docproc.DocumentProcessor;
+import com.yahoo.docproc.Processing;
+import com.yahoo.docproc.jdisc.metric.NullMetric;
+import com.yahoo.document.DocumentPut;
+import com.yahoo.document.DocumentType;
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author bratseth
+ */
+public class DocumentProcessingBatcherTestCase {
+
+    private final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("test-"));
+    private final BlockingQueue<DocumentProcessingTask> submitted = new LinkedBlockingQueue<>();
+    private final DocumentType type = new DocumentType("batch");
+
+    @After
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+
+    @Test
+    public void requireThatFullBatchesAreSubmittedAndProcessedTogether() {
+        BatchSizeProcessor processor = new BatchSizeProcessor();
+        DocprocService service = createService(processor);
+        DocumentProcessingBatcher batcher = new DocumentProcessingBatcher(3, 60000, timer, submitted::add, new NullMetric());
+
+        List<TestRequestContext> contexts = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            TestRequestContext context = new TestRequestContext(i);
+            contexts.add(context);
+            batcher.add(new DocumentProcessingTask(context, null, service), service);
+        }
+        assertEquals(1, submitted.size());
+        assertEquals(0, batcher.pendingCount());
+        assertEquals(30, submitted.peek().getApproxSize());
+
+        submitted.poll().run();
+        assertEquals(Collections.singletonList(3), processor.batchSizes);
+        for (TestRequestContext context : contexts) {
+            assertEquals(1, context.done.size());
+        }
+    }
+
+    @Test
+    public void requireThatBatchesAreSubmittedWhenTheLingerTimeHasPassed() throws InterruptedException {
+        BatchSizeProcessor processor = new BatchSizeProcessor();
+        DocprocService service = createService(processor);
+        DocumentProcessingBatcher batcher = new DocumentProcessingBatcher(10, 10, timer, submitted::add, new NullMetric());
+
+        TestRequestContext first = new TestRequestContext(1);
+        TestRequestContext second = new TestRequestContext(2);
+        batcher.add(new DocumentProcessingTask(first, null, service), service);
+        batcher.add(new DocumentProcessingTask(second, null, service), service);
+
+        DocumentProcessingTask task = submitted.poll(60, TimeUnit.SECONDS);
+        assertNotNull(task);
+        assertEquals(0, batcher.pendingCount());
+        task.run();
+        assertEquals(Collections.singletonList(2), processor.batchSizes);
+        assertEquals(1, first.done.size());
+        assertEquals(1, second.done.size());
+        assertNull(submitted.poll());
+    }
+
+    private DocprocService createService(DocumentProcessor processor) {
+        DocprocService service = new DocprocService("batch");
+        service.setCallStack(new CallStack().addLast(processor));
+        service.getExecutor().setBatchingProcessors(Collections.singleton(processor.getId()));
+        service.setInService(true);
+        return service;
+    }
+
+    private static class BatchSizeProcessor extends DocumentProcessor {
+
+        private final List<Integer> batchSizes = new ArrayList<>();
+
+        @Override
+        public Progress process(Processing processing) {
+            batchSizes.add(1);
+            return Progress.DONE;
+        }
+
+        @Override
+        public List<Progress> processBatch(List<Processing> processings) {
+            batchSizes.add(processings.size());
+            return Collections.nCopies(processings.size(), Progress.DONE);
+        }
+
+    }
+
+    private class TestRequestContext implements RequestContext {
+
+        private final int id;
+        private final List<Processing> done = new ArrayList<>();
+
+        TestRequestContext(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public List<Processing> getProcessings() {
+            Processing processing = new Processing();
+            processing.addDocumentOperation(new DocumentPut(type, "id:ns:batch::" + id));
+            return Collections.singletonList(processing);
+        }
+
+        @Override
+        public void skip() {
+        }
+
+        @Override
+        public void processingDone(List<Processing> processing) {
+            done.addAll(processing);
+        }
+
+        @Override
+        public void processingFailed(ErrorCode error, String msg) {
+            throw new AssertionError("Unexpected failure: " + msg);
+        }
+
+        @Override
+        public void processingFailed(Exception exception) {
+            throw new AssertionError("Unexpected failure", exception);
+        }
+
+        @Override
+        public int getApproxSize() {
+            return 10;
+        }
+
+        @Override
+        public int getPriority() {
+            return 0;
+        }
+
+        @Override
+        public boolean isProcessable() {
+            return true;
+        }
+
+        @Override
+        public URI getUri() {
+            return null;
+        }
+
+        @Override
+        public String getServiceName() {
+            return "batch";
+        }
+
+    }
+
+}
@@ -18,6 +18,7 @@ import com.yahoo.document.update.FieldUpdate;
 import com.yahoo.document.update.MapValueUpdate;
 import com.yahoo.document.update.ValueUpdate;
 import com.yahoo.vespa.indexinglanguage.AdapterFactory;
+import com.yahoo.vespa.indexinglanguage.expressions.CompiledScript;
 import com.yahoo.vespa.indexinglanguage.expressions.Expression;
 
 import java.util.*;
@@ -30,11 +31,23 @@ public class DocumentScript {
     private final String documentType;
     private final Set<String> inputFields;
     private final Expression expression;
+    private final CompiledScript compiledScript;
 
     public DocumentScript(String documentType, Collection<String> inputFields, Expression expression) {
+        this(documentType, inputFields, expression, null);
+    }
+
+    /** Creates a document script which executes documents using the given compiled script */
+    public DocumentScript(String documentType, Collection<String> inputFields, CompiledScript compiledScript) {
+        this(documentType, inputFields, compiledScript.getScript(), compiledScript);
+    }
+
+    private DocumentScript(String documentType, Collection<String> inputFields, Expression expression,
+                           CompiledScript compiledScript) {
         this.documentType = documentType;
         this.inputFields = new HashSet<>(inputFields);
         this.expression = expression;
+        this.compiledScript = compiledScript;
     }
 
     public Expression getExpression() { return expression; }
@@ -44,6 +57,9 @@ public class DocumentScript {
             requireThatFieldIsDeclaredInDocument(entry.getKey());
             removeAnyLinguisticsSpanTree(entry.getValue());
         }
+        if (compiledScript != null) {
+            return compiledScript.execute(adapterFactory, document);
+        }
         return expression.execute(adapterFactory, document);
     }
 
@@ -5,6 +5,7 @@ import com.yahoo.collections.Hashlet;
 import com.yahoo.document.*;
 import com.yahoo.document.serialization.FieldReader;
 import com.yahoo.document.serialization.FieldWriter;
+import com.yahoo.document.serialization.SerializedFields;
 import com.yahoo.document.serialization.XmlSerializationHelper;
 import com.yahoo.document.serialization.XmlStream;
 import com.yahoo.vespa.objects.Ids;
@@ -22,6 +23,10 @@ public class Struct extends StructuredFieldValue {
     private Hashlet<Integer, FieldValue> values = new Hashlet<>();
     private int [] order = null;
 
+    // The serialized values of fields which are not deserialized yet, or null if all are.
+    // Fields are deserialized while holding the monitor of this, see setSerializedFields.
+    private volatile SerializedFields serialized = null;
+
     private int version;
 
     private int [] getInOrder() {
@@ -39,6 +44,73 @@ public class Struct extends StructuredFieldValue {
         order = null;
     }
 
+    /**
+     * Sets the serialized values of fields of this, which are deserialized when they are first accessed.
+     * Any values already set for these fields are replaced.
+     * <p>
+     * Reading a struct with serialized fields deserializes fields and therefore modifies it. Such reads
+     * synchronize on this struct, so a struct which is only read may still be accessed by multiple threads,
+     * and code which reads the serialized fields directly must synchronize on this struct as well.
+     * Since the fields are not deserialized until they are read, invalid field data causes a
+     * {@link com.yahoo.document.serialization.DeserializationException} when the field is first read
+     * rather than when the struct is read.
+     *
+     * @param serialized The serialized field values, which are owned by this after this call.
+     */
+    public void setSerializedFields(SerializedFields serialized) {
+        deserializeAll();
+        for (Field field : serialized.getFields()) {
+            removeFieldValue(field);
+        }
+        this.serialized = serialized.size() > 0 ? serialized : null;
+    }
+
+    /**
+     * Returns the serialized values of the fields of this which are not deserialized yet,
+     * or null if all fields are deserialized.
+     */
+    public SerializedFields getSerializedFields() {
+        return serialized;
+    }
+
+    /**
+     * Returns the fields of this which are deserialized, without deserializing the others.
+     * Use {@link #getSerializedFields} to get the others, while synchronizing on this.
+     */
+    public Set<Map.Entry<Field, FieldValue>> getDeserializedFields() {
+        return new FieldSet();
+    }
+
+    /** Deserializes the value of the given field if it is not deserialized yet. The caller must synchronize on this. */
+    private void deserialize(Field field) {
+        if (serialized == null) {
+            return;
+        }
+        FieldValue value = serialized.deserialize(field);
+        if (value != null) {
+            values.put(field.getId(), value);
+            invalidateOrder();
+            if (serialized.size() == 0) {
+                serialized = null;
+            }
+        }
+    }
+
+    /** Deserializes all fields which are not deserialized yet, after which this is no longer modified by reads */
+    private void deserializeAll() {
+        if (serialized == null) {
+            return;
+        }
+        synchronized (this) {
+            if (serialized == null) {
+                return;
+            }
+            for (Field field : serialized.getFields()) {
+                deserialize(field);
+            }
+        }
+    }
+
     public Struct(DataType type) {
         super((StructDataType) type);
         this.version = Document.SERIALIZED_VERSION;
@@ -80,6 +152,7 @@ public class Struct extends StructuredFieldValue {
 
     @Override
     public Struct clone() {
+        deserializeAll();
         Struct struct = (Struct) super.clone();
         struct.values = new Hashlet<>();
         struct.values.reserve(values.size());
@@ -92,15 +165,18 @@ public class Struct extends StructuredFieldValue {
     @Override
     public void clear() {
         values = new Hashlet<>();
+        serialized = null;
         invalidateOrder();
     }
 
     @Override
     public Iterator<Map.Entry<Field, FieldValue>> iterator() {
+        deserializeAll();
         return new FieldSet().iterator();
     }
 
     public Set<Map.Entry<Field, FieldValue>> getFields() {
+        deserializeAll();
         return new FieldSet();
     }
 
@@ -119,6 +195,12 @@ public class Struct extends StructuredFieldValue {
 
     @Override
     public FieldValue getFieldValue(Field field) {
+        if (serialized != null) {
+            synchronized (this) {
+                deserialize(field);
+                return values.get(field.getId());
+            }
+        }
         return values.get(field.getId());
     }
 
@@ -130,6 +212,11 @@ public class Struct extends StructuredFieldValue {
 
     @Override
     public int getFieldCount() {
+        if (serialized != null) {
+            synchronized (this) {
+                return values.size() + (serialized != null ? serialized.size() : 0);
+            }
+        }
         return values.size();
     }
 
@@ -155,6 +242,9 @@ public class Struct extends StructuredFieldValue {
             throw new IllegalArgumentException(
                     "Inconsistent field: " + field);
         }
+        if (serialized != null && serialized.remove(field) && serialized.size() == 0) {
+            serialized = null;
+        }
 
         int index = values.getIndexOfKey(field.getId());
         if (index == -1) {
@@ -167,6 +257,11 @@ public class Struct extends StructuredFieldValue {
 
     @Override
     public FieldValue removeFieldValue(Field field) {
+        if (serialized != null) {
+            synchronized (this) {
+                deserialize(field);
+            }
+        }
         FieldValue found = values.get(field.getId());
         if (found != null) {
             Hashlet<Integer, FieldValue> copy = new Hashlet<>();
@@ -215,11 +310,14 @@ public class Struct extends StructuredFieldValue {
         if (!super.equals(o)) return false;
 
         Struct struct = (Struct) o;
+        deserializeAll();
+        struct.deserializeAll();
         return values.equals(struct.values);
     }
 
     @Override
     public int hashCode() {
+        deserializeAll();
         int result = super.hashCode();
         result = 31 * result + values.hashCode();
         return result;
@@ -227,6 +325,7 @@ public class Struct extends StructuredFieldValue {
 
     @Override
     public String toString() {
+        deserializeAll();
         StringBuilder retVal = new StringBuilder();
         retVal.append("Struct (").append(getDataType()).append("): ");
         int [] increasing = getInOrder();
@@ -249,6 +348,8 @@ public class Struct extends StructuredFieldValue {
             return cmp;
         }
         Struct rhs = (Struct)obj;
+        deserializeAll();
+        rhs.deserializeAll();
         cmp = values.size() - rhs.values.size();
         if (cmp != 0) {
             return cmp;
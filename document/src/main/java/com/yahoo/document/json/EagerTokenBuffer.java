@@ -0,0 +1,142 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.document.json;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.base.Preconditions;
+
+/**
+ * A token buffer holding copies of all its tokens, which are added by reading complete JSON objects or arrays
+ * from a parser.
+ *
+ * @author <a href="mailto:steinar@yahoo-inc.com">Steinar Knutsen</a>
+ */
+public class EagerTokenBuffer extends TokenBuffer {
+
+    private Deque<Token> buffer;
+    private int nesting = 0;
+
+    public EagerTokenBuffer() {
+        this(new ArrayDeque<>());
+    }
+
+    EagerTokenBuffer(Deque<Token> buffer) {
+        this.buffer = buffer;
+        if (buffer.size() > 0) {
+            updateNesting(buffer.peekFirst().token);
+        }
+    }
+
+    @Override
+    public JsonToken next() {
+        buffer.removeFirst();
+        Token t = buffer.peekFirst();
+        if (t == null) {
+            return null;
+        }
+        updateNesting(t.token);
+        return t.token;
+    }
+
+    @Override
+    public JsonToken currentToken() {
+        return buffer.peekFirst().token;
+    }
+
+    @Override
+    public String currentName() {
+        return buffer.peekFirst().name;
+    }
+
+    @Override
+    public String currentText() {
+        return buffer.peekFirst().text;
+    }
+
+    @Override
+    public int size() {
+        return buffer.size();
+    }
+
+    private void add(JsonToken token, String name, String text) {
+        buffer.addLast(new Token(token, name, text));
+    }
+
+    public void bufferObject(JsonToken first, JsonParser tokens) {
+        bufferJsonStruct(first, tokens, JsonToken.START_OBJECT);
+    }
+
+    public void bufferArray(JsonToken first, JsonParser tokens) {
+        bufferJsonStruct(first, tokens, JsonToken.START_ARRAY);
+    }
+
+    private void bufferJsonStruct(JsonToken first, JsonParser tokens, JsonToken firstToken) {
+        int localNesting = 0;
+        JsonToken t = first;
+
+        Preconditions.checkArgument(first == firstToken,
+                "Expected %s, got %s.", firstToken.name(), t);
+        if (size() == 0) {
+            updateNesting(t);
+        }
+        localNesting = storeAndPeekNesting(t, localNesting, tokens);
+        while (localNesting > 0) {
+            t = nextValue(tokens);
+            localNesting = storeAndPeekNesting(t, localNesting, tokens);
+        }
+    }
+
+    private int storeAndPeekNesting(JsonToken t, int nesting, JsonParser tokens) {
+        addFromParser(t, tokens);
+        return nesting + nestingOffset(t);
+    }
+
+    private void addFromParser(JsonToken t, JsonParser tokens) {
+        try {
+            add(t, tokens.getCurrentName(), tokens.getText());
+        } catch (IOException e) {
+            // TODO something sane
+            throw new RuntimeException(e);
+        }
+    }
+
+    private JsonToken nextValue(JsonParser tokens) {
+        try {
+            return tokens.nextValue();
+        } catch (IOException e) {
+            // TODO something sane
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void updateNesting(JsonToken t) {
+        nesting += nestingOffset(t);
+    }
+
+    @Override
+    public int nesting() {
+        return nesting;
+    }
+
+    @Override
+    Iterator<Token> tokens() {
+        return buffer.iterator();
+    }
+
+    @Override
+    public String dumpContents() {
+        StringBuilder b = new StringBuilder();
+        b.append("[nesting: ").append(nesting()).append("\n");
+        for (Token t : buffer) {
+            b.append("(").append(t.token).append(", \"").append(t.name).append("\", \"").append(t.text).append("\")\n");
+        }
+        b.append("]\n");
+        return b.toString();
+    }
+
+}
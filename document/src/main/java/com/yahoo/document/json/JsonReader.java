@@ -63,20 +63,15 @@ public class JsonReader {
      */
     public DocumentOperation readSingleDocument(DocumentParser.SupportedOperation operationType, String docIdString) {
         DocumentId docId = new DocumentId(docIdString);
+        DocumentParser documentParser = new DocumentParser(parser);
         final DocumentParseInfo documentParseInfo;
         try {
-            DocumentParser documentParser = new DocumentParser(parser);
-            documentParseInfo = documentParser.parse(Optional.of(docId)).get();
+            documentParseInfo = documentParser.parseUpToFields(Optional.of(docId), Optional.of(operationType)).get();
         } catch (IOException e) {
             state = END_OF_FEED;
             throw new RuntimeException(e);
         }
-        documentParseInfo.operationType = operationType;
-        VespaJsonDocumentReader vespaJsonDocumentReader = new VespaJsonDocumentReader();
-        DocumentOperation operation = vespaJsonDocumentReader.createDocumentOperation(
-                getDocumentTypeFromString(documentParseInfo.documentId.getDocType(), typeManager), documentParseInfo);
-        operation.setCondition(TestAndSetCondition.fromConditionString(documentParseInfo.condition));
-        return operation;
+        return createDocumentOperation(documentParser, documentParseInfo);
     }
 
     public DocumentOperation next() {
@@ -91,9 +86,10 @@ public class JsonReader {
             case READING:
                 break;
         }
+        DocumentParser documentParser = new DocumentParser(parser);
         Optional<DocumentParseInfo> documentParseInfo;
         try {
-            documentParseInfo = parseDocument();
+            documentParseInfo = documentParser.parseUpToFields(Optional.empty(), Optional.empty());
         } catch (IOException r) {
             // Jackson is not able to recover from structural parse errors
             state = END_OF_FEED;
@@ -103,14 +99,40 @@ public class JsonReader {
             state = END_OF_FEED;
             return null;
         }
+        return createDocumentOperation(documentParser, documentParseInfo.get());
+    }
+
+    /**
+     * Creates the operation parsed by the given document parser. If the parser stopped at the fields,
+     * they are read directly from the parser, followed by the rest of the operation.
+     */
+    private DocumentOperation createDocumentOperation(DocumentParser documentParser, DocumentParseInfo documentParseInfo) {
         VespaJsonDocumentReader vespaJsonDocumentReader = new VespaJsonDocumentReader();
-        DocumentOperation operation = vespaJsonDocumentReader.createDocumentOperation(
-                getDocumentTypeFromString(documentParseInfo.get().documentId.getDocType(), typeManager),
-                documentParseInfo.get());
-        operation.setCondition(TestAndSetCondition.fromConditionString(documentParseInfo.get().condition));
+        DocumentOperation operation;
+        try {
+            operation = vespaJsonDocumentReader.createDocumentOperation(
+                    getDocumentTypeFromString(documentParseInfo.documentId.getDocType(), typeManager),
+                    documentParseInfo);
+        } finally {
+            // Complete the operation also on failure, such that the next operation may be read
+            parseRemaining(documentParser, documentParseInfo);
+        }
+        // create and condition may also be given after the fields
+        vespaJsonDocumentReader.setCreateIfNonExistent(operation, documentParseInfo);
+        operation.setCondition(TestAndSetCondition.fromConditionString(documentParseInfo.condition));
         return operation;
     }
 
+    private void parseRemaining(DocumentParser documentParser, DocumentParseInfo documentParseInfo) {
+        try {
+            documentParser.parseRemaining(documentParseInfo);
+        } catch (IOException e) {
+            // Jackson is not able to recover from structural parse errors
+            state = END_OF_FEED;
+            throw new RuntimeException(e);
+        }
+    }
+
 
     public DocumentType readDocumentType(DocumentId docId) {
         return getDocumentTypeFromString(docId.getDocType(), typeManager);
@@ -0,0 +1,171 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.document.json;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.base.Preconditions;
+
+/**
+ * A token buffer which reads the tokens of a JSON object from the parser as they are consumed,
+ * instead of copying the entire object up front. Tokens are only buffered when lookahead
+ * is requested, and then only as far as needed.
+ * <p>
+ * The parser must be positioned at the start of the object when this is created, and is
+ * left at the end of the object when all the tokens of this are consumed.
+ *
+ * @author bratseth
+ */
+public class LazyTokenBuffer extends TokenBuffer {
+
+    private final JsonParser parser;
+
+    /** Tokens read ahead from the parser. If there are any from the head index, the head is the current token */
+    private final List<Token> lookahead = new ArrayList<>();
+    private int head = 0;
+
+    /** The nesting of the current token */
+    private int nesting = 1;
+
+    /** The nesting after the last token read from the parser */
+    private int parserNesting = 1;
+
+    /** Whether all the tokens of the object have been consumed */
+    private boolean exhausted = false;
+
+    public LazyTokenBuffer(JsonParser parser) {
+        Preconditions.checkArgument(parser.currentToken() == JsonToken.START_OBJECT,
+                                    "Expected %s, got %s.", JsonToken.START_OBJECT.name(), parser.currentToken());
+        this.parser = parser;
+    }
+
+    @Override
+    public JsonToken next() {
+        if (exhausted) return null;
+
+        if (buffered()) head++;
+        if ( ! buffered()) {
+            lookahead.clear();
+            head = 0;
+        }
+
+        JsonToken t;
+        if (buffered()) {
+            t = lookahead.get(head).token;
+        } else if (parserNesting == 0) {
+            exhausted = true;
+            return null;
+        } else {
+            t = read();
+        }
+        nesting += nestingOffset(t);
+        return t;
+    }
+
+    @Override
+    public JsonToken currentToken() {
+        return buffered() ? lookahead.get(head).token : parser.currentToken();
+    }
+
+    @Override
+    public String currentName() {
+        try {
+            return buffered() ? lookahead.get(head).name : parser.getCurrentName();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public String currentText() {
+        try {
+            return buffered() ? lookahead.get(head).text : parser.getText();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Returns the number of tokens read from the parser and not consumed yet, including the current token */
+    @Override
+    public int size() {
+        if (exhausted) return 0;
+        return buffered() ? lookahead.size() - head : 1;
+    }
+
+    @Override
+    public int nesting() {
+        return nesting;
+    }
+
+    /** Consumes all the remaining tokens of this, leaving the parser at the end of the object */
+    public void skipRemaining() {
+        while (next() != null) { }
+    }
+
+    @Override
+    public String dumpContents() {
+        StringBuilder b = new StringBuilder();
+        b.append("[nesting: ").append(nesting()).append(", reading from parser\n");
+        for (Token t : lookahead.subList(head, lookahead.size())) {
+            b.append("(").append(t.token).append(", \"").append(t.name).append("\", \"").append(t.text).append("\")\n");
+        }
+        b.append("]\n");
+        return b.toString();
+    }
+
+    /** Returns an iterator over the tokens from the current one, which reads and buffers tokens from the parser as needed */
+    @Override
+    Iterator<Token> tokens() {
+        if (exhausted) return Collections.emptyIterator();
+        if ( ! buffered())
+            lookahead.add(currentFromParser(parser.currentToken()));
+
+        return new Iterator<Token>() {
+
+            private int position = head;
+
+            @Override
+            public boolean hasNext() {
+                return position < lookahead.size() || parserNesting > 0;
+            }
+
+            @Override
+            public Token next() {
+                if (position == lookahead.size())
+                    lookahead.add(currentFromParser(read()));
+                return lookahead.get(position++);
+            }
+
+        };
+    }
+
+    private boolean buffered() {
+        return head < lookahead.size();
+    }
+
+    private JsonToken read() {
+        try {
+            JsonToken t = parser.nextValue();
+            if (t == null)
+                throw new IllegalArgumentException("Unexpected end of input inside a JSON object");
+            parserNesting += nestingOffset(t);
+            return t;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Token currentFromParser(JsonToken t) {
+        try {
+            return new Token(t, parser.getCurrentName(), parser.getText());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
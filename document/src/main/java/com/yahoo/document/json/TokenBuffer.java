@@ -1,21 +1,19 @@
 // Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
 package com.yahoo.document.json;
 
-import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.Deque;
 import java.util.Iterator;
 
-import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
-import com.google.common.base.Preconditions;
 
 /**
  * Helper class to enable lookahead in the token stream.
+ * Subclasses decide whether the tokens are all buffered up front or read from the parser as they are consumed.
  *
  * @author <a href="mailto:steinar@yahoo-inc.com">Steinar Knutsen</a>
  */
-public class TokenBuffer {
+public abstract class TokenBuffer {
     public static final class Token {
         public final JsonToken token;
         public final String name;
@@ -28,80 +26,26 @@ public class TokenBuffer {
         }
     }
 
-    private Deque<Token> buffer;
-    private int nesting = 0;
+    /** Advances to the next token and returns it, or returns null if there are no more tokens */
+    public abstract JsonToken next();
 
-    public TokenBuffer() {
-        this(new ArrayDeque<>());
-    }
+    public abstract JsonToken currentToken();
 
-    private TokenBuffer(Deque<Token> buffer) {
-        this.buffer = buffer;
-        if (buffer.size() > 0) {
-            updateNesting(buffer.peekFirst().token);
-        }
-    }
+    public abstract String currentName();
 
-    public JsonToken next() {
-        buffer.removeFirst();
-        Token t = buffer.peekFirst();
-        if (t == null) {
-            return null;
-        }
-        updateNesting(t.token);
-        return t.token;
-    }
+    public abstract String currentText();
 
-    public JsonToken currentToken() {
-        return buffer.peekFirst().token;
-    }
+    /** Returns the number of tokens available without reading further, including the current token */
+    public abstract int size();
 
-    public String currentName() {
-        return buffer.peekFirst().name;
-    }
+    public abstract int nesting();
 
-    public String currentText() {
-        return buffer.peekFirst().text;
-    }
+    /** Returns an iterator over the tokens of this, starting at the current token */
+    abstract Iterator<Token> tokens();
 
-    public int size() {
-        return buffer.size();
-    }
+    public abstract String dumpContents();
 
-    private void add(JsonToken token, String name, String text) {
-        buffer.addLast(new Token(token, name, text));
-    }
-
-    public void bufferObject(JsonToken first, JsonParser tokens) {
-        bufferJsonStruct(first, tokens, JsonToken.START_OBJECT);
-    }
-
-    public void bufferArray(JsonToken first, JsonParser tokens) {
-        bufferJsonStruct(first, tokens, JsonToken.START_ARRAY);
-    }
-
-    private void bufferJsonStruct(JsonToken first, JsonParser tokens, JsonToken firstToken) {
-        int localNesting = 0;
-        JsonToken t = first;
-
-        Preconditions.checkArgument(first == firstToken,
-                "Expected %s, got %s.", firstToken.name(), t);
-        if (size() == 0) {
-            updateNesting(t);
-        }
-        localNesting = storeAndPeekNesting(t, localNesting, tokens);
-        while (localNesting > 0) {
-            t = nextValue(tokens);
-            localNesting = storeAndPeekNesting(t, localNesting, tokens);
-        }
-    }
-
-    private int storeAndPeekNesting(JsonToken t, int nesting, JsonParser tokens) {
-        addFromParser(t, tokens);
-        return nesting + nestingOffset(t);
-    }
-
-    private int nestingOffset(JsonToken t) {
+    static int nestingOffset(JsonToken t) {
         if (t.isStructStart()) {
             return 1;
         } else if (t.isStructEnd()) {
@@ -111,42 +55,6 @@ public class TokenBuffer {
         }
     }
 
-    private void addFromParser(JsonToken t, JsonParser tokens) {
-        try {
-            add(t, tokens.getCurrentName(), tokens.getText());
-        } catch (IOException e) {
-            // TODO something sane
-            throw new RuntimeException(e);
-        }
-    }
-
-    private JsonToken nextValue(JsonParser tokens) {
-        try {
-            return tokens.nextValue();
-        } catch (IOException e) {
-            // TODO something sane
-            throw new RuntimeException(e);
-        }
-    }
-
-    private void updateNesting(JsonToken t) {
-        nesting += nestingOffset(t);
-    }
-
-    public int nesting() {
-        return nesting;
-    }
-
-    public String dumpContents() {
-        StringBuilder b = new StringBuilder();
-        b.append("[nesting: ").append(nesting()).append("\n");
-        for (Token t : buffer) {
-            b.append("(").append(t.token).append(", \"").append(t.name).append("\", \"").append(t.text).append("\")\n");
-        }
-        b.append("]\n");
-        return b.toString();
-    }
-
     public void fastForwardToEndObject() {
         JsonToken t = currentToken();
         while (t != JsonToken.END_OBJECT) {
@@ -156,13 +64,15 @@ public class TokenBuffer {
 
     public TokenBuffer prefetchCurrentElement() {
         Deque<Token> copy = new ArrayDeque<>();
+        Iterator<Token> i = tokens();
 
         if (currentToken().isScalarValue()) {
-            copy.add(buffer.peekFirst());
+            copy.add(i.next());
         } else {
             int localNesting = nesting();
             int nestingBarrier = localNesting;
-            for (Token t : buffer) {
+            while (i.hasNext()) {
+                Token t = i.next();
                 copy.add(t);
                 localNesting += nestingOffset(t.token);
                 if (localNesting < nestingBarrier) {
@@ -170,19 +80,18 @@ public class TokenBuffer {
                 }
             }
         }
-        return new TokenBuffer(copy);
+        return new EagerTokenBuffer(copy);
     }
 
     public Token prefetchScalar(String name) {
         int localNesting = nesting();
         int nestingBarrier = localNesting;
         Token toReturn = null;
-        Iterator<Token> i;
+        Iterator<Token> i = tokens();
 
         if (name.equals(currentName()) && currentToken().isScalarValue()) {
-            toReturn = buffer.peekFirst();
+            toReturn = i.next();
         } else {
-            i = buffer.iterator();
             i.next(); // just ignore the first value, as we know it's not what
                       // we're looking for, and it's nesting effect is already
                       // included
@@ -4,6 +4,8 @@ package com.yahoo.document.json.document;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
 import com.yahoo.document.DocumentId;
+import com.yahoo.document.json.EagerTokenBuffer;
+import com.yahoo.document.json.LazyTokenBuffer;
 import com.yahoo.document.json.readers.DocumentParseInfo;
 
 import java.io.IOException;
@@ -28,17 +30,60 @@ public class DocumentParser {
     private final JsonParser parser;
     private  long indentLevel;
 
+    /** Whether fields may be read directly from the parser rather than being buffered */
+    private boolean streamFields;
+    private boolean docIdAndOperationIsSetExternally;
+
+    /** The fields being read directly from the parser, or null if parsing is not stopped at the fields */
+    private LazyTokenBuffer streamedFields = null;
+
     public DocumentParser(JsonParser parser) {
         this.parser = parser;
     }
 
     public Optional<DocumentParseInfo> parse(Optional<DocumentId> documentIdArg) throws IOException {
+        return parse(documentIdArg, Optional.empty(), false);
+    }
+
+    /**
+     * Parses a document operation, but stops at the fields if the document id and a put or update operation
+     * are known at that point. The fields buffer of the returned parse info will then read the fields
+     * directly from the parser, and {@link #parseRemaining} must be called after creating the operation
+     * from it. Otherwise the entire operation is parsed as by {@link #parse}.
+     */
+    public Optional<DocumentParseInfo> parseUpToFields(Optional<DocumentId> documentIdArg,
+                                                       Optional<SupportedOperation> operationArg) throws IOException {
+        return parse(documentIdArg, operationArg, true);
+    }
+
+    /**
+     * Parses the rest of an operation whose parsing was stopped at the fields by {@link #parseUpToFields}.
+     * Any fields which are not consumed are skipped. This does nothing if the operation is parsed completely.
+     */
+    public void parseRemaining(DocumentParseInfo documentParseInfo) throws IOException {
+        if (streamedFields == null) return;
+
+        streamedFields.skipRemaining();
+        streamedFields = null;
+        processIndent(); // the end of the fields object
+        while (indentLevel > 0L) {
+            parseOneItem(documentParseInfo, docIdAndOperationIsSetExternally);
+        }
+    }
+
+    private Optional<DocumentParseInfo> parse(Optional<DocumentId> documentIdArg,
+                                              Optional<SupportedOperation> operationArg,
+                                              boolean streamFields) throws IOException {
         indentLevel = 0;
+        this.streamFields = streamFields;
+        docIdAndOperationIsSetExternally = documentIdArg.isPresent();
+        streamedFields = null;
         DocumentParseInfo documentParseInfo = new DocumentParseInfo();
         documentIdArg.ifPresent(documentId -> documentParseInfo.documentId = documentId);
+        operationArg.ifPresent(operation -> documentParseInfo.operationType = operation);
         do {
-            parseOneItem(documentParseInfo, documentIdArg.isPresent() /* doc id set externally */);
-        } while (indentLevel > 0L);
+            parseOneItem(documentParseInfo, docIdAndOperationIsSetExternally);
+        } while (indentLevel > 0L && streamedFields == null);
 
         if (documentParseInfo.documentId != null) {
             return Optional.of(documentParseInfo);
@@ -113,7 +158,14 @@ public class DocumentParser {
             JsonToken currentToken = parser.getCurrentToken();
             // "fields" opens a dictionary and is therefore on level two which might be surprising.
             if (currentToken == JsonToken.START_OBJECT && FIELDS.equals(parser.getCurrentName())) {
-                documentParseInfo.fieldsBuffer.bufferObject(currentToken, parser);
+                if (canStreamFields(documentParseInfo)) {
+                    streamedFields = new LazyTokenBuffer(parser);
+                    documentParseInfo.fieldsBuffer = streamedFields;
+                    return;
+                }
+                EagerTokenBuffer fieldsBuffer = new EagerTokenBuffer();
+                fieldsBuffer.bufferObject(currentToken, parser);
+                documentParseInfo.fieldsBuffer = fieldsBuffer;
                 processIndent();
             }
         } catch (IOException e) {
@@ -121,6 +173,17 @@ public class DocumentParser {
         }
     }
 
+    /**
+     * Returns whether the fields may be read directly from the parser: This requires that the document type
+     * and operation are known before the fields, as otherwise the fields must be kept until they are.
+     */
+    private boolean canStreamFields(DocumentParseInfo documentParseInfo) {
+        return streamFields &&
+               documentParseInfo.documentId != null &&
+               (documentParseInfo.operationType == SupportedOperation.PUT ||
+                documentParseInfo.operationType == SupportedOperation.UPDATE);
+    }
+
     private static SupportedOperation operationNameToOperationType(String operationName) {
         switch (operationName) {
             case PUT:
@@ -2,6 +2,7 @@
 package com.yahoo.document.json.readers;
 
 import com.yahoo.document.DocumentId;
+import com.yahoo.document.json.EagerTokenBuffer;
 import com.yahoo.document.json.TokenBuffer;
 import com.yahoo.document.json.document.DocumentParser;
 
@@ -12,5 +13,5 @@ public class DocumentParseInfo {
     public Optional<Boolean> create = Optional.empty();
     public Optional<String> condition = Optional.empty();
     public DocumentParser.SupportedOperation operationType = null;
-    public TokenBuffer fieldsBuffer = new TokenBuffer();
+    public TokenBuffer fieldsBuffer = new EagerTokenBuffer();
 }
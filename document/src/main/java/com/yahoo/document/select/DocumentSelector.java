@@ -21,6 +21,9 @@ public class DocumentSelector {
 
     private ExpressionNode expression;
 
+    // The compiled expression used for evaluation, or null if it is not compiled yet.
+    private volatile ExpressionCompiler.Evaluator evaluator = null;
+
     /**
      * Creates a document selector from a Document Selection Language string
      *
@@ -54,14 +57,25 @@ public class DocumentSelector {
     }
 
     /**
-     * Returns true if the document referenced by this context is accepted by this selector
+     * Returns true if the document referenced by this context is accepted by this selector. This evaluates
+     * a compiled form of the selection, which may skip evaluating operands of logical expressions once
+     * their result is known.
      *
      * @param context The context to match in.
      * @return True if the document is accepted.
      * @throws RuntimeException if the evaluation enters an illegal state
      */
     public Result accepts(Context context) {
-        return Result.toResult(expression.evaluate(context));
+        return getEvaluator().evaluateResult(context);
+    }
+
+    private ExpressionCompiler.Evaluator getEvaluator() {
+        ExpressionCompiler.Evaluator evaluator = this.evaluator;
+        if (evaluator == null) {
+            evaluator = ExpressionCompiler.compile(expression);
+            this.evaluator = evaluator;
+        }
+        return evaluator;
     }
 
     /**
@@ -114,5 +128,6 @@ public class DocumentSelector {
      */
     public void visit(Visitor visitor) {
         expression.accept(visitor);
+        evaluator = null; // The visitor may have modified the expression
     }
 }
@@ -0,0 +1,613 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.document.select;
+
+import com.yahoo.document.Document;
+import com.yahoo.document.DocumentPut;
+import com.yahoo.document.DocumentType;
+import com.yahoo.document.DocumentUpdate;
+import com.yahoo.document.FieldPath;
+import com.yahoo.document.datatypes.FieldPathIteratorHandler;
+import com.yahoo.document.select.rule.*;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Stack;
+import java.util.function.UnaryOperator;
+
+/**
+ * Compiles a document selection expression tree into a tree of evaluators, which computes the same result as
+ * evaluating the expression tree, but which
+ * <ul>
+ * <li>resolves the field paths of attributes once per document type rather than once per evaluation,</li>
+ * <li>replaces subexpressions which do not depend on the document by their value, and</li>
+ * <li>evaluates the operands of logical expressions in order of increasing cost, and stops as soon as the result
+ * is known.</li>
+ * </ul>
+ * As a consequence, operands of a logical expression which do not affect its result may not be evaluated,
+ * such that errors in evaluating those are not thrown.
+ * <p>
+ * The results of a logical expression are tracked as a bit mask of the distinct results of its
+ * {@link ResultList}. This is exact as long as no operand binds field path variables, which is the case for
+ * virtually all selections used for routing. Logical expressions which bind variables are evaluated by the
+ * expression tree.
+ *
+ * @author bratseth
+ */
+class ExpressionCompiler implements Visitor {
+
+    private static final int TRUE = 1;
+    private static final int FALSE = 2;
+    private static final int INVALID = 4;
+
+    private static final int[][] AND_TABLE = createCombinationTable(LogicNode.AND);
+    private static final int[][] OR_TABLE = createCombinationTable(LogicNode.OR);
+
+    private static final int FIELD_PATH_COST = 10;
+    private static final int PATTERN_COST = 5;
+
+    private Evaluator result;
+
+    private ExpressionCompiler() {
+        // empty
+    }
+
+    /**
+     * Returns an evaluator of the given expression.
+     *
+     * @param expression The expression to compile.
+     * @return The evaluator of the expression.
+     */
+    static Evaluator compile(ExpressionNode expression) {
+        return new ExpressionCompiler().compileNode(expression);
+    }
+
+    private Evaluator compileNode(ExpressionNode node) {
+        node.accept(this);
+        return result;
+    }
+
+    public void visit(ArithmeticNode node) {
+        List<Evaluator> operands = new ArrayList<>();
+        for (ArithmeticNode.NodeItem item : node.getItems()) {
+            operands.add(compileNode(item.getNode()));
+        }
+        result = foldIfConstant(new TreeEvaluator(node, totalCost(operands) + 1, false, false), operands);
+    }
+
+    public void visit(AttributeNode node) {
+        Evaluator value = compileNode(node.getValue());
+        List<UnaryOperator<Object>> steps = new ArrayList<>();
+        StringBuilder path = new StringBuilder();
+        int cost = value.cost;
+        boolean variables = value.variables;
+        boolean hasFieldPaths = false;
+        for (AttributeNode.Item item : node.getItems()) {
+            if (item.getType() != AttributeNode.Item.FUNCTION) {
+                if (path.length() > 0) {
+                    path.append(".");
+                }
+                path.append(item.getName());
+                variables |= item.getName().contains("$");
+            } else {
+                if (path.length() > 0) {
+                    steps.add(new FieldPathStep(path.toString()));
+                    path = new StringBuilder();
+                    cost += FIELD_PATH_COST;
+                    hasFieldPaths = true;
+                }
+                String function = item.getName();
+                steps.add(obj -> AttributeNode.evaluateFunction(function, obj));
+                cost++;
+            }
+        }
+        if (path.length() > 0) {
+            steps.add(new FieldPathStep(path.toString()));
+            cost += FIELD_PATH_COST;
+            hasFieldPaths = true;
+        }
+        String nullMessage = node.getItems().isEmpty() ? null :
+                             "Can not invoke '" + node.getItems().get(0) + "' on '" + node.getValue() + "' because " +
+                             "that term evaluated to null.";
+        result = foldIfConstant(new AttributeEvaluator(value, steps, nullMessage, cost,
+                                                       value.mayBeEmpty || hasFieldPaths, variables),
+                                value);
+    }
+
+    public void visit(ComparisonNode node) {
+        Evaluator lhs = compileNode(node.getLHS());
+        Evaluator rhs = compileNode(node.getRHS());
+        boolean pattern = node.getOperator().equals("=~") || node.getOperator().equals("=");
+        int cost = lhs.cost + rhs.cost + (pattern ? PATTERN_COST : 1);
+        result = foldIfConstant(new ComparisonEvaluator(node, lhs, rhs, cost), lhs, rhs);
+    }
+
+    public void visit(DocumentNode node) {
+        result = new TreeEvaluator(node, 1, false, false);
+    }
+
+    public void visit(EmbracedNode node) {
+        result = compileNode(node.getNode());
+    }
+
+    public void visit(IdNode node) {
+        result = new TreeEvaluator(node, 2, false, false);
+    }
+
+    public void visit(LiteralNode node) {
+        result = new Constant(node.getValue());
+    }
+
+    public void visit(LogicNode node) {
+        List<Evaluator> operands = new ArrayList<>();
+        boolean variables = false;
+        for (LogicNode.NodeItem item : node.getItems()) {
+            Evaluator operand = compileNode(item.getNode());
+            operands.add(operand);
+            variables |= operand.variables;
+        }
+        if (variables) {
+            result = new TreeEvaluator(node, totalCost(operands), true, true);
+            return;
+        }
+        Stack<OperandItem> buf = new Stack<>();
+        for (int i = 0; i < operands.size(); ++i) {
+            int operator = node.getItems().get(i).getOperator();
+            if ( ! buf.isEmpty()) {
+                while (buf.peek().operator > operator) {
+                    combineOperands(buf);
+                }
+            }
+            buf.push(new OperandItem(operator, operands.get(i)));
+        }
+        while (buf.size() > 1) {
+            combineOperands(buf);
+        }
+        Evaluator top = buf.pop().evaluator;
+        LogicEvaluator logic = top instanceof LogicEvaluator ? (LogicEvaluator)top :
+                               createLogicEvaluator(LogicNode.AND, toList(top));
+        result = foldIfConstant(logic.withNode(node), operands);
+    }
+
+    public void visit(NegationNode node) {
+        Evaluator operand = compileNode(node.getNode());
+        result = foldIfConstant(new NegationEvaluator(operand), operand);
+    }
+
+    public void visit(NowNode node) {
+        result = new TreeEvaluator(node, 1, false, false);
+    }
+
+    public void visit(SearchColumnNode node) {
+        result = new TreeEvaluator(node, 4, false, false);
+    }
+
+    public void visit(VariableNode node) {
+        result = new TreeEvaluator(node, 1, true, true);
+    }
+
+    /**
+     * Combines the top two items of the given stack using the operator of the second.
+     *
+     * @param buf The stack of operands.
+     */
+    private static void combineOperands(Stack<OperandItem> buf) {
+        OperandItem rhs = buf.pop();
+        OperandItem lhs = buf.pop();
+        if (rhs.operator != LogicNode.AND && rhs.operator != LogicNode.OR) {
+            throw new IllegalStateException("Arithmetic operator " + rhs.operator + " not supported.");
+        }
+        List<Evaluator> operands = new ArrayList<>();
+        operands.addAll(operandsOf(rhs.operator, lhs.evaluator));
+        operands.addAll(operandsOf(rhs.operator, rhs.evaluator));
+        buf.push(new OperandItem(lhs.operator, createLogicEvaluator(rhs.operator, operands)));
+    }
+
+    /** Returns the operands of the given evaluator if it combines them by the given operator, or else itself */
+    private static List<Evaluator> operandsOf(int operator, Evaluator evaluator) {
+        if (evaluator instanceof LogicEvaluator) {
+            LogicEvaluator logic = (LogicEvaluator)evaluator;
+            if (logic.operator == operator || logic.operands.length == 1) {
+                return toList(logic.operands);
+            }
+        }
+        return toList(evaluator);
+    }
+
+    /**
+     * Creates an evaluator combining the given operands, which are all free of variables, by the given operator.
+     * Constant operands are combined into one, which is evaluated first, followed by the others in order of cost.
+     */
+    private static LogicEvaluator createLogicEvaluator(int operator, List<Evaluator> operands) {
+        List<Evaluator> ordered = new ArrayList<>();
+        int constantResults = -1;
+        for (Evaluator operand : operands) {
+            if (operand instanceof Constant) {
+                int results = ((Constant)operand).results;
+                constantResults = constantResults < 0 ? results : combine(operator, constantResults, results);
+            } else {
+                ordered.add(operand);
+            }
+        }
+        ordered.sort(Comparator.comparingInt(operand -> operand.cost));
+        if (constantResults >= 0) {
+            ordered.add(0, new Constant(toResultList(constantResults)));
+        }
+        return new LogicEvaluator(operator, ordered.toArray(new Evaluator[ordered.size()]), null);
+    }
+
+    /**
+     * Returns the given evaluator, or its value as a constant if all operands of it are constant.
+     * Expressions whose evaluation fails are not folded, such that they fail when evaluated on a document.
+     */
+    private static Evaluator foldIfConstant(Evaluator evaluator, Evaluator ... operands) {
+        return foldIfConstant(evaluator, toList(operands));
+    }
+
+    private static Evaluator foldIfConstant(Evaluator evaluator, List<Evaluator> operands) {
+        for (Evaluator operand : operands) {
+            if ( ! (operand instanceof Constant)) {
+                return evaluator;
+            }
+        }
+        try {
+            return new Constant(evaluator.evaluate(null));
+        } catch (RuntimeException e) {
+            return evaluator;
+        }
+    }
+
+    private static int totalCost(List<Evaluator> evaluators) {
+        int cost = 0;
+        for (Evaluator evaluator : evaluators) {
+            cost += evaluator.cost;
+        }
+        return cost;
+    }
+
+    private static List<Evaluator> toList(Evaluator ... evaluators) {
+        List<Evaluator> list = new ArrayList<>(evaluators.length);
+        for (Evaluator evaluator : evaluators) {
+            list.add(evaluator);
+        }
+        return list;
+    }
+
+    /** Returns the bit of the given result */
+    private static int toBit(Result result) {
+        switch (result) {
+            case TRUE: return TRUE;
+            case FALSE: return FALSE;
+            default: return INVALID;
+        }
+    }
+
+    /** Returns the distinct results of {@link ResultList#toResultList(Object)} of the given value as a bit mask */
+    private static int toResults(Object value) {
+        if (value instanceof ResultList) {
+            int results = 0;
+            for (ResultList.ResultPair pair : ((ResultList)value).getResults()) {
+                results |= toBit(pair.getResult());
+            }
+            return results;
+        } else if (value instanceof AttributeNode.VariableValueList) {
+            return ((AttributeNode.VariableValueList)value).isEmpty() ? 0 : TRUE;
+        }
+        return toBit(Result.toResult(value));
+    }
+
+    /** Returns the same as {@link ResultList#toResult()} of a list having the given results */
+    private static Result toResult(int results) {
+        if ((results & TRUE) != 0) {
+            return Result.TRUE;
+        } else if ((results & FALSE) != 0 || results == 0) {
+            return Result.FALSE;
+        }
+        return Result.INVALID;
+    }
+
+    private static ResultList toResultList(int results) {
+        ResultList list = new ResultList();
+        for (Result result : Result.values()) {
+            if ((results & toBit(result)) != 0) {
+                list.add(new FieldPathIteratorHandler.VariableMap(), result);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Returns the results of combining each result of the left hand side with each of the right hand side,
+     * which is the same as combining result lists without variables.
+     */
+    private static int combine(int operator, int lhs, int rhs) {
+        return operator == LogicNode.AND ? AND_TABLE[lhs][rhs] : OR_TABLE[lhs][rhs];
+    }
+
+    private static int[][] createCombinationTable(int operator) {
+        int[][] table = new int[8][8];
+        for (int lhs = 0; lhs < 8; ++lhs) {
+            for (int rhs = 0; rhs < 8; ++rhs) {
+                ResultList combined = operator == LogicNode.AND ? toResultList(lhs).combineAND(toResultList(rhs))
+                                                                : toResultList(lhs).combineOR(toResultList(rhs));
+                table[lhs][rhs] = toResults(combined);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * A compiled expression.
+     */
+    abstract static class Evaluator {
+
+        /** The relative cost of evaluating this */
+        final int cost;
+
+        /** Whether the result list of this may be empty, which makes any logical expression containing it false */
+        final boolean mayBeEmpty;
+
+        /** Whether the result list of this may bind field path variables */
+        final boolean variables;
+
+        Evaluator(int cost, boolean mayBeEmpty, boolean variables) {
+            this.cost = cost;
+            this.mayBeEmpty = mayBeEmpty;
+            this.variables = variables;
+        }
+
+        /** Returns the same value as {@link ExpressionNode#evaluate} of the compiled expression */
+        abstract Object evaluate(Context context);
+
+        /** Returns the distinct results of the result list of the value of this as a bit mask */
+        int evaluateResults(Context context) {
+            return toResults(evaluate(context));
+        }
+
+        /** Returns the result of the value of this */
+        Result evaluateResult(Context context) {
+            return Result.toResult(evaluate(context));
+        }
+    }
+
+    /** Evaluates by the expression tree */
+    private static class TreeEvaluator extends Evaluator {
+
+        private final ExpressionNode node;
+
+        TreeEvaluator(ExpressionNode node, int cost, boolean mayBeEmpty, boolean variables) {
+            super(cost, mayBeEmpty, variables);
+            this.node = node;
+        }
+
+        @Override
+        Object evaluate(Context context) {
+            return node.evaluate(context);
+        }
+    }
+
+    private static class Constant extends Evaluator {
+
+        private final Object value;
+        private final int results;
+
+        Constant(Object value) {
+            super(0, toResults(value) == 0, false);
+            this.value = value;
+            this.results = toResults(value);
+        }
+
+        @Override
+        Object evaluate(Context context) {
+            return value;
+        }
+
+        @Override
+        int evaluateResults(Context context) {
+            return results;
+        }
+
+        @Override
+        Result evaluateResult(Context context) {
+            return ExpressionCompiler.toResult(results);
+        }
+    }
+
+    private static class AttributeEvaluator extends Evaluator {
+
+        private final Evaluator value;
+        private final List<UnaryOperator<Object>> steps;
+        private final String nullMessage;
+
+        AttributeEvaluator(Evaluator value, List<UnaryOperator<Object>> steps, String nullMessage,
+                           int cost, boolean mayBeEmpty, boolean variables) {
+            super(cost, mayBeEmpty, variables);
+            this.value = value;
+            this.steps = steps;
+            this.nullMessage = nullMessage;
+        }
+
+        @Override
+        Object evaluate(Context context) {
+            Object obj = value.evaluate(context);
+            if (obj == null && nullMessage != null) {
+                throw new IllegalStateException(nullMessage);
+            }
+            for (UnaryOperator<Object> step : steps) {
+                obj = step.apply(obj);
+            }
+            return obj;
+        }
+    }
+
+    /** Looks up a field path in documents, building the field path once per document type */
+    private static class FieldPathStep implements UnaryOperator<Object> {
+
+        private final String path;
+        private volatile ResolvedFieldPath resolved = null;
+
+        FieldPathStep(String path) {
+            this.path = path;
+        }
+
+        @Override
+        public Object apply(Object value) {
+            if (value instanceof DocumentPut) {
+                Document doc = ((DocumentPut)value).getDocument();
+                return AttributeNode.getFieldValues(doc, resolve(doc.getDataType()));
+            } else if (value instanceof DocumentUpdate) {
+                return Result.INVALID;
+            }
+            return Result.FALSE;
+        }
+
+        private FieldPath resolve(DocumentType type) {
+            ResolvedFieldPath last = resolved;
+            if (last == null || last.type != type) {
+                last = new ResolvedFieldPath(type, type.buildFieldPath(path));
+                resolved = last;
+            }
+            return last.fieldPath;
+        }
+    }
+
+    private static class ResolvedFieldPath {
+
+        final DocumentType type;
+        final FieldPath fieldPath;
+
+        ResolvedFieldPath(DocumentType type, FieldPath fieldPath) {
+            this.type = type;
+            this.fieldPath = fieldPath;
+        }
+    }
+
+    private static class ComparisonEvaluator extends Evaluator {
+
+        private final ComparisonNode node;
+        private final Evaluator lhs;
+        private final Evaluator rhs;
+
+        ComparisonEvaluator(ComparisonNode node, Evaluator lhs, Evaluator rhs, int cost) {
+            super(cost, lhs.mayBeEmpty || rhs.mayBeEmpty, lhs.variables || rhs.variables);
+            this.node = node;
+            this.lhs = lhs;
+            this.rhs = rhs;
+        }
+
+        @Override
+        Object evaluate(Context context) {
+            return node.evaluate(lhs.evaluate(context), rhs.evaluate(context));
+        }
+    }
+
+    private static class NegationEvaluator extends Evaluator {
+
+        private final Evaluator operand;
+
+        NegationEvaluator(Evaluator operand) {
+            super(operand.cost, false, false);
+            this.operand = operand;
+        }
+
+        @Override
+        Object evaluate(Context context) {
+            return evaluateResult(context);
+        }
+
+        @Override
+        Result evaluateResult(Context context) {
+            return Result.invert(operand.evaluateResult(context));
+        }
+    }
+
+    /** Combines operands which are free of variables by a single logical operator */
+    private static class LogicEvaluator extends Evaluator {
+
+        private final int operator;
+        private final Evaluator[] operands;
+        private final LogicNode node;
+
+        LogicEvaluator(int operator, Evaluator[] operands, LogicNode node) {
+            super(totalCost(toList(operands)), anyMayBeEmpty(operands), false);
+            this.operator = operator;
+            this.operands = operands;
+            this.node = node;
+        }
+
+        /** Returns a copy of this which evaluates to the value of the given expression */
+        LogicEvaluator withNode(LogicNode node) {
+            return new LogicEvaluator(operator, operands, node);
+        }
+
+        @Override
+        Object evaluate(Context context) {
+            return node != null ? node.evaluate(context) : toResultList(evaluateResults(context));
+        }
+
+        @Override
+        int evaluateResults(Context context) {
+            int dominant = operator == LogicNode.AND ? FALSE : TRUE;
+            int results = operands[0].evaluateResults(context);
+            for (int i = 1; i < operands.length; ++i) {
+                if (results == 0) {
+                    return 0;
+                }
+                if (results == dominant) {
+                    return remainingAreNonEmpty(context, i) ? dominant : 0;
+                }
+                results = combine(operator, results, operands[i].evaluateResults(context));
+            }
+            return results;
+        }
+
+        @Override
+        Result evaluateResult(Context context) {
+            int results = operands[0].evaluateResults(context);
+            for (int i = 1; i < operands.length; ++i) {
+                if (results == 0) {
+                    return Result.FALSE;
+                }
+                if (operator == LogicNode.AND) {
+                    if ((results & TRUE) == 0 && (results & FALSE) != 0) {
+                        return Result.FALSE; // No result can become true, and at least one stays false
+                    }
+                } else if ((results & TRUE) != 0) {
+                    return remainingAreNonEmpty(context, i) ? Result.TRUE : Result.FALSE;
+                }
+                results = combine(operator, results, operands[i].evaluateResults(context));
+            }
+            return ExpressionCompiler.toResult(results);
+        }
+
+        /** Returns whether none of the operands from the given index have an empty result list */
+        private boolean remainingAreNonEmpty(Context context, int from) {
+            for (int i = from; i < operands.length; ++i) {
+                if (operands[i].mayBeEmpty && operands[i].evaluateResults(context) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean anyMayBeEmpty(Evaluator[] operands) {
+            for (Evaluator operand : operands) {
+                if (operand.mayBeEmpty) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class OperandItem {
+
+        final int operator;
+        final Evaluator evaluator;
+
+        OperandItem(int operator, Evaluator evaluator) {
+            this.operator = operator;
+            this.evaluator = evaluator;
+        }
+    }
+}
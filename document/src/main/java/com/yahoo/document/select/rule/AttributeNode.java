@@ -124,10 +124,7 @@ public class AttributeNode implements ExpressionNode {
     private static Object evaluateFieldPath(String fieldPth, Object value) {
         if (value instanceof DocumentPut) {
             final Document doc = ((DocumentPut) value).getDocument();
-            FieldPath fieldPath = doc.getDataType().buildFieldPath(fieldPth);
-            IteratorHandler handler = new IteratorHandler();
-            doc.iterateNested(fieldPath, 0, handler);
-            return handler.values;
+            return getFieldValues(doc, doc.getDataType().buildFieldPath(fieldPth));
         } else if (value instanceof DocumentUpdate) {
             return Result.INVALID;
         }
@@ -135,7 +132,27 @@ public class AttributeNode implements ExpressionNode {
         //throw new IllegalStateException("Attributes are only available for document types for value '" + value + "'. Looking for " + fieldPth);
     }
 
-    private static Object evaluateFunction(String function, Object value) {
+    /**
+     * Returns the values found at the given field path of a document.
+     *
+     * @param doc The document to iterate.
+     * @param fieldPath The field path to look up, built by the type of the document.
+     * @return The values found, along with the variables of each.
+     */
+    public static VariableValueList getFieldValues(Document doc, FieldPath fieldPath) {
+        IteratorHandler handler = new IteratorHandler();
+        doc.iterateNested(fieldPath, 0, handler);
+        return handler.values;
+    }
+
+    /**
+     * Applies the given function to a value, or to each value of a list.
+     *
+     * @param function The name of the function to apply.
+     * @param value The value to apply the function to.
+     * @return The result of the function.
+     */
+    public static Object evaluateFunction(String function, Object value) {
         if (value instanceof VariableValueList) {
             VariableValueList retVal = new VariableValueList();
 
@@ -23,6 +23,9 @@ public class ComparisonNode implements ExpressionNode {
     // The operator string for this.
     private String operator;
 
+    // The last pattern compiled by a regex or glob comparison.
+    private volatile CompiledPattern lastPattern;
+
     /**
      * Constructs a new comparison node.
      *
@@ -213,8 +216,17 @@ public class ComparisonNode implements ExpressionNode {
 
     // Inherit doc from Node.
     public Object evaluate(Context context) {
-        Object oLeft = lhs.evaluate(context);
-        Object oRight = rhs.evaluate(context);
+        return evaluate(lhs.evaluate(context), rhs.evaluate(context));
+    }
+
+    /**
+     * Evaluates this comparison on the given values of the left and right hand side.
+     *
+     * @param oLeft The value of the left hand side.
+     * @param oRight The value of the right hand side.
+     * @return The evaluation result.
+     */
+    public ResultList evaluate(Object oLeft, Object oRight) {
         if (oLeft == null && oRight == null) {
             return new ResultList(Result.TRUE);
         }
@@ -369,11 +381,24 @@ public class ComparisonNode implements ExpressionNode {
     private Result evaluateString(Object lhs, Object rhs) {
         String left = "" + lhs; // Allows null objects to evaluate to string.
         String right = "" + rhs;
-        if (operator.equals("=~")) {
-            return Result.toResult(Pattern.compile(right).matcher(left).find());
-        } else {
-            return Result.toResult(Pattern.compile(globToRegex(right)).matcher(left).find());
+        return Result.toResult(getPattern(right).matcher(left).find());
+    }
+
+    /**
+     * Returns the compiled regular expression or glob pattern of the given right hand side. The last compiled
+     * pattern is reused, as the right hand side is almost always a literal.
+     *
+     * @param right The right hand side of a regex or glob comparison.
+     * @return The compiled pattern.
+     */
+    private Pattern getPattern(String right) {
+        CompiledPattern last = lastPattern;
+        if (last != null && last.operator.equals(operator) && last.source.equals(right)) {
+            return last.pattern;
         }
+        Pattern pattern = Pattern.compile(operator.equals("=~") ? right : globToRegex(right));
+        lastPattern = new CompiledPattern(operator, right, pattern);
+        return pattern;
     }
 
     /**
@@ -432,4 +457,17 @@ public class ComparisonNode implements ExpressionNode {
     public String toString() {
         return lhs + " " + operator + " " + rhs;
     }
+
+    private static class CompiledPattern {
+
+        final String operator;
+        final String source;
+        final Pattern pattern;
+
+        CompiledPattern(String operator, String source, Pattern pattern) {
+            this.operator = operator;
+            this.source = source;
+            this.pattern = pattern;
+        }
+    }
 }
@@ -19,6 +19,18 @@ public class DocumentDeserializerFactory {
         return new VespaDocumentDeserializerHead(manager, buf);
     }
 
+    /**
+     * Creates a de-serializer for the current head document format, which deserializes the fields of documents
+     * when they are first accessed. This saves deserializing the fields which are never accessed, and serializing
+     * those again, which is useful when documents are passed on after looking at a few fields.
+     * Invalid field values are not detected until the field is accessed, see {@link com.yahoo.document.datatypes.Struct#setSerializedFields}.
+     */
+    public static DocumentDeserializer createLazyHead(DocumentTypeManager manager, GrowableByteBuffer buf) {
+        VespaDocumentDeserializerHead deserializer = new VespaDocumentDeserializerHead(manager, buf);
+        deserializer.setLazy(true);
+        return deserializer;
+    }
+
     /**
      * Creates a de-serializer for the document format that was created on Vespa 4.2.
      */
@@ -0,0 +1,138 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.document.serialization;
+
+import com.yahoo.document.DocumentTypeManager;
+import com.yahoo.document.Field;
+import com.yahoo.document.datatypes.FieldValue;
+import com.yahoo.io.GrowableByteBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The serialized values of the fields of a struct which are not deserialized yet. This allows a struct to be
+ * deserialized lazily, such that only the fields which are accessed are deserialized, while the others are
+ * serialized again by copying their bytes.
+ *
+ * @author bratseth
+ */
+public class SerializedFields {
+
+    private final DocumentTypeManager manager;
+    private final short version;
+    private final byte[] data;
+    private final Field[] fields;
+    private final int[] offsets;
+    private final int[] lengths;
+    private int size;
+
+    /**
+     * Creates an instance owning the given uncompressed field data.
+     *
+     * @param manager The document type manager used to deserialize the field values.
+     * @param version The serialization version of the field data.
+     * @param data    The serialized field values. This is owned by this and must not be modified.
+     * @param fields  The fields of the values in the data.
+     * @param offsets The offset in the data of the value of each field.
+     * @param lengths The length in bytes of the value of each field.
+     */
+    SerializedFields(DocumentTypeManager manager, short version, byte[] data,
+                     Field[] fields, int[] offsets, int[] lengths) {
+        this.manager = manager;
+        this.version = version;
+        this.data = data;
+        this.fields = fields;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.size = fields.length;
+    }
+
+    /** Returns the serialization version of the field values */
+    public short getVersion() { return version; }
+
+    /** Returns the number of fields which are not deserialized yet */
+    public int size() { return size; }
+
+    /** Returns whether the given field is among the fields which are not deserialized yet */
+    public boolean contains(Field field) {
+        return indexOf(field) >= 0;
+    }
+
+    /** Returns the fields which are not deserialized yet */
+    public List<Field> getFields() {
+        List<Field> remaining = new ArrayList<>(size);
+        for (Field field : fields) {
+            if (field != null) {
+                remaining.add(field);
+            }
+        }
+        return remaining;
+    }
+
+    /**
+     * Returns the serialized value of the given field, without deserializing it.
+     *
+     * @param field The field to return the value of.
+     * @return A buffer positioned at the serialized value, or null if the field is not in this.
+     */
+    public ByteBuffer getSerializedValue(Field field) {
+        int index = indexOf(field);
+        return index >= 0 ? ByteBuffer.wrap(data, offsets[index], lengths[index]) : null;
+    }
+
+    /**
+     * Deserializes the value of the given field and removes it from this.
+     *
+     * @param field The field to deserialize.
+     * @return The deserialized value, or null if the field is not in this.
+     * @throws DeserializationException if the serialized value is invalid. The field is kept in this.
+     */
+    @SuppressWarnings("deprecation")
+    public FieldValue deserialize(Field field) {
+        int index = indexOf(field);
+        if (index < 0) {
+            return null;
+        }
+        VespaDocumentDeserializer42 deserializer =
+                new VespaDocumentDeserializer42(manager, GrowableByteBuffer.wrap(data, offsets[index], lengths[index]),
+                                                null, version);
+        FieldValue value = fields[index].getDataType().createFieldValue();
+        try {
+            value.deserialize(fields[index], deserializer);
+        } catch (RuntimeException e) {
+            throw new DeserializationException("Could not deserialize the value of field '" + fields[index].getName() + "'", e);
+        }
+        remove(index);
+        return value;
+    }
+
+    /**
+     * Removes the given field from this, without deserializing it.
+     *
+     * @param field The field to remove.
+     * @return Whether the field was in this.
+     */
+    public boolean remove(Field field) {
+        int index = indexOf(field);
+        if (index < 0) {
+            return false;
+        }
+        remove(index);
+        return true;
+    }
+
+    private void remove(int index) {
+        fields[index] = null;
+        --size;
+    }
+
+    private int indexOf(Field field) {
+        for (int i = 0; i < fields.length; ++i) {
+            if (fields[i] != null && fields[i].getId() == field.getId()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -66,6 +66,7 @@ import com.yahoo.vespa.objects.FieldBase;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -90,6 +91,7 @@ public class VespaDocumentDeserializer42 extends VespaDocumentSerializer42 imple
     private List<SpanNode> spanNodes;
     private List<Annotation> annotations;
     private int[] stringPositions;
+    private boolean lazy = false;
 
     VespaDocumentDeserializer42(DocumentTypeManager manager, GrowableByteBuffer header, GrowableByteBuffer body, short version) {
         super(header);
@@ -108,6 +110,12 @@ public class VespaDocumentDeserializer42 extends VespaDocumentSerializer42 imple
 
     final public DocumentTypeManager getDocumentTypeManager() { return manager; }
 
+    /**
+     * Sets whether the fields of the header and body of documents are deserialized lazily, i.e., when each field
+     * is first accessed. Fields which are never accessed are then serialized again by copying their bytes.
+     */
+    void setLazy(boolean lazy) { this.lazy = lazy; }
+
     public void read(Document document) {
          read(null, document);
     }
@@ -137,15 +145,15 @@ public class VespaDocumentDeserializer42 extends VespaDocumentSerializer42 imple
         doc.setDataType(readDocumentType());
 
         if ((content & 0x2) != 0) {
-            doc.getHeader().deserialize(new Field("header"),this);
+            read(doc.getHeader(), lazy);
         }
         if ((content & 0x4) != 0) {
-            doc.getBody().deserialize(new Field("body"),this);
+            read(doc.getBody(), lazy);
         } else if (body != null) {
             GrowableByteBuffer header = getBuf();
             setBuf(body);
             body = null;
-            doc.getBody().deserialize(new Field("body"), this);
+            read(doc.getBody(), lazy);
             body = getBuf();
             setBuf(header);
         }
@@ -297,6 +305,10 @@ public class VespaDocumentDeserializer42 extends VespaDocumentSerializer42 imple
     }
 
     public void read(FieldBase fieldDef, Struct s) {
+        read(s, false);
+    }
+
+    private void read(Struct s, boolean lazy) {
         s.setVersion(version);
         int startPos = position();
 
@@ -353,6 +365,12 @@ public class VespaDocumentDeserializer42 extends VespaDocumentSerializer42 imple
         // set position in original buffer to after data
         position(position() + dataSize);
 
+        if (lazy) {
+            s.clear();
+            s.setSerializedFields(createSerializedFields(s.getDataType(), destination, fieldIdsAndLengths));
+            return;
+        }
+
         // for a while: deserialize from this buffer instead:
         buf = GrowableByteBuffer.wrap(destination);
 
@@ -377,6 +395,35 @@ public class VespaDocumentDeserializer42 extends VespaDocumentSerializer42 imple
         buf = bigBuf;
     }
 
+    /**
+     * Returns the given field data of a struct of the given type, with unknown fields left out.
+     * The field table is validated against the data here, while the field values are validated when deserialized.
+     */
+    private SerializedFields createSerializedFields(StructDataType type, byte[] data,
+                                                    List<Tuple2<Integer, Long>> fieldIdsAndLengths) {
+        List<Field> fields = new ArrayList<>(fieldIdsAndLengths.size());
+        int[] offsets = new int[fieldIdsAndLengths.size()];
+        int[] lengths = new int[fieldIdsAndLengths.size()];
+        int offset = 0;
+        for (Tuple2<Integer, Long> fieldIdAndLength : fieldIdsAndLengths) {
+            Field structField = type.getField(fieldIdAndLength.first, version);
+            if (fieldIdAndLength.second < 0 || fieldIdAndLength.second > data.length - offset) {
+                throw new DeserializationException("Field " + fieldIdAndLength.first + " of " + type + " has length " +
+                                                   fieldIdAndLength.second + ", but only " + (data.length - offset) +
+                                                   " bytes of field data remain");
+            }
+            int length = fieldIdAndLength.second.intValue();
+            if (structField != null) {
+                offsets[fields.size()] = offset;
+                lengths[fields.size()] = length;
+                fields.add(structField);
+            }
+            offset += length;
+        }
+        return new SerializedFields(manager, version, data, fields.toArray(new Field[fields.size()]),
+                                    Arrays.copyOf(offsets, fields.size()), Arrays.copyOf(lengths, fields.size()));
+    }
+
     public void read(FieldBase field, StructuredFieldValue value) {
         throw new IllegalArgumentException("read not implemented yet.");
     }
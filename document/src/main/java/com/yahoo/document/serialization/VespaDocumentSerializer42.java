@@ -1,6 +1,7 @@
 // Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
 package com.yahoo.document.serialization;
 
+import com.yahoo.compress.CompressionType;
 import com.yahoo.compress.Compressor;
 import com.yahoo.document.*;
 import com.yahoo.document.annotation.*;
@@ -297,31 +298,91 @@ public class VespaDocumentSerializer42 extends BufferSerializer implements Docum
      * @param s     - field value
      */
     public void write(FieldBase field, Struct s) {
-        // Serialize all parts first.. As we need to know length before starting
-        // Serialize all the fields.
+        if (s.getSerializedFields() != null) {
+            synchronized (s) { // Keep concurrent readers from deserializing the fields we copy
+                writeStruct(s);
+            }
+        } else {
+            writeStruct(s);
+        }
+    }
 
-        //keep the buffer we're serializing everything into:
-        GrowableByteBuffer bigBuffer = buf;
+    private void writeStruct(Struct s) {
+        if (s.getDataType().getCompressor().type() == CompressionType.NONE) {
+            writeUncompressed(s);
+        } else {
+            writeCompressed(s);
+        }
+    }
 
-        //create a new buffer and serialize into that for a while:
-        GrowableByteBuffer buffer = new GrowableByteBuffer(4096, 2.0f);
-        buf = buffer;
+    /**
+     * Writes the fields of the struct directly into the target buffer in a single pass. Room for the field
+     * table is reserved assuming 2 byte field lengths, and the table is filled in once the fields are written.
+     * The field data is only moved in the rare case where a field is too large for its length to fit in 2 bytes.
+     */
+    private void writeUncompressed(Struct s) {
+        SerializedFields serialized = getCopyableSerializedFields(s);
+        Set<Map.Entry<Field, FieldValue>> values = serialized != null ? s.getDeserializedFields() : s.getFields();
+        int fieldCount = s.getFieldCount();
+        int[] fieldIds = getFieldIds(s, values, serialized);
+        int[] fieldLengths = new int[fieldCount];
 
-        List<Integer> fieldIds = new LinkedList<>();
-        List<java.lang.Integer> fieldLengths = new LinkedList<>();
+        int lenPos = buf.position();
+        putInt(null, 0); // Move back to this after the fields are written.
+        buf.put(CompressionType.NONE.getCode());
+        buf.putInt1_4Bytes(fieldCount);
 
-        for (Map.Entry<Field, FieldValue> value : s.getFields()) {
+        int tablePos = buf.position();
+        int reservedTableSize = 0;
+        for (int fieldId : fieldIds) {
+            reservedTableSize += GrowableByteBuffer.getSerializedSize1_4Bytes(fieldId) + 2;
+        }
+        reserve(reservedTableSize);
 
-            int startPos = buffer.position();
-            value.getValue().serialize(value.getKey(), this);
+        int dataPos = buf.position();
+        writeFieldValues(values, serialized, fieldLengths);
+        int dataLength = buf.position() - dataPos;
 
-            fieldLengths.add(buffer.position() - startPos);
-            fieldIds.add(value.getKey().getId(s.getVersion()));
+        int tableSize = 0;
+        for (int i = 0; i < fieldCount; ++i) {
+            tableSize += GrowableByteBuffer.getSerializedSize1_4Bytes(fieldIds[i]) +
+                         GrowableByteBuffer.getSerializedSize2_4_8Bytes(fieldLengths[i]);
+        }
+        if (tableSize > reservedTableSize) {
+            reserve(tableSize - reservedTableSize); // Make sure the buffer has room for the moved data
+            moveBytes(dataPos, tablePos + tableSize, dataLength);
         }
 
-        // Switch buffers again:
+        buf.position(tablePos);
+        for (int i = 0; i < fieldCount; ++i) {
+            buf.putInt1_4Bytes(fieldIds[i]);
+            buf.putInt2_4_8Bytes(fieldLengths[i]);
+        }
+        buf.position(tablePos + tableSize + dataLength);
+        buf.putInt(lenPos, dataLength);
+    }
+
+    /** Writes the fields of the struct to a scratch buffer, which is then compressed into the target buffer */
+    private void writeCompressed(Struct s) {
+        SerializedFields serialized = getCopyableSerializedFields(s);
+        Set<Map.Entry<Field, FieldValue>> values = serialized != null ? s.getDeserializedFields() : s.getFields();
+        int fieldCount = s.getFieldCount();
+        int[] fieldIds = getFieldIds(s, values, serialized);
+        int[] fieldLengths = new int[fieldCount];
+
+        //keep the buffer we're serializing everything into:
+        GrowableByteBuffer bigBuffer = buf;
+
+        //serialize into a scratch buffer for a while:
+        GrowableByteBuffer buffer = ScratchBuffers.acquire();
+        buf = buffer;
+        try {
+            writeFieldValues(values, serialized, fieldLengths);
+        } finally {
+            // Switch buffers again:
+            buf = bigBuffer;
+        }
         buffer.flip();
-        buf = bigBuffer;
 
         int uncompressedSize = buffer.remaining();
         Compressor.Compression compression =
@@ -336,11 +397,11 @@ public class VespaDocumentSerializer42 extends BufferSerializer implements Docum
             buf.putInt2_4_8Bytes(uncompressedSize);
         }
 
-        buf.putInt1_4Bytes(s.getFieldCount());
+        buf.putInt1_4Bytes(fieldCount);
 
-        for (int i = 0; i < s.getFieldCount(); ++i) {
-            putInt1_4Bytes(null, fieldIds.get(i));
-            putInt2_4_8Bytes(null, fieldLengths.get(i));
+        for (int i = 0; i < fieldCount; ++i) {
+            putInt1_4Bytes(null, fieldIds[i]);
+            putInt2_4_8Bytes(null, fieldLengths[i]);
         }
 
         int pos = buf.position();
@@ -349,12 +410,110 @@ public class VespaDocumentSerializer42 extends BufferSerializer implements Docum
         } else {
             put(null, buffer.getByteBuffer());
         }
+        ScratchBuffers.release(buffer);
         int dataLength = buf.position() - pos;
 
-        int posNow = buf.position();
-        buf.position(lenPos);
-        putInt(null, dataLength);
-        buf.position(posNow);
+        buf.putInt(lenPos, dataLength);
+    }
+
+    /**
+     * Returns the fields of the given struct which are not deserialized yet if their bytes can be copied
+     * into the serialization, or null if there are no such fields.
+     */
+    private static SerializedFields getCopyableSerializedFields(Struct s) {
+        SerializedFields serialized = s.getSerializedFields();
+        if (serialized == null || serialized.getVersion() != Document.SERIALIZED_VERSION) {
+            return null; // The fields are deserialized by Struct.getFields instead
+        }
+        return serialized;
+    }
+
+    /** Returns the ids of the given field values followed by those of the given serialized fields */
+    private static int[] getFieldIds(Struct s, Set<Map.Entry<Field, FieldValue>> values, SerializedFields serialized) {
+        int[] fieldIds = new int[values.size() + (serialized != null ? serialized.size() : 0)];
+        int i = 0;
+        for (Map.Entry<Field, FieldValue> value : values) {
+            fieldIds[i++] = value.getKey().getId(s.getVersion());
+        }
+        if (serialized != null) {
+            for (Field field : serialized.getFields()) {
+                fieldIds[i++] = field.getId(s.getVersion());
+            }
+        }
+        return fieldIds;
+    }
+
+    /**
+     * Writes the given field values followed by the bytes of the given serialized fields,
+     * and stores the length of each in the given array.
+     */
+    private void writeFieldValues(Set<Map.Entry<Field, FieldValue>> values, SerializedFields serialized,
+                                  int[] fieldLengths) {
+        int i = 0;
+        for (Map.Entry<Field, FieldValue> value : values) {
+            int startPos = buf.position();
+            value.getValue().serialize(value.getKey(), this);
+            fieldLengths[i++] = buf.position() - startPos;
+        }
+        if (serialized != null) {
+            for (Field field : serialized.getFields()) {
+                ByteBuffer bytes = serialized.getSerializedValue(field);
+                fieldLengths[i++] = bytes.remaining();
+                buf.put(bytes);
+            }
+        }
+    }
+
+    /**
+     * Thread local buffers used to serialize structs before compressing them. A stack is kept
+     * per thread as compressed structs may be nested.
+     */
+    private static class ScratchBuffers {
+
+        /** Larger buffers are not kept, to avoid holding on to memory after serializing a large document */
+        private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+        private static final ThreadLocal<Deque<GrowableByteBuffer>> free = ThreadLocal.withInitial(ArrayDeque::new);
+
+        static GrowableByteBuffer acquire() {
+            GrowableByteBuffer buffer = free.get().poll();
+            if (buffer == null) {
+                return new GrowableByteBuffer(4096, 2.0f);
+            }
+            buffer.clear();
+            return buffer;
+        }
+
+        static void release(GrowableByteBuffer buffer) {
+            if (buffer.capacity() <= MAX_RETAINED_CAPACITY) {
+                free.get().push(buffer);
+            }
+        }
+    }
+
+    /** Advances the position of the buffer by the given number of bytes, growing it if necessary */
+    private void reserve(int size) {
+        int pos = buf.position();
+        for (int i = 0; i < size; ++i) {
+            buf.put((byte) 0);
+        }
+        buf.position(pos + size);
+    }
+
+    /** Moves bytes within the buffer. The source and destination ranges may overlap. */
+    private void moveBytes(int from, int to, int length) {
+        ByteBuffer bytes = buf.getByteBuffer();
+        if (bytes.hasArray()) {
+            System.arraycopy(bytes.array(), bytes.arrayOffset() + from, bytes.array(), bytes.arrayOffset() + to, length);
+        } else {
+            byte[] data = new byte[length];
+            ByteBuffer source = bytes.duplicate();
+            source.position(from);
+            source.get(data);
+            ByteBuffer target = bytes.duplicate();
+            target.position(to);
+            target.put(data);
+        }
     }
 
     /**
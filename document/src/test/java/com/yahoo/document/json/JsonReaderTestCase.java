@@ -2,6 +2,8 @@
 package com.yahoo.document.json;
 
 import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.io.JsonStringEncoder;
 import com.google.common.base.Joiner;
 import com.yahoo.collections.Tuple2;
@@ -822,6 +824,121 @@ public class JsonReaderTestCase {
         controlBasicFeed(r);
     }
 
+    @Test
+    public final void testFeedContinuesAfterFailingOperation() {
+        InputStream rawDoc = new ByteArrayInputStream(
+                Utf8.toBytes("[{\"put\": \"id:unittest:smoke::whee\","
+                        + " \"fields\": { \"nonexisting\": { \"nested\": [ \"value\" ] },"
+                        + " \"nalle\": \"bamse\"},"
+                        + " \"condition\": \"bla\"}" + ", "
+                        + "{\"put\": \"id:unittest:smoke::whee\","
+                        + " \"fields\": { \"something\": \"smoketest\","
+                        + " \"nalle\": \"bamse\"},"
+                        + " \"condition\": \"smoke.nalle == 'bamse'\"}]"));
+        JsonReader r = new JsonReader(types, rawDoc, parserFactory);
+
+        try {
+            r.next();
+            fail("Expected exception on unknown field");
+        }
+        catch (RuntimeException expected) {
+        }
+
+        DocumentPut put = (DocumentPut) r.next();
+        smokeTestDoc(put.getDocument());
+        assertEquals("smoke.nalle == 'bamse'", put.getCondition().getSelection());
+        assertNull(r.next());
+    }
+
+    @Test
+    public final void testFieldsReadFromParserGiveSameOperationsAsBufferedFields() {
+        String[][] operations = {
+                { "put", "id:unittest:smoke::whee", "{ \"something\": \"smoketest\", \"nalle\": \"bamse\", \"int1\": 3 }" },
+                { "put", "id:unittest:mirrors::whee", "{ \"skuggsjaa\": { \"sandra\": \"person\", \"cloud\": \"another person\" }}" },
+                { "put", "id:unittest:testarray::whee", "{ \"actualarray\": [ \"nalle\", \"tralle\" ]}" },
+                { "put", "id:unittest:testset::whee", "{ \"actualset\": { \"nalle\": 2, \"tralle\": 7 }}" },
+                { "put", "id:unittest:testmap::whee", "{ \"actualmap\": { \"nalle\": \"kalle\", \"tralle\": \"skalle\" }}" },
+                { "put", "id:unittest:testmap::whee", "{ \"actualmap\": [ { \"key\": \"nalle\", \"value\": \"kalle\" } ]}" },
+                { "put", "id:unittest:testMapStringToArrayOfInt::whee", "{ \"actualMapStringToArrayOfInt\": { \"bamse\": [1, 2, 3] }}" },
+                { "put", "id:unittest:testsinglepos::bamf", "{ \"singlepos\": \"N63.429722;E10.393333\" }" },
+                { "put", "id:unittest:testtensor::0", "{ \"mappedtensorfield\": { \"cells\": [ " +
+                         "{ \"address\": { \"x\": \"a\", \"y\": \"b\" }, \"value\": 2.0 } ]}}" },
+                { "put", "id:unittest:testtensor::0", "{ }" },
+                { "update", "id:unittest:smoke::whee", "{ \"something\": { \"assign\": \"orOther\" }}" },
+                { "update", "id:unittest:testarray::whee", "{ \"actualarray\": { \"add\": [ \"person\", \"another person\" ]}}" },
+                { "update", "id:unittest:testarray::whee", "{ \"actualarray\": { \"match\": { \"element\": 3, \"assign\": \"nalle\" }}}" },
+                { "update", "id:unittest:testset::whee", "{ \"actualset\": { \"match\": { \"element\": \"person\", \"increment\": 13 }}}" },
+                { "update", "id:unittest:testMapStringToArrayOfInt::whee",
+                            "{ \"actualMapStringToArrayOfInt\": { \"assign\": { \"bamse\": [1, 2, 3] }}}" }
+        };
+        StringBuilder idFirst = new StringBuilder("[");
+        StringBuilder fieldsFirst = new StringBuilder("[");
+        for (String[] operation : operations) {
+            String separator = idFirst.length() > 1 ? ", " : "";
+            idFirst.append(separator).append("{ \"").append(operation[0]).append("\": \"").append(operation[1])
+                   .append("\", \"fields\": ").append(operation[2]).append(" }");
+            fieldsFirst.append(separator).append("{ \"fields\": ").append(operation[2]).append(", \"")
+                       .append(operation[0]).append("\": \"").append(operation[1]).append("\" }");
+        }
+        JsonReader streamed = new JsonReader(types, new ByteArrayInputStream(Utf8.toBytes(idFirst.append("]").toString())),
+                                             parserFactory);
+        JsonReader buffered = new JsonReader(types, new ByteArrayInputStream(Utf8.toBytes(fieldsFirst.append("]").toString())),
+                                             parserFactory);
+        for (String[] operation : operations) {
+            DocumentOperation expected = buffered.next();
+            DocumentOperation actual = streamed.next();
+            String message = operation[0] + " " + operation[1] + ": " + operation[2];
+            if (expected instanceof DocumentPut) {
+                assertTrue(message, actual instanceof DocumentPut);
+                assertEquals(message, ((DocumentPut)expected).getDocument(), ((DocumentPut)actual).getDocument());
+            }
+            else {
+                assertEquals(message, expected, actual);
+            }
+        }
+        assertNull(buffered.next());
+        assertNull(streamed.next());
+    }
+
+    @Test
+    public final void testLazyTokenBufferReadsSameTokensAsEagerBuffer() throws IOException {
+        String fields = "{ \"a\": 1, \"b\": { \"c\": [ 2, { \"d\": \"e\" } ], \"f\": \"g\" }, \"h\": [], \"i\": true }";
+
+        JsonParser eagerParser = parserFactory.createParser(fields);
+        EagerTokenBuffer eager = new EagerTokenBuffer();
+        eager.bufferObject(eagerParser.nextToken(), eagerParser);
+        JsonParser lazyParser = parserFactory.createParser(fields);
+        lazyParser.nextToken();
+        LazyTokenBuffer lazy = new LazyTokenBuffer(lazyParser);
+
+        int tokens = 0;
+        do {
+            assertEquals(eager.currentToken(), lazy.currentToken());
+            assertEquals(eager.currentName(), lazy.currentName());
+            assertEquals(eager.currentText(), lazy.currentText());
+            assertEquals(eager.nesting(), lazy.nesting());
+            assertTokensEqual(eager.prefetchScalar("f"), lazy.prefetchScalar("f"));
+            assertTokensEqual(eager.prefetchScalar("i"), lazy.prefetchScalar("i"));
+            assertEquals(eager.currentToken(), lazy.currentToken()); // lookahead does not consume tokens
+            if (eager.currentToken() == JsonToken.START_ARRAY && "c".equals(eager.currentName()))
+                assertEquals(eager.prefetchCurrentElement().dumpContents(), lazy.prefetchCurrentElement().dumpContents());
+            tokens++;
+        } while (eager.next() != null & lazy.next() != null);
+        assertEquals(15, tokens);
+        assertEquals(JsonToken.END_OBJECT, lazyParser.currentToken());
+        assertNull(lazyParser.nextToken());
+    }
+
+    private static void assertTokensEqual(TokenBuffer.Token expected, TokenBuffer.Token actual) {
+        if (expected == null) {
+            assertNull(actual);
+            return;
+        }
+        assertEquals(expected.token, actual.token);
+        assertEquals(expected.name, actual.name);
+        assertEquals(expected.text, actual.text);
+    }
+
     protected void controlBasicFeed(JsonReader r) {
         DocumentOperation d = r.next();
         Document doc = ((DocumentPut) d).getDocument();
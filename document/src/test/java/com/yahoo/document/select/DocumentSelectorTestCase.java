@@ -644,6 +644,37 @@ public class DocumentSelectorTestCase extends junit.framework.TestCase {
         assertEquals(Result.FALSE, evaluate("test.structarrmap{$x}.key == 17 AND test.stringweightedset{$x}", documents.get(1)));
     }
 
+    public void testCompiledEvaluation() throws ParseException {
+        List<DocumentPut> documents = createDocs();
+
+        // Operands which cannot change the result are not evaluated
+        assertEquals(Result.FALSE, evaluate("false and id.group == \"yahoo\"", documents.get(3)));
+        assertEquals(Result.FALSE, evaluate("id.group == \"yahoo\" and false", documents.get(3)));
+        assertEquals(Result.TRUE, evaluate("id.user == 1234 or true", documents.get(0)));
+        assertEquals(Result.FALSE, evaluate("not (true or id.user == 1234)", documents.get(0)));
+        assertEquals(Result.FALSE, evaluate("id.user == 1234 and music", documents.get(0)));
+        assertError("test.hint == 24 and id.user == 1234", documents.get(0), "User identifier is null.");
+
+        // Operands which may have no values are evaluated, as that makes the expression false
+        assertEquals(Result.FALSE, evaluate("true or test.hint == 24", documents.get(7)));
+        assertEquals(Result.TRUE, evaluate("true or test.hint == 25", documents.get(0)));
+        assertEquals(Result.FALSE, evaluate("(test.hint == 24 or true) and true", documents.get(7)));
+
+        // Constant subexpressions
+        assertEquals(Result.TRUE, evaluate("1 + 2 == 3 and test.hint == 24", documents.get(0)));
+        assertEquals(Result.FALSE, evaluate("1 + 2 == 3 and test.hint == 24", documents.get(1)));
+        assertError("null.hash() == 22460089 and true", documents.get(0), "Can not invoke 'hash()' on 'null'");
+
+        // The same selector evaluated repeatedly
+        DocumentSelector selector = new DocumentSelector("test.hint > 14 and test.hstring.lowercase() = \"*ar\"");
+        for (int i = 0; i < 2; i++) {
+            assertEquals(Result.FALSE, selector.accepts(documents.get(0)));
+            assertEquals(Result.FALSE, selector.accepts(documents.get(1)));
+            assertEquals(Result.FALSE, selector.accepts(documents.get(3)));
+            assertEquals(Result.TRUE, selector.accepts(documents.get(5)));
+        }
+    }
+
     public void testTicket1769674() throws ParseException {
         assertParseError("music.uri=\"junk",
                          "Lexical error at line -1, column 17.  Encountered: <EOF> after : \"\\\"junk\"");
@@ -17,11 +17,20 @@ import com.yahoo.document.datatypes.PredicateFieldValue;
 import com.yahoo.document.datatypes.StringFieldValue;
 import com.yahoo.document.datatypes.Struct;
 import com.yahoo.io.GrowableByteBuffer;
+import com.yahoo.text.Utf8;
 import org.junit.Test;
 import org.mockito.Mockito;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * @author Simon Thoresen
@@ -129,4 +138,201 @@ public class VespaDocumentSerializerTestCase {
         // rounded up to 4096 bytes.
         assertTrue(buf.remaining() < 4096);
     }
+
+    @Test
+    public void struct_fields_too_large_for_reserved_field_table_entries_are_serialized() {
+        StructDataType nestedType = new StructDataType("nested_type");
+        nestedType.addField(new Field("str", DataType.STRING));
+        DocumentType docType = new DocumentType("my_type");
+        docType.addField(new Field("small", DataType.STRING));
+        docType.addField(new Field("large", DataType.STRING));
+        docType.addField(new Field("nested", nestedType));
+        DocumentTypeManager manager = new DocumentTypeManager();
+        manager.registerDocumentType(docType);
+
+        // Field lengths of 0x8000 bytes or more need a 4 byte encoding in the struct field table
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 0x9000; i++) {
+            large.append((char)('a' + i % 26));
+        }
+        Struct nested = new Struct(nestedType);
+        nested.setFieldValue("str", new StringFieldValue(large.toString()));
+        Document doc = new Document(docType, "id:ns:my_type::large");
+        doc.setFieldValue("small", new StringFieldValue("foo"));
+        doc.setFieldValue("large", new StringFieldValue(large.toString()));
+        doc.setFieldValue("nested", nested);
+
+        GrowableByteBuffer buf = new GrowableByteBuffer(16);
+        doc.serialize(buf);
+        buf.flip();
+        assertEquals(doc, manager.createDocument(buf));
+    }
+
+    @Test
+    public void nested_compressed_structs_are_serialized_from_scratch_buffers_repeatedly() {
+        CompressionFixture fixture = new CompressionFixture();
+        fixture.nestedType.setCompressionConfig(new CompressionConfig(CompressionType.LZ4));
+        for (int i = 0; i < 3; i++) {
+            Document doc = new Document(fixture.docType, "id:foo:map_of_structs::flarn" + i);
+            Struct nested = new Struct(fixture.nestedType);
+            nested.setFieldValue("str", new StringFieldValue(CompressionFixture.COMPRESSABLE_STRING + i));
+            MapFieldValue<StringFieldValue, Struct> map = new MapFieldValue<StringFieldValue, Struct>(fixture.mapType);
+            map.put(new StringFieldValue("foo"), nested);
+            map.put(new StringFieldValue("bar"), nested);
+            doc.setFieldValue("map", map);
+            assertEquals(doc, fixture.roundtripSerialize(doc));
+        }
+    }
+
+    @Test
+    public void lazily_deserialized_fields_are_deserialized_when_accessed() {
+        DocumentType docType = new DocumentType("my_type");
+        docType.addField(new Field("my_str", DataType.STRING));
+        docType.addField(new Field("my_int", DataType.INT));
+        DocumentTypeManager manager = new DocumentTypeManager();
+        manager.registerDocumentType(docType);
+        Document doc = new Document(docType, "id:ns:my_type::lazy");
+        doc.setFieldValue("my_str", new StringFieldValue("foo"));
+        doc.setFieldValue("my_int", new IntegerFieldValue(69));
+
+        Document lazy = new Document(DocumentDeserializerFactory.createLazyHead(manager, CompressionFixture.asSerialized(doc)));
+        assertEquals(2, lazy.getFieldCount());
+        assertEquals(2, getSerializedFieldCount(lazy));
+
+        assertEquals(new IntegerFieldValue(69), lazy.getFieldValue("my_int"));
+        assertEquals(1, getSerializedFieldCount(lazy));
+        assertEquals(2, lazy.getFieldCount());
+
+        lazy.setFieldValue("my_str", new StringFieldValue("bar"));
+        assertEquals(0, getSerializedFieldCount(lazy));
+        assertEquals(new StringFieldValue("bar"), lazy.getFieldValue("my_str"));
+        doc.setFieldValue("my_str", new StringFieldValue("bar"));
+        assertEquals(doc, lazy);
+    }
+
+    @Test
+    public void lazily_deserialized_fields_which_are_not_accessed_are_serialized_by_copy() {
+        StructDataType nestedType = new StructDataType("nested_type");
+        nestedType.addField(new Field("str", DataType.STRING));
+        DocumentType docType = new DocumentType("my_type");
+        docType.getHeaderType().setCompressionConfig(new CompressionConfig(CompressionType.LZ4));
+        docType.addHeaderField("str", DataType.STRING);
+        docType.addHeaderField("nested", nestedType);
+        docType.addField(new Field("body_str", DataType.STRING, false));
+        DocumentTypeManager manager = new DocumentTypeManager();
+        manager.registerDocumentType(docType);
+
+        Document doc = new Document(docType, "id:ns:my_type::lazy");
+        Struct nested = new Struct(nestedType);
+        nested.setFieldValue("str", new StringFieldValue(CompressionFixture.COMPRESSABLE_STRING));
+        doc.setFieldValue("nested", nested);
+        doc.setFieldValue("str", new StringFieldValue(CompressionFixture.COMPRESSABLE_STRING));
+        doc.setFieldValue("body_str", new StringFieldValue("foo"));
+        GrowableByteBuffer serialized = CompressionFixture.asSerialized(doc);
+
+        Document lazy = new Document(DocumentDeserializerFactory.createLazyHead(manager, serialized.duplicate()));
+        assertEquals(serialized, CompressionFixture.asSerialized(lazy));
+        assertEquals(3, getSerializedFieldCount(lazy));
+
+        lazy.removeFieldValue("str");
+        doc.removeFieldValue("str");
+        assertEquals(doc, manager.createDocument(CompressionFixture.asSerialized(lazy)));
+        assertEquals(nested, lazy.getFieldValue("nested"));
+    }
+
+    @Test
+    public void invalid_lazily_deserialized_fields_fail_when_accessed() {
+        DocumentType docType = new DocumentType("my_type");
+        docType.addField(new Field("my_str", DataType.STRING));
+        docType.addField(new Field("my_int", DataType.INT));
+        DocumentTypeManager manager = new DocumentTypeManager();
+        manager.registerDocumentType(docType);
+        Document doc = new Document(docType, "id:ns:my_type::lazy");
+        doc.setFieldValue("my_str", new StringFieldValue("foo"));
+        doc.setFieldValue("my_int", new IntegerFieldValue(69));
+        GrowableByteBuffer serialized = CompressionFixture.asSerialized(doc);
+        corruptStringLength(serialized, "foo");
+
+        try {
+            new Document(DocumentDeserializerFactory.createHead(manager, serialized.duplicate()));
+            fail("Expected the invalid field to fail eager deserialization");
+        } catch (RuntimeException expected) {
+        }
+
+        Document lazy = new Document(DocumentDeserializerFactory.createLazyHead(manager, serialized.duplicate()));
+        assertEquals(new IntegerFieldValue(69), lazy.getFieldValue("my_int"));
+        for (int i = 0; i < 2; i++) { // the field stays invalid
+            try {
+                lazy.getFieldValue("my_str");
+                fail("Expected the invalid field to fail when accessed");
+            } catch (DeserializationException e) {
+                assertEquals("Could not deserialize the value of field 'my_str'", e.getMessage());
+            }
+        }
+        assertEquals(1, getSerializedFieldCount(lazy));
+    }
+
+    @Test
+    public void lazily_deserialized_fields_may_be_read_by_multiple_threads() throws Exception {
+        DocumentType docType = new DocumentType("my_type");
+        int fieldCount = 100;
+        for (int i = 0; i < fieldCount; i++) {
+            docType.addField(new Field("str" + i, DataType.STRING));
+        }
+        DocumentTypeManager manager = new DocumentTypeManager();
+        manager.registerDocumentType(docType);
+        Document doc = new Document(docType, "id:ns:my_type::lazy");
+        for (int i = 0; i < fieldCount; i++) {
+            doc.setFieldValue("str" + i, new StringFieldValue("value" + i));
+        }
+        GrowableByteBuffer serialized = CompressionFixture.asSerialized(doc);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int round = 0; round < 20; round++) {
+                Document lazy = new Document(DocumentDeserializerFactory.createLazyHead(manager, serialized.duplicate()));
+                List<Future<Boolean>> results = new ArrayList<>();
+                for (int thread = 0; thread < 4; thread++) {
+                    int offset = thread * 7;
+                    results.add(executor.submit(() -> {
+                        for (int i = 0; i < fieldCount; i++) {
+                            int field = (i + offset) % fieldCount;
+                            if ( ! new StringFieldValue("value" + field).equals(lazy.getFieldValue("str" + field)))
+                                return false;
+                        }
+                        return true;
+                    }));
+                }
+                for (Future<Boolean> result : results) {
+                    assertTrue(result.get());
+                }
+                assertEquals(doc, lazy);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /** Sets the serialized length of the given string value to more than the data there is */
+    private static void corruptStringLength(GrowableByteBuffer buffer, String value) {
+        byte[] data = buffer.array();
+        byte[] bytes = Utf8.toBytes(value);
+        for (int i = 1; i + bytes.length <= buffer.limit(); i++) {
+            if (Arrays.equals(bytes, Arrays.copyOfRange(data, i, i + bytes.length))) {
+                data[i - 1] = 0x7f;
+                return;
+            }
+        }
+        throw new IllegalArgumentException("'" + value + "' is not in the buffer");
+    }
+
+    private static int getSerializedFieldCount(Document doc) {
+        int count = 0;
+        for (Struct struct : new Struct[] { doc.getHeader(), doc.getBody() }) {
+            if (struct.getSerializedFields() != null) {
+                count += struct.getSerializedFields().size();
+            }
+        }
+        return count;
+    }
 }
@@ -61,11 +61,11 @@ public class MessageBusAsyncSession implements MessageBusSession, AsyncSession {
                            ReplyHandler handler) {
         route = mbusParams.getRoute();
         traceLevel = mbusParams.getTraceLevel();
-        throttlePolicy = mbusParams.getSourceSessionParams().getThrottlePolicy();
         if (handler == null) {
             handler = new MyReplyHandler(asyncParams.getResponseHandler(), responses);
         }
         session = bus.createSourceSession(handler, mbusParams.getSourceSessionParams());
+        throttlePolicy = session.getThrottlePolicy();
     }
 
     @Override
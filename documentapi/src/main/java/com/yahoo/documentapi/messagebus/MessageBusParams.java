@@ -15,6 +15,7 @@ public class MessageBusParams extends DocumentAccessParams {
     private String protocolConfigId = null;
     private String route = "route:default";
     private int traceLevel = 0;
+    private boolean lazyDocumentDecoding = false;
     private RPCNetworkParams rpcNetworkParams = new RPCNetworkParams();
     private com.yahoo.messagebus.MessageBusParams mbusParams = new com.yahoo.messagebus.MessageBusParams();
     private SourceSessionParams sourceSessionParams = new SourceSessionParams();
@@ -190,4 +191,26 @@ public class MessageBusParams extends DocumentAccessParams {
         sourceSessionParams = new SourceSessionParams(params);
         return this;
     }
+
+    /**
+     * Returns whether the fields of documents in received messages are deserialized when first accessed.
+     *
+     * @return True if documents are decoded lazily.
+     */
+    public boolean getLazyDocumentDecoding() {
+        return lazyDocumentDecoding;
+    }
+
+    /**
+     * Sets whether the fields of documents in received messages are deserialized when first accessed, rather than
+     * when the message is decoded. See {@link com.yahoo.documentapi.messagebus.protocol.DocumentProtocol#setLazyDocumentDecoding}.
+     * This is false by default.
+     *
+     * @param lazy Whether to decode documents lazily.
+     * @return This object for chaining.
+     */
+    public MessageBusParams setLazyDocumentDecoding(boolean lazy) {
+        lazyDocumentDecoding = lazy;
+        return this;
+    }
 }
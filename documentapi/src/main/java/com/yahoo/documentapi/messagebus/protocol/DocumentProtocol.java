@@ -564,6 +564,18 @@ public class DocumentProtocol implements Protocol {
         }
     }
 
+    /**
+     * Sets whether the documents of messages decoded by this are deserialized lazily, such that each field
+     * is deserialized when it is first accessed. This saves work when documents are passed on after looking at
+     * a few fields at most, but invalid field data is then reported by an exception when the field is accessed
+     * instead of failing the decoding of the message. This is false by default.
+     *
+     * @param lazy Whether to deserialize document fields lazily.
+     */
+    public void setLazyDocumentDecoding(boolean lazy) {
+        routableRepository.setLazyDocumentDecoding(lazy);
+    }
+
     /**
      * Returns a list of routable types that support the given version.
      *
@@ -29,11 +29,17 @@ final class RoutableRepository {
     private final CopyOnWriteHashMap<Integer, VersionMap> factoryTypes = new CopyOnWriteHashMap<>();
     private final CopyOnWriteHashMap<CacheKey, RoutableFactory> cache = new CopyOnWriteHashMap<>();
     private LoadTypeSet loadTypes;
+    private volatile boolean lazyDocumentDecoding = false;
 
     public RoutableRepository(LoadTypeSet set) {
         loadTypes = set;
     }
 
+    /** Sets whether the documents of decoded routables are deserialized lazily. See {@link DocumentProtocol}. */
+    void setLazyDocumentDecoding(boolean lazy) {
+        lazyDocumentDecoding = lazy;
+    }
+
     /**
      * Decodes a {@link Routable} from the given byte array. This uses the content of the byte array to dispatch the
      * decode request to the appropriate {@link RoutableFactory} that was previously registered.
@@ -52,7 +58,8 @@ final class RoutableRepository {
         DocumentDeserializer in;
 
         if (version.getMajor() >= 5) {
-            in = DocumentDeserializerFactory.createHead(docMan, GrowableByteBuffer.wrap(data));
+            in = lazyDocumentDecoding ? DocumentDeserializerFactory.createLazyHead(docMan, GrowableByteBuffer.wrap(data))
+                                      : DocumentDeserializerFactory.createHead(docMan, GrowableByteBuffer.wrap(data));
         } else {
             in = DocumentDeserializerFactory.create42(docMan, GrowableByteBuffer.wrap(data));
         }
@@ -87,4 +87,10 @@ public class SimpleDocumentAdapter implements DocumentAdapter {
         output.setFieldValue(field, fieldValue);
         return this;
     }
+
+    @Override
+    public SimpleDocumentAdapter setOutputValue(Expression exp, Field field, FieldValue fieldValue) {
+        output.setFieldValue(field, fieldValue);
+        return this;
+    }
 }
@@ -0,0 +1,219 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.vespa.indexinglanguage.expressions;
+
+import com.yahoo.document.DataType;
+import com.yahoo.document.Document;
+import com.yahoo.document.DocumentType;
+import com.yahoo.document.Field;
+import com.yahoo.document.FieldPath;
+import com.yahoo.document.datatypes.FieldValue;
+import com.yahoo.vespa.indexinglanguage.AdapterFactory;
+import com.yahoo.vespa.indexinglanguage.DocumentAdapter;
+
+import java.util.Objects;
+
+/**
+ * A script expression compiled for a given document type. The statements of the script are flattened into arrays
+ * of steps where input and output fields are resolved against the document type once, and the input type
+ * required by each expression is computed once instead of on each execution. Expressions nested inside other
+ * expressions, such as the ones in if-then or for_each, are executed as usual.
+ *
+ * <p>Executing a compiled script has the same effect as executing the script, except that the output types of
+ * the expressions are not checked. Compiled scripts are immutable and may be used by multiple threads.</p>
+ *
+ * @author bratseth
+ */
+public final class CompiledScript {
+
+    private final ScriptExpression script;
+    private final DocumentType documentType;
+    private final DataType requiredInputType;
+    private final Statement[] statements;
+
+    private CompiledScript(ScriptExpression script, DocumentType documentType) {
+        this.script = script;
+        this.documentType = documentType;
+        this.requiredInputType = script.requiredInputType();
+        this.statements = new Statement[script.size()];
+        for (int i = 0; i < statements.length; i++) {
+            statements[i] = new Statement(script.get(i), documentType);
+        }
+    }
+
+    /**
+     * Compiles a script for a document type.
+     *
+     * @param script the script to compile
+     * @param documentType the type of the documents the compiled script will execute on
+     * @return the compiled script
+     */
+    public static CompiledScript compile(ScriptExpression script, DocumentType documentType) {
+        return new CompiledScript(script, Objects.requireNonNull(documentType, "documentType"));
+    }
+
+    /** Returns the script this was compiled from */
+    public ScriptExpression getScript() { return script; }
+
+    /** Returns the document type this is compiled for */
+    public DocumentType getDocumentType() { return documentType; }
+
+    /**
+     * Executes this on a document. Documents of other types than the one this is compiled for are passed
+     * to the script this was compiled from instead.
+     *
+     * @param factory the factory creating the adapter to execute on
+     * @param document the document to execute on
+     * @return the output document
+     */
+    public Document execute(AdapterFactory factory, Document document) {
+        if ( ! documentType.equals(document.getDataType())) {
+            return script.execute(factory, document);
+        }
+        DocumentAdapter adapter = factory.newDocumentAdapter(document);
+        execute(new ExecutionContext(adapter));
+        return adapter.getFullOutput();
+    }
+
+    /**
+     * Executes this in the given context.
+     *
+     * @return the value of the context after execution
+     * @see Expression#execute(ExecutionContext)
+     */
+    public FieldValue execute(ExecutionContext context) {
+        FieldValue input = context.getValue();
+        if (requiredInputType != null && ! accepts(script, requiredInputType, input)) {
+            return null;
+        }
+        for (Statement statement : statements) {
+            context.setValue(input);
+            statement.execute(context);
+        }
+        context.setValue(input);
+        return input;
+    }
+
+    @Override
+    public String toString() {
+        return "script compiled for " + documentType + ": " + script;
+    }
+
+    /** Returns whether an expression requiring the given input type should execute on the given input */
+    private static boolean accepts(Expression expression, DataType inputType, FieldValue input) {
+        if (input == null) {
+            return false;
+        }
+        if (inputType != UnresolvedDataType.INSTANCE && ! inputType.isValueCompatible(input)) {
+            throw new IllegalArgumentException("Expression '" + expression + "' expected " + inputType.getName() +
+                                               " input, got " + input.getDataType().getName() + ".");
+        }
+        return true;
+    }
+
+    /** Creates the step executing the given expression of a statement */
+    private static Step compileStep(Expression expression, DocumentType documentType) {
+        if (expression instanceof InputExpression) {
+            String fieldName = ((InputExpression)expression).getFieldName();
+            try {
+                return new InputStep(documentType.buildFieldPath(fieldName));
+            } catch (IllegalArgumentException e) {
+                // not in this type; leave it to the adapter
+            }
+        } else if (expression instanceof OutputExpression) {
+            Field field = documentType.getField(((OutputExpression)expression).getFieldName());
+            if (field != null) {
+                return new OutputStep((OutputExpression)expression, field);
+            }
+        }
+        return new ExpressionStep(expression);
+    }
+
+    private static final class Statement {
+
+        private final StatementExpression expression;
+        private final DataType requiredInputType;
+        private final Step[] steps;
+
+        Statement(StatementExpression expression, DocumentType documentType) {
+            this.expression = expression;
+            this.requiredInputType = expression.requiredInputType();
+            this.steps = new Step[expression.size()];
+            for (int i = 0; i < steps.length; i++) {
+                steps[i] = compileStep(expression.get(i), documentType);
+            }
+        }
+
+        void execute(ExecutionContext context) {
+            if (requiredInputType != null && ! accepts(expression, requiredInputType, context.getValue())) {
+                return;
+            }
+            for (Step step : steps) {
+                step.execute(context);
+            }
+        }
+
+    }
+
+    private static abstract class Step {
+
+        abstract void execute(ExecutionContext context);
+
+    }
+
+    private static final class ExpressionStep extends Step {
+
+        private final Expression expression;
+        private final DataType requiredInputType;
+
+        ExpressionStep(Expression expression) {
+            this.expression = Objects.requireNonNull(expression);
+            this.requiredInputType = expression.requiredInputType();
+        }
+
+        @Override
+        void execute(ExecutionContext context) {
+            if (requiredInputType != null && ! accepts(expression, requiredInputType, context.getValue())) {
+                return;
+            }
+            expression.doExecute(context);
+        }
+
+    }
+
+    private static final class InputStep extends Step {
+
+        private final FieldPath fieldPath;
+
+        InputStep(FieldPath fieldPath) {
+            this.fieldPath = fieldPath;
+        }
+
+        @Override
+        void execute(ExecutionContext context) {
+            context.setValue(context.getInputValue(fieldPath));
+        }
+
+    }
+
+    private static final class OutputStep extends Step {
+
+        private final OutputExpression expression;
+        private final Field field;
+
+        OutputStep(OutputExpression expression, Field field) {
+            this.expression = expression;
+            this.field = field;
+        }
+
+        @Override
+        void execute(ExecutionContext context) {
+            FieldValue value = context.getValue();
+            if (value == null) {
+                return;
+            }
+            context.setOutputValue(expression, field, value);
+        }
+
+    }
+
+}
@@ -2,6 +2,7 @@
 package com.yahoo.vespa.indexinglanguage.expressions;
 
 import com.yahoo.document.DataType;
+import com.yahoo.document.Field;
 import com.yahoo.document.FieldPath;
 import com.yahoo.document.datatypes.FieldValue;
 import com.yahoo.language.Language;
@@ -72,6 +73,15 @@ public class ExecutionContext implements FieldTypeAdapter, FieldValueAdapter, Cl
         return this;
     }
 
+    @Override
+    public ExecutionContext setOutputValue(Expression exp, Field field, FieldValue fieldValue) {
+        if (adapter == null) {
+            throw new IllegalStateException("Can not set field '" + field.getName() + "' because adapter is null.");
+        }
+        adapter.setOutputValue(exp, field, fieldValue);
+        return this;
+    }
+
     public FieldValueAdapter getAdapter() {
         return adapter;
     }
@@ -0,0 +1,89 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.vespa.indexinglanguage.expressions;
+
+import com.yahoo.document.DataType;
+import com.yahoo.document.Document;
+import com.yahoo.document.DocumentType;
+import com.yahoo.document.Field;
+import com.yahoo.document.datatypes.IntegerFieldValue;
+import com.yahoo.document.datatypes.StringFieldValue;
+import com.yahoo.vespa.indexinglanguage.SimpleAdapterFactory;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * @author bratseth
+ */
+public class CompiledScriptTestCase {
+
+    private static final DocumentType type = new DocumentType("compiled");
+    static {
+        type.addField(new Field("title", DataType.STRING));
+        type.addField(new Field("title_lc", DataType.STRING));
+        type.addField(new Field("missing", DataType.STRING));
+        type.addField(new Field("missing_out", DataType.STRING));
+        type.addField(new Field("num", DataType.INT));
+        type.addField(new Field("num_copy", DataType.INT));
+    }
+
+    @Test
+    public void requireThatCompiledScriptProducesTheSameOutputAsTheScript() {
+        ScriptExpression script = new ScriptExpression(
+                new StatementExpression(new InputExpression("title"), new LowerCaseExpression(),
+                                        new IndexExpression("title_lc")),
+                new StatementExpression(new InputExpression("missing"), new LowerCaseExpression(),
+                                        new AttributeExpression("missing_out")),
+                new StatementExpression(new InputExpression("num"), new SetVarExpression("tmp")),
+                new StatementExpression(new GetVarExpression("tmp"), new AttributeExpression("num_copy")));
+        CompiledScript compiled = CompiledScript.compile(script, type);
+        assertSame(script, compiled.getScript());
+        assertSame(type, compiled.getDocumentType());
+
+        Document interpreted = script.execute(new SimpleAdapterFactory(), newDocument());
+        Document output = compiled.execute(new SimpleAdapterFactory(), newDocument());
+        assertEquals(new StringFieldValue("hello world"), output.getFieldValue("title_lc"));
+        assertNull(output.getFieldValue("missing_out"));
+        assertEquals(new IntegerFieldValue(42), output.getFieldValue("num_copy"));
+        assertEquals(interpreted, output);
+    }
+
+    @Test
+    public void requireThatIncompatibleInputIsRejected() {
+        ScriptExpression script = new ScriptExpression(
+                new StatementExpression(new InputExpression("num"), new LowerCaseExpression(),
+                                        new IndexExpression("title_lc")));
+        try {
+            CompiledScript.compile(script, type).execute(new SimpleAdapterFactory(), newDocument());
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Expression 'lowercase' expected string input, got int.", e.getMessage());
+        }
+    }
+
+    @Test
+    public void requireThatDocumentsOfOtherTypesAreExecutedByTheScript() {
+        DocumentType other = new DocumentType("other");
+        other.addField(new Field("title", DataType.STRING));
+        other.addField(new Field("title_lc", DataType.STRING));
+        ScriptExpression script = new ScriptExpression(
+                new StatementExpression(new InputExpression("title"), new LowerCaseExpression(),
+                                        new IndexExpression("title_lc")));
+
+        Document document = new Document(other, "id:test:other::1");
+        document.setFieldValue("title", new StringFieldValue("Other"));
+        Document output = CompiledScript.compile(script, type).execute(new SimpleAdapterFactory(), document);
+        assertEquals(new StringFieldValue("other"), output.getFieldValue("title_lc"));
+    }
+
+    private static Document newDocument() {
+        Document document = new Document(type, "id:test:compiled::1");
+        document.setFieldValue("title", new StringFieldValue("Hello World"));
+        document.setFieldValue("num", new IntegerFieldValue(42));
+        return document;
+    }
+
+}
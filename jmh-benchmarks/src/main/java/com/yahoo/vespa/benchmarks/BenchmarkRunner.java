@@ -0,0 +1,36 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.vespa.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks of this module. This takes the usual JMH command line options, e.g a regexp
+ * selecting the benchmarks to run. Unless some profiler is given on the command line, the gc profiler is added,
+ * such that the allocation rate of each benchmark is reported along with its throughput.
+ *
+ * @author bratseth
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        if (commandLineOptions.shouldHelp()) {
+            commandLineOptions.showHelp();
+            return;
+        }
+
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLineOptions);
+        if (commandLineOptions.getProfilers().isEmpty())
+            options.addProfiler(GCProfiler.class);
+        Runner runner = new Runner(options.build());
+        if (commandLineOptions.shouldList())
+            runner.list();
+        else
+            runner.run();
+    }
+
+}
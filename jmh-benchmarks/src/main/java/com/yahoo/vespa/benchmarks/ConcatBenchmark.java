@@ -0,0 +1,69 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.vespa.benchmarks;
+
+import com.yahoo.tensor.Tensor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks tensor concatenation. This is separate from {@link TensorFunctionBenchmark}
+ * as concat is only supported for dense tensors.
+ *
+ * @author bratseth
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConcatBenchmark {
+
+    @Param({"300"})
+    public int vectorSize;
+
+    @Param({"32"})
+    public int matrixSize;
+
+    private Tensor vector;
+    private Tensor otherVector;
+    private Tensor matrix;
+    private Tensor otherMatrix;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        vector = Tensors.vector("x", vectorSize, true, random);
+        otherVector = Tensors.vector("x", vectorSize, true, random);
+        matrix = Tensors.matrix("x", vectorSize, "y", matrixSize, true, random);
+        otherMatrix = Tensors.matrix("x", vectorSize, "y", matrixSize, true, random);
+    }
+
+    @Benchmark
+    public Tensor concatVectors() {
+        return vector.concat(otherVector, "x");
+    }
+
+    @Benchmark
+    public Tensor concatMatrices() {
+        return matrix.concat(otherMatrix, "y");
+    }
+
+    @Benchmark
+    public Tensor concatInNewDimension() {
+        return vector.concat(otherVector, "z");
+    }
+
+}
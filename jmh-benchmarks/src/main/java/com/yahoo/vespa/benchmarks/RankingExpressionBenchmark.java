@@ -0,0 +1,149 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.vespa.benchmarks;
+
+import com.yahoo.searchlib.rankingexpression.RankingExpression;
+import com.yahoo.searchlib.rankingexpression.evaluation.ArrayContext;
+import com.yahoo.searchlib.rankingexpression.evaluation.CompiledExpression;
+import com.yahoo.searchlib.rankingexpression.evaluation.Context;
+import com.yahoo.searchlib.rankingexpression.evaluation.DoubleOnlyArrayContext;
+import com.yahoo.searchlib.rankingexpression.evaluation.ExpressionCompiler;
+import com.yahoo.searchlib.rankingexpression.evaluation.ExpressionOptimizer;
+import com.yahoo.searchlib.rankingexpression.evaluation.MapContext;
+import com.yahoo.searchlib.rankingexpression.parser.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks evaluation of a GBDT model ranking expression of a typical size, using a map context,
+ * an array context, an array context with the expression optimized by the {@link ExpressionOptimizer},
+ * and the expression compiled by the {@link ExpressionCompiler}.
+ * Each evaluation uses the next of a set of contexts with different feature values, such that
+ * different paths through the trees are taken.
+ *
+ * @author bratseth
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RankingExpressionBenchmark {
+
+    private static final int contextCount = 64;
+
+    @Param({"300"})
+    public int trees;
+
+    @Param({"6"})
+    public int treeDepth;
+
+    @Param({"40"})
+    public int features;
+
+    private RankingExpression expression;
+    private RankingExpression optimizedExpression;
+    private CompiledExpression compiledExpression;
+
+    private MapContext[] mapContexts;
+    private ArrayContext[] arrayContexts;
+    private ArrayContext[] optimizedContexts;
+    private DoubleOnlyArrayContext[] compiledContexts;
+
+    private int nextContext = 0;
+
+    @Setup
+    public void setup() throws ParseException {
+        Random random = new Random(42);
+        String gbdt = gbdt(random);
+        expression = new RankingExpression(gbdt);
+        optimizedExpression = new RankingExpression(gbdt);
+
+        ArrayContext arrayContext = new ArrayContext(expression, true);
+        ArrayContext optimizedContext = new ArrayContext(optimizedExpression, true);
+        new ExpressionOptimizer().optimize(optimizedExpression, optimizedContext);
+        DoubleOnlyArrayContext compiledContext = new DoubleOnlyArrayContext(expression, true);
+        compiledExpression = new ExpressionCompiler().compile(expression, compiledContext);
+
+        mapContexts = new MapContext[contextCount];
+        arrayContexts = new ArrayContext[contextCount];
+        optimizedContexts = new ArrayContext[contextCount];
+        compiledContexts = new DoubleOnlyArrayContext[contextCount];
+        for (int i = 0; i < contextCount; i++) {
+            mapContexts[i] = new MapContext();
+            arrayContexts[i] = arrayContext.clone();
+            optimizedContexts[i] = optimizedContext.clone();
+            compiledContexts[i] = compiledContext.clone();
+            for (int feature = 0; feature < features; feature++) {
+                double value = random.nextDouble();
+                for (Context context : new Context[] { mapContexts[i], arrayContexts[i], optimizedContexts[i], compiledContexts[i] })
+                    context.put(featureName(feature), value);
+            }
+        }
+    }
+
+    @Benchmark
+    public double mapContext() {
+        return expression.evaluate(mapContexts[nextContext()]).asDouble();
+    }
+
+    @Benchmark
+    public double arrayContext() {
+        return expression.evaluate(arrayContexts[nextContext()]).asDouble();
+    }
+
+    @Benchmark
+    public double optimizedArrayContext() {
+        return optimizedExpression.evaluate(optimizedContexts[nextContext()]).asDouble();
+    }
+
+    @Benchmark
+    public double compiled() {
+        return compiledExpression.evaluate(compiledContexts[nextContext()]);
+    }
+
+    private int nextContext() {
+        nextContext = (nextContext + 1) % contextCount;
+        return nextContext;
+    }
+
+    /** Returns a sum of random, balanced decision trees over the features */
+    private String gbdt(Random random) {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < trees; i++) {
+            if (i > 0)
+                b.append(" +\n");
+            tree(treeDepth, random, b);
+        }
+        return b.toString();
+    }
+
+    private void tree(int depth, Random random, StringBuilder b) {
+        if (depth == 0) {
+            b.append(random.nextDouble() - 0.5);
+            return;
+        }
+        b.append("if (").append(featureName(random.nextInt(features))).append(" < ").append(random.nextDouble()).append(", ");
+        tree(depth - 1, random, b);
+        b.append(", ");
+        tree(depth - 1, random, b);
+        b.append(")");
+    }
+
+    private static String featureName(int feature) {
+        return "feature" + feature;
+    }
+
+}
@@ -0,0 +1,102 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.vespa.benchmarks;
+
+import com.yahoo.jrt.Acceptor;
+import com.yahoo.jrt.DataValue;
+import com.yahoo.jrt.ListenFailedException;
+import com.yahoo.jrt.Method;
+import com.yahoo.jrt.Request;
+import com.yahoo.jrt.Spec;
+import com.yahoo.jrt.Supervisor;
+import com.yahoo.jrt.Target;
+import com.yahoo.jrt.Transport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the throughput of synchronous JRT invocations over many connections, with the client and server
+ * transports using the given number of network threads. Each benchmark thread has its own connection.
+ *
+ * @author bratseth
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(64)
+@State(Scope.Benchmark)
+public class RpcBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    public int transportThreads;
+
+    @Param({"100"})
+    public int payloadSize;
+
+    private Supervisor server;
+    private Supervisor client;
+    private Acceptor acceptor;
+
+    @Setup
+    public void setup() throws ListenFailedException {
+        server = new Supervisor(new Transport(transportThreads));
+        server.addMethod(new Method("echo", "x", "x", this::echo));
+        acceptor = server.listen(new Spec(0));
+        client = new Supervisor(new Transport(transportThreads));
+    }
+
+    @TearDown
+    public void tearDown() {
+        acceptor.shutdown().join();
+        client.transport().shutdown().join();
+        server.transport().shutdown().join();
+    }
+
+    private void echo(Request request) {
+        request.returnValues().add(request.parameters().get(0));
+    }
+
+    @State(Scope.Thread)
+    public static class Connection {
+
+        private Target target;
+        private byte[] payload;
+
+        @Setup
+        public void setup(RpcBenchmark benchmark) {
+            target = benchmark.client.connectSync(new Spec("localhost", benchmark.acceptor.port()));
+            payload = new byte[benchmark.payloadSize];
+        }
+
+        @TearDown
+        public void tearDown() {
+            target.close();
+        }
+
+    }
+
+    @Benchmark
+    public Request invoke(Connection connection) {
+        Request request = new Request("echo");
+        request.parameters().add(new DataValue(connection.payload));
+        connection.target.invokeSync(request, 10.0);
+        if (request.isError())
+            throw new IllegalStateException("Invocation failed: " + request);
+        return request;
+    }
+
+}
@@ -0,0 +1,97 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.vespa.benchmarks;
+
+import com.yahoo.tensor.Tensor;
+import com.yahoo.tensor.functions.Reduce;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the tensor functions used in ranking on a vector and a matrix of the sizes of typical
+ * embeddings and model layers.
+ * The shape is either dense (all dimensions indexed), sparse (all dimensions mapped), or mixed, where
+ * the vector is dense and the matrix sparse.
+ *
+ * @author bratseth
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TensorFunctionBenchmark {
+
+    @Param({"dense", "sparse", "mixed"})
+    public String shape;
+
+    /** The size of the x dimension, shared by the vector and matrix */
+    @Param({"300"})
+    public int vectorSize;
+
+    /** The size of the y dimension of the matrix */
+    @Param({"32"})
+    public int matrixSize;
+
+    private Tensor vector;
+    private Tensor otherVector;
+    private Tensor matrix;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        boolean denseVectors = ! shape.equals("sparse");
+        boolean denseMatrix = shape.equals("dense");
+        vector = Tensors.vector("x", vectorSize, denseVectors, random);
+        otherVector = Tensors.vector("x", vectorSize, denseVectors, random);
+        matrix = Tensors.matrix("x", vectorSize, "y", matrixSize, denseMatrix, random);
+    }
+
+    @Benchmark
+    public Tensor joinVectors() {
+        return vector.multiply(otherVector);
+    }
+
+    @Benchmark
+    public Tensor joinVectorAndMatrix() {
+        return vector.multiply(matrix);
+    }
+
+    @Benchmark
+    public Tensor reduceMatrix() {
+        return matrix.reduce(Reduce.Aggregator.sum, "x");
+    }
+
+    @Benchmark
+    public Tensor reduceAll() {
+        return matrix.reduce(Reduce.Aggregator.max);
+    }
+
+    @Benchmark
+    public Tensor dotProduct() {
+        return vector.multiply(otherVector).reduce(Reduce.Aggregator.sum);
+    }
+
+    @Benchmark
+    public Tensor matmul() {
+        return vector.matmul(matrix, "x");
+    }
+
+    @Benchmark
+    public Tensor softmax() {
+        return vector.softmax("x");
+    }
+
+}
@@ -0,0 +1,85 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.vespa.benchmarks;
+
+import com.yahoo.io.GrowableByteBuffer;
+import com.yahoo.tensor.Tensor;
+import com.yahoo.tensor.TensorType;
+import com.yahoo.tensor.serialization.TypedBinaryFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks encoding and decoding of tensors in the typed binary format.
+ *
+ * @author bratseth
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TensorSerializationBenchmark {
+
+    @Param({"dense", "sparse"})
+    public String shape;
+
+    @Param({"300"})
+    public int vectorSize;
+
+    @Param({"32"})
+    public int matrixSize;
+
+    private Tensor vector;
+    private Tensor matrix;
+    private byte[] encodedVector;
+    private byte[] encodedMatrix;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        boolean dense = shape.equals("dense");
+        vector = Tensors.vector("x", vectorSize, dense, random);
+        matrix = Tensors.matrix("x", vectorSize, "y", matrixSize, dense, random);
+        encodedVector = TypedBinaryFormat.encode(vector);
+        encodedMatrix = TypedBinaryFormat.encode(matrix);
+    }
+
+    @Benchmark
+    public byte[] encodeVector() {
+        return TypedBinaryFormat.encode(vector);
+    }
+
+    @Benchmark
+    public byte[] encodeMatrix() {
+        return TypedBinaryFormat.encode(matrix);
+    }
+
+    @Benchmark
+    public Tensor decodeVector() {
+        return decode(vector.type(), encodedVector);
+    }
+
+    @Benchmark
+    public Tensor decodeMatrix() {
+        return decode(matrix.type(), encodedMatrix);
+    }
+
+    private Tensor decode(TensorType type, byte[] data) {
+        return TypedBinaryFormat.decode(Optional.of(type), GrowableByteBuffer.wrap(data));
+    }
+
+}
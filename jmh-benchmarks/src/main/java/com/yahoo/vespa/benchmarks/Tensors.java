@@ -0,0 +1,51 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.vespa.benchmarks;
+
+import com.yahoo.tensor.Tensor;
+import com.yahoo.tensor.TensorType;
+
+import java.util.Random;
+
+/**
+ * Creates tensors with random values for benchmarking
+ *
+ * @author bratseth
+ */
+class Tensors {
+
+    private Tensors() {}
+
+    /** Returns a vector in the given dimension having a cell for each index (or label) from 0 to size-1 */
+    static Tensor vector(String dimension, int size, boolean dense, Random random) {
+        TensorType type = dimension(new TensorType.Builder(), dimension, size, dense).build();
+        Tensor.Builder builder = Tensor.Builder.of(type);
+        for (int i = 0; i < size; i++)
+            builder.cell().label(dimension, String.valueOf(i)).value(random.nextDouble());
+        return builder.build();
+    }
+
+    /** Returns a matrix having a cell for each combination of indexes (or labels) in the two dimensions */
+    static Tensor matrix(String dimension1, int size1, String dimension2, int size2, boolean dense, Random random) {
+        TensorType.Builder typeBuilder = new TensorType.Builder();
+        dimension(typeBuilder, dimension1, size1, dense);
+        dimension(typeBuilder, dimension2, size2, dense);
+        Tensor.Builder builder = Tensor.Builder.of(typeBuilder.build());
+        for (int i = 0; i < size1; i++) {
+            for (int j = 0; j < size2; j++) {
+                builder.cell()
+                       .label(dimension1, String.valueOf(i))
+                       .label(dimension2, String.valueOf(j))
+                       .value(random.nextDouble());
+            }
+        }
+        return builder.build();
+    }
+
+    private static TensorType.Builder dimension(TensorType.Builder builder, String name, int size, boolean dense) {
+        if (dense)
+            return builder.indexed(name, size);
+        else
+            return builder.mapped(name);
+    }
+
+}
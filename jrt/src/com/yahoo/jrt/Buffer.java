@@ -9,6 +9,9 @@ class Buffer {
 
     static final int MAX_IO = 65000;
 
+    private final BufferPool pool;
+    private final int        initialSize;
+    private final ByteBuffer empty;
     private ByteBuffer buf;
     private int        readPos;
     private int        writePos;
@@ -54,18 +57,71 @@ class Buffer {
             if (buf.capacity() + free < minFree) {
                 size = buf.capacity() + minFree;
             }
-            ByteBuffer tmp = ByteBuffer.allocate(size);
+            size = Math.max(size, initialSize);
+            ByteBuffer tmp = allocate(size);
             tmp.order(buf.order());
             buf.position(readPos);
             buf.limit(writePos);
             tmp.put(buf);
+            free(buf);
             buf = tmp;
             readPos = 0;
         }
     }
 
+    private ByteBuffer allocate(int size) {
+        return (pool != null) ? pool.acquire(size) : ByteBuffer.allocate(size);
+    }
+
+    private void free(ByteBuffer old) {
+        if (pool != null && old != empty) {
+            pool.release(old);
+        }
+    }
+
     public Buffer(int size) {
-        buf = ByteBuffer.allocate(size);
+        this(size, null);
+    }
+
+    /**
+     * Create a buffer which obtains its underlying buffers from the
+     * given pool. An underlying buffer is only obtained when data is
+     * written to this, and is returned to the pool by {@link
+     * #recycle} when all the data is read.
+     *
+     * @param size the initial size of the underlying buffer
+     * @param pool the pool to obtain underlying buffers from, or null
+     *             to allocate them on the heap
+     **/
+    public Buffer(int size, BufferPool pool) {
+        this.pool = pool;
+        this.initialSize = size;
+        this.empty = ByteBuffer.allocate(0);
+        buf = (pool != null) ? empty : ByteBuffer.allocate(size);
+        readPos = 0;
+        writePos = 0;
+        readMode = false;
+    }
+
+    /**
+     * Return the underlying buffer to the pool if this is empty. A
+     * new underlying buffer is obtained the next time data is
+     * written to this.
+     **/
+    public void recycle() {
+        if (pool == null || buf == empty || bytes() > 0) {
+            return;
+        }
+        release();
+    }
+
+    /**
+     * Return the underlying buffer to the pool, discarding any data
+     * in this.
+     **/
+    public void release() {
+        free(buf);
+        buf = empty;
         readPos = 0;
         writePos = 0;
         readMode = false;
@@ -78,11 +134,12 @@ class Buffer {
         if (used > size || buf.capacity() <= size) {
             return false;
         }
-        ByteBuffer tmp = ByteBuffer.allocate(size);
+        ByteBuffer tmp = allocate(size);
         tmp.order(buf.order());
         buf.position(rpos);
         buf.limit(wpos);
         tmp.put(buf);
+        free(buf);
         buf = tmp;
         readPos = 0;
         writePos = used;
@@ -0,0 +1,100 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.jrt;
+
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A pool of direct byte buffers shared by the connections of a
+ * {@link Transport}. Buffers are pooled in size classes of powers of
+ * two, such that connections only hold on to a buffer while they
+ * have data to read or write. Buffers larger than the largest size
+ * class are allocated on the heap and not pooled.
+ **/
+class BufferPool {
+
+    static final int MIN_SIZE = 8 * 1024;
+    static final int MAX_SIZE = 1024 * 1024;
+
+    /** The max bytes of free buffers kept per size class */
+    private static final int MAX_FREE_BYTES = 8 * 1024 * 1024;
+
+    private final List<ConcurrentLinkedQueue<ByteBuffer>> free = new ArrayList<>();
+    private final AtomicInteger[] freeCount;
+
+    BufferPool() {
+        int sizeClasses = sizeClass(MAX_SIZE) + 1;
+        freeCount = new AtomicInteger[sizeClasses];
+        for (int i = 0; i < sizeClasses; i++) {
+            free.add(new ConcurrentLinkedQueue<>());
+            freeCount[i] = new AtomicInteger(0);
+        }
+    }
+
+    private static int sizeClass(int size) {
+        if (size <= MIN_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - Integer.numberOfTrailingZeros(MIN_SIZE);
+    }
+
+    /**
+     * Obtain a cleared, big endian buffer with at least the given
+     * capacity.
+     *
+     * @return a buffer which should be given back to this by {@link #release}
+     * @param minSize the minimum capacity of the buffer
+     **/
+    ByteBuffer acquire(int minSize) {
+        if (minSize > MAX_SIZE) {
+            return ByteBuffer.allocate(minSize);
+        }
+        int sizeClass = sizeClass(minSize);
+        ByteBuffer buf = free.get(sizeClass).poll();
+        if (buf == null) {
+            return ByteBuffer.allocateDirect(MIN_SIZE << sizeClass);
+        }
+        freeCount[sizeClass].decrementAndGet();
+        buf.clear();
+        buf.order(ByteOrder.BIG_ENDIAN);
+        return buf;
+    }
+
+    /**
+     * Give a buffer back to this. The buffer must not be used by the
+     * caller after this.
+     *
+     * @param buf a buffer obtained by {@link #acquire}
+     **/
+    void release(ByteBuffer buf) {
+        if (!buf.isDirect() || buf.capacity() > MAX_SIZE) {
+            return;
+        }
+        int sizeClass = sizeClass(buf.capacity());
+        if (freeCount[sizeClass].incrementAndGet() * (long)buf.capacity() > MAX_FREE_BYTES) {
+            freeCount[sizeClass].decrementAndGet();
+            return; // enough free buffers of this size; let this one be collected
+        }
+        free.get(sizeClass).offer(buf);
+    }
+
+    /**
+     * Obtain the number of free buffers currently held by this. Used
+     * for testing.
+     *
+     * @return number of free buffers
+     **/
+    int freeBuffers() {
+        int count = 0;
+        for (AtomicInteger sizeClassCount : freeCount) {
+            count += sizeClassCount.get();
+        }
+        return count;
+    }
+}
@@ -30,15 +30,15 @@ class Connection extends Target {
     private int           state      = INITIAL;
     private Queue         queue      = new Queue();
     private Queue         myQueue    = new Queue();
-    private Buffer        input      = new Buffer(READ_SIZE * 2);
-    private Buffer        output     = new Buffer(WRITE_SIZE * 2);
+    private Buffer        input;
+    private Buffer        output;
     private int           maxInputSize  = 64*1024;
     private int           maxOutputSize = 64*1024;
     private Map<Integer, ReplyHandler> replyMap = new HashMap<>();
     private Map<TargetWatcher, TargetWatcher> watchers = new IdentityHashMap<>();
     private int           activeReqs = 0;
     private int           writeWork  = 0;
-    private Transport     parent;
+    private TransportThread parent;
     private Supervisor    owner;
     private Spec          spec;
     private SocketChannel channel;
@@ -81,25 +81,33 @@ class Connection extends Target {
         }
     }
 
-    public Connection(Transport parent, Supervisor owner,
+    public Connection(TransportThread parent, Supervisor owner,
                       SocketChannel channel) {
 
         this.parent = parent;
         this.owner = owner;
         this.channel = channel;
         server = true;
+        createBuffers();
         owner.sessionInit(this);
     }
 
-    public Connection(Transport parent, Supervisor owner, Spec spec, Object context) {
+    public Connection(TransportThread parent, Supervisor owner, Spec spec, Object context) {
         super(context);
         this.parent = parent;
         this.owner = owner;
         this.spec = spec;
         server = false;
+        createBuffers();
         owner.sessionInit(this);
     }
 
+    private void createBuffers() {
+        BufferPool pool = parent.transport().bufferPool();
+        input  = new Buffer(READ_SIZE * 2, pool);
+        output = new Buffer(WRITE_SIZE * 2, pool);
+    }
+
     public void setMaxInputSize(int bytes) {
         maxInputSize = bytes;
     }
@@ -109,6 +117,10 @@ class Connection extends Target {
     }
 
     public Transport transport() {
+        return parent.transport();
+    }
+
+    public TransportThread transportThread() {
         return parent;
     }
 
@@ -236,6 +248,7 @@ class Connection extends Target {
         if (maxInputSize > 0) {
             input.shrink(maxInputSize);
         }
+        input.recycle();
     }
 
     public void write() throws IOException {
@@ -275,6 +288,7 @@ class Connection extends Target {
         if (maxOutputSize > 0) {
             output.shrink(maxOutputSize);
         }
+        output.recycle();
     }
 
     public void fini() {
@@ -282,6 +296,8 @@ class Connection extends Target {
         if (selectionKey != null) {
             selectionKey.cancel();
         }
+        input.release();
+        output.release();
     }
 
     public boolean isClosed() {
@@ -22,7 +22,9 @@ public class Supervisor {
             this.method = method;
         }
         public void run() {
-            methodMap.put(method.name(), method);
+            HashMap<String, Method> newMap = new HashMap<>(methodMap);
+            newMap.put(method.name(), method);
+            methodMap = newMap;
         }
     }
 
@@ -37,16 +39,18 @@ public class Supervisor {
             this.method = method;
         }
         public void run() {
-            Method m = methodMap.remove(methodName);
+            HashMap<String, Method> newMap = new HashMap<>(methodMap);
+            Method m = newMap.remove(methodName);
             if (method != null && m != method) {
-                methodMap.put(method.name(), method);
+                newMap.put(method.name(), method);
             }
+            methodMap = newMap;
         }
     }
 
     private Transport               transport;
     private SessionHandler          sessionHandler = null;
-    private HashMap<String, Method> methodMap      = new HashMap<>();
+    private volatile HashMap<String, Method> methodMap = new HashMap<>();
     private int                     maxInputBufferSize  = 0;
     private int                     maxOutputBufferSize = 0;
 
@@ -90,7 +94,10 @@ public class Supervisor {
     }
 
     /**
-     * Obtain the method map for this Supervisor
+     * Obtain the method map for this Supervisor. The map is replaced
+     * rather than modified when methods are added or removed, as
+     * packets may be handled by several transport threads, so the
+     * returned map must not be modified.
      *
      * @return the method map
      **/
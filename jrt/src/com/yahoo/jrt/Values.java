@@ -99,13 +99,12 @@ public class Values
      * @param dst where to encode this value sequence
      **/
     void encode(ByteBuffer dst) {
-        byte[] types = new byte[values.size()];
-        for (int i = 0; i < types.length; i++) {
-            types[i] = get(i).type();
+        int cnt = values.size();
+        dst.putInt(cnt);
+        for (int i = 0; i < cnt; i++) {
+            dst.put(get(i).type());
         }
-        dst.putInt(types.length);
-        dst.put(types);
-        for (int i = 0; i < types.length; i++) {
+        for (int i = 0; i < cnt; i++) {
             get(i).encode(dst);
         }
     }
@@ -262,4 +262,45 @@ public class BufferTest extends junit.framework.TestCase {
             assertEquals(50, b.get());
         }
     }
+
+    public void testPooledBuffer() {
+        BufferPool pool = new BufferPool();
+        Buffer buf = new Buffer(1024, pool);
+        assertEquals(0, buf.getReadable().capacity());
+
+        ByteBuffer b = buf.getWritable(3);
+        assertTrue(b.isDirect());
+        assertEquals(BufferPool.MIN_SIZE, b.capacity());
+        b.put((byte)10).put((byte)20).put((byte)30);
+        buf.recycle();
+        assertEquals(3, buf.bytes());
+        assertEquals(0, pool.freeBuffers());
+
+        b = buf.getWritable(BufferPool.MIN_SIZE);
+        assertEquals(BufferPool.MIN_SIZE * 2, b.capacity());
+        assertEquals(1, pool.freeBuffers());
+        b = buf.getReadable();
+        assertEquals(10, b.get());
+        assertEquals(20, b.get());
+        assertEquals(30, b.get());
+        assertEquals(0, buf.bytes());
+
+        buf.recycle();
+        assertEquals(2, pool.freeBuffers());
+        assertEquals(0, buf.getReadable().capacity());
+        b = buf.getWritable(100);
+        assertEquals(1, pool.freeBuffers());
+        assertEquals(BufferPool.MIN_SIZE, b.capacity());
+        assertEquals(0, b.position());
+
+        b.put((byte)1);
+        buf.release();
+        assertEquals(0, buf.bytes());
+        assertEquals(2, pool.freeBuffers());
+
+        b = buf.getWritable(BufferPool.MAX_SIZE + 1);
+        assertFalse(b.isDirect());
+        buf.release();
+        assertEquals(2, pool.freeBuffers());
+    }
 }
@@ -0,0 +1,98 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.jrt;
+
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+
+public class MultiThreadedTransportTest extends junit.framework.TestCase {
+
+    private static final int TARGETS  = 16;
+    private static final int REQUESTS = 200;
+
+    Supervisor server;
+    Acceptor   acceptor;
+    Supervisor client;
+    Target[]   targets = new Target[TARGETS];
+
+    /** The last sequence number received per target, accessed by several transport threads */
+    final Map<Target, Integer> lastReceived = new HashMap<>();
+    volatile boolean           outOfOrder   = false;
+
+    public MultiThreadedTransportTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws ListenFailedException {
+        server   = new Supervisor(new Transport(4));
+        client   = new Supervisor(new Transport(3));
+        acceptor = server.listen(new Spec(Test.PORT));
+        server.addMethod(new Method("next", "i", "i", this, "rpc_next"));
+        for (int i = 0; i < TARGETS; i++) {
+            targets[i] = client.connect(new Spec("localhost", Test.PORT));
+        }
+    }
+
+    public void tearDown() {
+        for (Target target : targets) {
+            target.close();
+        }
+        acceptor.shutdown().join();
+        client.transport().shutdown().join();
+        server.transport().shutdown().join();
+    }
+
+    public void rpc_next(Request req) {
+        int sequence = req.parameters().get(0).asInt32();
+        synchronized (lastReceived) {
+            Integer last = lastReceived.put(req.target(), sequence);
+            if (sequence != (last == null ? 0 : last + 1)) {
+                outOfOrder = true;
+            }
+        }
+        req.returnValues().add(new Int32Value(sequence));
+    }
+
+    public void testConnectionsAreDistributedOverThreads() {
+        assertEquals(4, server.transport().getNumThreads());
+        assertEquals(3, client.transport().getNumThreads());
+        Set<TransportThread> threads = new HashSet<>();
+        for (Target target : targets) {
+            threads.add(((Connection)target).transportThread());
+        }
+        assertEquals(3, threads.size());
+    }
+
+    public void testRequestsAreHandledInOrderPerConnection() {
+        Test.Waiter[] waiters = new Test.Waiter[TARGETS * REQUESTS];
+        Request[] requests = new Request[TARGETS * REQUESTS];
+        for (int sequence = 0; sequence < REQUESTS; sequence++) {
+            for (int t = 0; t < TARGETS; t++) {
+                int i = sequence * TARGETS + t;
+                requests[i] = new Request("next");
+                requests[i].parameters().add(new Int32Value(sequence));
+                waiters[i] = new Test.Waiter();
+                targets[t].invokeAsync(requests[i], 60.0, waiters[i]);
+            }
+        }
+        for (int i = 0; i < requests.length; i++) {
+            waiters[i].waitDone();
+            assertFalse(requests[i].toString(), requests[i].isError());
+            assertEquals(i / TARGETS, requests[i].returnValues().get(0).asInt32());
+        }
+        assertFalse(outOfOrder);
+        assertEquals(TARGETS, lastReceived.size());
+    }
+
+    public void testSyncAndPerformAfterShutdown() {
+        final boolean[] performed = { false };
+        server.transport().sync();
+        server.transport().shutdown().join();
+        server.transport().sync();
+        server.transport().perform(() -> performed[0] = true);
+        assertTrue(performed[0]);
+    }
+}
@@ -0,0 +1,305 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.messagebus;
+
+import com.yahoo.concurrent.SystemTimer;
+import com.yahoo.concurrent.Timer;
+import com.yahoo.log.LogLevel;
+
+import java.util.logging.Logger;
+
+/**
+ * This is an implementation of the {@link ThrottlePolicy} which sizes the window of pending messages of a
+ * {@link SourceSession} from the round-trip times of the replies to its messages.
+ *
+ * The policy keeps track of the minimum round-trip time observed, which is the latency when nothing is queued
+ * on the way to the receivers. Once per round of replies (a window of replies) it compares this to the mean
+ * round-trip time of the round: The fraction of the round-trip time which is not explained by the minimum is an
+ * estimate of the fraction of the window which is queued rather than being processed. The window is increased while
+ * this queue fraction is small, kept while it is moderate, and reduced to the estimated capacity of the receivers
+ * (the window scaled by the ratio of minimum to mean round-trip time) when it becomes large. Replies with errors
+ * make the window back off.
+ *
+ * As the minimum round-trip time may change, for example when the set of receivers changes, it is measured anew
+ * at regular intervals by dropping to the minimum window size for a single round.
+ *
+ * <b>NOTE:</b> By context, "pending" is refering to the number of sent messages that have not been replied to yet.
+ *
+ * @author bratseth
+ */
+public class LatencyThrottlePolicy extends StaticThrottlePolicy {
+
+    private static final long IDLE_TIME_MILLIS = 60000;
+    private static final Logger log = Logger.getLogger(LatencyThrottlePolicy.class.getName());
+
+    private final Timer timer;
+    private long timeOfLastMessage;
+
+    private double windowSizeIncrement = 20;
+    private double windowSize = windowSizeIncrement;
+    private double minWindowSize = windowSizeIncrement;
+    private double maxWindowSize = Integer.MAX_VALUE;
+    private double windowSizeBackOff = 0.9;
+    private double minQueueFraction = 0.1;
+    private double maxQueueFraction = 0.3;
+    private long minRoundTripTimeWindow = 10000;
+
+    /** The minimum round-trip time observed, and when it was observed */
+    private long minRoundTripTime = Long.MAX_VALUE;
+    private long timeOfMinRoundTripTime;
+
+    /** The start of the current measurement of the minimum round-trip time, or -1 if it is not being measured */
+    private long probeStartTime = -1;
+    private double windowSizeBeforeProbe;
+
+    /** The state of the current round of replies */
+    private int roundSize = (int)windowSize;
+    private int roundReplies = 0;
+    private long roundRoundTripTimeSum = 0;
+    private long roundMinRoundTripTime = Long.MAX_VALUE;
+    private boolean roundHasErrors = false;
+
+    /**
+     * Constructs a new instance of this policy and sets the appropriate default values of member data.
+     */
+    public LatencyThrottlePolicy() {
+        this(SystemTimer.INSTANCE);
+    }
+
+    /**
+     * Constructs a new instance of this class using the given clock to measure round-trip times.
+     *
+     * @param timer The timer to use.
+     */
+    public LatencyThrottlePolicy(Timer timer) {
+        this.timer = timer;
+        this.timeOfLastMessage = timer.milliTime();
+        this.timeOfMinRoundTripTime = timeOfLastMessage;
+    }
+
+    @Override
+    public boolean canSend(Message msg, int pendingCount) {
+        if ( ! super.canSend(msg, pendingCount)) {
+            return false;
+        }
+        long time = timer.milliTime();
+        if (time - timeOfLastMessage > IDLE_TIME_MILLIS) {
+            windowSize = Math.max(minWindowSize, Math.min(windowSize, pendingCount + windowSizeIncrement));
+        }
+        timeOfLastMessage = time;
+        return pendingCount < windowSize;
+    }
+
+    @Override
+    public void processMessage(Message msg) {
+        super.processMessage(msg);
+        msg.setContext(new SendContext((Integer)msg.getContext(), timer.milliTime()));
+    }
+
+    @Override
+    public void processReply(Reply reply) {
+        SendContext context = (SendContext)reply.getContext();
+        reply.setContext(context.size);
+        super.processReply(reply);
+
+        if (isProbing() && context.sendTime < probeStartTime) {
+            return; // sent before the window was reduced, so this may have been queued
+        }
+        long time = timer.milliTime();
+        long roundTripTime = Math.max(1, time - context.sendTime);
+        roundRoundTripTimeSum += roundTripTime;
+        roundMinRoundTripTime = Math.min(roundMinRoundTripTime, roundTripTime);
+        roundHasErrors |= reply.hasErrors();
+        if (++roundReplies >= roundSize) {
+            completeRound(time);
+        }
+    }
+
+    private void completeRound(long time) {
+        if (isProbing()) {
+            minRoundTripTime = roundMinRoundTripTime;
+            timeOfMinRoundTripTime = time;
+            windowSize = windowSizeBeforeProbe;
+            probeStartTime = -1;
+        }
+        else {
+            if (roundMinRoundTripTime <= minRoundTripTime) {
+                minRoundTripTime = roundMinRoundTripTime;
+                timeOfMinRoundTripTime = time;
+            }
+            resize((double)roundRoundTripTimeSum / roundReplies);
+
+            if (time - timeOfMinRoundTripTime > minRoundTripTimeWindow) {
+                probeStartTime = time;
+                windowSizeBeforeProbe = windowSize;
+                windowSize = minWindowSize;
+            }
+        }
+
+        roundSize = Math.max(1, (int)windowSize);
+        roundReplies = 0;
+        roundRoundTripTimeSum = 0;
+        roundMinRoundTripTime = Long.MAX_VALUE;
+        roundHasErrors = false;
+    }
+
+    private void resize(double meanRoundTripTime) {
+        double queueFraction = 1 - minRoundTripTime / meanRoundTripTime;
+        if (log.isLoggable(LogLevel.DEBUG)) {
+            log.log(LogLevel.DEBUG, "windowSize " + windowSize + " min round-trip time " + minRoundTripTime +
+                                    " mean round-trip time " + meanRoundTripTime);
+        }
+
+        if (roundHasErrors) {
+            windowSize *= windowSizeBackOff;
+        } else if (queueFraction < minQueueFraction) {
+            windowSize += windowSizeIncrement;
+        } else if (queueFraction > maxQueueFraction) {
+            windowSize *= (1 - queueFraction) * (1 + minQueueFraction);
+        }
+        windowSize = Math.max(minWindowSize, windowSize);
+        windowSize = Math.min(maxWindowSize, windowSize);
+    }
+
+    private boolean isProbing() {
+        return probeStartTime >= 0;
+    }
+
+    /**
+     * Returns the minimum round-trip time observed by this, in milliseconds.
+     *
+     * @return The round-trip time, or Long.MAX_VALUE if no reply is received yet.
+     */
+    public long getMinRoundTripTime() {
+        return minRoundTripTime;
+    }
+
+    /**
+     * Sets the step size used when increasing window size.
+     *
+     * @param windowSizeIncrement The step size to set.
+     * @return This, to allow chaining.
+     */
+    public LatencyThrottlePolicy setWindowSizeIncrement(double windowSizeIncrement) {
+        this.windowSizeIncrement = windowSizeIncrement;
+        return this;
+    }
+
+    /**
+     * Sets the factor to multiply the window size by when a round of replies contains errors. This value is capped
+     * to the [0, 1] range.
+     *
+     * @param windowSizeBackOff The back off to set.
+     * @return This, to allow chaining.
+     */
+    public LatencyThrottlePolicy setWindowSizeBackOff(double windowSizeBackOff) {
+        this.windowSizeBackOff = Math.max(0, Math.min(1, windowSizeBackOff));
+        return this;
+    }
+
+    /**
+     * Sets the estimated fraction of queued messages below which the window size is increased. This is also the
+     * headroom added to the estimated capacity of the receivers when the window size is reduced.
+     *
+     * @param minQueueFraction The fraction to set.
+     * @return This, to allow chaining.
+     */
+    public LatencyThrottlePolicy setMinQueueFraction(double minQueueFraction) {
+        this.minQueueFraction = minQueueFraction;
+        return this;
+    }
+
+    /**
+     * Sets the estimated fraction of queued messages above which the window size is reduced.
+     *
+     * @param maxQueueFraction The fraction to set.
+     * @return This, to allow chaining.
+     */
+    public LatencyThrottlePolicy setMaxQueueFraction(double maxQueueFraction) {
+        this.maxQueueFraction = maxQueueFraction;
+        return this;
+    }
+
+    /**
+     * Sets how long a minimum round-trip time is trusted before it is measured again.
+     *
+     * @param millis The time in milliseconds.
+     * @return This, to allow chaining.
+     */
+    public LatencyThrottlePolicy setMinRoundTripTimeWindow(long millis) {
+        this.minRoundTripTimeWindow = millis;
+        return this;
+    }
+
+    /**
+     * Sets the maximium number of pending operations allowed at any time, in
+     * order to avoid using too much resources.
+     *
+     * @param max The max to set.
+     * @return This, to allow chaining.
+     */
+    public LatencyThrottlePolicy setMaxWindowSize(double max) {
+        this.maxWindowSize = max;
+        return this;
+    }
+
+    /**
+     * Get the maximum number of pending operations allowed at any time.
+     *
+     * @return The maximum number of operations.
+     */
+    public double getMaxWindowSize() {
+        return maxWindowSize;
+    }
+
+    /**
+     * Sets the minimium number of pending operations allowed at any time, in
+     * order to keep a level of performance.
+     *
+     * @param min The min to set.
+     * @return This, to allow chaining.
+     */
+    public LatencyThrottlePolicy setMinWindowSize(double min) {
+        this.minWindowSize = min;
+        return this;
+    }
+
+    /**
+     * Get the minimum number of pending operations allowed at any time.
+     *
+     * @return The minimum number of operations.
+     */
+    public double getMinWindowSize() {
+        return minWindowSize;
+    }
+
+    @Override
+    public LatencyThrottlePolicy setMaxPendingCount(int maxCount) {
+        super.setMaxPendingCount(maxCount);
+        maxWindowSize = maxCount;
+        return this;
+    }
+
+    /**
+     * Returns the maximum number of pending messages allowed.
+     *
+     * @return The max limit.
+     */
+    @Override
+    public int getMaxPendingCount() {
+        return (int)windowSize;
+    }
+
+    /** The context this sets on messages, which is replaced by the size context of the super class on replies */
+    private static class SendContext {
+
+        final int size;
+        final long sendTime;
+
+        SendContext(int size, long sendTime) {
+            this.size = size;
+            this.sendTime = sendTime;
+        }
+
+    }
+
+}
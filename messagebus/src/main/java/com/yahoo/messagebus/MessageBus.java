@@ -17,6 +17,7 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 
 /**
@@ -67,6 +68,7 @@ public class MessageBus implements ConfigHandler, NetworkOwner, MessageHandler,
     private int maxPendingSize = 0;
     private int pendingCount = 0;
     private int pendingSize = 0;
+    private final Supplier<ThrottlePolicy> throttlePolicyFactory;
     private final Thread careTaker = new Thread(this::sendBlockedMessages);
     private final ConcurrentHashMap<SendBlockedMessages, Long> blockedSenders = new ConcurrentHashMap<>();
     private MessageBusMetricSet metrics = new MessageBusMetricSet();
@@ -124,6 +126,7 @@ public class MessageBus implements ConfigHandler, NetworkOwner, MessageHandler,
         // Add all known protocols to the repository.
         maxPendingCount = params.getMaxPendingCount();
         maxPendingSize  = params.getMaxPendingSize();
+        throttlePolicyFactory = params.getThrottlePolicyFactory();
         for (int i = 0, len = params.getNumProtocols(); i < len; ++i) {
             protocolRepository.putProtocol(params.getProtocol(i));
 
@@ -245,6 +248,9 @@ public class MessageBus implements ConfigHandler, NetworkOwner, MessageHandler,
         if (destroyed.get()) {
             throw new IllegalStateException("Object is destroyed.");
         }
+        if (throttlePolicyFactory != null && params.hasDefaultThrottlePolicy()) {
+            params = new SourceSessionParams(params).setThrottlePolicy(throttlePolicyFactory.get());
+        }
         return new SourceSession(this, params);
     }
 
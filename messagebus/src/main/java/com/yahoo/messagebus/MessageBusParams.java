@@ -6,6 +6,7 @@ import com.yahoo.messagebus.routing.RetryTransientErrorsPolicy;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * To facilitate several configuration parameters to the {@link MessageBus} constructor, all parameters are held by this
@@ -19,6 +20,7 @@ public class MessageBusParams {
     private RetryPolicy retryPolicy;
     private int maxPendingCount;
     private int maxPendingSize;
+    private Supplier<ThrottlePolicy> throttlePolicyFactory;
 
     /**
      * Constructs a new instance of this parameter object with default values for all members.
@@ -27,6 +29,7 @@ public class MessageBusParams {
         retryPolicy = new RetryTransientErrorsPolicy();
         maxPendingCount = 1024;
         maxPendingSize = 128 * 1024 * 1024;
+        throttlePolicyFactory = null;
     }
 
     /**
@@ -39,6 +42,7 @@ public class MessageBusParams {
         retryPolicy = params.retryPolicy;
         maxPendingCount = params.maxPendingCount;
         maxPendingSize = params.maxPendingSize;
+        throttlePolicyFactory = params.throttlePolicyFactory;
     }
 
     /**
@@ -143,4 +147,38 @@ public class MessageBusParams {
         this.maxPendingSize = maxSize;
         return this;
     }
+
+    /**
+     * Returns the factory creating the throttle policy of source sessions which are not given a policy in their
+     * {@link SourceSessionParams}.
+     *
+     * @return The policy factory, or null to use the default policy of {@link SourceSessionParams}.
+     */
+    public Supplier<ThrottlePolicy> getThrottlePolicyFactory() {
+        return throttlePolicyFactory;
+    }
+
+    /**
+     * Sets the factory creating the throttle policy of source sessions which are not given a policy in their
+     * {@link SourceSessionParams}. The factory is invoked once per session. By default there is no factory, and such
+     * sessions use a {@link DynamicThrottlePolicy}, while {@link #setLatencyThrottling()} selects a
+     * {@link LatencyThrottlePolicy}.
+     *
+     * @param throttlePolicyFactory The policy factory to set, or null to use the default.
+     * @return This, to allow chaining.
+     */
+    public MessageBusParams setThrottlePolicyFactory(Supplier<ThrottlePolicy> throttlePolicyFactory) {
+        this.throttlePolicyFactory = throttlePolicyFactory;
+        return this;
+    }
+
+    /**
+     * Makes source sessions which are not given a throttle policy use a {@link LatencyThrottlePolicy}, which sizes
+     * the window of pending messages from the round-trip times of replies.
+     *
+     * @return This, to allow chaining.
+     */
+    public MessageBusParams setLatencyThrottling() {
+        return setThrottlePolicyFactory(LatencyThrottlePolicy::new);
+    }
 }
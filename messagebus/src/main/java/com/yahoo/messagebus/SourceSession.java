@@ -375,6 +375,15 @@ public final class SourceSession implements ReplyHandler, MessageBus.SendBlocked
         return replyHandler;
     }
 
+    /**
+     * <p>Returns the policy used to throttle the output of this session.</p>
+     *
+     * @return The throttle policy, or null if output is not throttled.
+     */
+    public ThrottlePolicy getThrottlePolicy() {
+        return throttlePolicy;
+    }
+
     /**
      * <p>Returns the number of messages sent that have not been replied to
      * yet.</p>
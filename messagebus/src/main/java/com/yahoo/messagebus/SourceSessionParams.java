@@ -12,6 +12,7 @@ public class SourceSessionParams {
 
     private ReplyHandler replyHandler = null;
     private ThrottlePolicy throttlePolicy = new DynamicThrottlePolicy();
+    private boolean defaultThrottlePolicy = true;
     private double timeout = 180.0;
 
     /**
@@ -28,6 +29,7 @@ public class SourceSessionParams {
      */
     public SourceSessionParams(SourceSessionParams params) {
         throttlePolicy = params.throttlePolicy;
+        defaultThrottlePolicy = params.defaultThrottlePolicy;
         timeout = params.timeout;
         replyHandler = params.replyHandler;
     }
@@ -42,16 +44,37 @@ public class SourceSessionParams {
     }
 
     /**
-     * Sets the policy to use for throttling output.
+     * Sets the policy to use for throttling output. If this is not set, the session uses the policy created by
+     * {@link MessageBusParams#getThrottlePolicyFactory()}.
      *
      * @param throttlePolicy The policy to set.
      * @return This, to allow chaining.
      */
     public SourceSessionParams setThrottlePolicy(ThrottlePolicy throttlePolicy) {
         this.throttlePolicy = throttlePolicy;
+        defaultThrottlePolicy = false;
         return this;
     }
 
+    /**
+     * Sets the policy to use for throttling output to a {@link LatencyThrottlePolicy}, which sizes the window of
+     * pending messages from the round-trip times of replies.
+     *
+     * @return This, to allow chaining.
+     */
+    public SourceSessionParams setLatencyThrottling() {
+        return setThrottlePolicy(new LatencyThrottlePolicy());
+    }
+
+    /**
+     * Returns whether the throttle policy of this is the default, rather than one that is explicitly set.
+     *
+     * @return True if no policy is set.
+     */
+    boolean hasDefaultThrottlePolicy() {
+        return defaultThrottlePolicy;
+    }
+
     /**
      * Returns the number of seconds a message can spend trying to succeed.
      *
@@ -4,6 +4,7 @@ package com.yahoo.messagebus.network.rpc;
 import com.yahoo.component.Version;
 import com.yahoo.component.VersionSpecification;
 import com.yahoo.component.Vtag;
+import com.yahoo.compress.Compressor;
 import com.yahoo.concurrent.ThreadFactoryFactory;
 import com.yahoo.jrt.*;
 import com.yahoo.jrt.slobrok.api.IMirror;
@@ -25,6 +26,7 @@ import java.io.StringWriter;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 /**
@@ -41,6 +43,11 @@ public class RPCNetwork implements Network, MethodHandler {
     private final Supervisor orb;
     private final RPCTargetPool targetPool;
     private final RPCServicePool servicePool;
+    private final Compressor compressor;
+    private final double sendBatchLinger;
+    private final int sendBatchMaxSize;
+    private final int sendBatchMaxBytes;
+    private final ScheduledExecutorService batchService;
     private final Acceptor listener;
     private final Mirror mirror;
     private final Register register;
@@ -65,11 +72,18 @@ public class RPCNetwork implements Network, MethodHandler {
     public RPCNetwork(RPCNetworkParams params, SlobrokConfigSubscriber slobrokConfig) {
         this.slobroksConfig = slobrokConfig;
         identity = params.getIdentity();
-        orb = new Supervisor(new Transport());
+        orb = new Supervisor(new Transport(params.getNumNetworkThreads()));
         orb.setMaxInputBufferSize(params.getMaxInputBufferSize());
         orb.setMaxOutputBufferSize(params.getMaxOutputBufferSize());
         targetPool = new RPCTargetPool(params.getConnectionExpireSecs());
         servicePool = new RPCServicePool(this, 4096);
+        compressor = new Compressor(params.getCompressionType(), 3, 0.95, params.getCompressionMinSize());
+        sendBatchLinger = params.getSendBatchLinger();
+        sendBatchMaxSize = params.getSendBatchMaxSize();
+        sendBatchMaxBytes = params.getSendBatchMaxBytes();
+        batchService = sendBatchLinger > 0
+                       ? Executors.newSingleThreadScheduledExecutor(ThreadFactoryFactory.getDaemonThreadFactory("mbus.batch"))
+                       : null;
 
         Method method = new Method("mbus.getVersion", "", "s", this);
         method.methodDesc("Retrieves the message bus version.");
@@ -261,6 +275,9 @@ public class RPCNetwork implements Network, MethodHandler {
             orb.transport().shutdown().join();
             targetPool.flushTargets(true);
             sendService.shutdown();
+            if (batchService != null) {
+                batchService.shutdown(); // batches already scheduled are still sent
+            }
             return true;
         }
         return false;
@@ -308,6 +325,44 @@ public class RPCNetwork implements Network, MethodHandler {
         return null; // no error
     }
 
+    /**
+     * Returns the compressor to use for payloads sent and received by this network.
+     *
+     * @return The compressor.
+     */
+    Compressor getCompressor() {
+        return compressor;
+    }
+
+    /**
+     * Returns whether messages should be sent in batches to targets which support it.
+     *
+     * @return True if send batching is enabled.
+     */
+    boolean isSendBatchingEnabled() {
+        return batchService != null;
+    }
+
+    /**
+     * Returns the max number of payload bytes in a batch. Larger messages are never batched.
+     *
+     * @return The number of bytes.
+     */
+    int getSendBatchMaxBytes() {
+        return sendBatchMaxBytes;
+    }
+
+    /**
+     * Creates a batcher of the messages sent to a single target, as configured for this network. This must only be
+     * called when send batching is enabled.
+     *
+     * @param sender Sends a batch of messages to the target.
+     * @return The new batcher.
+     */
+    RPCSendBatcher createSendBatcher(Consumer<List<RPCSendBatcher.Entry>> sender) {
+        return new RPCSendBatcher(batchService, sendBatchLinger, sendBatchMaxSize, sendBatchMaxBytes, sender);
+    }
+
     /**
      * Registers a send adapter for a given version. This will overwrite whatever is already registered under the same
      * version.
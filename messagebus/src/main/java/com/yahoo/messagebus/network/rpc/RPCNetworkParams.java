@@ -1,6 +1,7 @@
 // Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
 package com.yahoo.messagebus.network.rpc;
 
+import com.yahoo.compress.CompressionType;
 import com.yahoo.messagebus.network.Identity;
 import com.yahoo.cloud.config.SlobroksConfig;
 
@@ -17,9 +18,15 @@ public class RPCNetworkParams {
     private SlobroksConfig slobroksConfig = null;
     private String oosServerPattern = "";
     private int listenPort = 0;
+    private int numNetworkThreads = 1;
     private int maxInputBufferSize = 256 * 1024;
     private int maxOutputBufferSize = 256 * 1024;
     private double connectionExpireSecs = 30;
+    private CompressionType compressionType = CompressionType.LZ4;
+    private int compressionMinSize = 1024;
+    private double sendBatchLinger = 0;
+    private int sendBatchMaxSize = 128;
+    private int sendBatchMaxBytes = 64 * 1024;
 
     /**
      * Constructs a new instance of this class with reasonable default values.
@@ -39,9 +46,15 @@ public class RPCNetworkParams {
         slobroksConfig = params.slobroksConfig;
         oosServerPattern = params.oosServerPattern;
         listenPort = params.listenPort;
+        numNetworkThreads = params.numNetworkThreads;
         connectionExpireSecs = params.connectionExpireSecs;
         maxInputBufferSize = params.maxInputBufferSize;
         maxOutputBufferSize = params.maxOutputBufferSize;
+        compressionType = params.compressionType;
+        compressionMinSize = params.compressionMinSize;
+        sendBatchLinger = params.sendBatchLinger;
+        sendBatchMaxSize = params.sendBatchMaxSize;
+        sendBatchMaxBytes = params.sendBatchMaxBytes;
     }
 
     /**
@@ -207,4 +220,132 @@ public class RPCNetworkParams {
         this.maxOutputBufferSize = maxOutputBufferSize;
         return this;
     }
+
+    /**
+     * Returns the compression to use for message and reply payloads sent to recipients which support it.
+     *
+     * @return The compression type.
+     */
+    public CompressionType getCompressionType() {
+        return compressionType;
+    }
+
+    /**
+     * Sets the compression to use for message and reply payloads sent to recipients which support it. Setting this to
+     * {@link CompressionType#NONE} disables compression of sent payloads, but received payloads are still decompressed.
+     *
+     * @param compressionType The compression type.
+     * @return This, to allow chaining.
+     */
+    public RPCNetworkParams setCompressionType(CompressionType compressionType) {
+        this.compressionType = compressionType;
+        return this;
+    }
+
+    /**
+     * Returns the minimum size of a payload for it to be compressed.
+     *
+     * @return The minimum number of bytes.
+     */
+    public int getCompressionMinSize() {
+        return compressionMinSize;
+    }
+
+    /**
+     * Sets the minimum size of a payload for it to be compressed. Smaller payloads are sent as they are, as the
+     * cost of compressing them is larger than the gain.
+     *
+     * @param compressionMinSize The minimum number of bytes.
+     * @return This, to allow chaining.
+     */
+    public RPCNetworkParams setCompressionMinSize(int compressionMinSize) {
+        this.compressionMinSize = compressionMinSize;
+        return this;
+    }
+
+    /**
+     * Returns the max number of seconds a message waits for other messages to the same recipient to be sent with in
+     * a single batch, or 0 if messages are not batched.
+     *
+     * @return The number of seconds.
+     */
+    public double getSendBatchLinger() {
+        return sendBatchLinger;
+    }
+
+    /**
+     * Sets the max number of seconds a message waits for other messages to the same recipient to be sent with in a
+     * single batch. Batching saves the per request overhead when many small messages are sent to the same recipient,
+     * at the cost of adding up to this much latency to each message. Setting this to 0 disables batching, which is
+     * the default. Messages with compressed payloads, and messages for which no reply is awaited, are never batched.
+     *
+     * @param secs The number of seconds.
+     * @return This, to allow chaining.
+     */
+    public RPCNetworkParams setSendBatchLinger(double secs) {
+        this.sendBatchLinger = secs;
+        return this;
+    }
+
+    /**
+     * Returns the max number of messages in a batch.
+     *
+     * @return The number of messages.
+     */
+    public int getSendBatchMaxSize() {
+        return sendBatchMaxSize;
+    }
+
+    /**
+     * Sets the max number of messages in a batch. A batch is sent at once when it reaches this size.
+     *
+     * @param sendBatchMaxSize The number of messages.
+     * @return This, to allow chaining.
+     */
+    public RPCNetworkParams setSendBatchMaxSize(int sendBatchMaxSize) {
+        this.sendBatchMaxSize = sendBatchMaxSize;
+        return this;
+    }
+
+    /**
+     * Returns the number of network threads of the RPC transport.
+     *
+     * @return The number of threads.
+     */
+    public int getNumNetworkThreads() {
+        return numNetworkThreads;
+    }
+
+    /**
+     * Sets the number of network threads of the RPC transport. Connections are spread over these threads, so more
+     * than one is useful when sending to and receiving from many other nodes. The default is 1.
+     *
+     * @param numNetworkThreads The number of threads.
+     * @return This, to allow chaining.
+     */
+    public RPCNetworkParams setNumNetworkThreads(int numNetworkThreads) {
+        this.numNetworkThreads = numNetworkThreads;
+        return this;
+    }
+
+    /**
+     * Returns the max number of payload bytes in a batch.
+     *
+     * @return The number of bytes.
+     */
+    public int getSendBatchMaxBytes() {
+        return sendBatchMaxBytes;
+    }
+
+    /**
+     * Sets the max number of payload bytes in a batch. A batch is sent at once when it reaches this size, and
+     * messages with payloads larger than this are always sent alone.
+     *
+     * @param sendBatchMaxBytes The number of bytes.
+     * @return This, to allow chaining.
+     */
+    public RPCNetworkParams setSendBatchMaxBytes(int sendBatchMaxBytes) {
+        this.sendBatchMaxBytes = sendBatchMaxBytes;
+        return this;
+    }
 }
@@ -0,0 +1,116 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.messagebus.network.rpc;
+
+import com.yahoo.component.Version;
+import com.yahoo.messagebus.routing.RoutingNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Collects the messages sent to a single {@link RPCTarget} into batches which are sent as a single RPC request.
+ * A batch is sent when it holds the max number of messages or bytes, or when the linger time has passed since the
+ * first message was added to it, whichever happens first.
+ *
+ * @author bratseth
+ */
+class RPCSendBatcher {
+
+    private final ScheduledExecutorService scheduler;
+    private final long lingerNanos;
+    private final int maxSize;
+    private final int maxBytes;
+    private final Consumer<List<Entry>> sender;
+
+    /** The batch currently collecting messages, or null if no messages are pending */
+    private Batch pending = null;
+
+    /**
+     * Creates a new batcher.
+     *
+     * @param scheduler The executor in which batches which have lingered are sent.
+     * @param linger    The max number of seconds a message waits for other messages to be batched with.
+     * @param maxSize   The max number of messages in a batch.
+     * @param maxBytes  The max number of payload bytes in a batch.
+     * @param sender    Sends a batch of messages to the target of this.
+     */
+    RPCSendBatcher(ScheduledExecutorService scheduler, double linger, int maxSize, int maxBytes,
+                   Consumer<List<Entry>> sender) {
+        this.scheduler = scheduler;
+        this.lingerNanos = (long)(linger * 1.0e9);
+        this.maxSize = maxSize;
+        this.maxBytes = maxBytes;
+        this.sender = sender;
+    }
+
+    /**
+     * Adds a message to the pending batch. If this fills the batch, it is sent in the calling thread.
+     *
+     * @param recipient The recipient to send to.
+     * @param version   The version for which the payload is serialized.
+     * @param payload   The serialized payload of the message to send.
+     */
+    void add(RoutingNode recipient, Version version, byte[] payload) {
+        Batch full = null;
+        Batch created = null;
+        synchronized (this) {
+            if (pending == null) {
+                pending = created = new Batch();
+            }
+            pending.entries.add(new Entry(recipient, version, payload));
+            pending.bytes += payload.length;
+            if (pending.entries.size() >= maxSize || pending.bytes >= maxBytes) {
+                full = pending;
+                pending = null;
+            }
+        }
+        if (full != null) {
+            sender.accept(full.entries);
+        } else if (created != null) {
+            schedule(created);
+        }
+    }
+
+    private void schedule(Batch batch) {
+        try {
+            scheduler.schedule(() -> flush(batch), lingerNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            flush(batch); // the network is shutting down; send at once to have the messages replied to
+        }
+    }
+
+    /** Sends the given batch if it has not already been sent because it became full */
+    private void flush(Batch batch) {
+        synchronized (this) {
+            if (pending != batch) {
+                return;
+            }
+            pending = null;
+        }
+        sender.accept(batch.entries);
+    }
+
+    /** A message waiting to be sent in a batch */
+    static class Entry {
+
+        final RoutingNode recipient;
+        final Version version;
+        final byte[] payload;
+
+        Entry(RoutingNode recipient, Version version, byte[] payload) {
+            this.recipient = recipient;
+            this.version = version;
+            this.payload = payload;
+        }
+    }
+
+    private static class Batch {
+
+        final List<Entry> entries = new ArrayList<>();
+        int bytes = 0;
+    }
+}
@@ -2,6 +2,8 @@
 package com.yahoo.messagebus.network.rpc;
 
 import com.yahoo.component.Version;
+import com.yahoo.compress.CompressionType;
+import com.yahoo.compress.Compressor;
 import com.yahoo.jrt.*;
 import com.yahoo.jrt.StringValue;
 import com.yahoo.messagebus.*;
@@ -14,23 +16,51 @@ import com.yahoo.messagebus.routing.RoutingNode;
 import com.yahoo.text.Utf8Array;
 import com.yahoo.text.Utf8String;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
- * Implements the request adapter for method "mbus.send1".
+ * Implements the request adapter for method "mbus.send1", and for method "mbus.send1z" which is the same
+ * method with compressed message and reply payloads. Payloads are compressed when they are larger than the
+ * compression threshold of the network, and only sent compressed when all targets of the message have at least
+ * {@link #COMPRESSED_SEND_VERSION}, as resolved by the version handshake done before sending. A target which
+ * still turns out to lack the compressed method is sent uncompressed messages from then on.
+ *
+ * <p>When send batching is enabled for the network, small messages to the same target are collected by the
+ * {@link RPCSendBatcher} of the target and sent together with method "mbus.sendbatch1", which takes the parameters
+ * of "mbus.send1" as arrays with one element per message, and returns the replies in the same way, with the
+ * error codes, messages and services of all replies concatenated. Batches are only sent when the version of the
+ * message is at least {@link #BATCHED_SEND_VERSION}, and to targets which have not been found to lack this method.
+ * The timeout of a batch is the smallest time remaining of its messages.
  *
  * @author <a href="mailto:simon@yahoo-inc.com">Simon Thoresen</a>
  */
 public class RPCSendV1 implements MethodHandler, ReplyHandler, RequestWaiter, RPCSendAdapter {
 
+    /** The lowest version which supports method "mbus.send1z" */
+    public static final Version COMPRESSED_SEND_VERSION = new Version(6, 10);
+
+    /** The lowest version which supports method "mbus.sendbatch1" */
+    public static final Version BATCHED_SEND_VERSION = new Version(6, 10);
+
     private final String METHOD_NAME = "mbus.send1";
     private final String METHOD_PARAMS = "sssbilsxi";
     private final String METHOD_RETURN = "sdISSsxs";
+    private final String COMPRESSED_METHOD_NAME = "mbus.send1z";
+    private final String COMPRESSED_METHOD_PARAMS = "sssbilsbixi";
+    private final String COMPRESSED_METHOD_RETURN = "sdISSsbixs";
+    private final String BATCH_METHOD_NAME = "mbus.sendbatch1";
+    private final String BATCH_METHOD_PARAMS = "SSSBILSXI";
+    private final String BATCH_METHOD_RETURN = "SDIISSSXS";
     private RPCNetwork net = null;
+    private Compressor compressor = null;
     private String clientIdent = "client";
     private String serverIdent = "server";
 
     @Override
     public void attach(RPCNetwork net) {
         this.net = net;
+        this.compressor = net.getCompressor();
         String prefix = net.getIdentity().getServicePrefix();
         if (prefix != null && prefix.length() > 0) {
             clientIdent = "'" + prefix + "'";
@@ -57,17 +87,74 @@ public class RPCSendV1 implements MethodHandler, ReplyHandler, RequestWaiter, RP
                 .returnDesc(6, "payload", "The protocol specific reply payload.")
                 .returnDesc(7, "trace", "A string representation of the trace.");
         net.getSupervisor().addMethod(method);
+
+        method = new Method(COMPRESSED_METHOD_NAME, COMPRESSED_METHOD_PARAMS, COMPRESSED_METHOD_RETURN, this::invokeCompressed);
+        method.methodDesc("Send a message bus request with a compressed payload and get a reply back.");
+        method.paramDesc(0, "version", "The version of the message.")
+                .paramDesc(1, "route", "Names of additional hops to visit.")
+                .paramDesc(2, "session", "The local session that should receive this message.")
+                .paramDesc(3, "retryEnabled", "Whether or not this message can be resent.")
+                .paramDesc(4, "retry", "The number of times the sending of this message has been retried.")
+                .paramDesc(5, "timeRemaining", "The number of milliseconds until timeout.")
+                .paramDesc(6, "protocol", "The name of the protocol that knows how to decode this message.")
+                .paramDesc(7, "compression", "The compression type of the payload.")
+                .paramDesc(8, "uncompressedSize", "The size of the payload when uncompressed.")
+                .paramDesc(9, "payload", "The protocol specific message payload.")
+                .paramDesc(10, "level", "The trace level of the message.");
+        method.returnDesc(0, "version", "The lowest version the message was serialized as.")
+                .returnDesc(1, "retryDelay", "The retry request of the reply.")
+                .returnDesc(2, "errorCodes", "The reply error codes.")
+                .returnDesc(3, "errorMessages", "The reply error messages.")
+                .returnDesc(4, "errorServices", "The reply error service names.")
+                .returnDesc(5, "protocol", "The name of the protocol that knows how to decode this reply.")
+                .returnDesc(6, "compression", "The compression type of the payload.")
+                .returnDesc(7, "uncompressedSize", "The size of the payload when uncompressed.")
+                .returnDesc(8, "payload", "The protocol specific reply payload.")
+                .returnDesc(9, "trace", "A string representation of the trace.");
+        net.getSupervisor().addMethod(method);
+
+        method = new Method(BATCH_METHOD_NAME, BATCH_METHOD_PARAMS, BATCH_METHOD_RETURN, this::invokeBatch);
+        method.methodDesc("Send a batch of message bus requests and get a reply to each back.");
+        method.paramDesc(0, "versions", "The version of each message.")
+                .paramDesc(1, "routes", "Names of additional hops to visit, for each message.")
+                .paramDesc(2, "sessions", "The local session that should receive each message.")
+                .paramDesc(3, "retryEnabled", "Whether or not each message can be resent.")
+                .paramDesc(4, "retries", "The number of times the sending of each message has been retried.")
+                .paramDesc(5, "timeRemaining", "The number of milliseconds until each message times out.")
+                .paramDesc(6, "protocols", "The name of the protocol that knows how to decode each message.")
+                .paramDesc(7, "payloads", "The protocol specific payload of each message.")
+                .paramDesc(8, "levels", "The trace level of each message.");
+        method.returnDesc(0, "versions", "The lowest version each message was serialized as.")
+                .returnDesc(1, "retryDelays", "The retry request of each reply.")
+                .returnDesc(2, "errorCounts", "The number of errors of each reply.")
+                .returnDesc(3, "errorCodes", "The error codes of all replies.")
+                .returnDesc(4, "errorMessages", "The error messages of all replies.")
+                .returnDesc(5, "errorServices", "The error service names of all replies.")
+                .returnDesc(6, "protocols", "The name of the protocol that knows how to decode each reply.")
+                .returnDesc(7, "payloads", "The protocol specific payload of each reply.")
+                .returnDesc(8, "traces", "A string representation of the trace of each reply.");
+        net.getSupervisor().addMethod(method);
     }
 
     @Override
     public void send(RoutingNode recipient, Version version, byte[] payload, long timeRemaining) {
-        SendContext ctx = new SendContext(recipient, timeRemaining);
         RPCServiceAddress address = (RPCServiceAddress)recipient.getServiceAddress();
         Message msg = recipient.getMessage();
         Route route = new Route(recipient.getRoute());
         Hop hop = route.removeHop(0);
 
-        Request req = new Request(METHOD_NAME);
+        Compressor.Compression compression = compress(address.getTarget(), version, hop, payload);
+        if (isBatchable(address.getTarget(), version, hop, compression)) {
+            RPCTarget target = address.getTarget();
+            target.getSendBatcher(() -> net.createSendBatcher(batch -> sendBatch(target, batch)))
+                  .add(recipient, version, payload);
+            return;
+        }
+        SendContext ctx = compression.type().isCompressed()
+                          ? new SendContext(recipient, timeRemaining, version, payload)
+                          : new SendContext(recipient, timeRemaining);
+
+        Request req = new Request(ctx.compressed ? COMPRESSED_METHOD_NAME : METHOD_NAME);
         req.parameters().add(new StringValue(version.toString()));
         req.parameters().add(new StringValue(route.toString()));
         req.parameters().add(new StringValue(address.getSessionName()));
@@ -75,13 +162,20 @@ public class RPCSendV1 implements MethodHandler, ReplyHandler, RequestWaiter, RP
         req.parameters().add(new Int32Value(msg.getRetry()));
         req.parameters().add(new Int64Value(timeRemaining));
         req.parameters().add(new StringValue(msg.getProtocol()));
-        req.parameters().add(new DataValue(payload));
+        if (ctx.compressed) {
+            req.parameters().add(new Int8Value(compression.type().getCode()));
+            req.parameters().add(new Int32Value(compression.uncompressedSize()));
+            req.parameters().add(new DataValue(compression.data()));
+        } else {
+            req.parameters().add(new DataValue(payload));
+        }
         req.parameters().add(new Int32Value(ctx.trace.getLevel()));
 
         if (ctx.trace.shouldTrace(TraceLevel.SEND_RECEIVE)) {
             ctx.trace.trace(TraceLevel.SEND_RECEIVE,
                             "Sending message (version " + version + ") from " + clientIdent + " to '" +
-                            address.getServiceName() + "' with " + ctx.timeout + " seconds timeout.");
+                            address.getServiceName() + "' with " + ctx.timeout + " seconds timeout" +
+                            (ctx.compressed ? compressionDescription(compression) : "") + ".");
         }
 
         if (hop.getIgnoreResult()) {
@@ -100,29 +194,129 @@ public class RPCSendV1 implements MethodHandler, ReplyHandler, RequestWaiter, RP
         req.discardParameters(); // allow garbage collection of request parameters
     }
 
+    /**
+     * Returns the compression of a payload to send to the given target, which has type NONE or INCOMPRESSIBLE if
+     * the payload should be sent uncompressed. Payloads are only compressed when the version the message is sent
+     * as, which is the lowest version of its targets, supports the compressed method. Payloads for which no reply
+     * is awaited are never compressed, as a missing compressed method at the target would not be discovered.
+     */
+    private Compressor.Compression compress(RPCTarget target, Version version, Hop hop, byte[] payload) {
+        if (hop.getIgnoreResult() || version.compareTo(COMPRESSED_SEND_VERSION) < 0 ||
+            ! target.isCompressedSendSupported())
+            return new Compressor.Compression(CompressionType.NONE, payload.length, payload);
+        return compressor.compress(payload);
+    }
+
+    /** Returns a description of a payload compression to add to a trace message */
+    private static String compressionDescription(Compressor.Compression compression) {
+        return ", payload compressed by " + compression.type() + " from " + compression.uncompressedSize() +
+               " to " + compression.data().length + " bytes";
+    }
+
+    /**
+     * Returns whether a message should be sent to the given target in a batch. Compressed payloads are sent alone
+     * as they are large enough for the request overhead to matter little.
+     */
+    private boolean isBatchable(RPCTarget target, Version version, Hop hop, Compressor.Compression compression) {
+        return net.isSendBatchingEnabled() && version.compareTo(BATCHED_SEND_VERSION) >= 0 &&
+               target.isBatchedSendSupported() && ! hop.getIgnoreResult() &&
+               ! compression.type().isCompressed() && compression.data().length < net.getSendBatchMaxBytes();
+    }
+
+    /**
+     * Sends a batch of messages to the given target in a single request. This is called by the batcher of the
+     * target.
+     */
+    private void sendBatch(RPCTarget target, List<RPCSendBatcher.Entry> entries) {
+        List<SendContext> contexts = new ArrayList<>(entries.size());
+        List<Route> routes = new ArrayList<>(entries.size());
+        List<Long> timesRemaining = new ArrayList<>(entries.size());
+        for (RPCSendBatcher.Entry entry : entries) {
+            long timeRemaining = entry.recipient.getMessage().getTimeRemainingNow();
+            if (timeRemaining <= 0) {
+                Reply reply = new EmptyReply();
+                reply.getTrace().setLevel(entry.recipient.getTrace().getLevel());
+                reply.addError(new Error(ErrorCode.TIMEOUT, "Aborting transmission because zero time remains."));
+                net.getOwner().deliverReply(reply, entry.recipient);
+                continue;
+            }
+            contexts.add(new SendContext(entry.recipient, timeRemaining, false, entry.version, entry.payload));
+            Route route = new Route(entry.recipient.getRoute());
+            route.removeHop(0);
+            routes.add(route);
+            timesRemaining.add(timeRemaining);
+        }
+        if (contexts.isEmpty()) return;
+
+        int count = contexts.size();
+        String[] versions = new String[count];
+        String[] routeNames = new String[count];
+        String[] sessions = new String[count];
+        byte[] retryEnabled = new byte[count];
+        int[] retries = new int[count];
+        long[] timeRemaining = new long[count];
+        String[] protocols = new String[count];
+        byte[][] payloads = new byte[count][];
+        int[] levels = new int[count];
+        double timeout = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            SendContext ctx = contexts.get(i);
+            Message msg = ctx.recipient.getMessage();
+            RPCServiceAddress address = (RPCServiceAddress)ctx.recipient.getServiceAddress();
+            versions[i] = ctx.version.toString();
+            routeNames[i] = routes.get(i).toString();
+            sessions[i] = address.getSessionName();
+            retryEnabled[i] = msg.getRetryEnabled() ? (byte)1 : (byte)0;
+            retries[i] = msg.getRetry();
+            timeRemaining[i] = timesRemaining.get(i);
+            protocols[i] = msg.getProtocol().toString();
+            payloads[i] = ctx.payload;
+            levels[i] = ctx.trace.getLevel();
+            timeout = Math.min(timeout, ctx.timeout); // no message may wait for a reply beyond its own timeout
+            if (ctx.trace.shouldTrace(TraceLevel.SEND_RECEIVE)) {
+                ctx.trace.trace(TraceLevel.SEND_RECEIVE,
+                                "Sending message (version " + ctx.version + ") from " + clientIdent + " to '" +
+                                address.getServiceName() + "' with " + ctx.timeout + " seconds timeout in a batch of " +
+                                count + " messages.");
+            }
+        }
+
+        Request req = new Request(BATCH_METHOD_NAME);
+        req.parameters().add(new StringArray(versions));
+        req.parameters().add(new StringArray(routeNames));
+        req.parameters().add(new StringArray(sessions));
+        req.parameters().add(new Int8Array(retryEnabled));
+        req.parameters().add(new Int32Array(retries));
+        req.parameters().add(new Int64Array(timeRemaining));
+        req.parameters().add(new StringArray(protocols));
+        req.parameters().add(new DataArray(payloads));
+        req.parameters().add(new Int32Array(levels));
+        req.setContext(new BatchSendContext(target, contexts));
+        target.getJRTTarget().invokeAsync(req, timeout, this::handleBatchDone);
+        req.discardParameters(); // allow garbage collection of request parameters
+    }
+
+    /** Returns the uncompressed payload given as a compression type code, uncompressed size and data */
+    private byte[] decompress(byte compressionType, int uncompressedSize, byte[] data) {
+        CompressionType type = CompressionType.valueOf(compressionType);
+        if ( ! type.isCompressed()) return data;
+        return compressor.decompress(data, type, uncompressedSize);
+    }
+
     @Override
     public void handleRequestDone(Request req) {
         SendContext ctx = (SendContext)req.getContext();
-        String serviceName = ((RPCServiceAddress)ctx.recipient.getServiceAddress()).getServiceName();
-        Reply reply = null;
-        Error error = null;
-        if (!req.checkReturnTypes(METHOD_RETURN)) {
-            // Map all known JRT errors to the appropriate message bus error.
+        RPCServiceAddress address = (RPCServiceAddress)ctx.recipient.getServiceAddress();
+        if (ctx.compressed && req.errorCode() == com.yahoo.jrt.ErrorCode.NO_SUCH_METHOD) {
+            // The recipient does not support compression: Send uncompressed to it from now on
+            address.getTarget().setCompressedSendUnsupported();
+            send(ctx.recipient, ctx.version, ctx.payload, ctx.recipient.getMessage().getTimeRemainingNow());
+            return;
+        }
+        Reply reply;
+        if (!req.checkReturnTypes(ctx.compressed ? COMPRESSED_METHOD_RETURN : METHOD_RETURN)) {
             reply = new EmptyReply();
-            switch (req.errorCode()) {
-            case com.yahoo.jrt.ErrorCode.TIMEOUT:
-                error = new Error(com.yahoo.messagebus.ErrorCode.TIMEOUT,
-                                  "A timeout occured while waiting for '" + serviceName + "' (" +
-                                  ctx.timeout + " seconds expired); " + req.errorMessage());
-                break;
-            case com.yahoo.jrt.ErrorCode.CONNECTION:
-                error = new Error(com.yahoo.messagebus.ErrorCode.CONNECTION_ERROR,
-                                  "A connection error occured for '" + serviceName + "'; " + req.errorMessage());
-                break;
-            default:
-                error = new Error(com.yahoo.messagebus.ErrorCode.NETWORK_ERROR,
-                                  "A network error occured for '" + serviceName + "'; " + req.errorMessage());
-            }
+            reply.addError(toError(req, ctx, address.getServiceName()));
         } else {
             // Retrieve all reply components from JRT request object.
             Version version = new Version(req.returnValues().get(0).asUtf8Array());
@@ -131,56 +325,164 @@ public class RPCSendV1 implements MethodHandler, ReplyHandler, RequestWaiter, RP
             String[] errorMessages = req.returnValues().get(3).asStringArray();
             String[] errorServices = req.returnValues().get(4).asStringArray();
             Utf8Array protocolName = req.returnValues().get(5).asUtf8Array();
-            byte[] payload = req.returnValues().get(6).asData();
-            String replyTrace = req.returnValues().get(7).asString();
-
-            // Make sure that the owner understands the protocol.
-            if (payload.length > 0) {
-                Protocol protocol = net.getOwner().getProtocol(protocolName);
-                if (protocol != null) {
-                    Routable routable = protocol.decode(version, payload);
-                    if (routable != null) {
-                        if (routable instanceof Reply) {
-                            reply = (Reply)routable;
-                        } else {
-                            error = new Error(com.yahoo.messagebus.ErrorCode.DECODE_ERROR,
-                                              "Payload decoded to a reply when expecting a message.");
-                        }
+            byte[] payload;
+            String replyTrace;
+            Error error = null;
+            if (ctx.compressed) {
+                try {
+                    payload = decompress(req.returnValues().get(6).asInt8(),
+                                         req.returnValues().get(7).asInt32(),
+                                         req.returnValues().get(8).asData());
+                } catch (RuntimeException e) {
+                    payload = new byte[0];
+                    error = new Error(com.yahoo.messagebus.ErrorCode.DECODE_ERROR,
+                                      "Failed to decompress reply payload: " + e.getMessage());
+                }
+                replyTrace = req.returnValues().get(9).asString();
+            } else {
+                payload = req.returnValues().get(6).asData();
+                replyTrace = req.returnValues().get(7).asString();
+            }
+            reply = decodeReply(ctx, address.getServiceName(), version, protocolName, payload, retryDelay,
+                                errorCodes, errorMessages, errorServices, 0, errorCodes.length, replyTrace);
+            if (error != null) {
+                reply.addError(error);
+            }
+        }
+        deliverReply(ctx, reply);
+    }
+
+    /** Handles the response to a batch of messages by delivering a reply to each message in the batch */
+    private void handleBatchDone(Request req) {
+        BatchSendContext batch = (BatchSendContext)req.getContext();
+        if (req.errorCode() == com.yahoo.jrt.ErrorCode.NO_SUCH_METHOD) {
+            // The recipient does not support batches: Send messages one by one to it from now on
+            batch.target.setBatchedSendUnsupported();
+            for (SendContext ctx : batch.contexts) {
+                send(ctx.recipient, ctx.version, ctx.payload, ctx.recipient.getMessage().getTimeRemainingNow());
+            }
+            return;
+        }
+        int count = batch.contexts.size();
+        if (!req.checkReturnTypes(BATCH_METHOD_RETURN) || req.returnValues().get(0).count() != count) {
+            for (SendContext ctx : batch.contexts) {
+                String serviceName = ((RPCServiceAddress)ctx.recipient.getServiceAddress()).getServiceName();
+                Reply reply = new EmptyReply();
+                reply.addError(req.isError()
+                               ? toError(req, ctx, serviceName)
+                               : new Error(com.yahoo.messagebus.ErrorCode.NETWORK_ERROR,
+                                           "A network error occured for '" + serviceName + "'; " +
+                                           "expected " + count + " replies to a batch, got " +
+                                           req.returnValues().get(0).count() + "."));
+                deliverReply(ctx, reply);
+            }
+            return;
+        }
+        String[] versions = req.returnValues().get(0).asStringArray();
+        double[] retryDelays = req.returnValues().get(1).asDoubleArray();
+        int[] errorCounts = req.returnValues().get(2).asInt32Array();
+        int[] errorCodes = req.returnValues().get(3).asInt32Array();
+        String[] errorMessages = req.returnValues().get(4).asStringArray();
+        String[] errorServices = req.returnValues().get(5).asStringArray();
+        String[] protocolNames = req.returnValues().get(6).asStringArray();
+        byte[][] payloads = req.returnValues().get(7).asDataArray();
+        String[] replyTraces = req.returnValues().get(8).asStringArray();
+        int errorOffset = 0;
+        for (int i = 0; i < count; i++) {
+            SendContext ctx = batch.contexts.get(i);
+            String serviceName = ((RPCServiceAddress)ctx.recipient.getServiceAddress()).getServiceName();
+            deliverReply(ctx, decodeReply(ctx, serviceName, new Version(versions[i]), new Utf8String(protocolNames[i]),
+                                          payloads[i], retryDelays[i], errorCodes, errorMessages, errorServices,
+                                          errorOffset, errorCounts[i], replyTraces[i]));
+            errorOffset += errorCounts[i];
+        }
+    }
+
+    /** Maps all known JRT errors of a request to the appropriate message bus error */
+    private Error toError(Request req, SendContext ctx, String serviceName) {
+        switch (req.errorCode()) {
+        case com.yahoo.jrt.ErrorCode.TIMEOUT:
+            return new Error(com.yahoo.messagebus.ErrorCode.TIMEOUT,
+                             "A timeout occured while waiting for '" + serviceName + "' (" +
+                             ctx.timeout + " seconds expired); " + req.errorMessage());
+        case com.yahoo.jrt.ErrorCode.CONNECTION:
+            return new Error(com.yahoo.messagebus.ErrorCode.CONNECTION_ERROR,
+                             "A connection error occured for '" + serviceName + "'; " + req.errorMessage());
+        default:
+            return new Error(com.yahoo.messagebus.ErrorCode.NETWORK_ERROR,
+                             "A network error occured for '" + serviceName + "'; " + req.errorMessage());
+        }
+    }
+
+    /**
+     * Creates a reply from the components returned for a message. The errors of the reply are given as the range
+     * of the error arrays starting at the given offset.
+     */
+    private Reply decodeReply(SendContext ctx, String serviceName, Version version, Utf8Array protocolName,
+                              byte[] payload, double retryDelay, int[] errorCodes, String[] errorMessages,
+                              String[] errorServices, int errorOffset, int errorCount, String replyTrace) {
+        Reply reply = null;
+        Error error = null;
+
+        // Make sure that the owner understands the protocol.
+        if (payload.length > 0) {
+            Protocol protocol = net.getOwner().getProtocol(protocolName);
+            if (protocol != null) {
+                Routable routable = protocol.decode(version, payload);
+                if (routable != null) {
+                    if (routable instanceof Reply) {
+                        reply = (Reply)routable;
                     } else {
                         error = new Error(com.yahoo.messagebus.ErrorCode.DECODE_ERROR,
-                                          "Protocol '" + protocol.getName() + "' failed to decode routable.");
+                                          "Payload decoded to a reply when expecting a message.");
                     }
                 } else {
-                    error = new Error(com.yahoo.messagebus.ErrorCode.UNKNOWN_PROTOCOL,
-                                      "Protocol '" + protocolName + "' is not known by " + serverIdent + ".");
+                    error = new Error(com.yahoo.messagebus.ErrorCode.DECODE_ERROR,
+                                      "Protocol '" + protocol.getName() + "' failed to decode routable.");
                 }
+            } else {
+                error = new Error(com.yahoo.messagebus.ErrorCode.UNKNOWN_PROTOCOL,
+                                  "Protocol '" + protocolName + "' is not known by " + serverIdent + ".");
             }
-            if (reply == null) {
-                reply = new EmptyReply();
-            }
-            reply.setRetryDelay(retryDelay);
-            for (int i = 0; i < errorCodes.length && i < errorMessages.length; i++) {
-                reply.addError(new Error(errorCodes[i],
-                                         errorMessages[i],
-                                         errorServices[i].length() > 0 ? errorServices[i] : serviceName));
-            }
-            if (ctx.trace.getLevel() > 0) {
-                ctx.trace.getRoot().addChild(TraceNode.decode(replyTrace));
-            }
         }
+        if (reply == null) {
+            reply = new EmptyReply();
+        }
+        reply.setRetryDelay(retryDelay);
+        int errorEnd = Math.min(errorOffset + errorCount, Math.min(errorCodes.length, errorMessages.length));
+        for (int i = errorOffset; i < errorEnd; i++) {
+            reply.addError(new Error(errorCodes[i],
+                                     errorMessages[i],
+                                     errorServices[i].length() > 0 ? errorServices[i] : serviceName));
+        }
+        if (ctx.trace.getLevel() > 0) {
+            ctx.trace.getRoot().addChild(TraceNode.decode(replyTrace));
+        }
+        if (error != null) {
+            reply.addError(error);
+        }
+        return reply;
+    }
+
+    private void deliverReply(SendContext ctx, Reply reply) {
         if (ctx.trace.shouldTrace(TraceLevel.SEND_RECEIVE)) {
             ctx.trace.trace(TraceLevel.SEND_RECEIVE,
                             "Reply (type " + reply.getType() + ") received at " + clientIdent + ".");
         }
         reply.getTrace().swap(ctx.trace);
-        if (error != null) {
-            reply.addError(error);
-        }
         net.getOwner().deliverReply(reply, ctx.recipient);
     }
 
     @Override
     public void invoke(Request request) {
+        invoke(request, false);
+    }
+
+    private void invokeCompressed(Request request) {
+        invoke(request, true);
+    }
+
+    private void invoke(Request request, boolean compressed) {
         request.detach();
         Version version = new Version(request.parameters().get(0).asUtf8Array());
         String route = request.parameters().get(1).asString();
@@ -189,28 +491,87 @@ public class RPCSendV1 implements MethodHandler, ReplyHandler, RequestWaiter, RP
         int retry = request.parameters().get(4).asInt32();
         long timeRemaining = request.parameters().get(5).asInt64();
         Utf8Array protocolName = request.parameters().get(6).asUtf8Array();
-        byte[] payload = request.parameters().get(7).asData();
-        int traceLevel = request.parameters().get(8).asInt32();
+        byte compressionType = compressed ? request.parameters().get(7).asInt8() : CompressionType.NONE.getCode();
+        int uncompressedSize = compressed ? request.parameters().get(8).asInt32() : 0;
+        byte[] payload = request.parameters().get(compressed ? 9 : 7).asData();
+        int traceLevel = request.parameters().get(compressed ? 10 : 8).asInt32();
 
         request.discardParameters(); // allow garbage collection of request parameters
 
+        ReplyContext ctx = new ReplyContext(request, version, compressed);
+        if (compressed) {
+            try {
+                payload = decompress(compressionType, uncompressedSize, payload);
+            } catch (RuntimeException e) {
+                replyError(ctx, traceLevel,
+                           new Error(ErrorCode.DECODE_ERROR, "Failed to decompress message payload: " + e.getMessage()));
+                return;
+            }
+        }
+        deliverMessage(ctx, route, session, retryEnabled, retry, timeRemaining, protocolName, payload, traceLevel);
+    }
+
+    private void invokeBatch(Request request) {
+        request.detach();
+        String[] versions = request.parameters().get(0).asStringArray();
+        String[] routes = request.parameters().get(1).asStringArray();
+        String[] sessions = request.parameters().get(2).asStringArray();
+        byte[] retryEnabled = request.parameters().get(3).asInt8Array();
+        int[] retries = request.parameters().get(4).asInt32Array();
+        long[] timeRemaining = request.parameters().get(5).asInt64Array();
+        String[] protocolNames = request.parameters().get(6).asStringArray();
+        byte[][] payloads = request.parameters().get(7).asDataArray();
+        int[] traceLevels = request.parameters().get(8).asInt32Array();
+
+        request.discardParameters(); // allow garbage collection of request parameters
+
+        int count = versions.length;
+        if (routes.length != count || sessions.length != count || retryEnabled.length != count ||
+            retries.length != count || timeRemaining.length != count || protocolNames.length != count ||
+            payloads.length != count || traceLevels.length != count) {
+            request.setError(com.yahoo.jrt.ErrorCode.WRONG_PARAMS, "All parameter arrays must have the same length.");
+            request.returnRequest();
+            return;
+        }
+        ReplyBatch batch = new ReplyBatch(request, count);
+        if (count == 0) {
+            batch.returnRequest();
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            Version version;
+            try {
+                version = new Version(versions[i]);
+            } catch (IllegalArgumentException e) {
+                replyError(new ReplyContext(batch, i, net.getVersion()), traceLevels[i],
+                           new Error(ErrorCode.DECODE_ERROR, "Illegal message version '" + versions[i] + "'."));
+                continue;
+            }
+            deliverMessage(new ReplyContext(batch, i, version), routes[i], sessions[i], retryEnabled[i] != 0,
+                           retries[i], timeRemaining[i], new Utf8String(protocolNames[i]), payloads[i], traceLevels[i]);
+        }
+    }
+
+    /** Decodes a received message and delivers it to its session, or replies with an error if this fails */
+    private void deliverMessage(ReplyContext ctx, String route, String session, boolean retryEnabled, int retry,
+                                long timeRemaining, Utf8Array protocolName, byte[] payload, int traceLevel) {
         // Make sure that the owner understands the protocol.
         Protocol protocol = net.getOwner().getProtocol(protocolName);
         if (protocol == null) {
-            replyError(request, version, traceLevel,
+            replyError(ctx, traceLevel,
                        new com.yahoo.messagebus.Error(ErrorCode.UNKNOWN_PROTOCOL,
                                                       "Protocol '" + protocolName + "' is not known by " + serverIdent + "."));
             return;
         }
-        Routable routable = protocol.decode(version, payload);
+        Routable routable = protocol.decode(ctx.version, payload);
         if (routable == null) {
-            replyError(request, version, traceLevel,
+            replyError(ctx, traceLevel,
                        new Error(ErrorCode.DECODE_ERROR,
                                  "Protocol '" + protocol.getName() + "' failed to decode routable."));
             return;
         }
         if (routable instanceof Reply) {
-            replyError(request, version, traceLevel,
+            replyError(ctx, traceLevel,
                        new Error(ErrorCode.DECODE_ERROR,
                                  "Payload decoded to a reply when expecting a message."));
             return;
@@ -219,7 +580,7 @@ public class RPCSendV1 implements MethodHandler, ReplyHandler, RequestWaiter, RP
         if (route != null && route.length() > 0) {
             msg.setRoute(net.getRoute(route));
         }
-        msg.setContext(new ReplyContext(request, version));
+        msg.setContext(ctx);
         msg.pushHandler(this);
         msg.setRetryEnabled(retryEnabled);
         msg.setRetry(retry);
@@ -256,6 +617,14 @@ public class RPCSendV1 implements MethodHandler, ReplyHandler, RequestWaiter, RP
                                          "An error occured while encoding the reply."));
             }
         }
+        Compressor.Compression compression = null;
+        if (ctx.compressed) {
+            compression = compressor.compress(payload);
+            if (compression.type().isCompressed() && reply.getTrace().shouldTrace(TraceLevel.SEND_RECEIVE)) {
+                reply.getTrace().trace(TraceLevel.SEND_RECEIVE,
+                                       "Sending reply from " + serverIdent + compressionDescription(compression) + ".");
+            }
+        }
         int[] eCodes = new int[reply.getNumErrors()];
         String[] eMessages = new String[reply.getNumErrors()];
         String[] eServices = new String[reply.getNumErrors()];
@@ -265,31 +634,41 @@ public class RPCSendV1 implements MethodHandler, ReplyHandler, RequestWaiter, RP
             eMessages[i] = error.getMessage();
             eServices[i] = error.getService() != null ? error.getService() : "";
         }
+        String replyTrace = reply.getTrace().getRoot() != null ? reply.getTrace().getRoot().encode() : "";
+        if (ctx.batch != null) {
+            if (ctx.batch.setReply(ctx.index, ctx.version, reply.getRetryDelay(), eCodes, eMessages, eServices,
+                                   reply.getProtocol().toString(), payload, replyTrace)) {
+                ctx.batch.returnRequest();
+            }
+            return;
+        }
         ctx.request.returnValues().add(new StringValue(ctx.version.toString()));
         ctx.request.returnValues().add(new DoubleValue(reply.getRetryDelay()));
         ctx.request.returnValues().add(new Int32Array(eCodes));
         ctx.request.returnValues().add(new StringArray(eMessages));
         ctx.request.returnValues().add(new StringArray(eServices));
         ctx.request.returnValues().add(new StringValue(reply.getProtocol()));
-        ctx.request.returnValues().add(new DataValue(payload));
-        ctx.request.returnValues().add(new StringValue(
-                reply.getTrace().getRoot() != null ?
-                reply.getTrace().getRoot().encode() :
-                ""));
+        if (compression != null) {
+            ctx.request.returnValues().add(new Int8Value(compression.type().getCode()));
+            ctx.request.returnValues().add(new Int32Value(compression.uncompressedSize()));
+            ctx.request.returnValues().add(new DataValue(compression.data()));
+        } else {
+            ctx.request.returnValues().add(new DataValue(payload));
+        }
+        ctx.request.returnValues().add(new StringValue(replyTrace));
         ctx.request.returnRequest();
     }
 
     /**
      * Send an error reply for a given request.
      *
-     * @param request    The JRT request to reply to.
-     * @param version    The version to serialize for.
+     * @param ctx        The context of the request to reply to.
      * @param traceLevel The trace level to set in the reply.
      * @param err        The error to reply with.
      */
-    private void replyError(Request request, Version version, int traceLevel, Error err) {
+    private void replyError(ReplyContext ctx, int traceLevel, Error err) {
         Reply reply = new EmptyReply();
-        reply.setContext(new ReplyContext(request, version));
+        reply.setContext(ctx);
         reply.getTrace().setLevel(traceLevel);
         reply.addError(err);
         handleReply(reply);
@@ -301,10 +680,39 @@ public class RPCSendV1 implements MethodHandler, ReplyHandler, RequestWaiter, RP
         final Trace trace;
         final double timeout;
 
+        /** Whether the payload is sent compressed */
+        final boolean compressed;
+
+        /** The version and uncompressed payload, kept if sent compressed to allow sending again uncompressed */
+        final Version version;
+        final byte[] payload;
+
         SendContext(RoutingNode recipient, long timeRemaining) {
+            this(recipient, timeRemaining, false, null, null);
+        }
+
+        SendContext(RoutingNode recipient, long timeRemaining, Version version, byte[] payload) {
+            this(recipient, timeRemaining, true, version, payload);
+        }
+
+        private SendContext(RoutingNode recipient, long timeRemaining, boolean compressed, Version version, byte[] payload) {
             this.recipient = recipient;
             trace = new Trace(recipient.getTrace().getLevel());
             timeout = timeRemaining * 0.001;
+            this.compressed = compressed;
+            this.version = version;
+            this.payload = payload;
+        }
+    }
+
+    private static class BatchSendContext {
+
+        final RPCTarget target;
+        final List<SendContext> contexts;
+
+        BatchSendContext(RPCTarget target, List<SendContext> contexts) {
+            this.target = target;
+            this.contexts = contexts;
         }
     }
 
@@ -312,10 +720,98 @@ public class RPCSendV1 implements MethodHandler, ReplyHandler, RequestWaiter, RP
 
         final Request request;
         final Version version;
+        final boolean compressed;
+
+        /** The batch and index in it of the message replied to, or null if the message was not sent in a batch */
+        final ReplyBatch batch;
+        final int index;
 
-        public ReplyContext(Request request, Version version) {
+        public ReplyContext(Request request, Version version, boolean compressed) {
             this.request = request;
             this.version = version;
+            this.compressed = compressed;
+            this.batch = null;
+            this.index = 0;
+        }
+
+        public ReplyContext(ReplyBatch batch, int index, Version version) {
+            this.request = batch.request;
+            this.version = version;
+            this.compressed = false;
+            this.batch = batch;
+            this.index = index;
+        }
+    }
+
+    /** Collects the replies to a batch of messages, and returns them when all messages are replied to */
+    private static class ReplyBatch {
+
+        final Request request;
+        final String[] versions;
+        final double[] retryDelays;
+        final int[][] errorCodes;
+        final String[][] errorMessages;
+        final String[][] errorServices;
+        final String[] protocolNames;
+        final byte[][] payloads;
+        final String[] replyTraces;
+        int remaining;
+
+        ReplyBatch(Request request, int count) {
+            this.request = request;
+            versions = new String[count];
+            retryDelays = new double[count];
+            errorCodes = new int[count][];
+            errorMessages = new String[count][];
+            errorServices = new String[count][];
+            protocolNames = new String[count];
+            payloads = new byte[count][];
+            replyTraces = new String[count];
+            remaining = count;
+        }
+
+        /** Sets the reply to the message at the given index, and returns whether all messages are now replied to */
+        synchronized boolean setReply(int index, Version version, double retryDelay, int[] errorCodes,
+                                      String[] errorMessages, String[] errorServices, String protocolName,
+                                      byte[] payload, String replyTrace) {
+            versions[index] = version.toString();
+            retryDelays[index] = retryDelay;
+            this.errorCodes[index] = errorCodes;
+            this.errorMessages[index] = errorMessages;
+            this.errorServices[index] = errorServices;
+            protocolNames[index] = protocolName;
+            payloads[index] = payload;
+            replyTraces[index] = replyTrace;
+            return --remaining == 0;
+        }
+
+        synchronized void returnRequest() {
+            int errorCount = 0;
+            int[] errorCounts = new int[errorCodes.length];
+            for (int i = 0; i < errorCodes.length; i++) {
+                errorCounts[i] = errorCodes[i].length;
+                errorCount += errorCounts[i];
+            }
+            int[] allErrorCodes = new int[errorCount];
+            String[] allErrorMessages = new String[errorCount];
+            String[] allErrorServices = new String[errorCount];
+            int offset = 0;
+            for (int i = 0; i < errorCodes.length; i++) {
+                System.arraycopy(errorCodes[i], 0, allErrorCodes, offset, errorCounts[i]);
+                System.arraycopy(errorMessages[i], 0, allErrorMessages, offset, errorCounts[i]);
+                System.arraycopy(errorServices[i], 0, allErrorServices, offset, errorCounts[i]);
+                offset += errorCounts[i];
+            }
+            request.returnValues().add(new StringArray(versions));
+            request.returnValues().add(new DoubleArray(retryDelays));
+            request.returnValues().add(new Int32Array(errorCounts));
+            request.returnValues().add(new Int32Array(allErrorCodes));
+            request.returnValues().add(new StringArray(allErrorMessages));
+            request.returnValues().add(new StringArray(allErrorServices));
+            request.returnValues().add(new StringArray(protocolNames));
+            request.returnValues().add(new DataArray(payloads));
+            request.returnValues().add(new StringArray(replyTraces));
+            request.returnRequest();
         }
     }
 }
@@ -8,6 +8,7 @@ import com.yahoo.log.LogLevel;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 
 /**
@@ -26,6 +27,9 @@ public class RPCTarget implements RequestWaiter {
     private boolean targetInvoked = false;
     private Version version = null;
     private List<VersionHandler> versionHandlers = new LinkedList<>();
+    private volatile boolean compressedSendSupported = true;
+    private volatile boolean batchedSendSupported = true;
+    private RPCSendBatcher sendBatcher = null;
 
     /**
      * <p>Constructs a new instance of this class.</p>
@@ -81,6 +85,58 @@ public class RPCTarget implements RequestWaiter {
         return ref.get();
     }
 
+    /**
+     * <p>Returns whether this target may support receiving compressed
+     * payloads. This is assumed until a compressed send to it fails because
+     * the target does not have the method for it.</p>
+     *
+     * @return Whether compressed payloads may be sent to this target.
+     */
+    public boolean isCompressedSendSupported() {
+        return compressedSendSupported;
+    }
+
+    /**
+     * <p>Marks this target as not supporting compressed payloads, such that
+     * all payloads are sent to it uncompressed.</p>
+     */
+    public void setCompressedSendUnsupported() {
+        compressedSendSupported = false;
+    }
+
+    /**
+     * <p>Returns whether this target may support receiving batches of
+     * messages in a single request. This is assumed until a batched send to
+     * it fails because the target does not have the method for it.</p>
+     *
+     * @return Whether messages may be sent to this target in batches.
+     */
+    public boolean isBatchedSendSupported() {
+        return batchedSendSupported;
+    }
+
+    /**
+     * <p>Marks this target as not supporting batches of messages, such that
+     * all messages are sent to it one by one.</p>
+     */
+    public void setBatchedSendUnsupported() {
+        batchedSendSupported = false;
+    }
+
+    /**
+     * <p>Returns the batcher of messages sent to this target, creating it
+     * using the given factory if this target does not have one yet.</p>
+     *
+     * @param factory Creates the batcher of this target.
+     * @return The batcher of this target.
+     */
+    synchronized RPCSendBatcher getSendBatcher(Supplier<RPCSendBatcher> factory) {
+        if (sendBatcher == null) {
+            sendBatcher = factory.get();
+        }
+        return sendBatcher;
+    }
+
     /**
      * <p>Requests the version of this target be passed to the given {@link
      * VersionHandler}. If the version is available, the handler is called
@@ -3,6 +3,7 @@ package com.yahoo.messagebus;
 
 import com.yahoo.jrt.ListenFailedException;
 import com.yahoo.jrt.slobrok.server.Slobrok;
+import com.yahoo.messagebus.network.local.LocalNetwork;
 import com.yahoo.messagebus.network.rpc.test.TestServer;
 import com.yahoo.messagebus.routing.RoutingTableSpec;
 import com.yahoo.messagebus.test.*;
@@ -197,6 +198,75 @@ public class ThrottlerTestCase extends junit.framework.TestCase {
         assertTrue(windowSize >= 40 && windowSize <= 50);
     }
 
+    public void testLatencyWindowSize() {
+        CustomTimer timer = new CustomTimer();
+        LatencyThrottlePolicy policy = new LatencyThrottlePolicy(timer);
+
+        int windowSize = getLatencyWindowSize(policy, timer, 100);
+        assertTrue(windowSize >= 100 && windowSize <= 150);
+        assertEquals(1000, policy.getMinRoundTripTime());
+
+        windowSize = getLatencyWindowSize(policy, timer, 400);
+        assertTrue(windowSize >= 400 && windowSize <= 600);
+
+        windowSize = getLatencyWindowSize(policy, timer, 50);
+        assertTrue(windowSize >= 50 && windowSize <= 75);
+
+        windowSize = getLatencyWindowSize(policy, timer, 200);
+        assertTrue(windowSize >= 200 && windowSize <= 300);
+    }
+
+    public void testLatencyMinWindowSizeAfterErrors() {
+        CustomTimer timer = new CustomTimer();
+        LatencyThrottlePolicy policy = new LatencyThrottlePolicy(timer);
+        policy.setMinWindowSize(10);
+
+        Message msg = new SimpleMessage("foo");
+        for (int i = 0; i < 100; ++i) {
+            int numPending = 0;
+            while (policy.canSend(msg, numPending)) {
+                policy.processMessage(msg);
+                ++numPending;
+            }
+            timer.millis += 1000;
+            while (--numPending >= 0) {
+                Reply reply = new SimpleReply("bar");
+                reply.setContext(msg.getContext());
+                reply.addError(new Error(ErrorCode.SESSION_BUSY, "busy"));
+                policy.processReply(reply);
+            }
+        }
+        assertEquals(10, policy.getMaxPendingCount());
+    }
+
+    public void testLatencyMaxWindowSize() {
+        CustomTimer timer = new CustomTimer();
+        LatencyThrottlePolicy policy = new LatencyThrottlePolicy(timer);
+        policy.setMaxWindowSize(50);
+
+        int windowSize = getLatencyWindowSize(policy, timer, 100);
+        assertEquals(50, windowSize);
+    }
+
+    public void testMessageBusLatencyThrottling() {
+        SourceSession session = src.mb.createSourceSession(new Receptor());
+        assertTrue(session.getThrottlePolicy() instanceof DynamicThrottlePolicy);
+        session.destroy();
+
+        MessageBus mbus = new MessageBus(new LocalNetwork(),
+                                         new MessageBusParams().setLatencyThrottling()
+                                                               .addProtocol(new SimpleProtocol()));
+        session = mbus.createSourceSession(new Receptor());
+        assertTrue(session.getThrottlePolicy() instanceof LatencyThrottlePolicy);
+        session.destroy();
+
+        StaticThrottlePolicy policy = new StaticThrottlePolicy();
+        session = mbus.createSourceSession(new SourceSessionParams().setThrottlePolicy(policy)
+                                                                    .setReplyHandler(new Receptor()));
+        assertSame(policy, session.getThrottlePolicy());
+        session.destroy();
+        mbus.destroy();
+    }
 
     ////////////////////////////////////////////////////////////////////////////////
     //
@@ -227,4 +297,30 @@ public class ThrottlerTestCase extends junit.framework.TestCase {
         return ret;
     }
 
+    /**
+     * Sends and replies to windows of messages through the given policy, where replies take one second
+     * as long as there are no more than the given capacity pending, and proportionally longer above it.
+     */
+    private int getLatencyWindowSize(LatencyThrottlePolicy policy, CustomTimer timer, int capacity) {
+        Message msg = new SimpleMessage("foo");
+        for (int i = 0; i < 200; ++i) {
+            int numPending = 0;
+            while (policy.canSend(msg, numPending)) {
+                policy.processMessage(msg);
+                ++numPending;
+            }
+
+            timer.millis += (numPending <= capacity) ? 1000 : 1000L * numPending / capacity;
+
+            while (--numPending >= 0) {
+                Reply reply = new SimpleReply("bar");
+                reply.setContext(msg.getContext());
+                policy.processReply(reply);
+            }
+        }
+        int ret = policy.getMaxPendingCount();
+        System.out.println("getLatencyWindowSize() = " + ret);
+        return ret;
+    }
+
 }
@@ -3,6 +3,8 @@ package com.yahoo.messagebus.network.rpc;
 
 import com.yahoo.component.Version;
 import com.yahoo.jrt.ListenFailedException;
+import com.yahoo.jrt.Method;
+import com.yahoo.jrt.Supervisor;
 import com.yahoo.jrt.slobrok.server.Slobrok;
 import com.yahoo.messagebus.*;
 import com.yahoo.messagebus.network.Identity;
@@ -17,8 +19,12 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 
@@ -90,6 +96,136 @@ public class SendAdapterTestCase {
         }
     }
 
+    @Test
+    public void requireThatLargePayloadsAreSentCompressedAndDecompressed() throws Exception {
+        srcServer.net.setVersion(RPCSendV1.COMPRESSED_SEND_VERSION);
+        itrServer.net.setVersion(RPCSendV1.COMPRESSED_SEND_VERSION);
+        dstServer.net.setVersion(RPCSendV1.COMPRESSED_SEND_VERSION);
+        String value = largeValue();
+        Message msg = new SimpleMessage(value);
+        msg.getTrace().setLevel(9);
+        assertTrue(srcSession.send(msg, Route.parse("itr/session dst/session")).isAccepted());
+        assertNotNull(msg = ((Receptor)itrSession.getMessageHandler()).getMessage(300));
+        assertEquals(value, ((SimpleMessage)msg).getValue());
+        itrSession.forward(msg);
+        assertNotNull(msg = ((Receptor)dstSession.getMessageHandler()).getMessage(300));
+        assertEquals(value, ((SimpleMessage)msg).getValue());
+
+        Reply reply = new SimpleReply(value);
+        reply.swapState(msg);
+        dstSession.reply(reply);
+        assertNotNull(reply = ((Receptor)itrSession.getReplyHandler()).getReply(300));
+        assertFalse(reply.hasErrors());
+        assertEquals(value, ((SimpleReply)reply).getValue());
+        itrSession.forward(reply);
+        assertNotNull(reply = ((Receptor)srcSession.getReplyHandler()).getReply(300));
+        assertFalse(reply.hasErrors());
+        assertEquals(value, ((SimpleReply)reply).getValue());
+
+        // Both messages and both replies are compressed
+        String trace = reply.getTrace().toString();
+        assertEquals(trace, 4, occurrences(", payload compressed by LZ4 from", trace));
+        assertEquals(trace, 2, occurrences("Sending reply from", trace));
+    }
+
+    @Test
+    public void requireThatLargePayloadsAreSentUncompressedToRecipientsNotSupportingCompression() throws Exception {
+        srcServer.net.setVersion(RPCSendV1.COMPRESSED_SEND_VERSION);
+        dstServer.net.setVersion(RPCSendV1.COMPRESSED_SEND_VERSION);
+        AtomicInteger compressedRequests = replaceCompressedMethodByMissingMethod(dstServer);
+        String value = largeValue();
+        for (int i = 0; i < 2; i++) {
+            Reply reply = sendAndReplyDirectly(value);
+            assertFalse(reply.getTrace().toString(), reply.hasErrors());
+            assertEquals(value, ((SimpleReply)reply).getValue());
+            assertEquals(0, occurrences("payload compressed", reply.getTrace().toString()));
+        }
+        assertEquals("The compressed method is only tried once", 1, compressedRequests.get());
+    }
+
+    @Test
+    public void requireThatLargePayloadsAreSentUncompressedToRecipientsOfLowerVersions() throws Exception {
+        srcServer.net.setVersion(RPCSendV1.COMPRESSED_SEND_VERSION);
+        dstServer.net.setVersion(new Version(6, 9));
+        AtomicInteger compressedRequests = replaceCompressedMethodByMissingMethod(dstServer);
+        String value = largeValue();
+        Reply reply = sendAndReplyDirectly(value);
+        assertFalse(reply.getTrace().toString(), reply.hasErrors());
+        assertEquals(value, ((SimpleReply)reply).getValue());
+        assertEquals(0, occurrences("payload compressed", reply.getTrace().toString()));
+        assertEquals("The compressed method is not tried", 0, compressedRequests.get());
+    }
+
+    @Test
+    public void requireThatSmallMessagesAreSentInBatches() throws Exception {
+        TestServer batchServer = new TestServer(
+                new MessageBusParams().addProtocol(new TestProtocol()),
+                new RPCNetworkParams().setSlobrokConfigId(TestServer.getSlobrokConfig(slobrok))
+                                      .setSendBatchLinger(600.0).setSendBatchMaxSize(5));
+        batchServer.net.setVersion(RPCSendV1.BATCHED_SEND_VERSION);
+        dstServer.net.setVersion(RPCSendV1.BATCHED_SEND_VERSION);
+        try {
+            List<Reply> replies = sendAndReply(batchServer, 5);
+            for (Reply reply : replies) {
+                assertTrue(reply.getTrace().toString().contains("in a batch of 5 messages"));
+            }
+        } finally {
+            batchServer.destroy();
+        }
+    }
+
+    @Test
+    public void requireThatBatchesAreSentAfterLingering() throws Exception {
+        TestServer batchServer = new TestServer(
+                new MessageBusParams().addProtocol(new TestProtocol()),
+                new RPCNetworkParams().setSlobrokConfigId(TestServer.getSlobrokConfig(slobrok))
+                                      .setSendBatchLinger(0.01));
+        batchServer.net.setVersion(RPCSendV1.BATCHED_SEND_VERSION);
+        dstServer.net.setVersion(RPCSendV1.BATCHED_SEND_VERSION);
+        try {
+            for (Reply reply : sendAndReply(batchServer, 3)) {
+                assertTrue(reply.getTrace().toString().contains("in a batch of"));
+            }
+        } finally {
+            batchServer.destroy();
+        }
+    }
+
+    @Test
+    public void requireThatMessagesAreSentOneByOneToRecipientsNotSupportingBatches() throws Exception {
+        ((RPCNetwork)dstServer.net).getSupervisor().removeMethod("mbus.sendbatch1");
+        TestServer batchServer = new TestServer(
+                new MessageBusParams().addProtocol(new TestProtocol()),
+                new RPCNetworkParams().setSlobrokConfigId(TestServer.getSlobrokConfig(slobrok))
+                                      .setSendBatchLinger(0.01));
+        batchServer.net.setVersion(RPCSendV1.BATCHED_SEND_VERSION);
+        dstServer.net.setVersion(RPCSendV1.BATCHED_SEND_VERSION);
+        try {
+            for (Reply reply : sendAndReply(batchServer, 3)) {
+                assertFalse(reply.getTrace().toString().contains("in a batch"));
+            }
+        } finally {
+            batchServer.destroy();
+        }
+    }
+
+    @Test
+    public void requireThatMessagesAreSentOneByOneToRecipientsOfLowerVersions() throws Exception {
+        TestServer batchServer = new TestServer(
+                new MessageBusParams().addProtocol(new TestProtocol()),
+                new RPCNetworkParams().setSlobrokConfigId(TestServer.getSlobrokConfig(slobrok))
+                                      .setSendBatchLinger(0.01));
+        batchServer.net.setVersion(RPCSendV1.BATCHED_SEND_VERSION);
+        dstServer.net.setVersion(new Version(6, 9));
+        try {
+            for (Reply reply : sendAndReply(batchServer, 3)) {
+                assertFalse(reply.getTrace().toString().contains("in a batch"));
+            }
+        } finally {
+            batchServer.destroy();
+        }
+    }
+
     ////////////////////////////////////////////////////////////////////////////////
     //
     // Utilities
@@ -139,6 +275,88 @@ public class SendAdapterTestCase {
         assertEquals(minVersion, srcProtocol.lastVersion);
     }
 
+    private static String largeValue() {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            value.append("value ").append(i % 10).append(' ');
+        }
+        return value.toString();
+    }
+
+    private static int occurrences(String substring, String string) {
+        int count = 0;
+        for (int i = string.indexOf(substring); i >= 0; i = string.indexOf(substring, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Replaces the compressed send method of the given server by one which fails as if the method did not exist,
+     * and returns the number of times it is invoked.
+     */
+    private static AtomicInteger replaceCompressedMethodByMissingMethod(TestServer server) {
+        AtomicInteger invocations = new AtomicInteger();
+        Supervisor supervisor = ((RPCNetwork)server.net).getSupervisor();
+        supervisor.removeMethod("mbus.send1z");
+        supervisor.addMethod(new Method("mbus.send1z", "sssbilsbixi", "sdISSsbixs", request -> {
+            invocations.incrementAndGet();
+            request.setError(com.yahoo.jrt.ErrorCode.NO_SUCH_METHOD, "No such method");
+        }));
+        return invocations;
+    }
+
+    /** Sends a message with the given value from the source to the destination, and returns the reply echoing it */
+    private Reply sendAndReplyDirectly(String value) {
+        Message msg = new SimpleMessage(value);
+        msg.getTrace().setLevel(9);
+        assertTrue(srcSession.send(msg, Route.parse("dst/session")).isAccepted());
+        assertNotNull(msg = ((Receptor)dstSession.getMessageHandler()).getMessage(300));
+        assertEquals(value, ((SimpleMessage)msg).getValue());
+        Reply reply = new SimpleReply(((SimpleMessage)msg).getValue());
+        reply.swapState(msg);
+        dstSession.reply(reply);
+        assertNotNull(reply = ((Receptor)srcSession.getReplyHandler()).getReply(300));
+        return reply;
+    }
+
+    /** Sends the given number of messages from the given server to the destination, and returns the replies */
+    private List<Reply> sendAndReply(TestServer server, int count) {
+        SourceSession session = server.mb.createSourceSession(
+                new SourceSessionParams().setTimeout(600.0).setReplyHandler(new Receptor()));
+        assertTrue(server.waitSlobrok("dst/session", 1));
+        for (int i = 0; i < count; i++) {
+            Message msg = new SimpleMessage("message " + i);
+            msg.getTrace().setLevel(9);
+            assertTrue(session.send(msg, Route.parse("dst/session")).isAccepted());
+        }
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Message msg = ((Receptor)dstSession.getMessageHandler()).getMessage(60);
+            assertNotNull(msg);
+            messages.add(msg);
+        }
+        for (int i = count - 1; i >= 0; i--) { // reply out of order to verify replies are matched to their messages
+            Message msg = messages.get(i);
+            Reply reply = new SimpleReply("reply to " + ((SimpleMessage)msg).getValue());
+            reply.swapState(msg);
+            dstSession.reply(reply);
+        }
+        List<Reply> replies = new ArrayList<>();
+        Set<String> repliedTo = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            Reply reply = ((Receptor)session.getReplyHandler()).getReply(60);
+            assertNotNull(reply);
+            assertFalse(reply.getTrace().toString(), reply.hasErrors());
+            String messageValue = ((SimpleMessage)reply.getMessage()).getValue();
+            assertEquals("reply to " + messageValue, ((SimpleReply)reply).getValue());
+            assertTrue("One reply to " + messageValue, repliedTo.add(messageValue));
+            replies.add(reply);
+        }
+        session.destroy();
+        return replies;
+    }
+
     private static class TestProtocol extends SimpleProtocol {
 
         Version lastVersion;
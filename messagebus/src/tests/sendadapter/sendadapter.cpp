@@ -1,13 +1,16 @@
 // Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
 
 #include <vespa/messagebus/messagebus.h>
+#include <vespa/messagebus/network/rpcnetwork.h>
 #include <vespa/messagebus/testlib/receptor.h>
 #include <vespa/messagebus/testlib/simplemessage.h>
 #include <vespa/messagebus/testlib/simpleprotocol.h>
 #include <vespa/messagebus/testlib/simplereply.h>
 #include <vespa/messagebus/testlib/slobrok.h>
 #include <vespa/messagebus/testlib/testserver.h>
+#include <vespa/fnet/frt/frt.h>
 #include <vespa/vespalib/testkit/testapp.h>
+#include <vespa/vespalib/util/stringfmt.h>
 
 #include <vespa/log/log.h>
 LOG_SETUP("sendadapter_test");
@@ -68,6 +71,8 @@ private:
                            const vespalib::Version &itrVersion,
                            const vespalib::Version &dstVersion);
     void testSendAdapters(TestData &data);
+    void testCompressedSend(TestData &data);
+    void testBatchedSend(TestData &data);
 
 public:
     int Main() override;
@@ -126,6 +131,8 @@ Test::Main()
     ASSERT_TRUE(data.start());
 
     testSendAdapters(data); TEST_FLUSH();
+    testCompressedSend(data); TEST_FLUSH();
+    testBatchedSend(data); TEST_FLUSH();
 
     TEST_DONE();
 }
@@ -158,6 +165,117 @@ Test::testSendAdapters(TestData &data)
     }
 }
 
+void
+Test::testCompressedSend(TestData &data)
+{
+    data._srcServer.net.setVersion(RPCSendV1::COMPRESSED_SEND_VERSION);
+    data._itrServer.net.setVersion(RPCSendV1::COMPRESSED_SEND_VERSION);
+    data._dstServer.net.setVersion(RPCSendV1::COMPRESSED_SEND_VERSION);
+    string value;
+    for (uint32_t i = 0; i < 10000; ++i) {
+        value.append(vespalib::make_string("value %u ", i % 10));
+    }
+
+    Message::UP msg(new SimpleMessage(value));
+    msg->getTrace().setLevel(9);
+    ASSERT_TRUE(data._srcSession->send(std::move(msg), Route::parse("itr/session dst/session")).isAccepted());
+    msg = data._itrHandler.getMessage(TIMEOUT_SECS);
+    ASSERT_TRUE(msg.get() != NULL);
+    EXPECT_EQUAL(value, static_cast<SimpleMessage&>(*msg).getValue());
+    data._itrSession->forward(std::move(msg));
+    msg = data._dstHandler.getMessage(TIMEOUT_SECS);
+    ASSERT_TRUE(msg.get() != NULL);
+    EXPECT_EQUAL(value, static_cast<SimpleMessage&>(*msg).getValue());
+
+    Reply::UP reply(new SimpleReply(value));
+    reply->swapState(*msg);
+    data._dstSession->reply(std::move(reply));
+    reply = data._itrHandler.getReply();
+    ASSERT_TRUE(reply.get() != NULL);
+    EXPECT_FALSE(reply->hasErrors());
+    EXPECT_EQUAL(value, static_cast<SimpleReply&>(*reply).getValue());
+    data._itrSession->forward(std::move(reply));
+    reply = data._srcHandler.getReply();
+    ASSERT_TRUE(reply.get() != NULL);
+    EXPECT_FALSE(reply->hasErrors());
+    EXPECT_EQUAL(value, static_cast<SimpleReply&>(*reply).getValue());
+
+    // Both messages and both replies are compressed
+    string trace = reply->getTrace().toString();
+    uint32_t compressions = 0;
+    for (size_t pos = trace.find(", payload compressed by LZ4 from"); pos != string::npos;
+         pos = trace.find(", payload compressed by LZ4 from", pos + 1))
+    {
+        ++compressions;
+    }
+    EXPECT_EQUAL(4u, compressions);
+}
+
+void
+Test::testBatchedSend(TestData &data)
+{
+    const uint32_t count = 3;
+    vespalib::Version version(6, 10);
+    SimpleProtocol protocol;
+    FRT_Supervisor &orb = data._srcServer.net.getSupervisor();
+    FRT_Target *target = orb.GetTarget(data._dstServer.net.getConnectionSpec().c_str());
+    FRT_RPCRequest *req = orb.AllocRPCRequest();
+    req->SetMethodName(RPCSendV1::BATCH_METHOD_NAME);
+    FRT_Values &args = *req->GetParams();
+    FRT_StringValue *versions      = args.AddStringArray(count);
+    FRT_StringValue *routes        = args.AddStringArray(count);
+    FRT_StringValue *sessions      = args.AddStringArray(count);
+    uint8_t         *retryEnabled  = args.AddInt8Array(count);
+    uint32_t        *retries       = args.AddInt32Array(count);
+    uint64_t        *timeRemaining = args.AddInt64Array(count);
+    FRT_StringValue *protocols     = args.AddStringArray(count);
+    FRT_DataValue   *payloads      = args.AddDataArray(count);
+    uint32_t        *traceLevels   = args.AddInt32Array(count);
+    for (uint32_t i = 0; i < count; ++i) {
+        args.SetString(versions + i, version.toString().c_str());
+        args.SetString(routes + i, "");
+        args.SetString(sessions + i, "session");
+        retryEnabled[i] = 0;
+        retries[i] = 0;
+        timeRemaining[i] = TIMEOUT_SECS * 1000;
+        args.SetString(protocols + i, SimpleProtocol::NAME.c_str());
+        Blob payload = protocol.encode(version, SimpleMessage(vespalib::make_string("message %u", i)));
+        args.SetData(payloads + i, payload.data(), payload.size());
+        traceLevels[i] = 0;
+    }
+    FRT_SingleReqWait waiter;
+    target->InvokeAsync(req, TIMEOUT_SECS, &waiter);
+
+    std::vector<Message::UP> messages;
+    for (uint32_t i = 0; i < count; ++i) {
+        Message::UP msg = data._dstHandler.getMessage(TIMEOUT_SECS);
+        ASSERT_TRUE(msg.get() != NULL);
+        messages.push_back(std::move(msg));
+    }
+    // Reply out of order to verify that each reply is returned with its own message
+    for (auto it = messages.rbegin(); it != messages.rend(); ++it) {
+        Reply::UP reply(new SimpleReply("reply to " + static_cast<SimpleMessage&>(**it).getValue()));
+        reply->swapState(**it);
+        data._dstSession->reply(std::move(reply));
+    }
+    waiter.WaitReq();
+
+    ASSERT_TRUE(req->CheckReturnTypes(RPCSendV1::BATCH_METHOD_RETURN));
+    FRT_Values &ret = *req->GetReturn();
+    ASSERT_EQUAL(count, ret[7]._data_array._len);
+    for (uint32_t i = 0; i < count; ++i) {
+        EXPECT_EQUAL(0u, ret[2]._int32_array._pt[i]);
+        FRT_DataValue &payload = ret[7]._data_array._pt[i];
+        Routable::UP routable = protocol.decode(version, BlobRef(payload._buf, payload._len));
+        ASSERT_TRUE(routable.get() != NULL);
+        ASSERT_TRUE(routable->isReply());
+        EXPECT_EQUAL(vespalib::make_string("reply to message %u", i),
+                     static_cast<SimpleReply&>(*routable).getValue());
+    }
+    req->SubRef();
+    target->SubRef();
+}
+
 ////////////////////////////////////////////////////////////////////////////////
 //
 // Utilities
@@ -7,11 +7,28 @@
 #include <vespa/messagebus/tracelevel.h>
 #include <vespa/vespalib/util/stringfmt.h>
 #include <vespa/fnet/channel.h>
+#include <vespa/vespalib/component/vtag.h>
+#include <vespa/vespalib/util/alloc.h>
+#include <vespa/vespalib/util/exceptions.h>
+#include <lz4.h>
+#include <mutex>
 
 using vespalib::make_string;
+using vespalib::alloc::Alloc;
 
 namespace {
 
+// The codes of the compression types of payloads sent through the compressed method
+const uint8_t COMPRESSION_NONE = 0;
+const uint8_t COMPRESSION_INCOMPRESSIBLE = 5;
+const uint8_t COMPRESSION_LZ4 = 6;
+
+// Payloads smaller than this are not compressed
+const uint32_t COMPRESSION_MIN_SIZE = 1024;
+
+// Payloads are sent compressed only if this reduces the size to at most this fraction of the original
+const double COMPRESSION_THRESHOLD = 0.95;
+
 /**
  * Implements a helper class to hold the necessary context to create a reply from
  * an rpc return value. This object is held as the context of an FRT_RPCRequest.
@@ -21,18 +38,143 @@ private:
     mbus::RoutingNode &_recipient;
     mbus::Trace        _trace;
     double             _timeout;
+    bool               _compressed;
 
 public:
     typedef std::unique_ptr<SendContext> UP;
     SendContext(const SendContext &) = delete;
     SendContext & operator = (const SendContext &) = delete;
-    SendContext(mbus::RoutingNode &recipient, uint64_t timeRemaining)
+    SendContext(mbus::RoutingNode &recipient, uint64_t timeRemaining, bool compressed)
         : _recipient(recipient),
           _trace(recipient.getTrace().getLevel()),
-          _timeout(timeRemaining * 0.001) { }
+          _timeout(timeRemaining * 0.001),
+          _compressed(compressed) { }
     mbus::RoutingNode &getRecipient() { return _recipient; }
     mbus::Trace &getTrace() { return _trace; }
     double getTimeout() { return _timeout; }
+    bool isCompressed() const { return _compressed; }
+};
+
+/**
+ * Collects the replies to the messages of a batch received through the batch method, and returns them all
+ * through the request of the batch when the batch is complete. Messages may be replied to by different threads.
+ * The receiver of the batch holds it until all its messages are delivered, so the request is not returned
+ * while its parameters are still in use.
+ */
+class ReplyBatch {
+private:
+    struct Entry {
+        vespalib::string         version;
+        double                   retryDelay;
+        std::vector<mbus::Error> errors;
+        vespalib::string         protocol;
+        mbus::Blob               payload;
+        vespalib::string         trace;
+        bool                     discarded;
+        Entry() : version(), retryDelay(0), errors(), protocol(), payload(0), trace(), discarded(false) { }
+    };
+
+    std::mutex         _lock;
+    FRT_RPCRequest    &_request;
+    std::vector<Entry> _entries;
+    uint32_t           _remaining;
+
+    bool countDown() {
+        std::lock_guard<std::mutex> guard(_lock);
+        return --_remaining == 0;
+    }
+
+public:
+    typedef std::shared_ptr<ReplyBatch> SP;
+    ReplyBatch(const ReplyBatch &) = delete;
+    ReplyBatch & operator = (const ReplyBatch &) = delete;
+
+    ReplyBatch(FRT_RPCRequest &request, uint32_t count)
+        : _lock(), _request(request), _entries(count), _remaining(count + 1) { }
+    FRT_RPCRequest &getRequest() { return _request; }
+
+    /**
+     * Sets the reply to the message at the given index. Returns whether the batch is now complete.
+     */
+    bool setReply(uint32_t index, const vespalib::Version &version, const mbus::Reply &reply, mbus::Blob payload) {
+        Entry &entry = _entries[index];
+        entry.version = version.toString();
+        entry.retryDelay = reply.getRetryDelay();
+        for (uint32_t i = 0; i < reply.getNumErrors(); ++i) {
+            entry.errors.push_back(reply.getError(i));
+        }
+        entry.protocol = reply.getProtocol();
+        entry.payload = std::move(payload);
+        if (reply.getTrace().getLevel() > 0) {
+            entry.trace = reply.getTrace().getRoot().encode();
+        }
+        return countDown();
+    }
+
+    /**
+     * Marks the message at the given index as discarded. Returns whether the batch is now complete.
+     */
+    bool discard(uint32_t index) {
+        _entries[index].discarded = true;
+        return countDown();
+    }
+
+    /**
+     * Releases the hold the receiver of the batch has on it. Returns whether the batch is now complete.
+     */
+    bool release() {
+        return countDown();
+    }
+
+    /**
+     * Returns the replies through the request of this batch, or frees the request if all messages were discarded.
+     */
+    void complete() {
+        uint32_t count = _entries.size();
+        uint32_t discarded = 0;
+        uint32_t errorCount = 0;
+        for (Entry &entry : _entries) {
+            if (entry.discarded) {
+                ++discarded;
+                entry.errors.push_back(mbus::Error(mbus::ErrorCode::NETWORK_SHUTDOWN,
+                                                   "The message was discarded before it was replied to."));
+            }
+            errorCount += entry.errors.size();
+        }
+        if (count > 0 && discarded == count) {
+            FNET_Channel *chn = _request.GetContext()._value.CHANNEL;
+            _request.SubRef();
+            chn->Free();
+            return;
+        }
+        FRT_Values &ret = *_request.GetReturn();
+        FRT_StringValue *versions      = ret.AddStringArray(count);
+        double          *retryDelays   = ret.AddDoubleArray(count);
+        uint32_t        *errorCounts   = ret.AddInt32Array(count);
+        uint32_t        *errorCodes    = ret.AddInt32Array(errorCount);
+        FRT_StringValue *errorMessages = ret.AddStringArray(errorCount);
+        FRT_StringValue *errorServices = ret.AddStringArray(errorCount);
+        FRT_StringValue *protocols     = ret.AddStringArray(count);
+        FRT_DataValue   *payloads      = ret.AddDataArray(count);
+        FRT_StringValue *traces        = ret.AddStringArray(count);
+        uint32_t errorIndex = 0;
+        for (uint32_t i = 0; i < count; ++i) {
+            const Entry &entry = _entries[i];
+            ret.SetString(versions + i, entry.version.c_str());
+            retryDelays[i] = entry.retryDelay;
+            errorCounts[i] = entry.errors.size();
+            for (const mbus::Error &error : entry.errors) {
+                errorCodes[errorIndex] = error.getCode();
+                ret.SetString(errorMessages + errorIndex, error.getMessage().c_str());
+                ret.SetString(errorServices + errorIndex, error.getService().c_str());
+                ++errorIndex;
+            }
+            ret.SetString(protocols + i, entry.protocol.c_str());
+            ret.SetData(payloads + i, entry.payload.data(), entry.payload.size());
+            ret.SetString(traces + i, entry.trace.c_str());
+        }
+        _request.Return();
+    }
 };
 
 /**
@@ -43,18 +185,90 @@ class ReplyContext {
 private:
     FRT_RPCRequest   &_request;
     vespalib::Version _version;
+    bool              _compressed;
+    ReplyBatch::SP    _batch;
+    uint32_t          _index;
 
 public:
     typedef std::unique_ptr<ReplyContext> UP;
     ReplyContext(const ReplyContext &) = delete;
     ReplyContext & operator = (const ReplyContext &) = delete;
 
-    ReplyContext(FRT_RPCRequest &request, const vespalib::Version &version)
-        : _request(request), _version(version) { }
+    ReplyContext(FRT_RPCRequest &request, const vespalib::Version &version, bool compressed)
+        : _request(request), _version(version), _compressed(compressed), _batch(), _index(0) { }
+    ReplyContext(ReplyBatch::SP batch, uint32_t index, const vespalib::Version &version)
+        : _request(batch->getRequest()), _version(version), _compressed(false), _batch(std::move(batch)),
+          _index(index) { }
     FRT_RPCRequest &getRequest() { return _request; }
     const vespalib::Version &getVersion() { return _version; }
+    bool isCompressed() const { return _compressed; }
+    /** Returns the batch of the message replied to, or null if the message was not sent in a batch. */
+    ReplyBatch *getBatch() { return _batch.get(); }
+    uint32_t getIndex() const { return _index; }
 };
 
+/**
+ * Adds the given payload LZ4 compressed to the given values, preceded by the compression type and the
+ * uncompressed size. Returns false without adding anything if the payload is too small or compresses too
+ * poorly for this to pay off.
+ */
+bool
+addCompressedPayload(FRT_Values &values, const char *payload, uint32_t size)
+{
+    if (size < COMPRESSION_MIN_SIZE) {
+        return false;
+    }
+    int maxCompressedSize = LZ4_compressBound(size);
+    Alloc compressed = Alloc::alloc(maxCompressedSize);
+    int compressedSize = LZ4_compress_default(payload, static_cast<char *>(compressed.get()), size, maxCompressedSize);
+    if (compressedSize <= 0 || compressedSize > size * COMPRESSION_THRESHOLD) {
+        return false;
+    }
+    values.AddInt8(COMPRESSION_LZ4);
+    values.AddInt32(size);
+    values.AddData(std::move(compressed), compressedSize);
+    return true;
+}
+
+/**
+ * Returns a description to add to a trace of the compression of a payload added to the given values at the given
+ * index by the compressed method, or an empty string if the payload is not compressed.
+ */
+vespalib::string
+compressionDescription(const FRT_Values &values, uint32_t index)
+{
+    if (values[index]._intval8 != COMPRESSION_LZ4) {
+        return "";
+    }
+    return make_string(", payload compressed by LZ4 from %u to %u bytes",
+                       values[index + 1]._intval32, values[index + 2]._data._len);
+}
+
+/**
+ * Decompresses a payload received through the compressed method. On success the given payload and length are
+ * set to refer to the decompressed payload, which is held by the given buffer, and an empty string is returned.
+ * Otherwise a description of the failure is returned.
+ */
+vespalib::string
+decompressPayload(uint8_t compression, uint32_t uncompressedSize, const char *&payload, uint32_t &payloadLen,
+                  Alloc &buffer)
+{
+    if (compression == COMPRESSION_NONE || compression == COMPRESSION_INCOMPRESSIBLE) {
+        return "";
+    }
+    if (compression != COMPRESSION_LZ4) {
+        return make_string("Unknown compression type %d.", compression);
+    }
+    buffer = Alloc::alloc(uncompressedSize);
+    int size = LZ4_decompress_safe(payload, static_cast<char *>(buffer.get()), payloadLen, uncompressedSize);
+    if (size < 0 || static_cast<uint32_t>(size) != uncompressedSize) {
+        return make_string("Expected %u bytes after decompression, got %d.", uncompressedSize, size);
+    }
+    payload = static_cast<const char *>(buffer.get());
+    payloadLen = uncompressedSize;
+    return "";
+}
+
 }
 
 namespace mbus {
@@ -62,6 +276,13 @@ namespace mbus {
 const char *RPCSendV1::METHOD_NAME   = "mbus.send1";
 const char *RPCSendV1::METHOD_PARAMS = "sssbilsxi";
 const char *RPCSendV1::METHOD_RETURN = "sdISSsxs";
+const char *RPCSendV1::COMPRESSED_METHOD_NAME   = "mbus.send1z";
+const char *RPCSendV1::COMPRESSED_METHOD_PARAMS = "sssbilsbixi";
+const char *RPCSendV1::COMPRESSED_METHOD_RETURN = "sdISSsbixs";
+const vespalib::Version RPCSendV1::COMPRESSED_SEND_VERSION(6, 10);
+const char *RPCSendV1::BATCH_METHOD_NAME   = "mbus.sendbatch1";
+const char *RPCSendV1::BATCH_METHOD_PARAMS = "SSSBILSXI";
+const char *RPCSendV1::BATCH_METHOD_RETURN = "SDIISSSXS";
 
 RPCSendV1::RPCSendV1() :
     _net(NULL),
@@ -101,6 +322,53 @@ RPCSendV1::attach(RPCNetwork &net)
     builder.ReturnDesc("protocol", "The name of the protocol that knows how to decode this reply.");
     builder.ReturnDesc("payload", "The protocol specific reply payload.");
     builder.ReturnDesc("trace", "A string representation of the trace.");
+
+    builder.DefineMethod(COMPRESSED_METHOD_NAME, COMPRESSED_METHOD_PARAMS, COMPRESSED_METHOD_RETURN, true,
+                         FRT_METHOD(RPCSendV1::invokeCompressed), this);
+    builder.MethodDesc("Send a message bus request with a compressed payload and get a reply back.");
+    builder.ParamDesc("version", "The version of the message.");
+    builder.ParamDesc("route", "Names of additional hops to visit.");
+    builder.ParamDesc("session", "The local session that should receive this message.");
+    builder.ParamDesc("retryEnabled", "Whether or not this message can be resent.");
+    builder.ParamDesc("retry", "The number of times the sending of this message has been retried.");
+    builder.ParamDesc("timeRemaining", "The number of milliseconds until timeout.");
+    builder.ParamDesc("protocol", "The name of the protocol that knows how to decode this message.");
+    builder.ParamDesc("compression", "The compression type of the payload.");
+    builder.ParamDesc("uncompressedSize", "The size of the payload when uncompressed.");
+    builder.ParamDesc("payload", "The protocol specific message payload.");
+    builder.ParamDesc("level", "The trace level of the message.");
+    builder.ReturnDesc("version", "The lowest version the message was serialized as.");
+    builder.ReturnDesc("retry", "The retry request of the reply.");
+    builder.ReturnDesc("errorCodes", "The reply error codes.");
+    builder.ReturnDesc("errorMessages", "The reply error messages.");
+    builder.ReturnDesc("errorServices", "The reply error service names.");
+    builder.ReturnDesc("protocol", "The name of the protocol that knows how to decode this reply.");
+    builder.ReturnDesc("compression", "The compression type of the payload.");
+    builder.ReturnDesc("uncompressedSize", "The size of the payload when uncompressed.");
+    builder.ReturnDesc("payload", "The protocol specific reply payload.");
+    builder.ReturnDesc("trace", "A string representation of the trace.");
+
+    builder.DefineMethod(BATCH_METHOD_NAME, BATCH_METHOD_PARAMS, BATCH_METHOD_RETURN, true,
+                         FRT_METHOD(RPCSendV1::invokeBatch), this);
+    builder.MethodDesc("Send a batch of message bus requests and get a reply to each back.");
+    builder.ParamDesc("versions", "The version of each message.");
+    builder.ParamDesc("routes", "Names of additional hops to visit, for each message.");
+    builder.ParamDesc("sessions", "The local session that should receive each message.");
+    builder.ParamDesc("retryEnabled", "Whether or not each message can be resent.");
+    builder.ParamDesc("retries", "The number of times the sending of each message has been retried.");
+    builder.ParamDesc("timeRemaining", "The number of milliseconds until each message times out.");
+    builder.ParamDesc("protocols", "The name of the protocol that knows how to decode each message.");
+    builder.ParamDesc("payloads", "The protocol specific payload of each message.");
+    builder.ParamDesc("levels", "The trace level of each message.");
+    builder.ReturnDesc("versions", "The lowest version each message was serialized as.");
+    builder.ReturnDesc("retryDelays", "The retry request of each reply.");
+    builder.ReturnDesc("errorCounts", "The number of errors of each reply.");
+    builder.ReturnDesc("errorCodes", "The error codes of all replies.");
+    builder.ReturnDesc("errorMessages", "The error messages of all replies.");
+    builder.ReturnDesc("errorServices", "The error service names of all replies.");
+    builder.ReturnDesc("protocols", "The name of the protocol that knows how to decode each reply.");
+    builder.ReturnDesc("payloads", "The protocol specific payload of each reply.");
+    builder.ReturnDesc("traces", "A string representation of the trace of each reply.");
 }
 
 namespace {
@@ -112,6 +380,14 @@ public:
     void fill(FRT_Values & v) const override {
         v.AddData(_payload.data(), _payload.size());
     }
+    void fillCompressed(FRT_Values & v) const override {
+        if ( ! addCompressedPayload(v, _payload.data(), _payload.size())) {
+            v.AddInt8(COMPRESSION_NONE);
+            v.AddInt32(_payload.size());
+            fill(v);
+        }
+    }
+    size_t size() const override { return _payload.size(); }
 private:
     BlobRef _payload;
 };
@@ -123,6 +399,14 @@ public:
     void fill(FRT_Values & v) const override {
         v.AddData(std::move(_payload.payload()), _payload.size());
     }
+    void fillCompressed(FRT_Values & v) const override {
+        if ( ! addCompressedPayload(v, _payload.data(), _payload.size())) {
+            v.AddInt8(COMPRESSION_NONE);
+            v.AddInt32(_payload.size());
+            fill(v);
+        }
+    }
+    size_t size() const override { return _payload.size(); }
 private:
     mutable Blob _payload;
 };
@@ -147,15 +431,18 @@ void
 RPCSendV1::send(RoutingNode &recipient, const vespalib::Version &version,
                 const PayLoadFiller & payload, uint64_t timeRemaining)
 {
-    SendContext::UP ctx(new SendContext(recipient, timeRemaining));
     RPCServiceAddress &address = static_cast<RPCServiceAddress&>(recipient.getServiceAddress());
     const Message &msg = recipient.getMessage();
     Route route = recipient.getRoute();
     Hop hop = route.removeHop(0);
+    // Replies to messages with ignored results are not awaited, so a missing method would go unnoticed
+    bool compressed = ! hop.getIgnoreResult() && ! (version < COMPRESSED_SEND_VERSION) &&
+                      payload.size() >= COMPRESSION_MIN_SIZE;
+    SendContext::UP ctx(new SendContext(recipient, timeRemaining, compressed));
 
     FRT_RPCRequest *req = _net->allocRequest();
     FRT_Values &args = *req->GetParams();
-    req->SetMethodName(METHOD_NAME);
+    req->SetMethodName(compressed ? COMPRESSED_METHOD_NAME : METHOD_NAME);
     args.AddString(version.toString().c_str());
     args.AddString(route.toString().c_str());
     args.AddString(address.getSessionName().c_str());
@@ -163,14 +450,19 @@ RPCSendV1::send(RoutingNode &recipient, const vespalib::Version &version,
     args.AddInt32(msg.getRetry());
     args.AddInt64(timeRemaining);
     args.AddString(msg.getProtocol().c_str());
-    payload.fill(args);
+    if (compressed) {
+        payload.fillCompressed(args);
+    } else {
+        payload.fill(args);
+    }
     args.AddInt32(recipient.getTrace().getLevel());
 
     if (ctx->getTrace().shouldTrace(TraceLevel::SEND_RECEIVE)) {
         ctx->getTrace().trace(TraceLevel::SEND_RECEIVE,
-                              make_string("Sending message (version %s) from %s to '%s' with %.2f seconds timeout.",
+                              make_string("Sending message (version %s) from %s to '%s' with %.2f seconds timeout%s.",
                                           version.toString().c_str(), _clientIdent.c_str(),
-                                          address.getServiceName().c_str(), ctx->getTimeout()));
+                                          address.getServiceName().c_str(), ctx->getTimeout(),
+                                          compressed ? compressionDescription(args, 7).c_str() : ""));
     }
 
     if (hop.getIgnoreResult()) {
@@ -197,7 +489,7 @@ RPCSendV1::RequestDone(FRT_RPCRequest *req)
             ctx->getRecipient().getServiceAddress()).getServiceName();
     Reply::UP reply;
     Error error;
-    if (!req->CheckReturnTypes(METHOD_RETURN)) {
+    if (!req->CheckReturnTypes(ctx->isCompressed() ? COMPRESSED_METHOD_RETURN : METHOD_RETURN)) {
         reply.reset(new EmptyReply());
         switch (req->GetErrorCode()) {
         case FRTE_RPC_TIMEOUT:
@@ -227,10 +519,20 @@ RPCSendV1::RequestDone(FRT_RPCRequest *req)
         FRT_StringValue  *errorServices    = ret[4]._string_array._pt;
         uint32_t          errorServicesLen = ret[4]._string_array._len;
         const char       *protocolName     = ret[5]._string._str;
-        const char       *payload          = ret[6]._data._buf;
-        uint32_t          payloadLen       = ret[6]._data._len;
-        const char       *trace            = ret[7]._string._str;
-
+        uint32_t          payloadIndex     = ctx->isCompressed() ? 8 : 6;
+        const char       *payload          = ret[payloadIndex]._data._buf;
+        uint32_t          payloadLen       = ret[payloadIndex]._data._len;
+        const char       *trace            = ret[payloadIndex + 1]._string._str;
+
+        Alloc decompressed;
+        if (ctx->isCompressed()) {
+            string failure = decompressPayload(ret[6]._intval8, ret[7]._intval32, payload, payloadLen, decompressed);
+            if ( ! failure.empty()) {
+                error = Error(ErrorCode::DECODE_ERROR,
+                              make_string("Failed to decompress reply payload: %s", failure.c_str()));
+                payloadLen = 0;
+            }
+        }
         if (payloadLen > 0) {
             IProtocol * protocol = _net->getOwner().getProtocol(protocolName);
             if (protocol != nullptr) {
@@ -277,10 +579,23 @@ RPCSendV1::RequestDone(FRT_RPCRequest *req)
 
 void
 RPCSendV1::invoke(FRT_RPCRequest *req)
+{
+    receive(req, false);
+}
+
+void
+RPCSendV1::invokeCompressed(FRT_RPCRequest *req)
+{
+    receive(req, true);
+}
+
+void
+RPCSendV1::receive(FRT_RPCRequest *req, bool compressed)
 {
     req->Detach();
 
     FRT_Values &args = *req->GetParams();
+    uint32_t           payloadIndex  = compressed ? 9 : 7;
     vespalib::Version  version       = vespalib::Version(args[0]._string._str);
     const char        *route         = args[1]._string._str;
     const char        *session       = args[2]._string._str;
@@ -288,36 +603,114 @@ RPCSendV1::invoke(FRT_RPCRequest *req)
     uint32_t           retry         = args[4]._intval32;
     uint64_t           timeRemaining = args[5]._intval64;
     const char        *protocolName  = args[6]._string._str;
-    const char        *payload       = args[7]._data._buf;
-    uint32_t           payloadLen    = args[7]._data._len;
-    uint32_t           traceLevel    = args[8]._intval32;
+    const char        *payload       = args[payloadIndex]._data._buf;
+    uint32_t           payloadLen    = args[payloadIndex]._data._len;
+    uint32_t           traceLevel    = args[payloadIndex + 1]._intval32;
+
+    Alloc decompressed;
+    if (compressed) {
+        string failure = decompressPayload(args[7]._intval8, args[8]._intval32, payload, payloadLen, decompressed);
+        if ( ! failure.empty()) {
+            replyError(Context(new ReplyContext(*req, version, compressed)), traceLevel,
+                       Error(ErrorCode::DECODE_ERROR,
+                             make_string("Failed to decompress message payload: %s", failure.c_str())));
+            return;
+        }
+    }
+    Error error;
+    Message::UP msg = decodeMessage(version, protocolName, BlobRef(payload, payloadLen), error);
+    req->DiscardBlobs();
+    if ( ! msg) {
+        replyError(Context(new ReplyContext(*req, version, compressed)), traceLevel, error);
+        return;
+    }
+    deliverMessage(std::move(msg), Context(new ReplyContext(*req, version, compressed)),
+                   route, session, retryEnabled, retry, timeRemaining, traceLevel);
+}
 
-    IProtocol * protocol = _net->getOwner().getProtocol(protocolName);
-    if (protocol == nullptr) {
-        replyError(req, version, traceLevel,
-                   Error(ErrorCode::UNKNOWN_PROTOCOL,
-                         make_string("Protocol '%s' is not known by %s.", protocolName, _serverIdent.c_str())));
+void
+RPCSendV1::invokeBatch(FRT_RPCRequest *req)
+{
+    req->Detach();
+
+    FRT_Values &args = *req->GetParams();
+    FRT_StringValue *versions      = args[0]._string_array._pt;
+    FRT_StringValue *routes        = args[1]._string_array._pt;
+    FRT_StringValue *sessions      = args[2]._string_array._pt;
+    uint8_t         *retryEnabled  = args[3]._int8_array._pt;
+    uint32_t        *retries       = args[4]._int32_array._pt;
+    uint64_t        *timeRemaining = args[5]._int64_array._pt;
+    FRT_StringValue *protocolNames = args[6]._string_array._pt;
+    FRT_DataValue   *payloads      = args[7]._data_array._pt;
+    uint32_t        *traceLevels   = args[8]._int32_array._pt;
+    uint32_t         count         = args[0]._string_array._len;
+
+    if (args[1]._string_array._len != count || args[2]._string_array._len != count ||
+        args[3]._int8_array._len != count || args[4]._int32_array._len != count ||
+        args[5]._int64_array._len != count || args[6]._string_array._len != count ||
+        args[7]._data_array._len != count || args[8]._int32_array._len != count)
+    {
+        req->SetError(FRTE_RPC_WRONG_PARAMS, "All parameter arrays must have the same length.");
+        req->Return();
         return;
     }
-    Routable::UP routable = protocol->decode(version, BlobRef(payload, payloadLen));
+    ReplyBatch::SP batch(new ReplyBatch(*req, count));
+    for (uint32_t i = 0; i < count; ++i) {
+        vespalib::Version version;
+        try {
+            version = vespalib::Version(versions[i]._str);
+        } catch (const vespalib::IllegalArgumentException &) {
+            replyError(Context(new ReplyContext(batch, i, vespalib::Vtag::currentVersion)), traceLevels[i],
+                       Error(ErrorCode::DECODE_ERROR, make_string("Illegal message version '%s'.", versions[i]._str)));
+            continue;
+        }
+        Error error;
+        Message::UP msg = decodeMessage(version, protocolNames[i]._str,
+                                        BlobRef(payloads[i]._buf, payloads[i]._len), error);
+        if ( ! msg) {
+            replyError(Context(new ReplyContext(batch, i, version)), traceLevels[i], error);
+            continue;
+        }
+        deliverMessage(std::move(msg), Context(new ReplyContext(batch, i, version)), routes[i]._str,
+                       sessions[i]._str, retryEnabled[i] != 0, retries[i], timeRemaining[i], traceLevels[i]);
+    }
     req->DiscardBlobs();
+    if (batch->release()) {
+        batch->complete();
+    }
+}
+
+Message::UP
+RPCSendV1::decodeMessage(const vespalib::Version &version, const char *protocolName, BlobRef payload, Error &error)
+{
+    IProtocol * protocol = _net->getOwner().getProtocol(protocolName);
+    if (protocol == nullptr) {
+        error = Error(ErrorCode::UNKNOWN_PROTOCOL,
+                      make_string("Protocol '%s' is not known by %s.", protocolName, _serverIdent.c_str()));
+        return Message::UP();
+    }
+    Routable::UP routable = protocol->decode(version, payload);
     if ( ! routable ) {
-        replyError(req, version, traceLevel,
-                   Error(ErrorCode::DECODE_ERROR,
-                         make_string("Protocol '%s' failed to decode routable.", protocolName)));
-        return;
+        error = Error(ErrorCode::DECODE_ERROR,
+                      make_string("Protocol '%s' failed to decode routable.", protocolName));
+        return Message::UP();
     }
     if (routable->isReply()) {
-        replyError(req, version, traceLevel,
-                   Error(ErrorCode::DECODE_ERROR,
-                         "Payload decoded to a reply when expecting a mesage."));
-        return;
+        error = Error(ErrorCode::DECODE_ERROR,
+                      "Payload decoded to a reply when expecting a mesage.");
+        return Message::UP();
     }
-    Message::UP msg(static_cast<Message*>(routable.release()));
+    return Message::UP(static_cast<Message*>(routable.release()));
+}
+
+void
+RPCSendV1::deliverMessage(Message::UP msg, Context ctx, const char *route, const char *session,
+                          bool retryEnabled, uint32_t retry, uint64_t timeRemaining, uint32_t traceLevel)
+{
     if (strlen(route) > 0) {
         msg->setRoute(Route::parse(route));
     }
-    msg->setContext(Context(new ReplyContext(*req, version)));
+    msg->setContext(ctx);
     msg->pushHandler(*this, *this);
     msg->setRetryEnabled(retryEnabled);
     msg->setRetry(retry);
@@ -349,6 +742,12 @@ RPCSendV1::handleReply(Reply::UP reply)
             reply->addError(Error(ErrorCode::ENCODE_ERROR, "An error occured while encoding the reply, see log."));
         }
     }
+    if (ctx->getBatch() != nullptr) {
+        if (ctx->getBatch()->setReply(ctx->getIndex(), ctx->getVersion(), *reply, std::move(payload))) {
+            ctx->getBatch()->complete();
+        }
+        return;
+    }
     FRT_Values &ret = *req.GetReturn();
     ret.AddString(version.c_str());
     ret.AddDouble(reply->getRetryDelay());
@@ -366,7 +765,19 @@ RPCSendV1::handleReply(Reply::UP reply)
     }
 
     ret.AddString(reply->getProtocol().c_str());
-    ret.AddData(std::move(payload.payload()), payload.size());
+    if (ctx->isCompressed()) {
+        if ( ! addCompressedPayload(ret, payload.data(), payload.size())) {
+            ret.AddInt8(COMPRESSION_NONE);
+            ret.AddInt32(payload.size());
+            ret.AddData(std::move(payload.payload()), payload.size());
+        } else if (reply->getTrace().shouldTrace(TraceLevel::SEND_RECEIVE)) {
+            reply->getTrace().trace(TraceLevel::SEND_RECEIVE,
+                                    make_string("Sending reply from %s%s.", _serverIdent.c_str(),
+                                                compressionDescription(ret, 6).c_str()));
+        }
+    } else {
+        ret.AddData(std::move(payload.payload()), payload.size());
+    }
     if (reply->getTrace().getLevel() > 0) {
         ret.AddString(reply->getTrace().getRoot().encode().c_str());
     } else {
@@ -379,6 +790,12 @@ void
 RPCSendV1::handleDiscard(Context ctx)
 {
     ReplyContext::UP tmp(static_cast<ReplyContext*>(ctx.value.PTR));
+    if (tmp->getBatch() != nullptr) {
+        if (tmp->getBatch()->discard(tmp->getIndex())) {
+            tmp->getBatch()->complete();
+        }
+        return;
+    }
     FRT_RPCRequest &req = tmp->getRequest();
     FNET_Channel *chn = req.GetContext()._value.CHANNEL;
     req.SubRef();
@@ -386,11 +803,10 @@ RPCSendV1::handleDiscard(Context ctx)
 }
 
 void
-RPCSendV1::replyError(FRT_RPCRequest *req, const vespalib::Version &version,
-                      uint32_t traceLevel, const Error &err)
+RPCSendV1::replyError(Context ctx, uint32_t traceLevel, const Error &err)
 {
     Reply::UP reply(new EmptyReply());
-    reply->setContext(Context(new ReplyContext(*req, version)));
+    reply->setContext(ctx);
     reply->getTrace().setLevel(traceLevel);
     reply->addError(err);
     handleReply(std::move(reply));
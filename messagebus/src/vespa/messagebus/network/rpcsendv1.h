@@ -10,16 +10,29 @@
 namespace mbus {
 
 class Error;
+class Message;
 
 class PayLoadFiller
 {
 public:
     virtual ~PayLoadFiller() { }
     virtual void fill(FRT_Values & v) const = 0;
+    /**
+     * Adds the payload as the compression type, uncompressed size and data taken by the compressed method.
+     */
+    virtual void fillCompressed(FRT_Values & v) const = 0;
+    virtual size_t size() const = 0;
 };
 
 /**
- * Implements the send adapter for method "mbus.send".
+ * Implements the send adapter for method "mbus.send1", and for method "mbus.send1z" which is the same method
+ * with LZ4 compressed message and reply payloads. Payloads are only sent compressed when they are large enough
+ * and the version of the message, which is the lowest version of its targets, is at least
+ * COMPRESSED_SEND_VERSION.
+ *
+ * Also receives batches of messages through method "mbus.sendbatch1", which takes the parameters of "mbus.send1"
+ * as arrays with one element per message, and returns the replies in the same way, with the error codes, messages
+ * and services of all replies concatenated. The batch is returned when all its messages are replied to.
  */
 class RPCSendV1 : public RPCSendAdapter,
                   public FRT_Invokable,
@@ -34,16 +47,31 @@ private:
     /**
      * Send an error reply for a given request.
      *
-     * @param request    The FRT request to reply to.
-     * @param version    The version to serialize for.
+     * @param ctx        The reply context of the request to reply to.
      * @param traceLevel The trace level to set in the reply.
      * @param err        The error to reply with.
      */
-    void replyError(FRT_RPCRequest *req, const vespalib::Version &version,
-                    uint32_t traceLevel, const Error &err);
+    void replyError(Context ctx, uint32_t traceLevel, const Error &err);
 
     void send(RoutingNode &recipient, const vespalib::Version &version,
               const PayLoadFiller & filler, uint64_t timeRemaining);
+
+    /**
+     * Decodes and delivers a message received through either the plain or the compressed method.
+     */
+    void receive(FRT_RPCRequest *req, bool compressed);
+
+    /**
+     * Decodes a received message, or returns null and sets the given error if this fails.
+     */
+    std::unique_ptr<Message> decodeMessage(const vespalib::Version &version, const char *protocolName,
+                                           BlobRef payload, Error &error);
+
+    /**
+     * Delivers a received message to its session. The given context is used to reply to it.
+     */
+    void deliverMessage(std::unique_ptr<Message> msg, Context ctx, const char *route, const char *session,
+                        bool retryEnabled, uint32_t retry, uint64_t timeRemaining, uint32_t traceLevel);
 public:
     /** The name of the rpc method that this adapter registers. */
     static const char *METHOD_NAME;
@@ -54,6 +82,27 @@ public:
     /** The return string of the rpc method. */
     static const char *METHOD_RETURN;
 
+    /** The name of the rpc method taking and returning compressed payloads. */
+    static const char *COMPRESSED_METHOD_NAME;
+
+    /** The parameter string of the compressed rpc method. */
+    static const char *COMPRESSED_METHOD_PARAMS;
+
+    /** The return string of the compressed rpc method. */
+    static const char *COMPRESSED_METHOD_RETURN;
+
+    /** The lowest version which supports the compressed rpc method. */
+    static const vespalib::Version COMPRESSED_SEND_VERSION;
+
+    /** The name of the rpc method taking a batch of messages and returning their replies. */
+    static const char *BATCH_METHOD_NAME;
+
+    /** The parameter string of the batch rpc method. */
+    static const char *BATCH_METHOD_PARAMS;
+
+    /** The return string of the batch rpc method. */
+    static const char *BATCH_METHOD_RETURN;
+
     /**
      * Constructs a new instance of this adapter. This object is unusable until
      * its attach() method has been called.
@@ -71,6 +120,8 @@ public:
     void handleReply(std::unique_ptr<Reply> reply) override;
     void handleDiscard(Context ctx) override;
     void invoke(FRT_RPCRequest *req);
+    void invokeCompressed(FRT_RPCRequest *req);
+    void invokeBatch(FRT_RPCRequest *req);
     void RequestDone(FRT_RPCRequest *req) override;
 };
 
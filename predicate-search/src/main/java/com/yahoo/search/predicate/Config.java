@@ -2,6 +2,7 @@
 package com.yahoo.search.predicate;
 
 import com.google.common.annotations.Beta;
+import com.yahoo.search.predicate.serialization.MappedInput;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
@@ -41,6 +42,14 @@ public class Config {
         return new Config(arity, lowerBound, upperBound, useConjunctionAlgorithm);
     }
 
+    public static Config fromMappedInput(MappedInput in) {
+        int arity = in.getInt();
+        long lowerBound = in.getLong();
+        long upperBound = in.getLong();
+        boolean useConjunctionAlgorithm = in.get() != 0;
+        return new Config(arity, lowerBound, upperBound, useConjunctionAlgorithm);
+    }
+
     public static class Builder {
         private int arity = 8;
         private long lowerBound = Long.MIN_VALUE;
@@ -0,0 +1,380 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.search.predicate;
+
+import com.google.common.annotations.Beta;
+import com.gs.collections.impl.map.mutable.primitive.IntIntHashMap;
+import com.yahoo.document.predicate.Predicate;
+
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+/**
+ * A {@link PredicateIndex} which supports adding, replacing and removing single documents.
+ * <p>
+ * Documents are searched in a frozen base index, built by {@link PredicateIndexBuilder}, and in a delta
+ * index holding the documents changed since the base index was built. Documents which are changed or removed
+ * are excluded from the results of the base index by a bitset of their internal ids in that index.
+ * Changes are visible to searches when the change method returns.
+ * </p><p>
+ * The delta index is not mutable: {@link PredicateIndex} is a compact frozen structure built once from
+ * its documents, and its searcher relies on that, so a mutable variant would be a separate index implementation.
+ * Instead the delta index is rebuilt to make changes visible, at a cost proportional to the number of documents
+ * in it. The rebuild is done without holding the lock of this, and changes made by multiple threads while
+ * a rebuild is in progress are published together by the next rebuild. Hence, a single thread making changes
+ * one at a time pays for a delta rebuild per change, while concurrent changes share them. As the delta index
+ * is kept small relative to the base index, this is still much cheaper than rebuilding the base index.
+ * </p><p>
+ * When the delta index reaches the larger of a min size and a fraction of the total number of documents,
+ * a new base index containing all documents is built in the background, such that updates and searches
+ * are never blocked by a full rebuild. Changes made while the base index is built remain in the delta index,
+ * which may therefore grow past its max size during a base rebuild, and a new base rebuild is started at once
+ * if it has. To bound the cost of each delta rebuild, a change which makes the delta index reach twice its
+ * max size waits for the ongoing base rebuild, and then builds a new base index in the calling thread if the
+ * delta index is still that large. With this size ratio, the cost of base rebuilds amortized over the changes
+ * is constant, while the cost of a delta rebuild grows with the fraction times the document count.
+ * </p><p>
+ * Base rebuilds, whether started in the background or by {@link #merge}, are done one at a time.
+ * </p><p>
+ * This keeps the predicate of each document in memory, to be able to build new base indexes.
+ * Like {@link PredicateIndex}, this is thread-safe, but each thread <strong>must</strong> use its own
+ * {@link Searcher}.
+ * </p>
+ * @author bjorncs
+ */
+@Beta
+public class IncrementalPredicateIndex {
+
+    /** The default min number of changed documents held in the delta index before a new base index is built */
+    public static final int DEFAULT_MIN_DELTA_SIZE = 1000;
+
+    /** The default fraction of all documents which may be held in the delta index before a new base index is built */
+    public static final double DEFAULT_MAX_DELTA_FRACTION = 0.01;
+
+    private final Config config;
+    private final int minDeltaSize;
+    private final double maxDeltaFraction;
+    private final Executor mergeExecutor;
+
+    /** Held while building and publishing a base index, such that merges are done one at a time */
+    private final Object mergeLock = new Object();
+
+    /** Held while rebuilding and publishing the delta index, such that generations are published in order */
+    private final Object publishLock = new Object();
+
+    /** All documents in this index, in the order in which they were first added */
+    private final Map<Integer, Predicate> documents = new LinkedHashMap<>();
+
+    /** The documents changed since the base index was built. A null predicate means the document is removed. */
+    private final Map<Integer, Change> changes = new LinkedHashMap<>();
+
+    private long changeCount = 0;
+    private long publishedChangeCount = 0;
+    private boolean merging = false;
+    private IntIntHashMap baseInternalIds;
+    private volatile Generation generation;
+
+    /**
+     * Creates an empty index.
+     *
+     * @param config Configuration of the indexes built by this.
+     */
+    public IncrementalPredicateIndex(Config config) {
+        this(config, new LinkedHashMap<>(), DEFAULT_MIN_DELTA_SIZE, DEFAULT_MAX_DELTA_FRACTION, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates an index containing the given documents, which builds a new base index when the delta index
+     * reaches the given size or the default fraction of all documents, whichever is larger.
+     *
+     * @param config        Configuration of the indexes built by this.
+     * @param documents     The initial documents of the index, keyed by document id.
+     * @param minDeltaSize  The min number of changed documents which causes a new base index to be built.
+     * @param mergeExecutor The executor in which new base indexes are built.
+     */
+    public IncrementalPredicateIndex(Config config, Map<Integer, Predicate> documents,
+                                     int minDeltaSize, Executor mergeExecutor) {
+        this(config, documents, minDeltaSize, DEFAULT_MAX_DELTA_FRACTION, mergeExecutor);
+    }
+
+    /**
+     * Creates an index containing the given documents.
+     *
+     * @param config           Configuration of the indexes built by this.
+     * @param documents        The initial documents of the index, keyed by document id.
+     * @param minDeltaSize     The min number of changed documents which causes a new base index to be built.
+     * @param maxDeltaFraction The fraction of all documents which, if larger than the min delta size,
+     *                         is the number of changed documents which causes a new base index to be built.
+     * @param mergeExecutor    The executor in which new base indexes are built.
+     */
+    public IncrementalPredicateIndex(Config config, Map<Integer, Predicate> documents,
+                                     int minDeltaSize, double maxDeltaFraction, Executor mergeExecutor) {
+        if (minDeltaSize < 1) {
+            throw new IllegalArgumentException("Min delta size must be positive, was " + minDeltaSize);
+        }
+        if (maxDeltaFraction < 0) {
+            throw new IllegalArgumentException("Max delta fraction cannot be negative, was " + maxDeltaFraction);
+        }
+        this.config = config;
+        this.minDeltaSize = minDeltaSize;
+        this.maxDeltaFraction = maxDeltaFraction;
+        this.mergeExecutor = mergeExecutor;
+        this.documents.putAll(documents);
+        PredicateIndex base = buildIndex(this.documents);
+        this.baseInternalIds = base.createExternalToInternalIdMapping();
+        this.generation = new Generation(base, new BitSet(), null);
+    }
+
+    /**
+     * Adds a document to the index, or replaces the predicate of the document if it is already in the index.
+     *
+     * @param docId     A 32-bit document id, returned in the Hit objects when the predicate matches.
+     * @param predicate The predicate to index.
+     */
+    public void indexDocument(int docId, Predicate predicate) {
+        if (predicate == null) {
+            throw new NullPointerException("predicate");
+        }
+        update(docId, predicate);
+    }
+
+    /**
+     * Removes a document from the index. Does nothing if the document is not in the index.
+     *
+     * @param docId The id of the document to remove.
+     */
+    public void removeDocument(int docId) {
+        update(docId, null);
+    }
+
+    private void update(int docId, Predicate predicate) {
+        long sequenceNumber;
+        boolean startMerge = false;
+        boolean deltaOverfull;
+        synchronized (this) {
+            if (predicate != null) {
+                documents.put(docId, predicate);
+            } else if (documents.remove(docId) == null) {
+                return;
+            }
+            sequenceNumber = ++changeCount;
+            changes.put(docId, new Change(sequenceNumber, predicate));
+            if (isDeltaFull() && ! merging) {
+                merging = startMerge = true;
+            }
+            deltaOverfull = isDeltaOverfull();
+        }
+        if (deltaOverfull) {
+            mergeIfDeltaOverfull();
+        }
+        publishChanges(sequenceNumber);
+        if (startMerge) {
+            mergeExecutor.execute(this::mergeAndClearFlag);
+        }
+    }
+
+    /**
+     * Builds a new base index containing all documents in the calling thread, and empties the delta index.
+     * Changes made while the base index is built are kept in the delta index.
+     * If another merge is in progress, this waits for it to complete first.
+     */
+    public void merge() {
+        synchronized (mergeLock) {
+            Map<Integer, Predicate> snapshot;
+            long snapshotChangeCount;
+            synchronized (this) {
+                snapshot = new LinkedHashMap<>(documents);
+                snapshotChangeCount = changeCount;
+            }
+            PredicateIndex base = buildIndex(snapshot);
+            IntIntHashMap internalIds = base.createExternalToInternalIdMapping();
+            synchronized (publishLock) {
+                Delta delta;
+                synchronized (this) {
+                    for (Iterator<Change> it = changes.values().iterator(); it.hasNext(); ) {
+                        if (it.next().sequenceNumber <= snapshotChangeCount) {
+                            it.remove();
+                        }
+                    }
+                    baseInternalIds = internalIds;
+                    delta = new Delta(changes, changeCount, internalIds);
+                }
+                publish(base, delta);
+            }
+        }
+    }
+
+    /** Waits for any ongoing merge, and then merges in the calling thread if the delta index is still overfull */
+    private void mergeIfDeltaOverfull() {
+        synchronized (mergeLock) {
+            synchronized (this) {
+                if ( ! isDeltaOverfull()) {
+                    return;
+                }
+            }
+            merge();
+        }
+    }
+
+    private void mergeAndClearFlag() {
+        boolean merged = false;
+        boolean mergeAgain;
+        try {
+            merge();
+            merged = true;
+        } finally {
+            synchronized (this) {
+                merging = mergeAgain = merged && isDeltaFull();
+            }
+        }
+        if (mergeAgain) {
+            mergeExecutor.execute(this::mergeAndClearFlag);
+        }
+    }
+
+    /** Returns whether the delta index has reached the size where a new base index should be built */
+    private boolean isDeltaFull() {
+        return changes.size() >= maxDeltaSize();
+    }
+
+    /** Returns whether the delta index has grown so large that changes must wait for a new base index */
+    private boolean isDeltaOverfull() {
+        return changes.size() >= 2 * maxDeltaSize();
+    }
+
+    private double maxDeltaSize() {
+        return Math.max(minDeltaSize, maxDeltaFraction * documents.size());
+    }
+
+    /**
+     * Makes the changes up to and including the one with the given sequence number visible to searches,
+     * unless another thread already did so while this waited to publish.
+     */
+    private void publishChanges(long sequenceNumber) {
+        synchronized (publishLock) {
+            Delta delta;
+            synchronized (this) {
+                if (publishedChangeCount >= sequenceNumber) {
+                    return;
+                }
+                delta = new Delta(changes, changeCount, baseInternalIds);
+            }
+            publish(generation.base, delta);
+        }
+    }
+
+    /** Builds the delta index and the set of removed base documents, and publishes them. Requires the publish lock. */
+    private void publish(PredicateIndex base, Delta delta) {
+        BitSet removed = new BitSet();
+        PredicateIndexBuilder deltaBuilder = delta.changes.isEmpty() ? null : new PredicateIndexBuilder(config);
+        for (Map.Entry<Integer, Predicate> entry : delta.changes.entrySet()) {
+            int internalId = delta.baseInternalIds.getIfAbsent(entry.getKey(), -1);
+            if (internalId >= 0) {
+                removed.set(internalId);
+            }
+            if (entry.getValue() != null) {
+                deltaBuilder.indexDocument(entry.getKey(), entry.getValue());
+            }
+        }
+        Generation next = new Generation(base, removed, deltaBuilder != null ? deltaBuilder.build() : null);
+        synchronized (this) {
+            generation = next;
+            publishedChangeCount = delta.changeCount;
+        }
+    }
+
+    private PredicateIndex buildIndex(Map<Integer, Predicate> documents) {
+        PredicateIndexBuilder builder = new PredicateIndexBuilder(config);
+        documents.forEach(builder::indexDocument);
+        return builder.build();
+    }
+
+    /** Returns the number of documents changed since the base index was built */
+    public synchronized int getDeltaSize() {
+        return changes.size();
+    }
+
+    /** Returns the number of documents in this index */
+    public synchronized int getDocumentCount() {
+        return documents.size();
+    }
+
+    public void rebuildPostingListCache() {
+        generation.base.rebuildPostingListCache();
+    }
+
+    /**
+     * Create a new searcher.
+     */
+    public Searcher searcher() {
+        return new Searcher();
+    }
+
+    @Beta
+    public class Searcher {
+        private Generation searchedGeneration;
+        private PredicateIndex.Searcher baseSearcher;
+        private PredicateIndex.Searcher deltaSearcher;
+
+        private Searcher() {}
+
+        /**
+         * Retrieves a stream of hits for the given query, from the documents in the index when the search starts.
+         *
+         * @param query Specifies the boolean variables that are true.
+         * @return A stream of hits.
+         */
+        public Stream<Hit> search(PredicateQuery query) {
+            Generation current = generation;
+            if (searchedGeneration == null || current.base != searchedGeneration.base) {
+                baseSearcher = current.base.searcher();
+            }
+            if (searchedGeneration == null || current.delta != searchedGeneration.delta) {
+                deltaSearcher = current.delta != null ? current.delta.searcher() : null;
+            }
+            searchedGeneration = current;
+            Stream<Hit> hits = baseSearcher.search(query, current.removed);
+            return deltaSearcher != null ? Stream.concat(hits, deltaSearcher.search(query)) : hits;
+        }
+    }
+
+    /** An immutable snapshot of the indexes to search */
+    private static class Generation {
+        final PredicateIndex base;
+        final BitSet removed;
+        final PredicateIndex delta;
+
+        Generation(PredicateIndex base, BitSet removed, PredicateIndex delta) {
+            this.base = base;
+            this.removed = removed;
+            this.delta = delta;
+        }
+    }
+
+    /** A copy of the changes since the base index was built, taken to build a delta index without holding the lock */
+    private static class Delta {
+        final Map<Integer, Predicate> changes = new LinkedHashMap<>();
+        final long changeCount;
+        final IntIntHashMap baseInternalIds;
+
+        Delta(Map<Integer, Change> changes, long changeCount, IntIntHashMap baseInternalIds) {
+            changes.forEach((docId, change) -> this.changes.put(docId, change.predicate));
+            this.changeCount = changeCount;
+            this.baseInternalIds = baseInternalIds;
+        }
+    }
+
+    private static class Change {
+        final long sequenceNumber;
+        final Predicate predicate;
+
+        Change(long sequenceNumber, Predicate predicate) {
+            this.sequenceNumber = sequenceNumber;
+            this.predicate = predicate;
+        }
+    }
+}
@@ -2,18 +2,31 @@
 package com.yahoo.search.predicate;
 
 import com.google.common.annotations.Beta;
+import com.gs.collections.impl.map.mutable.primitive.IntIntHashMap;
 import com.yahoo.document.predicate.Predicate;
 import com.yahoo.search.predicate.index.*;
 import com.yahoo.search.predicate.index.conjunction.ConjunctionHit;
 import com.yahoo.search.predicate.index.conjunction.ConjunctionIndex;
+import com.yahoo.search.predicate.serialization.MappedInput;
 import com.yahoo.search.predicate.serialization.SerializationHelper;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -31,6 +44,12 @@ import java.util.stream.Stream;
  * </p><p>
  * Note that the {@link PredicateIndex} is thread-safe, but a {@link Searcher} is not.
  * Each thread <strong>must</strong> use its own searcher.
+ * Use {@link #search(List, ForkJoinPool)} to search a batch of queries in parallel.
+ * </p><p>
+ * An index written by {@link #writeToMappableOutputStream} can be memory mapped by {@link #fromMappedFile}.
+ * The posting lists of a mapped index are used in place from the file, and only copied to the heap
+ * when used by a search, so loading it is near instant regardless of the size of the index.
+ * The posting lists copied are kept in a cache of bounded size, evicting the least recently used.
  * </p>
  * @author <a href="mailto:magnarn@yahoo-inc.com">Magnar Nedland</a>
  * @author bjorncs
@@ -38,6 +57,16 @@ import java.util.stream.Stream;
 @Beta
 public class PredicateIndex {
     private static final int SERIALIZATION_FORMAT_VERSION = 3;
+    private static final int MAPPABLE_SERIALIZATION_FORMAT_VERSION = 4;
+
+    /** The default max number of bytes of posting lists copied from a mapped index to keep on the heap */
+    public static final long DEFAULT_MAPPED_CACHE_SIZE = 256L * 1024 * 1024;
+
+    // The posting list source of each posting list id, see postingListId
+    private static final int ZERO_CONSTRAINT_POSTING_LIST = 0;
+    private static final int INTERVAL_POSTING_LIST = 1;
+    private static final int BOUNDS_POSTING_LIST = 2;
+    private static final int CONJUNCTION_INTERVAL_POSTING_LIST = 3;
 
     private final PredicateRangeTermExpander expander;
     private final int[] internalToExternalIdMapping;
@@ -85,7 +114,34 @@ public class PredicateIndex {
     }
 
     public void rebuildPostingListCache() {
-        postingListCounter.getAndUpdate(CachedPostingListCounter::rebuildCache);
+        postingListCounter.getAndUpdate(counter -> counter.rebuildCache(this::postingListDocIds));
+    }
+
+    /** Returns an id of a posting list from the given source, which is unique within this index */
+    private static long postingListId(int source, int entryId) {
+        return ((long)source << 32) | entryId;
+    }
+
+    private int[] postingListDocIds(long postingListId) {
+        int entryId = (int)postingListId;
+        switch ((int)(postingListId >>> 32)) {
+            case ZERO_CONSTRAINT_POSTING_LIST: return zeroConstraintDocuments;
+            case INTERVAL_POSTING_LIST: return intervalIndex.getDocIds(entryId);
+            case BOUNDS_POSTING_LIST: return boundsIndex.getDocIds(entryId);
+            case CONJUNCTION_INTERVAL_POSTING_LIST: return conjunctionIntervalIndex.getDocIds(entryId);
+            default: throw new IllegalArgumentException("Unknown posting list id " + postingListId);
+        }
+    }
+
+    /**
+     * Returns the internal id of each document in this index, keyed by its external id.
+     */
+    IntIntHashMap createExternalToInternalIdMapping() {
+        IntIntHashMap mapping = new IntIntHashMap(internalToExternalIdMapping.length);
+        for (int internalId = 0; internalId < internalToExternalIdMapping.length; ++internalId) {
+            mapping.put(internalToExternalIdMapping[internalId], internalId);
+        }
+        return mapping;
     }
 
     /**
@@ -95,6 +151,38 @@ public class PredicateIndex {
         return new Searcher();
     }
 
+    /**
+     * Searches a batch of queries in parallel in the given pool.
+     *
+     * @param queries The queries to search.
+     * @param pool    The pool in which the queries are searched.
+     * @return The hits of each query, in the order of the queries.
+     */
+    public List<List<Hit>> search(List<PredicateQuery> queries, ForkJoinPool pool) {
+        List<List<Hit>> hits = new ArrayList<>(queries.size());
+        for (int i = 0; i < queries.size(); ++i) {
+            hits.add(null);
+        }
+        search(queries, pool, (queryHits, queryIndex) -> hits.set(queryIndex, queryHits));
+        return hits;
+    }
+
+    /**
+     * Searches a batch of queries in parallel in the given pool, and passes the hits of each query to the
+     * given consumer as soon as the query is searched. The consumer is called concurrently from the threads
+     * of the pool, in no particular order. Returns when all queries are searched.
+     *
+     * @param queries The queries to search.
+     * @param pool    The pool in which the queries are searched.
+     * @param hitsConsumer Receives the hits of each query together with the index of the query in the batch.
+     */
+    public void search(List<PredicateQuery> queries, ForkJoinPool pool, ObjIntConsumer<List<Hit>> hitsConsumer) {
+        if (queries.isEmpty()) return;
+        // Split into a few tasks per thread to balance load, as queries may differ a lot in cost
+        int minTaskSize = Math.max(1, queries.size() / (pool.getParallelism() * 8));
+        pool.invoke(new BatchSearchTask(queries, 0, queries.size(), minTaskSize, new ConcurrentLinkedQueue<>(), hitsConsumer));
+    }
+
     public void writeToOutputStream(DataOutputStream out) throws IOException {
         out.writeInt(SERIALIZATION_FORMAT_VERSION);
         config.writeToOutputStream(out);
@@ -142,11 +230,151 @@ public class PredicateIndex {
         );
     }
 
+    /**
+     * Writes this index in a format which can be memory mapped by {@link #fromMappedFile}.
+     */
+    public void writeToMappableOutputStream(DataOutputStream out) throws IOException {
+        out.writeInt(MAPPABLE_SERIALIZATION_FORMAT_VERSION);
+        config.writeToOutputStream(out);
+        SerializationHelper.writeIntArray(internalToExternalIdMapping, out);
+        SerializationHelper.writeByteArray(minFeatureIndex, out);
+        SerializationHelper.writeShortArray(intervalEnds, out);
+        out.writeInt(highestIntervalEnd);
+        SerializationHelper.writeIntArray(zeroConstraintDocuments, out);
+        intervalIndex.writeToMappableOutputStream(out);
+        boundsIndex.writeToMappableOutputStream(out);
+        conjunctionIntervalIndex.writeToMappableOutputStream(out);
+        intervalStore.writeToMappableOutputStream(out);
+        conjunctionIndex.writeToMappableOutputStream(out);
+    }
+
+    /**
+     * Memory maps an index written by {@link #writeToMappableOutputStream}, keeping at most
+     * {@link #DEFAULT_MAPPED_CACHE_SIZE} bytes of the posting lists used on the heap.
+     */
+    public static PredicateIndex fromMappedFile(Path file) throws IOException {
+        return fromMappedFile(file, DEFAULT_MAPPED_CACHE_SIZE);
+    }
+
+    /**
+     * Memory maps an index written by {@link #writeToMappableOutputStream}.
+     * The file is mapped in segments, so it may be larger than 2 GB.
+     *
+     * @param file the file to map
+     * @param cacheSize the max number of bytes of posting lists copied from the file to keep on the heap
+     */
+    public static PredicateIndex fromMappedFile(Path file, long cacheSize) throws IOException {
+        return fromMappedFile(file, MappedInput.DEFAULT_SEGMENT_SIZE, cacheSize);
+    }
+
+    static PredicateIndex fromMappedFile(Path file, int segmentSize, long cacheSize) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return fromMappedInput(new MappedInput(channel, segmentSize, cacheSize));
+        }
+    }
+
+    /**
+     * Creates an index which is used in place from a buffer containing an index written by
+     * {@link #writeToMappableOutputStream}, starting at the current position of the buffer.
+     */
+    public static PredicateIndex fromByteBuffer(ByteBuffer buffer) {
+        return fromMappedInput(new MappedInput(buffer, DEFAULT_MAPPED_CACHE_SIZE));
+    }
+
+    /**
+     * Creates an index which is used in place from an input containing an index written by
+     * {@link #writeToMappableOutputStream}, starting at the current position of the input.
+     */
+    public static PredicateIndex fromMappedInput(MappedInput in) {
+        int version = in.getInt();
+        if (version != MAPPABLE_SERIALIZATION_FORMAT_VERSION) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid serialization format version. Expected %d, was %d.",
+                    MAPPABLE_SERIALIZATION_FORMAT_VERSION, version));
+        }
+        Config config = Config.fromMappedInput(in);
+        int[] internalToExternalIdMapping = in.readIntArray();
+        byte[] minFeatureIndex = in.readByteArray();
+        short[] intervalEnds = in.readShortArray();
+        int highestIntervalEnd = in.getInt();
+        int[] zeroConstraintDocuments = in.readIntArray();
+        SimpleIndex intervalIndex = SimpleIndex.fromMappedInput(in);
+        SimpleIndex boundsIndex = SimpleIndex.fromMappedInput(in);
+        SimpleIndex conjunctionIntervalIndex = SimpleIndex.fromMappedInput(in);
+        PredicateIntervalStore intervalStore = PredicateIntervalStore.fromMappedInput(in);
+        ConjunctionIndex conjunctionIndex = ConjunctionIndex.fromMappedInput(in);
+        return new PredicateIndex(
+                config,
+                internalToExternalIdMapping,
+                minFeatureIndex,
+                intervalEnds,
+                highestIntervalEnd,
+                intervalIndex,
+                boundsIndex,
+                conjunctionIntervalIndex,
+                intervalStore,
+                conjunctionIndex,
+                zeroConstraintDocuments
+        );
+    }
+
+    /**
+     * Searches a range of the queries in a batch, splitting it into subtasks until it is small enough.
+     * Searchers are reused by the tasks of the batch through a shared queue,
+     * as each allocates state proportional to the number of documents.
+     */
+    private class BatchSearchTask extends RecursiveAction {
+        private final List<PredicateQuery> queries;
+        private final int from;
+        private final int to;
+        private final int minTaskSize;
+        private final Queue<Searcher> searchers;
+        private final ObjIntConsumer<List<Hit>> hitsConsumer;
+
+        BatchSearchTask(List<PredicateQuery> queries, int from, int to, int minTaskSize, Queue<Searcher> searchers,
+                        ObjIntConsumer<List<Hit>> hitsConsumer) {
+            this.queries = queries;
+            this.from = from;
+            this.to = to;
+            this.minTaskSize = minTaskSize;
+            this.searchers = searchers;
+            this.hitsConsumer = hitsConsumer;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > minTaskSize) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new BatchSearchTask(queries, from, middle, minTaskSize, searchers, hitsConsumer),
+                          new BatchSearchTask(queries, middle, to, minTaskSize, searchers, hitsConsumer));
+                return;
+            }
+            Searcher searcher = searchers.poll();
+            if (searcher == null) {
+                searcher = searcher();
+            }
+            // Register the posting list usage of all the queries at once to avoid contention on the counter
+            searcher.batchUsage = new ArrayList<>();
+            try {
+                for (int i = from; i < to; ++i) {
+                    hitsConsumer.accept(searcher.search(queries.get(i)).collect(Collectors.toList()), i);
+                }
+            } finally {
+                postingListCounter.get().registerUsage(searcher.batchUsage);
+                searcher.batchUsage = null;
+                searchers.offer(searcher);
+            }
+        }
+    }
+
     @Beta
     public class Searcher {
         private final byte[] nPostingListsForDocument;
         private final ConjunctionIndex.Searcher conjunctionIndexSearcher;
 
+        /** Collects the posting lists used by a batch of searches, or null to register the usage of each search */
+        private List<PostingList> batchUsage = null;
+
         private Searcher() {
             this.nPostingListsForDocument = new byte[internalToExternalIdMapping.length];
             this.conjunctionIndexSearcher = conjunctionIndex.searcher();
@@ -159,6 +387,17 @@ public class PredicateIndex {
          * @return A stream of hits.
          */
         public Stream<Hit> search(PredicateQuery query) {
+            return search(query, null);
+        }
+
+        /**
+         * Retrieves a stream of hits for the given query, excluding the given documents.
+         *
+         * @param query Specifies the boolean variables that are true.
+         * @param removedDocuments The internal ids of the documents to exclude, or null to return all hits.
+         * @return A stream of hits.
+         */
+        Stream<Hit> search(PredicateQuery query, BitSet removedDocuments) {
             ArrayList<PostingList> postingLists = new ArrayList<>();
             for (PredicateQuery.Feature feature : query.getFeatures()) {
                 addIntervalPostingList(feature.featureHash, feature.subqueryBitmap, postingLists);
@@ -175,10 +414,18 @@ public class PredicateIndex {
             addZeroConstraintPostingList(postingLists);
 
             CachedPostingListCounter counter = postingListCounter.get();
-            counter.registerUsage(postingLists);
+            if (batchUsage != null) {
+                batchUsage.addAll(postingLists);
+            } else {
+                counter.registerUsage(postingLists);
+            }
             counter.countPostingListsPerDocument(postingLists, nPostingListsForDocument);
-            return new PredicateSearch(
-                    postingLists, nPostingListsForDocument, minFeatureIndex, intervalEnds, highestIntervalEnd).stream()
+            Stream<Hit> hits = new PredicateSearch(
+                    postingLists, nPostingListsForDocument, minFeatureIndex, intervalEnds, highestIntervalEnd).stream();
+            if (removedDocuments != null && !removedDocuments.isEmpty()) {
+                hits = hits.filter(hit -> !removedDocuments.get(hit.getDocId()));
+            }
+            return hits
                     // Map to external id. Note that internal id for first document is 1.
                     .map(hit -> new Hit(internalToExternalIdMapping[hit.getDocId()], hit.getSubquery()));
         }
@@ -186,7 +433,8 @@ public class PredicateIndex {
         private void addCompressedZStarPostingList(List<PostingList> postingLists) {
             SimpleIndex.Entry e = intervalIndex.getPostingList(Feature.Z_STAR_COMPRESSED_ATTRIBUTE_HASH);
             if (e != null) {
-                postingLists.add(new ZstarCompressedPostingList(intervalStore, e.docIds, e.dataRefs));
+                postingLists.add(new ZstarCompressedPostingList(
+                        intervalStore, postingListId(INTERVAL_POSTING_LIST, e.id), e.docIds, e.dataRefs));
             }
         }
 
@@ -194,14 +442,16 @@ public class PredicateIndex {
                 long featureHash, int value, long subqueryBitMap, List<PostingList> postingLists) {
             SimpleIndex.Entry e = boundsIndex.getPostingList(featureHash);
             if (e != null) {
-                postingLists.add(new BoundsPostingList(intervalStore, e.docIds, e.dataRefs, subqueryBitMap, value));
+                postingLists.add(new BoundsPostingList(intervalStore, postingListId(BOUNDS_POSTING_LIST, e.id),
+                                                       e.docIds, e.dataRefs, subqueryBitMap, value));
             }
         }
 
         private void addIntervalPostingList(long featureHash, long subqueryBitMap, List<PostingList> postingLists) {
             SimpleIndex.Entry e = intervalIndex.getPostingList(featureHash);
             if (e != null) {
-                postingLists.add(new IntervalPostingList(intervalStore, e.docIds, e.dataRefs, subqueryBitMap));
+                postingLists.add(new IntervalPostingList(intervalStore, postingListId(INTERVAL_POSTING_LIST, e.id),
+                                                         e.docIds, e.dataRefs, subqueryBitMap));
             }
         }
 
@@ -210,14 +460,17 @@ public class PredicateIndex {
             for (ConjunctionHit hit : hits) {
                 SimpleIndex.Entry e = conjunctionIntervalIndex.getPostingList(hit.conjunctionId);
                 if (e != null) {
-                    postingLists.add(new IntervalPostingList(intervalStore, e.docIds, e.dataRefs, hit.subqueryBitmap));
+                    postingLists.add(new IntervalPostingList(
+                            intervalStore, postingListId(CONJUNCTION_INTERVAL_POSTING_LIST, e.id),
+                            e.docIds, e.dataRefs, hit.subqueryBitmap));
                 }
             }
         }
 
         private void addZeroConstraintPostingList(ArrayList<PostingList> postingLists) {
             if (zeroConstraintDocuments.length > 0) {
-                postingLists.add(new ZeroConstraintPostingList(zeroConstraintDocuments));
+                postingLists.add(new ZeroConstraintPostingList(
+                        postingListId(ZERO_CONSTRAINT_POSTING_LIST, 0), zeroConstraintDocuments));
             }
         }
 
@@ -5,6 +5,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.google.common.collect.Iterators;
 import com.yahoo.search.predicate.Config;
+import com.yahoo.search.predicate.Hit;
 import com.yahoo.search.predicate.PredicateIndex;
 import com.yahoo.search.predicate.PredicateIndexBuilder;
 import com.yahoo.search.predicate.PredicateQuery;
@@ -24,6 +25,7 @@ import java.io.DataOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
@@ -37,9 +39,11 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import static com.yahoo.search.predicate.benchmarks.PredicateIndexBenchmark.BenchmarkArguments.Algorithm;
 import static com.yahoo.search.predicate.benchmarks.PredicateIndexBenchmark.BenchmarkArguments.Format;
@@ -68,7 +72,7 @@ public class PredicateIndexBenchmark {
                 .build();
         PredicateIndex index = getIndex(args, config);
         if (args.indexOutputFile != null) {
-            writeIndexToFile(index, args.indexOutputFile);
+            writeIndexToFile(index, args.indexOutputFile, args.mappedIndex);
         }
         if (args.queryFile != null) {
             runQueries(args, index);
@@ -105,6 +109,11 @@ public class PredicateIndexBenchmark {
             PredicateIndex index = builder.build();
             output.put("Time prepare index", System.currentTimeMillis() - start);
             return index;
+        } else if (args.mappedIndex) {
+            long start = System.currentTimeMillis();
+            PredicateIndex index = PredicateIndex.fromMappedFile(Paths.get(args.indexFile));
+            output.put("Time map index", System.currentTimeMillis() - start);
+            return index;
         } else {
             try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(args.indexFile)))) {
                 long start = System.currentTimeMillis();
@@ -115,10 +124,14 @@ public class PredicateIndexBenchmark {
         }
     }
 
-    private static void writeIndexToFile(PredicateIndex index, String indexOutputFile) throws IOException {
+    private static void writeIndexToFile(PredicateIndex index, String indexOutputFile, boolean mappable) throws IOException {
         try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexOutputFile)))) {
             long start = System.currentTimeMillis();
-            index.writeToOutputStream(out);
+            if (mappable) {
+                index.writeToMappableOutputStream(out);
+            } else {
+                index.writeToOutputStream(out);
+            }
             output.put("Time write index", System.currentTimeMillis() - start);
         }
     }
@@ -134,7 +147,10 @@ public class PredicateIndexBenchmark {
         output.put("Feed file", args.feedFile);
         output.put("Query file", args.queryFile);
         output.put("Index file", args.indexFile);
+        output.put("Mapped index", args.mappedIndex);
         output.put("Query format", args.format);
+        output.put("Batch size", args.batchSize);
+        output.put("Batch max threads", args.batchMaxThreads);
         output.put("Warmup", args.warmup);
     }
 
@@ -146,6 +162,48 @@ public class PredicateIndexBenchmark {
         long warmup2 = warmup(queries, index, args.nThreads, args.warmup / 2);
         output.put("Time warmup after building posting cache", warmup2);
         searchIndex(queries, index, args.nThreads, args.runtime);
+        if (args.batchSize > 0) {
+            for (int nThreads : batchThreadCounts(args.batchMaxThreads)) {
+                searchIndexInBatches(queries, index, args.batchSize, nThreads, args.runtime);
+            }
+        }
+    }
+
+    /** Returns the powers of two up to the given max, followed by the max */
+    private static List<Integer> batchThreadCounts(int maxThreads) {
+        List<Integer> threadCounts = new ArrayList<>();
+        for (int nThreads = 1; nThreads < maxThreads; nThreads *= 2) {
+            threadCounts.add(nThreads);
+        }
+        threadCounts.add(maxThreads);
+        return threadCounts;
+    }
+
+    private static void searchIndexInBatches(
+            List<PredicateQuery> queries, PredicateIndex index, int batchSize, int nThreads, int runtime) {
+        List<PredicateQuery> shuffledQueries = new ArrayList<>(queries);
+        Collections.shuffle(shuffledQueries, new Random(42));
+        Iterator<PredicateQuery> iterator = Iterators.cycle(shuffledQueries);
+        ForkJoinPool pool = new ForkJoinPool(nThreads);
+        LongAdder hits = new LongAdder();
+        long batches = 0;
+        long start = System.currentTimeMillis();
+        long end = start + runtime * 1000L;
+        while (System.currentTimeMillis() < end) {
+            List<PredicateQuery> batch = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize; i++) {
+                batch.add(iterator.next());
+            }
+            index.search(batch, pool, (List<Hit> queryHits, int queryIndex) -> hits.add(queryHits.size()));
+            ++batches;
+        }
+        long searchTime = System.currentTimeMillis() - start;
+        pool.shutdown();
+        String prefix = String.format("Batch search with %d threads: ", nThreads);
+        output.put(prefix + "queries per second", batches * batchSize * 1000d / searchTime);
+        output.put(prefix + "batches per second", batches * 1000d / searchTime);
+        output.put(prefix + "average batch latency", (double) searchTime / batches);
+        output.put(prefix + "total hits", hits.sum());
     }
 
     private static void rebuildPostingListCache(PredicateIndex index) {
@@ -288,6 +346,17 @@ public class PredicateIndexBenchmark {
         @Option(name = {"-wi", "--write-index"}, description = "Serialize index to the given file")
         public String indexOutputFile;
 
+        @Option(name = {"-mi", "--mapped-index"},
+                description = "Write and read the index file in the format which is memory mapped and used in place")
+        public boolean mappedIndex = false;
+
+        @Option(name = {"-bs", "--batch-size"},
+                description = "Also search the queries in batches of the given size, for increasing thread counts")
+        public int batchSize = 0;
+
+        @Option(name = {"-bt", "--batch-max-threads"}, description = "The max number of threads searching a batch")
+        public int batchMaxThreads = Runtime.getRuntime().availableProcessors();
+
         @Option(name = {"-quf", "--query-file"}, description = "File path to a query file")
         public String queryFile;
 
@@ -17,8 +17,9 @@ public class BoundsPostingList extends MultiIntervalPostingList {
     /**
      * @param valueDiff Difference from the collapsed leaf node's actual value.
      */
-    public BoundsPostingList(PredicateIntervalStore store, int[] docIds, int[] dataRefs, long subquery, int valueDiff) {
-        super(docIds, dataRefs, subquery);
+    public BoundsPostingList(PredicateIntervalStore store, long id, int[] docIds, int[] dataRefs, long subquery,
+                             int valueDiff) {
+        super(id, docIds, dataRefs, subquery);
         this.valueDiff = valueDiff;
         this.store = store;
     }
@@ -2,17 +2,20 @@
 package com.yahoo.search.predicate.index;
 
 import com.google.common.collect.MinMaxPriorityQueue;
-import com.gs.collections.api.tuple.primitive.ObjectLongPair;
-import com.gs.collections.impl.map.mutable.primitive.ObjectIntHashMap;
-import com.gs.collections.impl.map.mutable.primitive.ObjectLongHashMap;
+import com.gs.collections.api.tuple.primitive.LongLongPair;
+import com.gs.collections.impl.map.mutable.primitive.LongIntHashMap;
+import com.gs.collections.impl.map.mutable.primitive.LongLongHashMap;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.LongFunction;
 
 /**
  * Counts the number of posting lists per document id.
  * Caches the most expensive posting list in a bit vector.
+ * Posting lists are identified by their {@link PostingList#getId() id}, as the document id arrays of a
+ * memory mapped index are copied each time they are loaded.
  *
  * @author bjorncs
  */
@@ -21,17 +24,18 @@ public class CachedPostingListCounter {
     private static final double THRESHOLD_USE_BIT_VECTOR = 1;
 
     private final int nDocuments;
-    private final ObjectLongHashMap<int[]> frequency = new ObjectLongHashMap<>();
-    private final ObjectIntHashMap<int[]> postingListMapping;
+    // The size of each posting list summed over each time it has been used, by posting list id
+    private final LongLongHashMap cost = new LongLongHashMap();
+    private final LongIntHashMap postingListMapping;
     private final int[] bitVector;
 
     public CachedPostingListCounter(int nDocuments) {
         this.nDocuments = nDocuments;
-        this.postingListMapping = new ObjectIntHashMap<>();
+        this.postingListMapping = new LongIntHashMap();
         this.bitVector = new int[0];
     }
 
-    private CachedPostingListCounter(ObjectIntHashMap<int[]> postingListMapping, int[] bitVector) {
+    private CachedPostingListCounter(LongIntHashMap postingListMapping, int[] bitVector) {
         this.nDocuments = bitVector.length;
         this.postingListMapping = postingListMapping;
         this.bitVector = bitVector;
@@ -39,7 +43,8 @@ public class CachedPostingListCounter {
 
     public synchronized void registerUsage(List<PostingList> postingLists) {
         for (PostingList postingList : postingLists) {
-            frequency.updateValue(postingList.getDocIds(), 0, v -> v + 1);
+            int length = postingList.getDocIds().length;
+            cost.updateValue(postingList.getId(), 0, v -> v + length);
         }
     }
 
@@ -51,7 +56,7 @@ public class CachedPostingListCounter {
         int postingListBitmap = 0;
         for (PostingList postingList : postingLists) {
             int[] docIds = postingList.getDocIds();
-            int index = postingListMapping.getIfAbsent(docIds, -1);
+            int index = postingListMapping.getIfAbsent(postingList.getId(), -1);
             if (index >= 0) {
                 cachedPostingLists.add(docIds);
                 postingListBitmap |= (1 << index);
@@ -86,21 +91,26 @@ public class CachedPostingListCounter {
         }
     }
 
-    public CachedPostingListCounter rebuildCache() {
+    /**
+     * Returns a counter caching the most expensive posting lists used with this.
+     *
+     * @param docIdsById returns the document ids of a posting list given its id
+     */
+    public CachedPostingListCounter rebuildCache(LongFunction<int[]> docIdsById) {
         MinMaxPriorityQueue<Entry> mostExpensive = MinMaxPriorityQueue
                 .maximumSize(32).expectedSize(32).create();
         synchronized (this) {
-            for (ObjectLongPair<int[]> p : frequency.keyValuesView()) {
+            for (LongLongPair p : cost.keyValuesView()) {
                 mostExpensive.add(new Entry(p.getOne(), p.getTwo()));
             }
         }
-        ObjectIntHashMap<int[]> postingListMapping = new ObjectIntHashMap<>();
+        LongIntHashMap postingListMapping = new LongIntHashMap();
         int[] bitVector = new int[nDocuments];
         int length = mostExpensive.size();
         for (int i = 0; i < length; i++) {
             Entry e = mostExpensive.removeFirst();
-            int[] docIds = e.docIds;
-            postingListMapping.put(docIds, i);
+            int[] docIds = docIdsById.apply(e.id);
+            postingListMapping.put(e.id, i);
             for (int docId : docIds) {
                 bitVector[docId] |= (1 << i);
             }
@@ -112,17 +122,17 @@ public class CachedPostingListCounter {
         return bitVector;
     }
 
-    ObjectIntHashMap<int[]> getPostingListMapping() {
+    LongIntHashMap getPostingListMapping() {
         return postingListMapping;
     }
 
     private static class Entry implements Comparable<Entry> {
-        public final int[] docIds;
+        public final long id;
         public final double cost;
 
-        private Entry(int[] docIds, long frequency) {
-            this.docIds = docIds;
-            this.cost = docIds.length * (double) frequency;
+        private Entry(long id, long cost) {
+            this.id = id;
+            this.cost = cost;
             assert cost > 0;
         }
 
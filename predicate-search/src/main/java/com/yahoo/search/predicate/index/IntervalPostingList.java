@@ -13,8 +13,8 @@ public class IntervalPostingList extends MultiIntervalPostingList {
     private int currentIntervalIndex;
     private int currentInterval;
 
-    public IntervalPostingList(PredicateIntervalStore store, int[] docIds, int[] dataRefs, long subquery) {
-        super(docIds, dataRefs, subquery);
+    public IntervalPostingList(PredicateIntervalStore store, long id, int[] docIds, int[] dataRefs, long subquery) {
+        super(id, docIds, dataRefs, subquery);
         this.store = store;
     }
 
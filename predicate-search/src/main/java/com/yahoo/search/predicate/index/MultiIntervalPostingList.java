@@ -9,6 +9,7 @@ import com.yahoo.search.predicate.utils.PostingListSearch;
  * @author bjorncs
  */
 public abstract class MultiIntervalPostingList implements PostingList {
+    private final long id;
     private final int[] docIds;
     private final int[] dataRefs;
     private final long subquery;
@@ -16,7 +17,8 @@ public abstract class MultiIntervalPostingList implements PostingList {
     private int currentIndex;
     private int currentDocId;
 
-    public MultiIntervalPostingList(int[] docIds, int[] dataRefs, long subquery) {
+    public MultiIntervalPostingList(long id, int[] docIds, int[] dataRefs, long subquery) {
+        this.id = id;
         this.docIds = docIds;
         this.dataRefs = dataRefs;
         this.subquery = subquery;
@@ -60,6 +62,11 @@ public abstract class MultiIntervalPostingList implements PostingList {
         return docIds;
     }
 
+    @Override
+    public final long getId() {
+        return id;
+    }
+
     @Override
     public final long getSubquery() {
         return subquery;
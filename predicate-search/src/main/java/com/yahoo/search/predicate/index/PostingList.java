@@ -50,4 +50,10 @@ public interface PostingList {
      * @return The document ids
      */
     int[] getDocIds();
+
+    /**
+     * @return An id of the document ids of this posting list, which is unique within its index and the same
+     *         each time the posting list is created, even if the document id array is not.
+     */
+    long getId();
 }
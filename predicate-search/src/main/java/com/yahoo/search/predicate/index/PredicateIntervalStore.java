@@ -2,6 +2,8 @@
 package com.yahoo.search.predicate.index;
 
 import com.google.common.primitives.Ints;
+import com.yahoo.search.predicate.serialization.MappedInput;
+import com.yahoo.search.predicate.serialization.MappedIntArrays;
 import com.yahoo.search.predicate.serialization.SerializationHelper;
 
 import java.io.DataInputStream;
@@ -19,23 +21,56 @@ import java.util.Map;
 public class PredicateIntervalStore {
 
     private final int[][] intervalsList;
+    private final MappedIntArrays mappedIntervalsList; // used in place from a buffer when there is no intervalsList
 
     public PredicateIntervalStore(int[][] intervalsList) {
         this.intervalsList = intervalsList;
+        this.mappedIntervalsList = null;
+    }
+
+    private PredicateIntervalStore(MappedIntArrays mappedIntervalsList) {
+        this.intervalsList = null;
+        this.mappedIntervalsList = mappedIntervalsList;
     }
 
     public int[] get(int intervalRef) {
+        if (intervalsList == null) {
+            return mappedIntervalsList.get(intervalRef);
+        }
         assert intervalRef < intervalsList.length;
         return intervalsList[intervalRef];
     }
 
+    private int size() {
+        return intervalsList != null ? intervalsList.length : mappedIntervalsList.size();
+    }
+
     public void writeToOutputStream(DataOutputStream out) throws IOException {
-        out.writeInt(intervalsList.length);
-        for (int[] intervals : intervalsList) {
-            SerializationHelper.writeIntArray(intervals, out);
+        out.writeInt(size());
+        for (int i = 0; i < size(); i++) {
+            SerializationHelper.writeIntArray(get(i), out);
         }
     }
 
+    /**
+     * Writes this store in a format which can be used in place by {@link #fromMappedInput}.
+     */
+    public void writeToMappableOutputStream(DataOutputStream out) throws IOException {
+        List<int[]> intervals = new ArrayList<>(size());
+        for (int i = 0; i < size(); i++) {
+            intervals.add(get(i));
+        }
+        MappedIntArrays.writeToOutputStream(intervals, out);
+    }
+
+    /**
+     * Creates a store which is used in place from the given input, starting at its current position,
+     * and advances the input past the store.
+     */
+    public static PredicateIntervalStore fromMappedInput(MappedInput in) {
+        return new PredicateIntervalStore(MappedIntArrays.fromMappedInput(in));
+    }
+
     public static PredicateIntervalStore fromInputStream(DataInputStream in) throws IOException {
         int length = in.readInt();
         int[][] intervalsList = new int[length][];
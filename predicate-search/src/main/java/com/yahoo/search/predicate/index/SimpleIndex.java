@@ -4,12 +4,16 @@ package com.yahoo.search.predicate.index;
 import com.gs.collections.api.map.primitive.LongObjectMap;
 import com.gs.collections.api.tuple.primitive.LongObjectPair;
 import com.gs.collections.impl.map.mutable.primitive.LongObjectHashMap;
+import com.yahoo.search.predicate.serialization.MappedInput;
+import com.yahoo.search.predicate.serialization.MappedIntArrays;
 import com.yahoo.search.predicate.serialization.SerializationHelper;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.LongBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -23,9 +27,30 @@ import java.util.Map;
 public class SimpleIndex {
 
     private final LongObjectMap<Entry> dictionary;
+    private final Entry[] entries; // the entries of the dictionary by id
+
+    // The sorted keys and the posting lists of an index used in place from a buffer, when there is no dictionary
+    private final LongBuffer mappedKeys;
+    private final MappedIntArrays mappedDocIds;
+    private final MappedIntArrays mappedDataRefs;
 
     public SimpleIndex(LongObjectMap<Entry> dictionary) {
         this.dictionary = dictionary;
+        this.entries = new Entry[dictionary.size()];
+        for (LongObjectPair<Entry> pair : dictionary.keyValuesView()) {
+            entries[pair.getTwo().id] = pair.getTwo();
+        }
+        this.mappedKeys = null;
+        this.mappedDocIds = null;
+        this.mappedDataRefs = null;
+    }
+
+    private SimpleIndex(LongBuffer mappedKeys, MappedIntArrays mappedDocIds, MappedIntArrays mappedDataRefs) {
+        this.dictionary = null;
+        this.entries = null;
+        this.mappedKeys = mappedKeys;
+        this.mappedDocIds = mappedDocIds;
+        this.mappedDataRefs = mappedDataRefs;
     }
 
     /**
@@ -34,10 +59,30 @@ public class SimpleIndex {
      * @return List of postings
      */
     public Entry getPostingList(long key) {
-        return dictionary.get(key);
+        if (dictionary != null) {
+            return dictionary.get(key);
+        }
+        int index = SerializationHelper.binarySearch(mappedKeys, key);
+        return index < 0 ? null : new Entry(index, mappedDocIds.get(index), mappedDataRefs.get(index));
+    }
+
+    /**
+     * Returns the document ids of the posting list having the given {@link Entry#id}.
+     */
+    public int[] getDocIds(int id) {
+        return dictionary != null ? entries[id].docIds : mappedDocIds.get(id);
     }
 
     public void writeToOutputStream(DataOutputStream out) throws IOException {
+        if (dictionary == null) {
+            out.writeInt(mappedKeys.limit());
+            for (int i = 0; i < mappedKeys.limit(); i++) {
+                out.writeLong(mappedKeys.get(i));
+                SerializationHelper.writeIntArray(mappedDocIds.get(i), out);
+                SerializationHelper.writeIntArray(mappedDataRefs.get(i), out);
+            }
+            return;
+        }
         out.writeInt(dictionary.size());
         for (LongObjectPair<Entry> pair : dictionary.keyValuesView()) {
             out.writeLong(pair.getOne());
@@ -54,17 +99,56 @@ public class SimpleIndex {
             long key = in.readLong();
             int[] docIds = SerializationHelper.readIntArray(in);
             int[] dataRefs = SerializationHelper.readIntArray(in);
-            dictionary.put(key, new Entry(docIds, dataRefs));
+            dictionary.put(key, new Entry(i, docIds, dataRefs));
         }
         dictionary.compact();
         return new SimpleIndex(dictionary);
     }
 
+    /**
+     * Writes this index in a format which can be used in place by {@link #fromMappedInput}.
+     */
+    public void writeToMappableOutputStream(DataOutputStream out) throws IOException {
+        long[] keys = dictionary != null ? dictionary.keysView().toArray() : new long[mappedKeys.limit()];
+        if (dictionary == null) {
+            mappedKeys.duplicate().get(keys);
+        }
+        Arrays.sort(keys);
+        List<int[]> docIds = new ArrayList<>(keys.length);
+        List<int[]> dataRefs = new ArrayList<>(keys.length);
+        for (long key : keys) {
+            Entry entry = getPostingList(key);
+            docIds.add(entry.docIds);
+            dataRefs.add(entry.dataRefs);
+        }
+        out.writeInt(keys.length);
+        for (long key : keys) {
+            out.writeLong(key);
+        }
+        MappedIntArrays.writeToOutputStream(docIds, out);
+        MappedIntArrays.writeToOutputStream(dataRefs, out);
+    }
+
+    /**
+     * Creates an index which is used in place from the given input, starting at its current position,
+     * and advances the input past the index.
+     */
+    public static SimpleIndex fromMappedInput(MappedInput in) {
+        int nEntries = in.getInt();
+        LongBuffer keys = in.sliceLongArray(nEntries);
+        MappedIntArrays docIds = MappedIntArrays.fromMappedInput(in);
+        MappedIntArrays dataRefs = MappedIntArrays.fromMappedInput(in);
+        return new SimpleIndex(keys, docIds, dataRefs);
+    }
+
     public static class Entry {
+        /** The id of this posting list, which is unique within its index and the same each time it is looked up */
+        public final int id;
         public final int[] docIds;
         public final int[] dataRefs;
 
-        private Entry(int[] docIds, int[] dataRefs) {
+        private Entry(int id, int[] docIds, int[] dataRefs) {
+            this.id = id;
             this.docIds = docIds;
             this.dataRefs = dataRefs;
         }
@@ -97,7 +181,7 @@ public class SimpleIndex {
                     docIds[i] = posting.getId();
                     dataRefs[i] = posting.getDataRef();
                 }
-                dictionary.put(entry.getKey(), new Entry(docIds, dataRefs));
+                dictionary.put(entry.getKey(), new Entry(dictionary.size(), docIds, dataRefs));
             }
             dictionary.compact();
             return new SimpleIndex(dictionary);
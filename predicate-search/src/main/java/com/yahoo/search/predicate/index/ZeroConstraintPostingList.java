@@ -10,12 +10,14 @@ import com.yahoo.search.predicate.SubqueryBitmap;
  * @author bjorncs
  */
 public class ZeroConstraintPostingList implements PostingList {
+    private final long id;
     private final int[] docIds;
     private final int length;
     private int currentIndex;
     private int currentDocId;
 
-    public ZeroConstraintPostingList(int[] docIds) {
+    public ZeroConstraintPostingList(long id, int[] docIds) {
+        this.id = id;
         this.docIds = docIds;
         this.currentIndex = 0;
         this.currentDocId = -1;
@@ -70,4 +72,9 @@ public class ZeroConstraintPostingList implements PostingList {
         return docIds;
     }
 
+    @Override
+    public long getId() {
+        return id;
+    }
+
 }
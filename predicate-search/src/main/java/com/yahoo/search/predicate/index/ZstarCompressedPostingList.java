@@ -22,8 +22,8 @@ public class ZstarCompressedPostingList extends MultiIntervalPostingList {
     /**
      * @param docIds Posting list as a stream.
      */
-    public ZstarCompressedPostingList(PredicateIntervalStore store, int[] docIds, int[] dataRefs) {
-        super(docIds, dataRefs, SubqueryBitmap.ALL_SUBQUERIES);
+    public ZstarCompressedPostingList(PredicateIntervalStore store, long id, int[] docIds, int[] dataRefs) {
+        super(id, docIds, dataRefs, SubqueryBitmap.ALL_SUBQUERIES);
         this.store = store;
     }
 
@@ -10,12 +10,15 @@ import com.gs.collections.impl.map.mutable.primitive.LongObjectHashMap;
 import com.yahoo.document.predicate.FeatureConjunction;
 import com.yahoo.search.predicate.PredicateQuery;
 import com.yahoo.search.predicate.SubqueryBitmap;
+import com.yahoo.search.predicate.serialization.MappedInput;
+import com.yahoo.search.predicate.serialization.MappedIntArrays;
 import com.yahoo.search.predicate.serialization.SerializationHelper;
 import com.yahoo.search.predicate.utils.PrimitiveArraySorter;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.LongBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -67,19 +70,83 @@ public class ConjunctionIndex {
         return new ConjunctionIndex(kIndex, zList, idMapping);
     }
 
+    /**
+     * Writes this index in a format where the feature indexes can be used in place by {@link #fromMappedInput}.
+     */
+    public void writeToMappableOutputStream(DataOutputStream out) throws IOException {
+        SerializationHelper.writeIntArray(zList, out);
+        SerializationHelper.writeLongArray(idMapping, out);
+        out.writeInt(kIndex.size());
+        for (IntObjectPair<FeatureIndex> p : kIndex.keyValuesView()) {
+            out.writeInt(p.getOne());
+            p.getTwo().writeToMappableOutputStream(out);
+        }
+    }
+
+    /**
+     * Creates an index where the feature indexes are used in place from the given input, starting at its current
+     * position, and advances the input past the index.
+     */
+    public static ConjunctionIndex fromMappedInput(MappedInput in) {
+        int[] zList = in.readIntArray();
+        long[] idMapping = in.readLongArray();
+        int kIndexSize = in.getInt();
+        IntObjectHashMap<FeatureIndex> kIndex = new IntObjectHashMap<>(kIndexSize);
+        for (int i = 0; i < kIndexSize; i++) {
+            int key = in.getInt();
+            kIndex.put(key, FeatureIndex.fromMappedInput(in));
+        }
+        kIndex.compact();
+        return new ConjunctionIndex(kIndex, zList, idMapping);
+    }
+
     public static class FeatureIndex {
         // Maps a feature id to conjunction id
         private final LongObjectMap<int[]> map;
 
+        // The sorted feature ids and the conjunction ids of an index used in place from a buffer, when there is no map
+        private final LongBuffer mappedFeatureIds;
+        private final MappedIntArrays mappedConjunctionIds;
+
         public FeatureIndex(LongObjectMap<int[]> map) {
             this.map = map;
+            this.mappedFeatureIds = null;
+            this.mappedConjunctionIds = null;
+        }
+
+        private FeatureIndex(LongBuffer mappedFeatureIds, MappedIntArrays mappedConjunctionIds) {
+            this.map = null;
+            this.mappedFeatureIds = mappedFeatureIds;
+            this.mappedConjunctionIds = mappedConjunctionIds;
         }
 
         public Optional<int[]> getConjunctionIdsForFeature(long featureId) {
-            return Optional.ofNullable(map.get(featureId));
+            if (map != null) {
+                return Optional.ofNullable(map.get(featureId));
+            }
+            int index = SerializationHelper.binarySearch(mappedFeatureIds, featureId);
+            return index < 0 ? Optional.empty() : Optional.of(mappedConjunctionIds.get(index));
+        }
+
+        private long[] featureIds() {
+            if (map != null) {
+                return map.keysView().toArray();
+            }
+            long[] featureIds = new long[mappedFeatureIds.limit()];
+            mappedFeatureIds.duplicate().get(featureIds);
+            return featureIds;
         }
 
         public void writeToOutputStream(DataOutputStream out) throws IOException {
+            if (map == null) {
+                long[] featureIds = featureIds();
+                out.writeInt(featureIds.length);
+                for (int i = 0; i < featureIds.length; i++) {
+                    out.writeLong(featureIds[i]);
+                    SerializationHelper.writeIntArray(mappedConjunctionIds.get(i), out);
+                }
+                return;
+            }
             out.writeInt(map.size());
             for (LongObjectPair<int[]> p : map.keyValuesView()) {
                 out.writeLong(p.getOne());
@@ -87,6 +154,26 @@ public class ConjunctionIndex {
             }
         }
 
+        public void writeToMappableOutputStream(DataOutputStream out) throws IOException {
+            long[] featureIds = featureIds();
+            Arrays.sort(featureIds);
+            List<int[]> conjunctionIds = new ArrayList<>(featureIds.length);
+            for (long featureId : featureIds) {
+                conjunctionIds.add(getConjunctionIdsForFeature(featureId).get());
+            }
+            out.writeInt(featureIds.length);
+            for (long featureId : featureIds) {
+                out.writeLong(featureId);
+            }
+            MappedIntArrays.writeToOutputStream(conjunctionIds, out);
+        }
+
+        public static FeatureIndex fromMappedInput(MappedInput in) {
+            int mapSize = in.getInt();
+            LongBuffer featureIds = in.sliceLongArray(mapSize);
+            return new FeatureIndex(featureIds, MappedIntArrays.fromMappedInput(in));
+        }
+
         public static FeatureIndex fromInputStream(DataInputStream in) throws IOException {
             int mapSize = in.readInt();
             LongObjectHashMap<int[]> map = new LongObjectHashMap<>(mapSize);
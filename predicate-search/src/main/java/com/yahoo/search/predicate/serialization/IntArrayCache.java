@@ -0,0 +1,61 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.search.predicate.serialization;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A cache of the int arrays copied to the heap from mapped buffers, which evicts the least recently used arrays
+ * when their total size exceeds a limit. Each array is identified by a key reserved by its owner.
+ *
+ * @author bratseth
+ */
+class IntArrayCache {
+
+    private final long maxSize; // in ints
+    private final LinkedHashMap<Long, int[]> arrays = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+    private long nextKey = 0;
+
+    /** Creates a cache holding at most the given number of bytes of array elements */
+    IntArrayCache(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("The cache size cannot be negative, was " + maxBytes);
+        }
+        this.maxSize = maxBytes / 4;
+    }
+
+    /** Reserves the given number of consecutive keys, and returns the first of them */
+    synchronized long reserveKeys(int count) {
+        long first = nextKey;
+        nextKey += count;
+        return first;
+    }
+
+    /** Returns the array cached for the given key, or null if none */
+    synchronized int[] get(long key) {
+        return arrays.get(key);
+    }
+
+    /**
+     * Caches the given array unless an array is already cached for the key,
+     * and returns the array which is cached, or the given array if it is too large to be cached.
+     */
+    synchronized int[] put(long key, int[] array) {
+        int[] cached = arrays.get(key);
+        if (cached != null) return cached;
+        if (array.length > maxSize) return array;
+
+        arrays.put(key, array);
+        size += array.length;
+        for (Iterator<int[]> eldest = arrays.values().iterator(); size > maxSize; ) {
+            size -= eldest.next().length;
+            eldest.remove();
+        }
+        return array;
+    }
+
+    /** Returns the number of ints currently cached */
+    synchronized long size() { return size; }
+
+}
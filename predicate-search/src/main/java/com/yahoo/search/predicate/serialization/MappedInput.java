@@ -0,0 +1,163 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.search.predicate.serialization;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sequential reading of data written in the mappable format of a predicate index, either from a single buffer
+ * or from a file. As a buffer can hold at most 2 GB, a file is memory mapped in segments: Small values are read
+ * from the current segment, which is remapped at the read position when it is exhausted, while arrays larger than
+ * a segment are mapped by themselves.
+ *
+ * <p>The int arrays copied to the heap from the {@link MappedIntArrays} read from this are kept in a cache
+ * of bounded size shared by all of them.</p>
+ *
+ * @author bratseth
+ */
+public class MappedInput {
+
+    /** The default number of bytes to map in each segment of a file */
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final FileChannel channel; // null when reading from a single buffer
+    private final long fileSize;
+    private final int segmentSize;
+    private final IntArrayCache cache;
+
+    private ByteBuffer segment;
+    private long segmentStart; // the position in the file of the start of the current segment
+
+    /**
+     * Creates an input reading from the current position of the given buffer, and advancing it.
+     *
+     * @param buffer the buffer to read from
+     * @param cacheSize the max number of bytes of arrays read from the buffer to keep on the heap
+     */
+    public MappedInput(ByteBuffer buffer, long cacheSize) {
+        this.channel = null;
+        this.fileSize = -1;
+        this.segmentSize = Integer.MAX_VALUE;
+        this.cache = new IntArrayCache(cacheSize);
+        this.segment = buffer;
+        this.segmentStart = 0;
+    }
+
+    /**
+     * Creates an input reading the given file from its start. The file may be closed once everything is read,
+     * as the segments mapped remain valid until they are garbage collected.
+     *
+     * @param channel the file to read
+     * @param segmentSize the number of bytes to map in each segment, which must be at least 8
+     * @param cacheSize the max number of bytes of arrays read from the file to keep on the heap
+     */
+    public MappedInput(FileChannel channel, int segmentSize, long cacheSize) throws IOException {
+        if (segmentSize < 8) {
+            throw new IllegalArgumentException("The segment size must be at least 8 bytes, was " + segmentSize);
+        }
+        this.channel = channel;
+        this.fileSize = channel.size();
+        this.segmentSize = segmentSize;
+        this.cache = new IntArrayCache(cacheSize);
+        this.segment = EMPTY;
+        this.segmentStart = 0;
+    }
+
+    /** Returns the max number of bytes in each buffer returned by this */
+    public int segmentSize() { return segmentSize; }
+
+    IntArrayCache cache() { return cache; }
+
+    public byte get() {
+        return require(1).get();
+    }
+
+    public int getInt() {
+        return require(4).getInt();
+    }
+
+    public long getLong() {
+        return require(8).getLong();
+    }
+
+    public int[] readIntArray() {
+        int[] array = new int[getInt()];
+        sliceIntArray(array.length).get(array);
+        return array;
+    }
+
+    public byte[] readByteArray() {
+        byte[] array = new byte[getInt()];
+        slice(array.length).get(array);
+        return array;
+    }
+
+    public long[] readLongArray() {
+        long[] array = new long[getInt()];
+        sliceLongArray(array.length).get(array);
+        return array;
+    }
+
+    public short[] readShortArray() {
+        short[] array = new short[getInt()];
+        slice(array.length * 2L).asShortBuffer().get(array);
+        return array;
+    }
+
+    /** Returns a view of the given number of ints at the current position, and advances past them. */
+    public IntBuffer sliceIntArray(int length) {
+        return slice(length * 4L).asIntBuffer();
+    }
+
+    /** Returns a view of the given number of longs at the current position, and advances past them. */
+    public LongBuffer sliceLongArray(int length) {
+        return slice(length * 8L).asLongBuffer();
+    }
+
+    private ByteBuffer slice(long byteLength) {
+        if (byteLength > segmentSize) {
+            if (channel == null || byteLength > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Cannot map " + byteLength + " bytes in one buffer");
+            }
+            long position = position();
+            ByteBuffer slice = map(position, byteLength);
+            segment = EMPTY;
+            segmentStart = position + byteLength;
+            return slice;
+        }
+        ByteBuffer source = require((int)byteLength);
+        ByteBuffer slice = source.slice();
+        slice.limit((int)byteLength);
+        source.position(source.position() + (int)byteLength);
+        return slice;
+    }
+
+    /** Returns the current segment, after mapping a new one if the current one has less than the given bytes left */
+    private ByteBuffer require(int byteLength) {
+        if (segment.remaining() < byteLength && channel != null) {
+            long position = position();
+            segment = map(position, Math.min(segmentSize, fileSize - position));
+            segmentStart = position;
+        }
+        return segment;
+    }
+
+    private long position() {
+        return segmentStart + segment.position();
+    }
+
+    private ByteBuffer map(long position, long byteLength) {
+        try {
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, byteLength);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
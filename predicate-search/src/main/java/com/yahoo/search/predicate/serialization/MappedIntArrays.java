@@ -0,0 +1,89 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.search.predicate.serialization;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.List;
+
+/**
+ * A list of int arrays used in place from a (typically memory mapped) buffer. The arrays are stored as
+ * their count, a table of count + 1 offsets, and then the concatenated array elements, which are
+ * split into buffers of at most the segment size of the input they are read from.
+ * An array is copied out of the buffers when it is requested, and kept in the bounded cache of the input,
+ * such that only the arrays that are in use are held on the heap. An array which is evicted from the cache
+ * is copied again the next time it is requested, so the same array instance is only returned while it is cached.
+ *
+ * @author bjorncs
+ */
+public class MappedIntArrays {
+
+    private final IntBuffer offsets;
+    private final IntBuffer[] values;
+    private final int valuesPerSegment;
+    private final IntArrayCache cache;
+    private final long firstKey;
+
+    private MappedIntArrays(IntBuffer offsets, IntBuffer[] values, int valuesPerSegment, IntArrayCache cache) {
+        this.offsets = offsets;
+        this.values = values;
+        this.valuesPerSegment = valuesPerSegment;
+        this.cache = cache;
+        this.firstKey = cache.reserveKeys(size());
+    }
+
+    public int size() {
+        return offsets.limit() - 1;
+    }
+
+    /**
+     * Returns the array at the given index. The returned array is shared and must not be modified.
+     */
+    public int[] get(int index) {
+        int[] array = cache.get(firstKey + index);
+        if (array != null) return array;
+
+        int offset = offsets.get(index);
+        array = new int[offsets.get(index + 1) - offset];
+        for (int copied = 0; copied < array.length; ) {
+            // Absolute bulk get is not available in Java 8, so read through a duplicate to keep this thread safe
+            IntBuffer source = values[(offset + copied) / valuesPerSegment].duplicate();
+            source.position((offset + copied) % valuesPerSegment);
+            int length = Math.min(array.length - copied, source.remaining());
+            source.get(array, copied, length);
+            copied += length;
+        }
+        return cache.put(firstKey + index, array);
+    }
+
+    public static void writeToOutputStream(List<int[]> arrays, DataOutputStream out) throws IOException {
+        out.writeInt(arrays.size());
+        int offset = 0;
+        out.writeInt(offset);
+        for (int[] array : arrays) {
+            offset += array.length;
+            out.writeInt(offset);
+        }
+        for (int[] array : arrays) {
+            for (int value : array) {
+                out.writeInt(value);
+            }
+        }
+    }
+
+    /**
+     * Creates an instance using the arrays at the current position of the given input,
+     * and advances the input past them.
+     */
+    public static MappedIntArrays fromMappedInput(MappedInput in) {
+        int size = in.getInt();
+        IntBuffer offsets = in.sliceIntArray(size + 1);
+        int valueCount = offsets.get(size);
+        int valuesPerSegment = in.segmentSize() / 4;
+        IntBuffer[] values = new IntBuffer[(int)((valueCount + (long)valuesPerSegment - 1) / valuesPerSegment)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.sliceIntArray(Math.min(valuesPerSegment, valueCount - i * valuesPerSegment));
+        }
+        return new MappedIntArrays(offsets, values, valuesPerSegment, in.cache());
+    }
+}
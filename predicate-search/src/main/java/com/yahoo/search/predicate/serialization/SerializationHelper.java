@@ -6,6 +6,7 @@ import com.yahoo.search.predicate.PredicateIndex;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.LongBuffer;
 
 /**
  * Misc utility functions to help serialization of {@link PredicateIndex}.
@@ -76,4 +77,24 @@ public class SerializationHelper {
         }
         return array;
     }
+
+    /**
+     * Returns the index of the given key in a buffer of keys sorted in ascending order, or -1 if the key is not present.
+     */
+    public static int binarySearch(LongBuffer sortedKeys, long key) {
+        int low = 0;
+        int high = sortedKeys.limit() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midKey = sortedKeys.get(mid);
+            if (midKey < key) {
+                low = mid + 1;
+            } else if (midKey > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
 }
@@ -0,0 +1,197 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.search.predicate;
+
+import com.yahoo.document.predicate.Predicate;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.yahoo.document.predicate.Predicates.and;
+import static com.yahoo.document.predicate.Predicates.feature;
+import static com.yahoo.document.predicate.Predicates.not;
+import static com.yahoo.document.predicate.Predicates.value;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author bjorncs
+ */
+public class IncrementalPredicateIndexTest {
+
+    private static final Config CONFIG = new Config.Builder().setArity(10).build();
+    private static final Executor SYNCHRONOUS = Runnable::run;
+
+    @Test
+    public void require_that_added_documents_are_searchable_before_merge() {
+        IncrementalPredicateIndex index = new IncrementalPredicateIndex(CONFIG, initialDocuments(), 10, SYNCHRONOUS);
+        index.indexDocument(3, feature("country").inSet("no"));
+        assertEquals(1, index.getDeltaSize());
+        assertEquals("[1, 3]", search(index, "no"));
+        assertEquals("[2]", search(index, "se"));
+    }
+
+    @Test
+    public void require_that_removed_and_replaced_documents_are_excluded_from_base() {
+        IncrementalPredicateIndex index = new IncrementalPredicateIndex(CONFIG, initialDocuments(), 10, SYNCHRONOUS);
+        index.removeDocument(1);
+        index.indexDocument(2, feature("country").inSet("no"));
+        assertEquals(1, index.getDocumentCount());
+        assertEquals("[2]", search(index, "no"));
+        assertEquals("[]", search(index, "se"));
+
+        index.removeDocument(42);
+        assertEquals(2, index.getDeltaSize());
+    }
+
+    @Test
+    public void require_that_merge_empties_delta_and_retains_hits() {
+        IncrementalPredicateIndex index = new IncrementalPredicateIndex(CONFIG, initialDocuments(), 10, SYNCHRONOUS);
+        IncrementalPredicateIndex.Searcher searcher = index.searcher();
+        index.indexDocument(3, and(feature("country").inSet("no"), not(feature("gender").inSet("female"))));
+        index.removeDocument(2);
+        assertEquals("[1, 3]", search(searcher, "no"));
+        index.merge();
+        assertEquals(0, index.getDeltaSize());
+        assertEquals("[1, 3]", search(searcher, "no"));
+        assertEquals("[]", search(searcher, "se"));
+    }
+
+    @Test
+    public void require_that_merge_is_started_when_delta_is_full() {
+        List<Runnable> merges = new ArrayList<>();
+        IncrementalPredicateIndex index = new IncrementalPredicateIndex(CONFIG, initialDocuments(), 2, merges::add);
+        index.indexDocument(3, feature("country").inSet("no"));
+        assertEquals(0, merges.size());
+        index.indexDocument(4, value(true));
+        index.indexDocument(5, feature("country").inSet("se"));
+        assertEquals(1, merges.size());
+
+        merges.get(0).run();
+        assertEquals(0, index.getDeltaSize());
+        assertEquals("[1, 3, 4]", search(index, "no"));
+        assertEquals("[2, 4, 5]", search(index, "se"));
+    }
+
+    @Test
+    public void require_that_merge_is_started_when_delta_reaches_fraction_of_documents() {
+        List<Runnable> merges = new ArrayList<>();
+        Map<Integer, Predicate> documents = new HashMap<>();
+        for (int i = 0; i < 20; i++) {
+            documents.put(i, feature("country").inSet("se"));
+        }
+        IncrementalPredicateIndex index = new IncrementalPredicateIndex(CONFIG, documents, 2, 0.25, merges::add);
+        for (int i = 0; i < 4; i++) {
+            index.indexDocument(i, feature("country").inSet("no"));
+        }
+        assertEquals(0, merges.size());
+        index.indexDocument(4, feature("country").inSet("no"));
+        assertEquals(1, merges.size());
+
+        merges.get(0).run();
+        assertEquals(0, index.getDeltaSize());
+        assertEquals("[0, 1, 2, 3, 4]", search(index, "no"));
+    }
+
+    @Test
+    public void require_that_changes_wait_for_a_merge_when_delta_reaches_twice_its_max_size() {
+        List<Runnable> merges = new ArrayList<>();
+        IncrementalPredicateIndex index = new IncrementalPredicateIndex(CONFIG, initialDocuments(), 2, merges::add);
+        index.indexDocument(3, feature("country").inSet("no"));
+        index.indexDocument(4, feature("country").inSet("no"));
+        index.indexDocument(5, feature("country").inSet("no"));
+        assertEquals(3, index.getDeltaSize());
+        index.indexDocument(6, feature("country").inSet("no"));
+        assertEquals(0, index.getDeltaSize());
+        assertEquals(1, merges.size());
+        assertEquals("[1, 3, 4, 5, 6]", search(index, "no"));
+
+        merges.get(0).run();
+        assertEquals("[1, 3, 4, 5, 6]", search(index, "no"));
+    }
+
+    @Test
+    public void require_that_concurrent_merges_retain_all_changes() throws Exception {
+        ExecutorService mergeExecutor = Executors.newSingleThreadExecutor();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        IncrementalPredicateIndex index = new IncrementalPredicateIndex(CONFIG, initialDocuments(), 5, mergeExecutor);
+        try {
+            List<Future<?>> updates = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                int firstDocId = 10 + thread * 50;
+                updates.add(executor.submit(() -> {
+                    for (int i = firstDocId; i < firstDocId + 50; i++) {
+                        index.indexDocument(i, feature("country").inSet("no"));
+                        if (i % 10 == 0) {
+                            index.merge();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> update : updates) {
+                update.get();
+            }
+            assertEquals(201, index.searcher().search(query("no")).count());
+            index.merge();
+            assertEquals(201, index.searcher().search(query("no")).count());
+        } finally {
+            executor.shutdown();
+            mergeExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void require_that_concurrent_changes_are_all_searchable() throws Exception {
+        IncrementalPredicateIndex index = new IncrementalPredicateIndex(CONFIG, initialDocuments(), 1000, SYNCHRONOUS);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> updates = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                int firstDocId = 10 + thread * 50;
+                updates.add(executor.submit(() -> {
+                    for (int i = firstDocId; i < firstDocId + 50; i++) {
+                        int docId = i;
+                        index.indexDocument(docId, feature("country").inSet("no"));
+                        assertTrue(index.searcher().search(query("no")).anyMatch(hit -> hit.getDocId() == docId));
+                    }
+                }));
+            }
+            for (Future<?> update : updates) {
+                update.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(202, index.getDocumentCount());
+        assertEquals(201, index.searcher().search(query("no")).count());
+    }
+
+    private static Map<Integer, Predicate> initialDocuments() {
+        Map<Integer, Predicate> documents = new HashMap<>();
+        documents.put(1, feature("country").inSet("no"));
+        documents.put(2, feature("country").inSet("se"));
+        return documents;
+    }
+
+    private static String search(IncrementalPredicateIndex index, String country) {
+        return search(index.searcher(), country);
+    }
+
+    private static String search(IncrementalPredicateIndex.Searcher searcher, String country) {
+        return searcher.search(query(country)).map(Hit::getDocId).sorted().collect(toList()).toString();
+    }
+
+    private static PredicateQuery query(String country) {
+        PredicateQuery query = new PredicateQuery();
+        query.addFeature("country", country);
+        query.addFeature("gender", "male");
+        return query;
+    }
+}
@@ -2,12 +2,25 @@
 package com.yahoo.search.predicate;
 
 import com.yahoo.document.predicate.Predicate;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.yahoo.document.predicate.Predicates.feature;
+import static com.yahoo.search.predicate.serialization.SerializationTestHelper.assertMappedSerializationDeserializationMatches;
 import static com.yahoo.search.predicate.serialization.SerializationTestHelper.assertSerializationDeserializationMatches;
 import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 /**
@@ -18,6 +31,9 @@ public class PredicateIndexTest {
 
     private static final int DOC_ID = 42;
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     @Test
     public void requireThatPredicateIndexCanSearch() {
         PredicateIndexBuilder builder = new PredicateIndexBuilder(10);
@@ -129,6 +145,32 @@ public class PredicateIndexTest {
         assertEquals("[42]", searcher.search(query).collect(toList()).toString());
     }
 
+    @Test
+    public void require_that_batch_search_returns_hits_of_each_query_in_order() {
+        PredicateIndexBuilder builder = new PredicateIndexBuilder(10);
+        for (int i = 0; i < 100; i++) {
+            builder.indexDocument(i, feature("key").inSet("value" + i % 10));
+        }
+        PredicateIndex index = builder.build();
+        List<PredicateQuery> queries = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            PredicateQuery query = new PredicateQuery();
+            query.addFeature("key", "value" + i % 11);
+            queries.add(query);
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        List<List<Hit>> hits = index.search(queries, pool);
+        pool.shutdown();
+
+        assertEquals(queries.size(), hits.size());
+        PredicateIndex.Searcher searcher = index.searcher();
+        for (int i = 0; i < queries.size(); i++) {
+            assertEquals(searcher.search(queries.get(i)).collect(toList()), hits.get(i));
+        }
+        assertEquals(10, hits.get(3).size());
+        assertEquals(0, hits.get(10).size());
+    }
+
     @Test
     public void require_that_serialization_and_deserialization_retain_data() throws IOException {
         PredicateIndexBuilder builder = new PredicateIndexBuilder(10);
@@ -138,4 +180,57 @@ public class PredicateIndexTest {
         assertSerializationDeserializationMatches(
                 index, PredicateIndex::writeToOutputStream, PredicateIndex::fromInputStream);
     }
+
+    @Test
+    public void require_that_mapped_index_retains_data_and_hits() throws IOException {
+        PredicateIndexBuilder builder = new PredicateIndexBuilder(10);
+        builder.indexDocument(1, Predicate.fromString("country in ['no', 'se'] and gender in ['male']"));
+        builder.indexDocument(2, Predicate.fromString("country in ['no'] and not gender in ['female']"));
+        builder.indexDocument(0x3fffffe, Predicate.fromString("country in ['no'] and gender in ['female']"));
+        PredicateIndex index = builder.build();
+        assertMappedSerializationDeserializationMatches(
+                index, PredicateIndex::writeToOutputStream, PredicateIndex::fromInputStream,
+                PredicateIndex::writeToMappableOutputStream, PredicateIndex::fromMappedInput);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        index.writeToMappableOutputStream(new DataOutputStream(bytes));
+        PredicateIndex mapped = PredicateIndex.fromByteBuffer(ByteBuffer.wrap(bytes.toByteArray()));
+        PredicateQuery query = new PredicateQuery();
+        query.addFeature("country", "no");
+        query.addFeature("gender", "female");
+        assertEquals(index.searcher().search(query).collect(toList()), mapped.searcher().search(query).collect(toList()));
+        assertEquals("[67108862]", mapped.searcher().search(query).map(Hit::getDocId).collect(toList()).toString());
+    }
+
+    @Test
+    public void require_that_mapped_file_can_be_read_in_segments_smaller_than_its_arrays() throws IOException {
+        PredicateIndexBuilder builder = new PredicateIndexBuilder(10);
+        for (int i = 0; i < 100; i++) {
+            builder.indexDocument(i, feature("key").inSet("value" + i % 10, "value" + i % 3));
+        }
+        PredicateIndex index = builder.build();
+        Path file = tempFolder.newFile().toPath();
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            index.writeToMappableOutputStream(out);
+        }
+        // Segments of 16 bytes and a cache holding a few posting lists
+        PredicateIndex mapped = PredicateIndex.fromMappedFile(file, 16, 256);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        index.writeToMappableOutputStream(new DataOutputStream(bytes));
+        ByteArrayOutputStream mappedBytes = new ByteArrayOutputStream();
+        mapped.writeToMappableOutputStream(new DataOutputStream(mappedBytes));
+        assertArrayEquals(bytes.toByteArray(), mappedBytes.toByteArray());
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 11; i++) {
+                PredicateQuery query = new PredicateQuery();
+                query.addFeature("key", "value" + i);
+                assertEquals(index.searcher().search(query).collect(toList()),
+                             mapped.searcher().search(query).collect(toList()));
+            }
+            // The posting lists reloaded after being evicted must still be found in the rebuilt cache
+            mapped.rebuildPostingListCache();
+        }
+    }
+
 }
@@ -43,7 +43,7 @@ public class BoundsPostingListTest {
 
         PredicateIntervalStore store = builder.build();
         BoundsPostingList postingList = new BoundsPostingList(
-                store, Ints.toArray(docIds), Ints.toArray(dataRefs), 0xffffffffffffffffL, 5);
+                store, 0, Ints.toArray(docIds), Ints.toArray(dataRefs), 0xffffffffffffffffL, 5);
         assertEquals(-1, postingList.getDocId());
         assertEquals(0, postingList.getInterval());
         assertEquals(0xffffffffffffffffL, postingList.getSubquery());
@@ -58,7 +58,7 @@ public class BoundsPostingListTest {
 
         checkNext(postingList, 60, 61, 6);  // [0..10] .. [5..15]
 
-        postingList = new BoundsPostingList(store, Ints.toArray(docIds), Ints.toArray(dataRefs), 0xffffffffffffffffL, 40);
+        postingList = new BoundsPostingList(store, 0, Ints.toArray(docIds), Ints.toArray(dataRefs), 0xffffffffffffffffL, 40);
         checkNext(postingList, 0, 1, 2);
         checkNext(postingList, 20, 21, 22);
 
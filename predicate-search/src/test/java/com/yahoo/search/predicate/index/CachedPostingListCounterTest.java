@@ -1,13 +1,15 @@
 // Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
 package com.yahoo.search.predicate.index;
 
-import com.gs.collections.impl.map.mutable.primitive.ObjectIntHashMap;
+import com.gs.collections.impl.map.mutable.primitive.LongIntHashMap;
 import org.apache.commons.lang.ArrayUtils;
 import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
@@ -19,6 +21,8 @@ import static org.mockito.Mockito.when;
  */
 public class CachedPostingListCounterTest {
 
+    private final Map<Long, int[]> docIdsById = new HashMap<>();
+
     @Test
     public void require_that_docids_are_counted_correctly() {
         int nDocuments = 4;
@@ -48,12 +52,12 @@ public class CachedPostingListCounterTest {
             list.add(postingList(0));
         }
         c.registerUsage(list);
-        CachedPostingListCounter newC = c.rebuildCache();
-        ObjectIntHashMap<int[]> mapping = newC.getPostingListMapping();
-        assertEquals(0, mapping.getIfAbsent(p2.getDocIds(), -1));
-        assertEquals(1, mapping.getIfAbsent(p3.getDocIds(), -1));
-        assertEquals(2, mapping.getIfAbsent(p1.getDocIds(), -1));
-        assertEquals(3, mapping.getIfAbsent(p4.getDocIds(), -1));
+        CachedPostingListCounter newC = c.rebuildCache(docIdsById::get);
+        LongIntHashMap mapping = newC.getPostingListMapping();
+        assertEquals(0, mapping.getIfAbsent(p2.getId(), -1));
+        assertEquals(1, mapping.getIfAbsent(p3.getId(), -1));
+        assertEquals(2, mapping.getIfAbsent(p1.getId(), -1));
+        assertEquals(3, mapping.getIfAbsent(p4.getId(), -1));
 
         int[] bitVector = newC.getBitVector();
         assertEquals(0b0001, bitVector[0] & 0b1111);
@@ -74,7 +78,7 @@ public class CachedPostingListCounterTest {
         PostingList p4 = postingList(3);
         List<PostingList> postingLists = list(p1, p2, p3, p4);
         c.registerUsage(postingLists);
-        CachedPostingListCounter newC = c.rebuildCache();
+        CachedPostingListCounter newC = c.rebuildCache(docIdsById::get);
         newC.countPostingListsPerDocument(postingLists, nPostingListsPerDocument);
         assertArrayEquals(new byte[]{1, 3, 2, 3}, nPostingListsPerDocument);
         newC.countPostingListsPerDocument(list(p1, p2), nPostingListsPerDocument);
@@ -91,7 +95,7 @@ public class CachedPostingListCounterTest {
             postingLists.add(postingList(i % nDocuments));
         }
         c.registerUsage(postingLists);
-        CachedPostingListCounter newC = c.rebuildCache();
+        CachedPostingListCounter newC = c.rebuildCache(docIdsById::get);
         newC.countPostingListsPerDocument(postingLists, nPostingListsPerDocument);
         assertArrayEquals(new byte[]{100, 100, 100, 100}, nPostingListsPerDocument);
 
@@ -103,13 +107,43 @@ public class CachedPostingListCounterTest {
         assertArrayEquals(new byte[]{100, 0, 0, 0}, nPostingListsPerDocument);
     }
 
+    @Test
+    public void require_that_posting_lists_are_identified_by_id_rather_than_document_id_array() {
+        int nDocuments = 4;
+        byte[] nPostingListsPerDocument = new byte[nDocuments];
+        CachedPostingListCounter c = new CachedPostingListCounter(nDocuments);
+        PostingList p1 = postingList(0, 1, 2, 3);
+        PostingList p2 = postingList(1, 2, 3);
+        c.registerUsage(list(p1, p2));
+        c.registerUsage(list(copy(p1), copy(p2)));
+        CachedPostingListCounter newC = c.rebuildCache(docIdsById::get);
+        assertEquals(2, newC.getPostingListMapping().size());
+
+        PostingList p1Copy = copy(p1);
+        PostingList p2Copy = copy(p2);
+        assertEquals(0, newC.getPostingListMapping().getIfAbsent(p1Copy.getId(), -1));
+        newC.countPostingListsPerDocument(list(p1Copy, p2Copy), nPostingListsPerDocument);
+        assertArrayEquals(new byte[]{1, 2, 2, 2}, nPostingListsPerDocument);
+    }
+
     private static List<PostingList> list(PostingList... postingLists) {
         return Arrays.asList(postingLists);
     }
 
-    private static PostingList postingList(Integer... docIds) {
+    private PostingList postingList(Integer... docIds) {
+        return postingListWithId(docIdsById.size(), ArrayUtils.toPrimitive(docIds));
+    }
+
+    /** Returns a posting list with the same id as the given, but a copy of its document id array */
+    private PostingList copy(PostingList postingList) {
+        return postingListWithId(postingList.getId(), postingList.getDocIds().clone());
+    }
+
+    private PostingList postingListWithId(long id, int[] docIds) {
+        docIdsById.putIfAbsent(id, docIds);
         PostingList postingList = mock(PostingList.class);
-        when(postingList.getDocIds()).thenReturn(ArrayUtils.toPrimitive(docIds));
+        when(postingList.getId()).thenReturn(id);
+        when(postingList.getDocIds()).thenReturn(docIds);
         return postingList;
     }
 
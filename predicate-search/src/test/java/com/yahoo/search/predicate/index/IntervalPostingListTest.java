@@ -18,7 +18,7 @@ public class IntervalPostingListTest {
         int ref2 = builder.insert(Arrays.asList(0x1ffff));
         int ref3 = builder.insert(Arrays.asList(0x10001, 0x2ffff));
         IntervalPostingList postingList = new IntervalPostingList(
-                builder.build(), new int[]{2, 4, 6}, new int[] {ref1, ref2, ref3}, SubqueryBitmap.ALL_SUBQUERIES);
+                builder.build(), 0, new int[]{2, 4, 6}, new int[] {ref1, ref2, ref3}, SubqueryBitmap.ALL_SUBQUERIES);
         assertEquals(-1, postingList.getDocId());
         assertEquals(0, postingList.getInterval());
         assertEquals(0xffffffffffffffffL, postingList.getSubquery());
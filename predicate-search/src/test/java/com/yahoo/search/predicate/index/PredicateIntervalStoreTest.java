@@ -2,13 +2,18 @@
 package com.yahoo.search.predicate.index;
 
 import com.google.common.primitives.Ints;
+import com.yahoo.search.predicate.serialization.MappedInput;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import static com.yahoo.search.predicate.serialization.SerializationTestHelper.assertMappedSerializationDeserializationMatches;
 import static com.yahoo.search.predicate.serialization.SerializationTestHelper.assertSerializationDeserializationMatches;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
@@ -57,6 +62,24 @@ public class PredicateIntervalStoreTest {
                 store, PredicateIntervalStore::writeToOutputStream, PredicateIntervalStore::fromInputStream);
     }
 
+    @Test
+    public void requireThatMappedStoreRetainsIntervals() throws IOException {
+        PredicateIntervalStore.Builder builder = new PredicateIntervalStore.Builder();
+        int ref1 = builder.insert(Arrays.asList(0x00010001, 0x00020002));
+        int ref2 = builder.insert(Arrays.asList(0x0fffffff, 0x00020002, 0x00030003));
+        PredicateIntervalStore store = builder.build();
+        assertMappedSerializationDeserializationMatches(
+                store, PredicateIntervalStore::writeToOutputStream, PredicateIntervalStore::fromInputStream,
+                PredicateIntervalStore::writeToMappableOutputStream, PredicateIntervalStore::fromMappedInput);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        store.writeToMappableOutputStream(new DataOutputStream(bytes));
+        PredicateIntervalStore mapped = PredicateIntervalStore.fromMappedInput(
+                new MappedInput(ByteBuffer.wrap(bytes.toByteArray()), Long.MAX_VALUE));
+        assertArrayEquals(store.get(ref1), mapped.get(ref1));
+        assertArrayEquals(store.get(ref2), mapped.get(ref2));
+    }
+
     @Test
     public void requireThatEqualIntervalListsReturnsSameReference() {
         PredicateIntervalStore.Builder builder = new PredicateIntervalStore.Builder();
@@ -284,6 +284,11 @@ public class PredicateSearchTest {
             return Arrays.stream(entries).mapToInt(e -> e.docId).toArray();
         }
 
+        @Override
+        public long getId() {
+            return System.identityHashCode(this);
+        }
+
         public static class Entry {
             public final int docId;
             public final int[] intervals;
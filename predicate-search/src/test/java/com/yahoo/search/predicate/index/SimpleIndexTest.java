@@ -1,13 +1,21 @@
 // Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
 package com.yahoo.search.predicate.index;
 
+import com.yahoo.search.predicate.serialization.MappedInput;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
+import static com.yahoo.search.predicate.serialization.SerializationTestHelper.assertMappedSerializationDeserializationMatches;
 import static com.yahoo.search.predicate.serialization.SerializationTestHelper.assertSerializationDeserializationMatches;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 /**
  * @author <a href="mailto:magnarn@yahoo-inc.com">Magnar Nedland</a>
@@ -62,4 +70,27 @@ public class SimpleIndexTest {
         SimpleIndex index = builder.build();
         assertSerializationDeserializationMatches(index, SimpleIndex::writeToOutputStream, SimpleIndex::fromInputStream);
     }
+
+    @Test
+    public void requireThatMappedIndexRetainsDictionary() throws IOException {
+        SimpleIndex.Builder builder = new SimpleIndex.Builder();
+        builder.insert(KEY + 0xFFFFFF, new Posting(DOC_ID, 100));
+        builder.insert(KEY, new Posting(DOC_ID, 10));
+        builder.insert(KEY, new Posting(DOC_ID + 1, 20));
+        builder.insert(-KEY, new Posting(DOC_ID + 2, 30));
+        SimpleIndex index = builder.build();
+        assertMappedSerializationDeserializationMatches(
+                index, SimpleIndex::writeToOutputStream, SimpleIndex::fromInputStream,
+                SimpleIndex::writeToMappableOutputStream, SimpleIndex::fromMappedInput);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        index.writeToMappableOutputStream(new DataOutputStream(bytes));
+        SimpleIndex mapped = SimpleIndex.fromMappedInput(new MappedInput(ByteBuffer.wrap(bytes.toByteArray()), Long.MAX_VALUE));
+        SimpleIndex.Entry entry = mapped.getPostingList(KEY);
+        assertArrayEquals(new int[]{DOC_ID, DOC_ID + 1}, entry.docIds);
+        assertArrayEquals(new int[]{10, 20}, entry.dataRefs);
+        assertSame(entry.docIds, mapped.getPostingList(KEY).docIds);
+        assertArrayEquals(new int[]{DOC_ID + 2}, mapped.getPostingList(-KEY).docIds);
+        assertNull(mapped.getPostingList(KEY + 1));
+    }
 }
@@ -15,7 +15,7 @@ public class ZeroConstraintPostingListTest {
     @Test
     public void requireThatPostingListCanIterate() {
         ZeroConstraintPostingList postingList =
-                new ZeroConstraintPostingList(new int[] {2, 4, 6, 8});
+                new ZeroConstraintPostingList(0, new int[] {2, 4, 6, 8});
         assertEquals(-1, postingList.getDocId());
         assertEquals(Interval.fromBoundaries(1, Interval.ZERO_CONSTRAINT_RANGE), postingList.getInterval());
         assertEquals(0xffffffffffffffffL, postingList.getSubquery());
@@ -13,6 +13,7 @@ import java.util.List;
 
 import static com.yahoo.document.predicate.Predicates.feature;
 import static com.yahoo.document.predicate.Predicates.not;
+import static com.yahoo.search.predicate.serialization.SerializationTestHelper.assertMappedSerializationDeserializationMatches;
 import static com.yahoo.search.predicate.serialization.SerializationTestHelper.assertSerializationDeserializationMatches;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
@@ -344,6 +345,23 @@ public class ConjunctionIndexTest {
                 index, ConjunctionIndex::writeToOutputStream, ConjunctionIndex::fromInputStream);
     }
 
+    @Test
+    public void require_that_mapped_index_retains_data() throws IOException {
+        ConjunctionIndexBuilder builder = new ConjunctionIndexBuilder();
+        builder.indexConjunction(indexableConj(
+                conj(
+                        not(feature("a").inSet("1")),
+                        not(feature("b").inSet("3")))));
+        builder.indexConjunction(indexableConj(
+                conj(
+                        feature("d").inSet("5"),
+                        feature("e").inSet("6"))));
+        ConjunctionIndex index = builder.build();
+        assertMappedSerializationDeserializationMatches(
+                index, ConjunctionIndex::writeToOutputStream, ConjunctionIndex::fromInputStream,
+                ConjunctionIndex::writeToMappableOutputStream, ConjunctionIndex::fromMappedInput);
+    }
+
     private static List<ConjunctionHit> matchingConjunctionList(ConjunctionHit... conjunctionHits) {
         return Arrays.asList(conjunctionHits);
     }
@@ -0,0 +1,92 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.search.predicate.serialization;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author bratseth
+ */
+public class MappedIntArraysTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void requireThatArraysCanSpanSegments() throws IOException {
+        List<int[]> arrays = new ArrayList<>();
+        arrays.add(new int[]{1, 2, 3});
+        arrays.add(new int[0]);
+        arrays.add(new int[]{4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14});
+        arrays.add(new int[]{15});
+        Path file = writeToFile(arrays, 42L);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedInput in = new MappedInput(channel, 16, Long.MAX_VALUE);
+            MappedIntArrays mapped = MappedIntArrays.fromMappedInput(in);
+            assertEquals(42L, in.getLong());
+            assertEquals(arrays.size(), mapped.size());
+            for (int i = 0; i < arrays.size(); i++) {
+                assertArrayEquals(arrays.get(i), mapped.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void requireThatLeastRecentlyUsedArraysAreEvictedFromTheCache() throws IOException {
+        List<int[]> arrays = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            int[] array = new int[4];
+            Arrays.fill(array, i);
+            arrays.add(array);
+        }
+        Path file = writeToFile(arrays, 0L);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // Room for three arrays of four ints
+            MappedInput in = new MappedInput(channel, MappedInput.DEFAULT_SEGMENT_SIZE, 3 * 4 * 4);
+            MappedIntArrays mapped = MappedIntArrays.fromMappedInput(in);
+            int[] first = mapped.get(0);
+            int[] second = mapped.get(1);
+            mapped.get(2);
+            assertSame(first, mapped.get(0));
+            mapped.get(3); // evicts 1, the least recently used
+
+            assertSame(first, mapped.get(0));
+            int[] secondAgain = mapped.get(1);
+            assertNotSame(second, secondAgain);
+            assertArrayEquals(second, secondAgain);
+            for (int i = 0; i < arrays.size(); i++) {
+                assertArrayEquals(arrays.get(i), mapped.get(i));
+                assertTrue(in.cache().size() <= 3 * 4);
+            }
+        }
+    }
+
+    private Path writeToFile(List<int[]> arrays, long trailer) throws IOException {
+        Path file = tempFolder.newFile().toPath();
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            MappedIntArrays.writeToOutputStream(arrays, out);
+            out.writeLong(trailer);
+        }
+        return file;
+    }
+
+}
@@ -6,8 +6,10 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
 
 /**
  * @author bjorncs
@@ -35,6 +37,33 @@ public class SerializationTestHelper {
         assertArrayEquals(bytes, newBytes);
     }
 
+    /**
+     * Verifies that an object written in the mappable format can be used from a byte buffer,
+     * and that it retains its data when written to both the mappable and the stream format.
+     */
+    public static <T> void assertMappedSerializationDeserializationMatches
+            (T object, Serializer<T> serializer, Deserializer<T> deserializer,
+             Serializer<T> mappableSerializer, BufferDeserializer<T> bufferDeserializer) throws IOException {
+
+        byte[] bytes = serialize(object, mappableSerializer);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        T newObject = bufferDeserializer.deserialize(new MappedInput(buffer, Long.MAX_VALUE));
+        assertFalse(buffer.hasRemaining());
+        assertArrayEquals(bytes, serialize(newObject, mappableSerializer));
+
+        byte[] streamBytes = serialize(newObject, serializer);
+        T streamObject = deserializer.deserialize(new DataInputStream(new ByteArrayInputStream(streamBytes)));
+        assertArrayEquals(bytes, serialize(streamObject, mappableSerializer));
+    }
+
+    private static <T> byte[] serialize(T object, Serializer<T> serializer) throws IOException {
+        ByteArrayOutputStream byteArrayOut = new ByteArrayOutputStream(4096);
+        DataOutputStream out = new DataOutputStream(byteArrayOut);
+        serializer.serialize(object, out);
+        out.flush();
+        return byteArrayOut.toByteArray();
+    }
+
     @FunctionalInterface
     public interface Serializer<T> {
         void serialize(T object, DataOutputStream out) throws IOException;
@@ -45,4 +74,9 @@ public class SerializationTestHelper {
         T deserialize(DataInputStream in) throws IOException;
     }
 
+    @FunctionalInterface
+    public interface BufferDeserializer<T> {
+        T deserialize(MappedInput in) throws IOException;
+    }
+
 }
@@ -0,0 +1,33 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.searchlib.rankingexpression.evaluation;
+
+/**
+ * A ranking expression compiled to JVM bytecode by an {@link ExpressionCompiler}.
+ * This evaluates the expression over the double values of the variables, indexed as in the
+ * array context the expression was compiled with.
+ * <p>
+ * Instances of this are immutable and multithread safe.
+ *
+ * @author bratseth
+ */
+public abstract class CompiledExpression {
+
+    protected CompiledExpression() {}
+
+    /**
+     * Returns the value of this expression
+     *
+     * @param values the value of each variable, at the index given by the context this was compiled with
+     */
+    public abstract double evaluate(double[] values);
+
+    /**
+     * Returns the value of this expression given the values set in an array context, which must be
+     * the context this was compiled with or a clone of it.
+     * Only the double values of the variables are used.
+     */
+    public final double evaluate(AbstractArrayContext context) {
+        return evaluate(context.doubleValues());
+    }
+
+}
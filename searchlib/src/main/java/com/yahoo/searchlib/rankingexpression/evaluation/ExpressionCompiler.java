@@ -0,0 +1,53 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.searchlib.rankingexpression.evaluation;
+
+import com.yahoo.searchlib.rankingexpression.RankingExpression;
+import com.yahoo.searchlib.rankingexpression.evaluation.compilation.CodeGenerator;
+
+/**
+ * Compiles ranking expressions to JVM bytecode, which evaluates the expression over primitive doubles
+ * without traversing the expression tree and creating value objects.
+ * Clients using compiled expressions will do
+ *
+ * <code>
+ * // Set up once
+ * RankingExpression expression = new RankingExpression(myExpressionString);
+ * DoubleOnlyArrayContext context = new DoubleOnlyArrayContext(expression);
+ * CompiledExpression compiled = new ExpressionCompiler().compile(expression, context);
+ *
+ * // Execute repeatedly
+ * context.put("featureName1", value1);
+ * ...
+ * compiled.evaluate(context);
+ *
+ * // Note that the compiled expression may be used by multiple threads at the same time, while the
+ * // context is single-threaded. To create a context for another tread, use the above context as a prototype,
+ * // contextForOtherThread = context.clone();
+ * </code>
+ * <p>
+ * Expressions which are to be compiled should not be optimized by an {@link ExpressionOptimizer} first,
+ * as the forest nodes produced by it are not compiled.
+ * Only expressions over double values are supported: Tensor functions, tensor constants and features with
+ * arguments cause compilation to fail.
+ * <p>
+ * Instances of this class are not multithread safe.
+ *
+ * @author bratseth
+ */
+public class ExpressionCompiler {
+
+    private final CodeGenerator codeGenerator = new CodeGenerator();
+
+    /**
+     * Compiles an expression
+     *
+     * @param expression the expression to compile
+     * @param context the context which will be used to evaluate the compiled expression, or a prototype of it
+     * @return the compiled expression
+     * @throws UnsupportedOperationException if the expression contains functions or values which cannot be compiled
+     */
+    public CompiledExpression compile(RankingExpression expression, AbstractArrayContext context) {
+        return codeGenerator.compile(expression.getRoot(), context);
+    }
+
+}
@@ -0,0 +1,131 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.searchlib.rankingexpression.evaluation.compilation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a minimal class file containing methods given as code.
+ * This writes class file version 49, which does not require stack map frames.
+ *
+ * @author bratseth
+ */
+final class ClassFile {
+
+    static final int ACC_PUBLIC = 0x0001, ACC_STATIC = 0x0008, ACC_FINAL = 0x0010, ACC_SUPER = 0x0020;
+
+    private static final int MAGIC = 0xCAFEBABE, MAJOR_VERSION = 49, MINOR_VERSION = 0;
+
+    /** The max size of the code of a single method */
+    static final int MAX_CODE_SIZE = 65535;
+
+    private final String name;
+    private final String superName;
+    private final List<Method> methods = new ArrayList<>();
+
+    /**
+     * Creates a class file
+     *
+     * @param name the internal (slash separated) name of the class
+     * @param superName the internal name of the super class
+     */
+    ClassFile(String name, String superName) {
+        this.name = name;
+        this.superName = superName;
+    }
+
+    String name() { return name; }
+
+    /** Adds a public no-argument constructor calling the no-argument constructor of the super class */
+    void addConstructor() {
+        Code code = new Code();
+        code.loadReference(0);
+        code.invokeSpecial(superName, "<init>", "()V", 0, 0);
+        code.returnVoid();
+        addMethod(ACC_PUBLIC, "<init>", "()V", 1, code);
+    }
+
+    /**
+     * Adds a method
+     *
+     * @param maxLocals the number of local variable slots used by the method, including arguments
+     * @param code the complete code of the method
+     */
+    void addMethod(int access, String name, String descriptor, int maxLocals, Code code) {
+        if (code.size() > MAX_CODE_SIZE)
+            throw new UnsupportedOperationException("The code of method " + name + " is too large: " + code.size() + " bytes");
+        methods.add(new Method(access, name, descriptor, maxLocals, code));
+    }
+
+    byte[] toBytes() {
+        ConstantPool pool = new ConstantPool();
+        int thisClass = pool.addClass(name);
+        int superClass = pool.addClass(superName);
+        int codeAttributeName = pool.addUtf8("Code");
+        for (Method method : methods) {
+            method.nameIndex = pool.addUtf8(method.name);
+            method.descriptorIndex = pool.addUtf8(method.descriptor);
+            method.code.addConstantsTo(pool);
+        }
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeShort(MINOR_VERSION);
+            out.writeShort(MAJOR_VERSION);
+            pool.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(methods.size());
+            for (Method method : methods) {
+                byte[] code = method.code.resolve(pool);
+                out.writeShort(method.access);
+                out.writeShort(method.nameIndex);
+                out.writeShort(method.descriptorIndex);
+                out.writeShort(1); // attributes
+                out.writeShort(codeAttributeName);
+                out.writeInt(2 + 2 + 4 + code.length + 2 + 2);
+                out.writeShort(method.code.maxStack());
+                out.writeShort(method.maxLocals);
+                out.writeInt(code.length);
+                out.write(code);
+                out.writeShort(0); // exception table
+                out.writeShort(0); // code attributes
+            }
+            out.writeShort(0); // class attributes
+            return bytes.toByteArray();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static final class Method {
+
+        final int access;
+        final String name;
+        final String descriptor;
+        final int maxLocals;
+        final Code code;
+
+        int nameIndex, descriptorIndex;
+
+        Method(int access, String name, String descriptor, int maxLocals, Code code) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.maxLocals = maxLocals;
+            this.code = code;
+        }
+
+    }
+
+}
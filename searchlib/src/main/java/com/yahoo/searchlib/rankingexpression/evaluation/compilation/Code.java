@@ -0,0 +1,277 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.searchlib.rankingexpression.evaluation.compilation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A relocatable sequence of JVM bytecode instructions, where constant pool entries are referenced symbolically
+ * such that the code can be appended to other code and placed in any class.
+ * Code which computes a value leaves a single double on the operand stack, and accesses the values
+ * of the expression variables through a double array in local variable 0.
+ * <p>
+ * Only the instructions needed to compile ranking expressions are supported.
+ *
+ * @author bratseth
+ */
+final class Code {
+
+    private static final int DLOAD_0 = 0x26, ALOAD_0 = 0x2a, ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11, LDC_W = 0x13,
+                             LDC2_W = 0x14, DCONST_0 = 0x0e, DCONST_1 = 0x0f, DALOAD = 0x31, POP2 = 0x58, DUP2 = 0x5c,
+                             DNEG = 0x77, GOTO = 0xa7, DRETURN = 0xaf, RETURN = 0xb1, GETSTATIC = 0xb2,
+                             INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8;
+
+    static final int DADD = 0x63, DSUB = 0x67, DMUL = 0x6b, DDIV = 0x6f, DCMPL = 0x97, DCMPG = 0x98,
+                     IFEQ = 0x99, IFNE = 0x9a, IFLT = 0x9b, IFGE = 0x9c, IFGT = 0x9d, IFLE = 0x9e;
+
+    private byte[] bytes = new byte[64];
+    private int size = 0;
+
+    /** The constant pool references in this, to be resolved when the code is written to a class */
+    private final List<ConstantReference> constantReferences = new ArrayList<>();
+
+    /** Jumps to labels which are not placed yet */
+    private final List<Jump> unresolvedJumps = new ArrayList<>();
+
+    /** The current operand stack depth, in slots */
+    private int stack = 0;
+
+    /** The max operand stack depth reached by this, in slots */
+    private int maxStack = 0;
+
+    /** Returns the size of this code in bytes */
+    int size() { return size; }
+
+    int maxStack() { return maxStack; }
+
+    /** Appends the given code, which must be complete (not jump to any label outside it), to this */
+    void append(Code code) {
+        if ( ! code.unresolvedJumps.isEmpty())
+            throw new IllegalStateException("Cannot append code with unresolved jumps");
+        int offset = size;
+        ensureCapacity(code.size);
+        System.arraycopy(code.bytes, 0, bytes, size, code.size);
+        size += code.size;
+        for (ConstantReference reference : code.constantReferences)
+            constantReferences.add(new ConstantReference(reference.offset + offset, reference.constant));
+        maxStack = Math.max(maxStack, stack + code.maxStack);
+        stack += code.stack;
+    }
+
+    /** Pushes the reference to the value array (local variable 0) */
+    void loadValues() { loadReference(0); }
+
+    /** Pushes the reference in the given local variable 0-3 */
+    void loadReference(int variable) {
+        if (variable < 0 || variable > 3) throw new IllegalArgumentException("Local variable " + variable + " is not supported");
+        emit(ALOAD_0 + variable, 1);
+    }
+
+    /** Pushes the double in the given local variable 0-3 */
+    void loadDouble(int variable) {
+        if (variable < 0 || variable > 3) throw new IllegalArgumentException("Local variable " + variable + " is not supported");
+        emit(DLOAD_0 + variable, 2);
+    }
+
+    /** Pushes the value at the given index in the value array */
+    void loadValue(int index) {
+        loadValues();
+        pushInt(index);
+        emit(DALOAD, 0);
+    }
+
+    void pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            emit(ICONST_0 + value, 1);
+        }
+        else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            emit(BIPUSH, 1);
+            emitByte(value);
+        }
+        else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            emit(SIPUSH, 1);
+            emitShort(value);
+        }
+        else {
+            emitConstantReference(LDC_W, new Constant.IntegerConstant(value), 1);
+        }
+    }
+
+    void pushDouble(double value) {
+        if (Double.doubleToRawLongBits(value) == 0L) // not -0.0
+            emit(DCONST_0, 2);
+        else if (value == 1.0)
+            emit(DCONST_1, 2);
+        else
+            emitConstantReference(LDC2_W, new Constant.DoubleConstant(value), 2);
+    }
+
+    /** Emits one of the double arithmetic instructions DADD, DSUB, DMUL or DDIV */
+    void arithmetic(int opcode) { emit(opcode, -2); }
+
+    void negate() { emit(DNEG, 0); }
+
+    /** Emits DCMPL or DCMPG */
+    void compare(int opcode) { emit(opcode, -3); }
+
+    void duplicateDouble() { emit(DUP2, 2); }
+
+    void popDouble() { emit(POP2, -2); }
+
+    /** Emits one of the IF* instructions jumping to the given label */
+    void jumpIf(int opcode, Label label) { jump(opcode, label, -1); }
+
+    void jump(Label label) { jump(GOTO, label, 0); }
+
+    /**
+     * Places a label at the current position
+     *
+     * @param stack the stack depth at this label, which must be given as the code before may not fall through here
+     */
+    void place(Label label, int stack) {
+        if (label.position >= 0) throw new IllegalStateException("Label is already placed");
+        label.position = size;
+        this.stack = stack;
+        for (Jump jump : new ArrayList<>(unresolvedJumps)) {
+            if (jump.label != label) continue;
+            writeBranchOffset(jump.position, label.position - jump.position);
+            unresolvedJumps.remove(jump);
+        }
+    }
+
+    /** Returns the current stack depth */
+    int stack() { return stack; }
+
+    void getStatic(String owner, String name, String descriptor) {
+        emitConstantReference(GETSTATIC, new Constant.MemberConstant(Constant.FIELD, owner, name, descriptor), 1);
+    }
+
+    /**
+     * Invokes a virtual method
+     *
+     * @param argumentSlots the stack slots taken by the arguments, not including the receiver
+     * @param returnSlots the stack slots taken by the return value
+     */
+    void invokeVirtual(String owner, String name, String descriptor, int argumentSlots, int returnSlots) {
+        emitConstantReference(INVOKEVIRTUAL, new Constant.MemberConstant(Constant.METHOD, owner, name, descriptor),
+                              returnSlots - argumentSlots - 1);
+    }
+
+    void invokeSpecial(String owner, String name, String descriptor, int argumentSlots, int returnSlots) {
+        emitConstantReference(INVOKESPECIAL, new Constant.MemberConstant(Constant.METHOD, owner, name, descriptor),
+                              returnSlots - argumentSlots - 1);
+    }
+
+    void invokeStatic(String owner, String name, String descriptor, int argumentSlots, int returnSlots) {
+        emitConstantReference(INVOKESTATIC, new Constant.MemberConstant(Constant.METHOD, owner, name, descriptor),
+                              returnSlots - argumentSlots);
+    }
+
+    void returnDouble() { emit(DRETURN, -2); }
+
+    void returnVoid() { emit(RETURN, 0); }
+
+    /** Returns the bytes of this code, with constant references resolved by the given constant pool */
+    byte[] resolve(ConstantPool pool) {
+        if ( ! unresolvedJumps.isEmpty())
+            throw new IllegalStateException("Code has jumps to labels which are never placed");
+        byte[] resolved = Arrays.copyOf(bytes, size);
+        for (ConstantReference reference : constantReferences) {
+            int index = pool.indexOf(reference.constant);
+            resolved[reference.offset] = (byte)(index >>> 8);
+            resolved[reference.offset + 1] = (byte)index;
+        }
+        return resolved;
+    }
+
+    /** Adds the constants referenced by this to the given pool */
+    void addConstantsTo(ConstantPool pool) {
+        for (ConstantReference reference : constantReferences)
+            pool.add(reference.constant);
+    }
+
+    private void jump(int opcode, Label label, int stackChange) {
+        int position = size;
+        emit(opcode, stackChange);
+        if (label.position >= 0) {
+            emitShort(0);
+            writeBranchOffset(position, label.position - position);
+        }
+        else {
+            unresolvedJumps.add(new Jump(position, label));
+            emitShort(0);
+        }
+    }
+
+    private void writeBranchOffset(int instructionPosition, int offset) {
+        if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)
+            throw new UnsupportedOperationException("Branch offset " + offset + " is too large");
+        bytes[instructionPosition + 1] = (byte)(offset >>> 8);
+        bytes[instructionPosition + 2] = (byte)offset;
+    }
+
+    private void emitConstantReference(int opcode, Constant constant, int stackChange) {
+        emit(opcode, stackChange);
+        constantReferences.add(new ConstantReference(size, constant));
+        emitShort(0);
+    }
+
+    private void emit(int opcode, int stackChange) {
+        emitByte(opcode);
+        stack += stackChange;
+        maxStack = Math.max(maxStack, stack);
+    }
+
+    private void emitShort(int value) {
+        emitByte(value >>> 8);
+        emitByte(value);
+    }
+
+    private void emitByte(int value) {
+        ensureCapacity(1);
+        bytes[size++] = (byte)value;
+    }
+
+    private void ensureCapacity(int additionalBytes) {
+        if (size + additionalBytes > bytes.length)
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + additionalBytes));
+    }
+
+    /** A position in code which may be jumped to */
+    static final class Label {
+
+        /** The position of this in the code, or -1 if it is not placed yet */
+        private int position = -1;
+
+    }
+
+    private static final class Jump {
+
+        /** The position of the jump instruction */
+        final int position;
+
+        final Label label;
+
+        Jump(int position, Label label) {
+            this.position = position;
+            this.label = label;
+        }
+
+    }
+
+    private static final class ConstantReference {
+
+        /** The position of the two byte constant pool index to write */
+        final int offset;
+
+        final Constant constant;
+
+        ConstantReference(int offset, Constant constant) {
+            this.offset = offset;
+            this.constant = constant;
+        }
+
+    }
+
+}
@@ -0,0 +1,475 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.searchlib.rankingexpression.evaluation.compilation;
+
+import com.yahoo.searchlib.rankingexpression.evaluation.AbstractArrayContext;
+import com.yahoo.searchlib.rankingexpression.evaluation.BooleanValue;
+import com.yahoo.searchlib.rankingexpression.evaluation.CompiledExpression;
+import com.yahoo.searchlib.rankingexpression.evaluation.DoubleValue;
+import com.yahoo.searchlib.rankingexpression.evaluation.TensorValue;
+import com.yahoo.searchlib.rankingexpression.evaluation.Value;
+import com.yahoo.searchlib.rankingexpression.rule.ArithmeticNode;
+import com.yahoo.searchlib.rankingexpression.rule.ArithmeticOperator;
+import com.yahoo.searchlib.rankingexpression.rule.ComparisonNode;
+import com.yahoo.searchlib.rankingexpression.rule.ConstantNode;
+import com.yahoo.searchlib.rankingexpression.rule.EmbracedNode;
+import com.yahoo.searchlib.rankingexpression.rule.ExpressionNode;
+import com.yahoo.searchlib.rankingexpression.rule.Function;
+import com.yahoo.searchlib.rankingexpression.rule.FunctionNode;
+import com.yahoo.searchlib.rankingexpression.rule.IfNode;
+import com.yahoo.searchlib.rankingexpression.rule.NegativeNode;
+import com.yahoo.searchlib.rankingexpression.rule.ReferenceNode;
+import com.yahoo.searchlib.rankingexpression.rule.SetMembershipNode;
+import com.yahoo.searchlib.rankingexpression.rule.TruthOperator;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates JVM bytecode computing the value of an expression over the values of an array context,
+ * and loads it as a {@link CompiledExpression}.
+ * <p>
+ * The expression is translated node by node into straight-line code operating on primitive doubles.
+ * Subexpressions whose code grows large are moved into static methods of separate classes, such that no method
+ * or constant pool exceeds the limits of the class file format however large the expression is.
+ * Membership in large sets of constants is compiled to a binary search, which is split over methods in the same way.
+ * The exception is a single node which is too large in itself, such as a set of tens of thousands of members
+ * which are not all constants, which causes compilation to fail with an UnsupportedOperationException.
+ * <p>
+ * Instances of this class are not multithread safe.
+ *
+ * @author bratseth
+ */
+public final class CodeGenerator {
+
+    /** Subexpressions whose code is larger than this, in bytes, are moved to a method of their own */
+    private static final int maxInlineCodeSize = 8 * 1024;
+
+    /** Sets of more constants than this are searched by binary search rather than compared with each member */
+    private static final int maxLinearSetSize = 16;
+
+    private static final String compiledExpressionClass = internalName(CompiledExpression.class);
+    private static final String functionClass = internalName(Function.class);
+    private static final String truthOperatorClass = internalName(TruthOperator.class);
+
+    private static final String computeMethod = "compute";
+    private static final String computeDescriptor = "([D)D";
+
+    private static final String containsMethod = "contains";
+    private static final String containsDescriptor = "(D)D";
+
+    private static final AtomicLong classCounter = new AtomicLong();
+
+    private AbstractArrayContext context;
+    private String className;
+    private Map<String, byte[]> classes;
+
+    /**
+     * Compiles an expression
+     *
+     * @param expression the root of the expression to compile
+     * @param context the context used to look up the value array index of each variable
+     * @return a new compiled expression
+     * @throws UnsupportedOperationException if the expression contains nodes which cannot be compiled,
+     *         or exceeds a limit of the class file format
+     */
+    public CompiledExpression compile(ExpressionNode expression, AbstractArrayContext context) {
+        this.context = context;
+        this.className = internalName(CodeGenerator.class) + "$GeneratedExpression" + classCounter.incrementAndGet();
+        this.classes = new HashMap<>();
+        try {
+            Code code = compileNode(expression);
+            code.returnDouble();
+
+            ClassFile root = new ClassFile(className, compiledExpressionClass);
+            root.addConstructor();
+            root.addMethod(ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC, computeMethod, computeDescriptor, 1, code);
+            Code evaluate = new Code();
+            evaluate.loadReference(1);
+            evaluate.invokeStatic(className, computeMethod, computeDescriptor, 1, 2);
+            evaluate.returnDouble();
+            root.addMethod(ClassFile.ACC_PUBLIC, "evaluate", computeDescriptor, 2, evaluate);
+            classes.put(binaryName(className), root.toBytes());
+
+            GeneratedClassLoader loader = new GeneratedClassLoader(CompiledExpression.class.getClassLoader(), classes);
+            return (CompiledExpression)loader.loadClass(binaryName(className)).newInstance();
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not load the class compiled from " + expression, e);
+        }
+        finally {
+            this.context = null;
+            this.classes = null;
+        }
+    }
+
+    private Code compileNode(ExpressionNode node) {
+        if (node instanceof ConstantNode)
+            return compileConstant((ConstantNode)node);
+        if (node instanceof ReferenceNode)
+            return compileReference((ReferenceNode)node);
+        if (node instanceof EmbracedNode)
+            return compileNode(((EmbracedNode)node).getValue());
+        if (node instanceof NegativeNode)
+            return compileNegative((NegativeNode)node);
+        if (node instanceof ArithmeticNode)
+            return compileArithmetic((ArithmeticNode)node);
+        if (node instanceof FunctionNode)
+            return compileFunction((FunctionNode)node);
+        if (node instanceof IfNode)
+            return compileIf((IfNode)node);
+        if (node instanceof ComparisonNode || node instanceof SetMembershipNode)
+            return compileBoolean(node);
+        throw new UnsupportedOperationException("Cannot compile '" + node + "': " +
+                                                node.getClass().getSimpleName() + " is not supported");
+    }
+
+    /** Compiles a child node, moving it to a separate method if its code is large */
+    private Code compileChild(ExpressionNode child) {
+        return separateIfLarge(compileNode(child));
+    }
+
+    private Code separateIfLarge(Code code) {
+        if (code.size() <= maxInlineCodeSize) return code;
+
+        String methodClassName = className + "$" + (classes.size() + 1);
+        code.returnDouble();
+        ClassFile methodClass = new ClassFile(methodClassName, "java/lang/Object");
+        methodClass.addMethod(ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC, computeMethod, computeDescriptor, 1, code);
+        classes.put(binaryName(methodClassName), methodClass.toBytes());
+
+        Code call = new Code();
+        call.loadValues();
+        call.invokeStatic(methodClassName, computeMethod, computeDescriptor, 1, 2);
+        return call;
+    }
+
+    private Code compileConstant(ConstantNode node) {
+        Value value = node.getValue();
+        if (value instanceof TensorValue)
+            throw new UnsupportedOperationException("Cannot compile '" + node + "': Tensor constants are not supported");
+        Code code = new Code();
+        code.pushDouble(value.asDouble());
+        return code;
+    }
+
+    private Code compileReference(ReferenceNode node) {
+        if (node.getArguments().expressions().size() > 0)
+            throw new UnsupportedOperationException("Cannot compile '" + node + "': Features with arguments are not supported");
+        Code code = new Code();
+        code.loadValue(context.getIndex(node.toString()));
+        return code;
+    }
+
+    private Code compileNegative(NegativeNode node) {
+        Code code = new Code();
+        code.append(compileChild(node.getValue()));
+        code.negate();
+        return code;
+    }
+
+    /** Combines the children with the same precedence rules as {@link ArithmeticNode#evaluate} */
+    private Code compileArithmetic(ArithmeticNode node) {
+        Iterator<ExpressionNode> child = node.children().iterator();
+
+        Deque<CodeItem> stack = new ArrayDeque<>();
+        stack.push(new CodeItem(ArithmeticOperator.PLUS, compileNode(child.next())));
+        for (Iterator<ArithmeticOperator> it = node.operators().iterator(); it.hasNext() && child.hasNext();) {
+            ArithmeticOperator op = it.next();
+            while (stack.peek().op.hasPrecedenceOver(op))
+                popStack(stack);
+            stack.push(new CodeItem(op, compileNode(child.next())));
+        }
+        while (stack.size() > 1)
+            popStack(stack);
+        return stack.getFirst().code;
+    }
+
+    private void popStack(Deque<CodeItem> stack) {
+        CodeItem rhs = stack.pop();
+        CodeItem lhs = stack.peek();
+        Code code = new Code();
+        code.append(separateIfLarge(lhs.code));
+        code.append(separateIfLarge(rhs.code));
+        code.arithmetic(opcodeOf(rhs.op));
+        lhs.code = code;
+    }
+
+    private int opcodeOf(ArithmeticOperator operator) {
+        switch (operator) {
+            case PLUS: return Code.DADD;
+            case MINUS: return Code.DSUB;
+            case MULTIPLY: return Code.DMUL;
+            case DIVIDE: return Code.DDIV;
+            default: throw new UnsupportedOperationException("Cannot compile arithmetic operator " + operator);
+        }
+    }
+
+    private Code compileFunction(FunctionNode node) {
+        List<ExpressionNode> arguments = node.children();
+        Code code = new Code();
+        code.getStatic(functionClass, node.getFunction().name(), "L" + functionClass + ";");
+        for (int i = 0; i < 2; i++) {
+            if (i < arguments.size())
+                code.append(compileChild(arguments.get(i)));
+            else
+                code.pushDouble(0.0);
+        }
+        code.invokeVirtual(functionClass, "evaluate", "(DD)D", 4, 2);
+        return code;
+    }
+
+    private Code compileIf(IfNode node) {
+        Code code = new Code();
+        Code.Label ifFalse = new Code.Label();
+        Code.Label end = new Code.Label();
+        compileCondition(node.getCondition(), code, ifFalse);
+        code.append(compileChild(node.getTrueExpression()));
+        code.jump(end);
+        code.place(ifFalse, 0);
+        code.append(compileChild(node.getFalseExpression()));
+        code.place(end, 2);
+        return code;
+    }
+
+    /** Compiles a boolean node used as a value, which is 1 if true and 0 if false */
+    private Code compileBoolean(ExpressionNode node) {
+        Code code = new Code();
+        Code.Label ifFalse = new Code.Label();
+        Code.Label end = new Code.Label();
+        compileCondition(node, code, ifFalse);
+        code.pushDouble(1.0);
+        code.jump(end);
+        code.place(ifFalse, 0);
+        code.pushDouble(0.0);
+        code.place(end, 2);
+        return code;
+    }
+
+    /** Appends code to the given code which jumps to the given label if the given condition is false */
+    private void compileCondition(ExpressionNode condition, Code code, Code.Label ifFalse) {
+        if (condition instanceof EmbracedNode) {
+            compileCondition(((EmbracedNode)condition).getValue(), code, ifFalse);
+        }
+        else if (condition instanceof ComparisonNode) {
+            compileComparison((ComparisonNode)condition, code, ifFalse);
+        }
+        else if (condition instanceof SetMembershipNode) {
+            compileSetMembership((SetMembershipNode)condition, code, ifFalse);
+        }
+        else { // any other value is true if it is not 0
+            code.append(compileChild(condition));
+            code.pushDouble(0.0);
+            code.compare(Code.DCMPL);
+            code.jumpIf(Code.IFEQ, ifFalse);
+        }
+    }
+
+    private void compileComparison(ComparisonNode comparison, Code code, Code.Label ifFalse) {
+        TruthOperator operator = comparison.getOperator();
+        if (operator == TruthOperator.APPROX_EQUAL) {
+            code.getStatic(truthOperatorClass, operator.name(), "L" + truthOperatorClass + ";");
+            code.append(compileChild(comparison.getLeftCondition()));
+            code.append(compileChild(comparison.getRightCondition()));
+            code.invokeVirtual(truthOperatorClass, "evaluate", "(DD)Z", 4, 1);
+            code.jumpIf(Code.IFEQ, ifFalse);
+            return;
+        }
+
+        code.append(compileChild(comparison.getLeftCondition()));
+        code.append(compileChild(comparison.getRightCondition()));
+        // Comparisons involving NaN are false except !=, so choose the compare instruction which jumps to false on NaN
+        switch (operator) {
+            case SMALLER:      code.compare(Code.DCMPG); code.jumpIf(Code.IFGE, ifFalse); break;
+            case SMALLEREQUAL: code.compare(Code.DCMPG); code.jumpIf(Code.IFGT, ifFalse); break;
+            case LARGER:       code.compare(Code.DCMPL); code.jumpIf(Code.IFLE, ifFalse); break;
+            case LARGEREQUAL:  code.compare(Code.DCMPL); code.jumpIf(Code.IFLT, ifFalse); break;
+            case EQUAL:        code.compare(Code.DCMPL); code.jumpIf(Code.IFNE, ifFalse); break;
+            case NOTEQUAL:     code.compare(Code.DCMPL); code.jumpIf(Code.IFEQ, ifFalse); break;
+            default: throw new UnsupportedOperationException("Cannot compile truth operator " + operator);
+        }
+    }
+
+    private void compileSetMembership(SetMembershipNode membership, Code code, Code.Label ifFalse) {
+        Class<?> testValueClass = valueClassOf(membership.getTestValue());
+        List<ExpressionNode> candidates = new ArrayList<>();
+        for (ExpressionNode setValue : membership.getSetValues()) {
+            Class<?> setValueClass = valueClassOf(setValue);
+            if (testValueClass == null || setValueClass == null)
+                throw new UnsupportedOperationException("Cannot compile '" + membership + "': " +
+                                                        "The value types of the set members are not known");
+            if (setValueClass == testValueClass) // others are never equal
+                candidates.add(setValue);
+        }
+
+        code.append(compileChild(membership.getTestValue()));
+        double[] constants = sortedConstantsOf(candidates);
+        if (constants != null && constants.length > maxLinearSetSize) {
+            code.invokeStatic(separateSearch(compileSearch(constants, 0, constants.length)),
+                              containsMethod, containsDescriptor, 2, 2);
+            code.pushDouble(0.0);
+            code.compare(Code.DCMPL);
+            code.jumpIf(Code.IFEQ, ifFalse);
+            return;
+        }
+
+        Code.Label found = new Code.Label();
+        int stack = code.stack();
+        for (ExpressionNode setValue : candidates) {
+            code.duplicateDouble();
+            code.append(compileChild(setValue));
+            code.compare(Code.DCMPL);
+            code.jumpIf(Code.IFEQ, found);
+        }
+        code.popDouble();
+        code.jump(ifFalse);
+        code.place(found, stack);
+        code.popDouble();
+    }
+
+    /**
+     * Returns the distinct values of the given nodes in ascending order, without NaN as it is never equal to anything,
+     * or null if any of the nodes is not a constant
+     */
+    private double[] sortedConstantsOf(List<ExpressionNode> nodes) {
+        double[] values = new double[nodes.size()];
+        int count = 0;
+        for (ExpressionNode node : nodes) {
+            while (node instanceof EmbracedNode)
+                node = ((EmbracedNode)node).getValue();
+            if ( ! (node instanceof ConstantNode)) return null;
+            double value = ((ConstantNode)node).getValue().asDouble();
+            if ( ! Double.isNaN(value))
+                values[count++] = value;
+        }
+        Arrays.sort(values, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || values[i] != values[distinct - 1]) // also drops -0.0 or 0.0 as they compare equal
+                values[distinct++] = values[i];
+        }
+        return Arrays.copyOf(values, distinct);
+    }
+
+    /**
+     * Returns code which pushes 1 if the double in local variable 0 equals one of the given values in the given range,
+     * and 0 otherwise. The values must be sorted.
+     */
+    private Code compileSearch(double[] values, int from, int to) {
+        Code code = new Code();
+        Code.Label end = new Code.Label();
+        if (to - from <= maxLinearSetSize) {
+            Code.Label found = new Code.Label();
+            for (int i = from; i < to; i++) {
+                code.loadDouble(0);
+                code.pushDouble(values[i]);
+                code.compare(Code.DCMPL);
+                code.jumpIf(Code.IFEQ, found);
+            }
+            code.pushDouble(0.0);
+            code.jump(end);
+            code.place(found, 0);
+            code.pushDouble(1.0);
+            code.place(end, 2);
+            return code;
+        }
+
+        // NaN compares as greater, and is not found in the upper half
+        int middle = (from + to) >>> 1;
+        Code.Label lower = new Code.Label();
+        code.loadDouble(0);
+        code.pushDouble(values[middle]);
+        code.compare(Code.DCMPG);
+        code.jumpIf(Code.IFLT, lower);
+        code.append(separateSearchIfLarge(compileSearch(values, middle, to)));
+        code.jump(end);
+        code.place(lower, 0);
+        code.append(separateSearchIfLarge(compileSearch(values, from, middle)));
+        code.place(end, 2);
+        return code;
+    }
+
+    private Code separateSearchIfLarge(Code search) {
+        if (search.size() <= maxInlineCodeSize) return search;
+
+        Code call = new Code();
+        call.loadDouble(0);
+        call.invokeStatic(separateSearch(search), containsMethod, containsDescriptor, 2, 2);
+        return call;
+    }
+
+    /** Moves the given search code to the contains method of a new class, and returns the name of the class */
+    private String separateSearch(Code search) {
+        String methodClassName = className + "$" + (classes.size() + 1);
+        search.returnDouble();
+        ClassFile methodClass = new ClassFile(methodClassName, "java/lang/Object");
+        methodClass.addMethod(ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC, containsMethod, containsDescriptor, 2, search);
+        classes.put(binaryName(methodClassName), methodClass.toBytes());
+        return methodClassName;
+    }
+
+    /**
+     * Returns the class of the values the given node evaluates to, or null if this is not known at compile time.
+     * This is needed as values of different classes are never equal, even though they have the same double value.
+     */
+    private Class<?> valueClassOf(ExpressionNode node) {
+        if (node instanceof ConstantNode)
+            return ((ConstantNode)node).getValue().getClass();
+        if (node instanceof EmbracedNode)
+            return valueClassOf(((EmbracedNode)node).getValue());
+        if (node instanceof ComparisonNode || node instanceof SetMembershipNode)
+            return BooleanValue.class;
+        if (node instanceof IfNode) {
+            Class<?> trueClass = valueClassOf(((IfNode)node).getTrueExpression());
+            Class<?> falseClass = valueClassOf(((IfNode)node).getFalseExpression());
+            return trueClass == falseClass ? trueClass : null;
+        }
+        return DoubleValue.class; // references, arithmetic and functions
+    }
+
+    private static String internalName(Class<?> type) {
+        return type.getName().replace('.', '/');
+    }
+
+    private static String binaryName(String internalName) {
+        return internalName.replace('/', '.');
+    }
+
+    private static class CodeItem {
+
+        final ArithmeticOperator op;
+        Code code;
+
+        CodeItem(ArithmeticOperator op, Code code) {
+            this.op = op;
+            this.code = code;
+        }
+
+    }
+
+    /** Defines the generated classes of a single compiled expression */
+    private static final class GeneratedClassLoader extends ClassLoader {
+
+        private final Map<String, byte[]> classes;
+
+        GeneratedClassLoader(ClassLoader parent, Map<String, byte[]> classes) {
+            super(parent);
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = classes.get(name);
+            if (bytes == null) throw new ClassNotFoundException(name);
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+
+    }
+
+}
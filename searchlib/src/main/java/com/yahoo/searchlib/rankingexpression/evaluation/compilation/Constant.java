@@ -0,0 +1,80 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.searchlib.rankingexpression.evaluation.compilation;
+
+import java.util.Objects;
+
+/**
+ * A constant which may be referenced from code, to be added to the constant pool of the class containing the code.
+ * Constants are value objects.
+ *
+ * @author bratseth
+ */
+abstract class Constant {
+
+    static final int FIELD = 9, METHOD = 10;
+
+    static final class IntegerConstant extends Constant {
+
+        final int value;
+
+        IntegerConstant(int value) { this.value = value; }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof IntegerConstant && ((IntegerConstant)o).value == value;
+        }
+
+        @Override
+        public int hashCode() { return Integer.hashCode(value); }
+
+    }
+
+    static final class DoubleConstant extends Constant {
+
+        final double value;
+
+        DoubleConstant(double value) { this.value = value; }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof DoubleConstant &&
+                   Double.doubleToRawLongBits(((DoubleConstant)o).value) == Double.doubleToRawLongBits(value);
+        }
+
+        @Override
+        public int hashCode() { return Long.hashCode(Double.doubleToRawLongBits(value)); }
+
+    }
+
+    /** A reference to a field or method */
+    static final class MemberConstant extends Constant {
+
+        /** FIELD or METHOD */
+        final int kind;
+
+        /** The internal name of the class declaring this member */
+        final String owner;
+        final String name;
+        final String descriptor;
+
+        MemberConstant(int kind, String owner, String name, String descriptor) {
+            this.kind = kind;
+            this.owner = owner;
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if ( ! (o instanceof MemberConstant)) return false;
+            MemberConstant other = (MemberConstant)o;
+            return other.kind == kind && other.owner.equals(owner) &&
+                   other.name.equals(name) && other.descriptor.equals(descriptor);
+        }
+
+        @Override
+        public int hashCode() { return Objects.hash(kind, owner, name, descriptor); }
+
+    }
+
+}
@@ -0,0 +1,159 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.searchlib.rankingexpression.evaluation.compilation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The constant pool of a class file being written. Each distinct constant is added once.
+ *
+ * @author bratseth
+ */
+final class ConstantPool {
+
+    private static final int UTF8 = 1, INTEGER = 3, DOUBLE = 6, CLASS = 7, NAME_AND_TYPE = 12;
+
+    private final Map<Object, Integer> indexes = new HashMap<>();
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(bytes);
+
+    /** The index of the next entry. Index 0 is not used */
+    private int nextIndex = 1;
+
+    /** Adds this constant if not already present and returns its index */
+    int add(Constant constant) {
+        Integer index = indexes.get(constant);
+        if (index != null) return index;
+
+        try {
+            if (constant instanceof Constant.IntegerConstant) {
+                index = newEntry(constant, INTEGER, 1);
+                out.writeInt(((Constant.IntegerConstant)constant).value);
+            }
+            else if (constant instanceof Constant.DoubleConstant) {
+                index = newEntry(constant, DOUBLE, 2);
+                out.writeDouble(((Constant.DoubleConstant)constant).value);
+            }
+            else if (constant instanceof Constant.MemberConstant) {
+                Constant.MemberConstant member = (Constant.MemberConstant)constant;
+                int owner = addClass(member.owner);
+                int nameAndType = addNameAndType(member.name, member.descriptor);
+                index = newEntry(constant, member.kind, 1);
+                out.writeShort(owner);
+                out.writeShort(nameAndType);
+            }
+            else {
+                throw new IllegalArgumentException("Unknown constant " + constant);
+            }
+            return index;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Returns the index of a constant which is added to this */
+    int indexOf(Constant constant) {
+        Integer index = indexes.get(constant);
+        if (index == null) throw new IllegalArgumentException(constant + " is not added to this constant pool");
+        return index;
+    }
+
+    /** Adds a class reference given by its internal name if not already present and returns its index */
+    int addClass(String internalName) {
+        Key key = new Key(CLASS, internalName);
+        Integer index = indexes.get(key);
+        if (index != null) return index;
+
+        int name = addUtf8(internalName);
+        index = newEntry(key, CLASS, 1);
+        writeShort(name);
+        return index;
+    }
+
+    /** Adds a string if not already present and returns its index */
+    int addUtf8(String string) {
+        Key key = new Key(UTF8, string);
+        Integer index = indexes.get(key);
+        if (index != null) return index;
+
+        index = newEntry(key, UTF8, 1);
+        try {
+            out.writeUTF(string);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return index;
+    }
+
+    private int addNameAndType(String name, String descriptor) {
+        Key key = new Key(NAME_AND_TYPE, name + " " + descriptor);
+        Integer index = indexes.get(key);
+        if (index != null) return index;
+
+        int nameIndex = addUtf8(name);
+        int descriptorIndex = addUtf8(descriptor);
+        index = newEntry(key, NAME_AND_TYPE, 1);
+        writeShort(nameIndex);
+        writeShort(descriptorIndex);
+        return index;
+    }
+
+    /** Writes the tag of a new entry taking the given number of slots and returns its index */
+    private int newEntry(Object key, int tag, int slots) {
+        if (nextIndex + slots > 0xffff)
+            throw new IllegalStateException("Constant pool overflow");
+        int index = nextIndex;
+        nextIndex += slots;
+        indexes.put(key, index);
+        try {
+            out.writeByte(tag);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return index;
+    }
+
+    private void writeShort(int value) {
+        try {
+            out.writeShort(value);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Writes the constant pool count followed by the entries of this */
+    void writeTo(DataOutputStream classFile) throws IOException {
+        classFile.writeShort(nextIndex);
+        bytes.writeTo(classFile);
+    }
+
+    private static final class Key {
+
+        private final int tag;
+        private final String value;
+
+        Key(int tag, String value) {
+            this.tag = tag;
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key)o).tag == tag && ((Key)o).value.equals(value);
+        }
+
+        @Override
+        public int hashCode() { return 31 * tag + value.hashCode(); }
+
+    }
+
+}
@@ -0,0 +1,100 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.searchlib.rankingexpression.evaluation.compilation;
+
+import com.yahoo.searchlib.rankingexpression.RankingExpression;
+import com.yahoo.searchlib.rankingexpression.evaluation.CompiledExpression;
+import com.yahoo.searchlib.rankingexpression.evaluation.DoubleOnlyArrayContext;
+import com.yahoo.searchlib.rankingexpression.evaluation.ExpressionCompiler;
+import com.yahoo.searchlib.rankingexpression.parser.ParseException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that compiled expressions produce the same values as interpreted evaluation
+ *
+ * @author bratseth
+ */
+public class ExpressionCompilerTestCase {
+
+    @Test
+    public void testCompilation() throws ParseException {
+        assertCompiles("0.5");
+        assertCompiles("-a");
+        assertCompiles("2*3+4*5 - a/b");
+        assertCompiles("a - b - c / 2 / b");
+        assertCompiles("(a + b) * (c - -a)");
+        assertCompiles("sqrt(a) + max(a, b) + pow(b, 2) + sigmoid(c) + atan2(a, c)");
+        assertCompiles("if (a < b, a, b) + if (a <= 1, 1, 2) + if (a > b, 1, 2) + if (c >= 0.5, 1, 2)");
+        assertCompiles("if (a == b, 1, 2) + if (a != b, 1, 2) + if (a ~= b, 1, 2) + if (c, 1, 2)");
+        assertCompiles("if (a in [1, 2, b], 1, 2) + if (a in [], 1, 2) + (a < b) * 10 + (a in [2, 3])");
+        assertCompiles("if (a < 2, if (b < 2, 5, 6), 4) + if (a < 3, 7, 8)");
+        assertCompiles("if (\"a\" == \"a\", 1, 0)");
+        assertCompiles("isNan(c) + if (c < 1, 1, 0) + if (c != 1, 1, 0)");
+    }
+
+    @Test
+    public void testLargeExpression() throws ParseException {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            if (i > 0) b.append(" + ");
+            b.append("if (a < ").append(i).append(", ").append(i * 0.5).append(", b * ").append(i).append(")");
+        }
+        assertCompiles(b.toString());
+    }
+
+    @Test
+    public void testLargeSets() throws ParseException {
+        assertCompiles("if (a in " + set(0, 20, 1) + ", 1, 2) + if (b in " + set(-10, 20, 1) + ", 1, 2)");
+        assertCompiles("if (a in " + set(10000, 10000, 3) + ", 1, 2) + if (c in " + set(0, 10000, 0.5) + ", 1, 2)");
+        assertCompiles("if (a in [b, " + set(0, 1000, 1).substring(1) + ", 1, 2)");
+    }
+
+    @Test
+    public void testTooLargeSetIsUnsupported() throws ParseException {
+        StringBuilder b = new StringBuilder("if (a in [");
+        for (int i = 0; i < 10000; i++)
+            b.append(i > 0 ? ", " : "").append("b + ").append(i);
+        RankingExpression expression = new RankingExpression(b.append("], 1, 2)").toString());
+        try {
+            new ExpressionCompiler().compile(expression, new DoubleOnlyArrayContext(expression));
+            fail("Expected exception");
+        }
+        catch (UnsupportedOperationException expected) {
+        }
+    }
+
+    @Test
+    public void testUnsupportedExpression() throws ParseException {
+        RankingExpression expression = new RankingExpression("reduce(tensor0, sum)");
+        try {
+            new ExpressionCompiler().compile(expression, new DoubleOnlyArrayContext(expression));
+            fail("Expected exception");
+        }
+        catch (UnsupportedOperationException expected) {
+        }
+    }
+
+    /** Returns a set expression of the given number of values starting at start */
+    private static String set(double start, int size, double step) {
+        StringBuilder b = new StringBuilder("[");
+        for (int i = 0; i < size; i++)
+            b.append(i > 0 ? ", " : "").append(start + i * step);
+        return b.append("]").toString();
+    }
+
+    private void assertCompiles(String expressionString) throws ParseException {
+        RankingExpression expression = new RankingExpression(expressionString);
+        DoubleOnlyArrayContext context = new DoubleOnlyArrayContext(expression, true);
+        CompiledExpression compiled = new ExpressionCompiler().compile(expression, context);
+        double[][] valueSets = { { 1, 2, 0.5 }, { 2, 1, -0.5 }, { 3, 3, Double.NaN }, { 0, 0, 0 } };
+        for (double[] values : valueSets) {
+            context.put("a", values[0]);
+            context.put("b", values[1]);
+            context.put("c", values[2]);
+            assertEquals(expressionString, expression.evaluate(context).asDouble(), compiled.evaluate(context), 0);
+        }
+    }
+
+}
@@ -20,6 +20,7 @@ import com.yahoo.vespa.http.client.core.OperationStatus;
 import com.yahoo.vespaxmlparser.VespaXMLFeedReader;
 import com.yahoo.yolean.Exceptions;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -27,9 +28,16 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Optional;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
@@ -41,6 +49,10 @@ import static com.yahoo.messagebus.ErrorCode.SEND_QUEUE_FULL;
  * The implementation is based on the code from V2, but the object model is rewritten to simplify the logic and
  * avoid using a threadpool that has no effect with all the extra that comes with it. V2 has one instance per thread
  * on the client, while this is one instance for all threads.
+ *
+ * If this is given a parser executor, the operations of a request are parsed in parallel by that executor
+ * while the request thread keeps reading operation data ahead of them. Operations are still sent in the order
+ * they are read, such that operations on the same document are never reordered.
  */
 class ClientFeederV3 {
 
@@ -61,6 +73,12 @@ class ClientFeederV3 {
     private String hostName;
     private AtomicInteger threadsAvailableForFeeding;
 
+    /** The executor parsing operations, or null to parse them in the request thread */
+    private final Executor parserExecutor;
+
+    /** The max number of operations of a request which are read and not yet sent when parsing in parallel */
+    private final int maxOperationsInParsing;
+
     ClientFeederV3(
             ReferencedResource<SharedSourceSession> sourceSession,
             FeedReaderFactory feedReaderFactory,
@@ -69,6 +87,29 @@ class ClientFeederV3 {
             Metric metric,
             ReplyHandler feedReplyHandler,
             AtomicInteger threadsAvailableForFeeding) {
+        this(sourceSession, feedReaderFactory, docTypeManager, clientId, metric, feedReplyHandler,
+             threadsAvailableForFeeding, null, 1);
+    }
+
+    /**
+     * Creates a client feeder
+     *
+     * @param parserExecutor the executor to parse operations in, or null to parse them in the request thread
+     * @param maxOperationsInParsing the max number of operations of a single request to read ahead and
+     *        parse in parallel, if a parser executor is given
+     */
+    ClientFeederV3(
+            ReferencedResource<SharedSourceSession> sourceSession,
+            FeedReaderFactory feedReaderFactory,
+            DocumentTypeManager docTypeManager,
+            String clientId,
+            Metric metric,
+            ReplyHandler feedReplyHandler,
+            AtomicInteger threadsAvailableForFeeding,
+            Executor parserExecutor,
+            int maxOperationsInParsing) {
+        this.parserExecutor = parserExecutor;
+        this.maxOperationsInParsing = maxOperationsInParsing;
         this.sourceSession = sourceSession;
         this.clientId = clientId;
         this.feedReplyHandler = feedReplyHandler;
@@ -232,6 +273,11 @@ class ClientFeederV3 {
             InputStream requestInputStream,
             BlockingQueue<OperationStatus> repliesFromOldMessages,
             AtomicInteger threadsAvailableForFeeding) throws InterruptedException {
+        if (parserExecutor != null) {
+            feedParsingInParallel(settings, requestInputStream, repliesFromOldMessages, threadsAvailableForFeeding);
+            return;
+        }
+
         while (true) {
 
             Optional<DocumentOperationMessageV3> msg = pullMessageFromRequest(settings, requestInputStream, repliesFromOldMessages);
@@ -239,34 +285,137 @@ class ClientFeederV3 {
             if (! msg.isPresent()) {
                 break;
             }
-            setMessageParameters(msg.get(), settings);
-
-            final Result result;
-            try {
-                result = sendMessage(settings, msg.get(), threadsAvailableForFeeding);
+            feedMessage(settings, msg.get(), repliesFromOldMessages, threadsAvailableForFeeding);
+        }
+    }
 
-            } catch  (RuntimeException e) {
-                repliesFromOldMessages.add(createOperationStatus(msg.get().getOperationId(), Exceptions.toMessageString(e),
-                        ErrorCode.ERROR, false, msg.get().getMessage()));
-                continue;
+    private void feedParsingInParallel(
+            FeederSettings settings,
+            InputStream requestInputStream,
+            BlockingQueue<OperationStatus> repliesFromOldMessages,
+            AtomicInteger threadsAvailableForFeeding) throws InterruptedException {
+        Deque<ParsingOperation> operationsInParsing = new ArrayDeque<>();
+        boolean endOfRequest = false;
+        while (true) {
+            while ( ! endOfRequest && operationsInParsing.size() < maxOperationsInParsing) {
+                Optional<ParsingOperation> operation = startParsingNextOperation(settings, requestInputStream);
+                if (operation.isPresent()) {
+                    operationsInParsing.addLast(operation.get());
+                } else {
+                    endOfRequest = true;
+                }
             }
 
-            if (result.isAccepted()) {
-                outstandingOperations.incrementAndGet();
-                updateOpsPerSec();
-                log(LogLevel.DEBUG, "Sent message successfully, document id: ", msg.get().getOperationId());
-            } else if (!result.getError().isFatal()) {
-                repliesFromOldMessages.add(createOperationStatus(msg.get().getOperationId(), result.getError().getMessage(),
-                        ErrorCode.TRANSIENT_ERROR, false, msg.get().getMessage()));
+            if (operationsInParsing.isEmpty()) {
+                break;
+            }
+            ParsingOperation operation = operationsInParsing.removeFirst();
+            final DocumentOperationMessageV3 msg;
+            try {
+                msg = operation.message.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (log.isLoggable(LogLevel.DEBUG)) {
+                    log.log(LogLevel.DEBUG, Exceptions.toMessageString(cause), cause);
+                }
+                repliesFromOldMessages.add(new OperationStatus(
+                        Exceptions.toMessageString(cause), operation.operationId, ErrorCode.ERROR, false, ""));
                 continue;
-            } else {
-                // should probably not happen, but everybody knows stuff that
-                // shouldn't happen, happens all the time
-                boolean isConditionNotMet = result.getError().getCode() == DocumentProtocol.ERROR_TEST_AND_SET_CONDITION_FAILED;
-                repliesFromOldMessages.add(createOperationStatus(msg.get().getOperationId(), result.getError().getMessage(),
-                        ErrorCode.ERROR, isConditionNotMet, msg.get().getMessage()));
+            }
+            if (msg == null) {
                 continue;
             }
+            setRoute(msg, settings);
+            feedMessage(settings, msg, repliesFromOldMessages, threadsAvailableForFeeding);
+        }
+    }
+
+    /**
+     * Reads the next operation of a request and starts parsing it in the parser executor,
+     * or returns empty if there are no more operations in the request.
+     */
+    private Optional<ParsingOperation> startParsingNextOperation(FeederSettings settings, InputStream requestInputStream) {
+        final Optional<String> operationId;
+        try {
+            operationId = streamReaderV3.getNextOperationId(requestInputStream);
+        } catch (IOException ioe) {
+            if (log.isLoggable(LogLevel.DEBUG)) {
+                log.log(LogLevel.DEBUG, Exceptions.toMessageString(ioe), ioe);
+            }
+            return Optional.empty();
+        }
+        if (! operationId.isPresent()) {
+            return Optional.empty();
+        }
+
+        CompletableFuture<DocumentOperationMessageV3> message;
+        try {
+            byte[] operationData = streamReaderV3.getNextOperationData(requestInputStream);
+            message = startParsing(operationId.get(), operationData, settings);
+        } catch (Exception e) {
+            message = new CompletableFuture<>();
+            message.completeExceptionally(e);
+        }
+        return Optional.of(new ParsingOperation(operationId.get(), message));
+    }
+
+    private CompletableFuture<DocumentOperationMessageV3> startParsing(String operationId, byte[] operationData,
+                                                                       FeederSettings settings) {
+        try {
+            return CompletableFuture.supplyAsync(() -> parseMessage(operationId, operationData, settings), parserExecutor);
+        } catch (RejectedExecutionException e) {
+            // The parser executor is shut down while this request is still running: Parse in this thread instead
+            CompletableFuture<DocumentOperationMessageV3> message = new CompletableFuture<>();
+            try {
+                message.complete(parseMessage(operationId, operationData, settings));
+            } catch (RuntimeException parseException) {
+                message.completeExceptionally(parseException);
+            }
+            return message;
+        }
+    }
+
+    private DocumentOperationMessageV3 parseMessage(String operationId, byte[] operationData, FeederSettings settings) {
+        try {
+            return createMessage(operationId,
+                                 streamReaderV3.parseOperation(new ByteArrayInputStream(operationData), settings));
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private void feedMessage(
+            FeederSettings settings,
+            DocumentOperationMessageV3 msg,
+            BlockingQueue<OperationStatus> repliesFromOldMessages,
+            AtomicInteger threadsAvailableForFeeding) throws InterruptedException {
+        setMessageParameters(msg, settings);
+
+        final Result result;
+        try {
+            result = sendMessage(settings, msg, threadsAvailableForFeeding);
+
+        } catch  (RuntimeException e) {
+            repliesFromOldMessages.add(createOperationStatus(msg.getOperationId(), Exceptions.toMessageString(e),
+                    ErrorCode.ERROR, false, msg.getMessage()));
+            return;
+        }
+
+        if (result.isAccepted()) {
+            outstandingOperations.incrementAndGet();
+            updateOpsPerSec();
+            log(LogLevel.DEBUG, "Sent message successfully, document id: ", msg.getOperationId());
+        } else if (!result.getError().isFatal()) {
+            repliesFromOldMessages.add(createOperationStatus(msg.getOperationId(), result.getError().getMessage(),
+                    ErrorCode.TRANSIENT_ERROR, false, msg.getMessage()));
+        } else {
+            // should probably not happen, but everybody knows stuff that
+            // shouldn't happen, happens all the time
+            boolean isConditionNotMet = result.getError().getCode() == DocumentProtocol.ERROR_TEST_AND_SET_CONDITION_FAILED;
+            repliesFromOldMessages.add(createOperationStatus(msg.getOperationId(), result.getError().getMessage(),
+                    ErrorCode.ERROR, isConditionNotMet, msg.getMessage()));
         }
     }
 
@@ -282,7 +431,10 @@ class ClientFeederV3 {
     protected DocumentOperationMessageV3 getNextMessage(
             String operationId, InputStream requestInputStream, FeederSettings settings) throws Exception {
         VespaXMLFeedReader.Operation operation = streamReaderV3.getNextOperation(requestInputStream, settings);
+        return createMessage(operationId, operation);
+    }
 
+    private DocumentOperationMessageV3 createMessage(String operationId, VespaXMLFeedReader.Operation operation) {
         // This is a bit hard to set up while testing, so we accept that things are not perfect.
         if (sourceSession.getResource().session() != null) {
             metric.set(
@@ -355,4 +507,19 @@ class ClientFeederV3 {
         }
     }
 
+    /** An operation which is read from a request and is being parsed */
+    private static class ParsingOperation {
+
+        final String operationId;
+
+        /** The message parsed from the operation, which is null if it is not a document operation */
+        final CompletableFuture<DocumentOperationMessageV3> message;
+
+        ParsingOperation(String operationId, CompletableFuture<DocumentOperationMessageV3> message) {
+            this.operationId = operationId;
+            this.message = message;
+        }
+
+    }
+
 }
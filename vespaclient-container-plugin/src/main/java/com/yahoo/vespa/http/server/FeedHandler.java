@@ -22,6 +22,7 @@ import com.yahoo.net.HostName;
 import com.yahoo.yolean.Exceptions;
 import com.yahoo.vespa.http.client.core.Headers;
 import com.yahoo.vespa.http.client.core.OperationStatus;
+import com.yahoo.vespaclient.config.FeederConfig;
 
 import javax.inject.Inject;
 import java.io.IOException;
@@ -59,6 +60,18 @@ public class FeedHandler extends LoggingRequestHandler {
     private final String localHostname;
     private final FeedHandlerV3 feedHandlerV3;
 
+    public FeedHandler(
+            Executor executor,
+            DocumentmanagerConfig documentManagerConfig,
+            SessionCache sessionCache,
+            Metric metric,
+            AccessLog accessLog,
+            ThreadpoolConfig threadpoolConfig,
+            MetricReceiver metricReceiver) throws Exception {
+        this(executor, documentManagerConfig, sessionCache, metric, accessLog, threadpoolConfig,
+             new FeederConfig(new FeederConfig.Builder()), metricReceiver);
+    }
+
     @Inject
     public FeedHandler(
             Executor executor,
@@ -67,10 +80,12 @@ public class FeedHandler extends LoggingRequestHandler {
             Metric metric,
             AccessLog accessLog,
             ThreadpoolConfig threadpoolConfig,
+            FeederConfig feederConfig,
             MetricReceiver metricReceiver) throws Exception {
         super(executor, accessLog);
         DocumentApiMetrics metricsHelper = new DocumentApiMetrics(metricReceiver, "vespa.http.server");
-        feedHandlerV3 = new FeedHandlerV3(executor, documentManagerConfig, sessionCache, metric, accessLog, threadpoolConfig, metricsHelper);
+        feedHandlerV3 = new FeedHandlerV3(executor, documentManagerConfig, sessionCache, metric, accessLog,
+                                          threadpoolConfig, feederConfig, metricsHelper);
         docTypeManager = createDocumentManager(documentManagerConfig);
         clients = new HashMap<>();
         this.sessionCache = sessionCache;
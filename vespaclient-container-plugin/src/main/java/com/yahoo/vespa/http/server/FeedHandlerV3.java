@@ -18,12 +18,15 @@ import com.yahoo.messagebus.ReplyHandler;
 import com.yahoo.messagebus.SourceSessionParams;
 import com.yahoo.messagebus.shared.SharedSourceSession;
 import com.yahoo.vespa.http.client.core.Headers;
+import com.yahoo.vespaclient.config.FeederConfig;
 import com.yahoo.yolean.Exceptions;
 
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -41,6 +44,9 @@ public class FeedHandlerV3 extends LoggingRequestHandler {
     private DocumentTypeManager docTypeManager;
     private final Map<String, ClientFeederV3> clientFeederByClientId = new HashMap<>();
     private final ScheduledThreadPoolExecutor cron;
+    /** Parses the operations of all clients in parallel, or null if operations are parsed in the request threads */
+    private final ExecutorService parsers;
+    private final int maxOperationsInParsingPerRequest;
     private final SessionCache sessionCache;
     protected final ReplyHandler feedReplyHandler;
     private final Metric metric;
@@ -56,12 +62,30 @@ public class FeedHandlerV3 extends LoggingRequestHandler {
             AccessLog accessLog,
             ThreadpoolConfig threadpoolConfig,
             DocumentApiMetrics metricsHelper) throws Exception {
+        this(executor, documentManagerConfig, sessionCache, metric, accessLog, threadpoolConfig,
+             new FeederConfig(new FeederConfig.Builder()), metricsHelper);
+    }
+
+    public FeedHandlerV3(
+            Executor executor,
+            DocumentmanagerConfig documentManagerConfig,
+            SessionCache sessionCache,
+            Metric metric,
+            AccessLog accessLog,
+            ThreadpoolConfig threadpoolConfig,
+            FeederConfig feederConfig,
+            DocumentApiMetrics metricsHelper) throws Exception {
         super(executor, accessLog);
         docTypeManager = new DocumentTypeManager(documentManagerConfig);
         this.sessionCache = sessionCache;
         feedReplyHandler = new FeedReplyReader(metric, metricsHelper);
         cron = new ScheduledThreadPoolExecutor(1, ThreadFactoryFactory.getThreadFactory("feedhandlerv3.cron"));
         cron.scheduleWithFixedDelay(this::removeOldClients, 16, 11, TimeUnit.MINUTES);
+        int parserThreads = feederConfig.parserthreads();
+        parsers = parserThreads > 0
+                  ? Executors.newFixedThreadPool(parserThreads, ThreadFactoryFactory.getDaemonThreadFactory("feedhandlerv3.parser"))
+                  : null;
+        maxOperationsInParsingPerRequest = Math.max(1, feederConfig.parserreadahead()) * Math.max(1, parserThreads);
         this.metric = metric;
         // 40% of the threads can be blocking on feeding before we deny requests.
         if (threadpoolConfig != null) {
@@ -94,7 +118,9 @@ public class FeedHandlerV3 extends LoggingRequestHandler {
                                 clientId,
                                 metric,
                                 feedReplyHandler,
-                                threadsAvailableForFeeding));
+                                threadsAvailableForFeeding,
+                                parsers,
+                                maxOperationsInParsingPerRequest));
             }
             clientFeederV3 = clientFeederByClientId.get(clientId);
         }
@@ -121,6 +147,10 @@ public class FeedHandlerV3 extends LoggingRequestHandler {
         // We are forking this to avoid that accidental dereferrencing causes any random thread doing destruction.
         // This caused a deadlock when the single Messenger thread in MessageBus was the last one referring this
         // and started destructing something that required something only the messenger thread could provide.
+        // Operations of requests still running when the parsers are shut down are parsed in the request threads.
+        if (parsers != null) {
+            parsers.shutdown();
+        }
         Thread destroyer = new Thread(() -> {
             super.destroy();
             cron.shutdown();
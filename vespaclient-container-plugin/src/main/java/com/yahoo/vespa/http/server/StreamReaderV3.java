@@ -32,14 +32,36 @@ public class StreamReaderV3 {
 
     public VespaXMLFeedReader.Operation getNextOperation(
             InputStream requestInputStream, FeederSettings settings) throws Exception {
-        VespaXMLFeedReader.Operation op = new VespaXMLFeedReader.Operation();
-
         int length = readByteLength(requestInputStream);
 
         try (InputStream limitedInputStream = new ByteLimitedInputStream(requestInputStream, length)){
-            FeedReader reader = feedReaderFactory.createReader(limitedInputStream, docTypeManager, settings.dataFormat);
-            reader.read(op);
+            return parseOperation(limitedInputStream, settings);
+        }
+    }
+
+    /**
+     * Reads the data of the next operation without parsing it, such that it can be parsed by
+     * {@link #parseOperation} in another thread.
+     */
+    public byte[] getNextOperationData(InputStream requestInputStream) throws IOException {
+        int length = readByteLength(requestInputStream);
+        byte[] data = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int count = requestInputStream.read(data, read, length - read);
+            if (count < 0) {
+                throw new IllegalStateException("Operation data ended after " + read + " of " + length + " bytes.");
+            }
+            read += count;
         }
+        return data;
+    }
+
+    /** Parses the data of a single operation */
+    public VespaXMLFeedReader.Operation parseOperation(InputStream operationData, FeederSettings settings) throws Exception {
+        VespaXMLFeedReader.Operation op = new VespaXMLFeedReader.Operation();
+        FeedReader reader = feedReaderFactory.createReader(operationData, docTypeManager, settings.dataFormat);
+        reader.read(op);
         return op;
     }
 
@@ -0,0 +1,211 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.vespa.http.server;
+
+import com.yahoo.container.jdisc.HttpRequest;
+import com.yahoo.container.jdisc.HttpResponse;
+import com.yahoo.container.jdisc.messagebus.SessionCache;
+import com.yahoo.container.logging.AccessLog;
+import com.yahoo.document.DataType;
+import com.yahoo.document.DocumentType;
+import com.yahoo.document.DocumentTypeManager;
+import com.yahoo.document.config.DocumentmanagerConfig;
+import com.yahoo.documentapi.messagebus.protocol.PutDocumentMessage;
+import com.yahoo.documentapi.metrics.DocumentApiMetrics;
+import com.yahoo.feedhandler.NullFeedMetric;
+import com.yahoo.jdisc.ReferencedResource;
+import com.yahoo.messagebus.Result;
+import com.yahoo.messagebus.SourceSessionParams;
+import com.yahoo.messagebus.shared.SharedSourceSession;
+import com.yahoo.metrics.simple.MetricReceiver;
+import com.yahoo.text.Utf8;
+import com.yahoo.vespa.http.client.config.FeedParams;
+import com.yahoo.vespa.http.client.core.ErrorCode;
+import com.yahoo.vespa.http.client.core.Headers;
+import com.yahoo.vespa.http.client.core.OperationStatus;
+import com.yahoo.vespaclient.config.FeederConfig;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyObject;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests parsing the operations of feed requests in parallel.
+ *
+ * @author bratseth
+ */
+public class V3ParallelParsingTestCase {
+
+    private final ExecutorService threadPool = Executors.newCachedThreadPool();
+
+    /** The operation id, document id and title of each message sent, in the order they were sent */
+    private final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+
+    @After
+    public void shutdown() {
+        threadPool.shutdown();
+    }
+
+    @Test
+    public void operationsAreSentInTheOrderTheyAreRead() throws Exception {
+        FeedHandlerV3 handler = createHandler(4, 2);
+        List<String> operations = new ArrayList<>();
+        for (int i = 0; i < 200; i++)
+            operations.add(put("id:testdocument:testdocument::" + (i % 7), "title" + i));
+
+        Map<String, OperationStatus> replies = feed(handler, operations);
+
+        assertEquals(expectedSent(operations.size(), Collections.emptyList()), sent);
+        assertEquals(operations.size(), replies.size());
+        for (OperationStatus reply : replies.values())
+            assertEquals(ErrorCode.OK, reply.errorCode);
+    }
+
+    @Test
+    public void errorsInOperationsAreReportedForThoseOperationsOnly() throws Exception {
+        FeedHandlerV3 handler = createHandler(4, 2);
+        List<String> operations = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            if (i == 3 || i == 30)
+                operations.add("[{\"put\": \"id:testdocument:testdocument::" + (i % 7) + "\", \"fields\": { \"nosuchfield\": \"value\"}}]");
+            else if (i == 31)
+                operations.add("[{\"put\": \"id:testdocument:testdocument::" + (i % 7) + "\", \"fields\": { \"title\": ");
+            else
+                operations.add(put("id:testdocument:testdocument::" + (i % 7), "title" + i));
+        }
+
+        Map<String, OperationStatus> replies = feed(handler, operations);
+
+        List<Integer> failing = Arrays.asList(3, 30, 31);
+        assertEquals(expectedSent(operations.size(), failing), sent);
+        assertEquals(operations.size(), replies.size());
+        for (int i = 0; i < operations.size(); i++) {
+            OperationStatus reply = replies.get(operationId(i));
+            assertEquals("Reply to operation " + i, failing.contains(i) ? ErrorCode.ERROR : ErrorCode.OK, reply.errorCode);
+        }
+        assertTrue(replies.get(operationId(3)).message.contains("nosuchfield"));
+    }
+
+    @Test
+    public void operationsAreParsedInTheRequestThreadWhenTheParsersAreShutDown() throws Exception {
+        FeedHandlerV3 handler = createHandler(2, 4);
+        handler.destroy();
+        List<String> operations = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+            operations.add(put("id:testdocument:testdocument::" + (i % 7), "title" + i));
+
+        Map<String, OperationStatus> replies = feed(handler, operations);
+
+        assertEquals(expectedSent(operations.size(), Collections.emptyList()), sent);
+        for (OperationStatus reply : replies.values())
+            assertEquals(ErrorCode.OK, reply.errorCode);
+    }
+
+    private List<String> expectedSent(int operations, List<Integer> failing) {
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < operations; i++) {
+            if (failing.contains(i)) continue;
+            expected.add(operationId(i) + " id:testdocument:testdocument::" + (i % 7) + " title" + i);
+        }
+        return expected;
+    }
+
+    private Map<String, OperationStatus> feed(FeedHandlerV3 handler, List<String> operations) throws Exception {
+        HttpResponse response = handler.handle(createRequest(operations));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.render(out);
+        Map<String, OperationStatus> replies = new HashMap<>();
+        for (String line : Utf8.toString(out.toByteArray()).split("\n")) {
+            if (line.isEmpty()) continue;
+            OperationStatus status = OperationStatus.parse(line);
+            replies.put(status.operationId, status);
+        }
+        return replies;
+    }
+
+    private static String put(String documentId, String title) {
+        return "[{\"put\": \"" + documentId + "\", \"fields\": { \"title\": \"" + title + "\"}}]";
+    }
+
+    private static String operationId(int i) {
+        return "op" + i;
+    }
+
+    private HttpRequest createRequest(List<String> operations) {
+        StringBuilder wireData = new StringBuilder();
+        for (int i = 0; i < operations.size(); i++) {
+            String operation = operations.get(i);
+            wireData.append(operationId(i)).append(" ").append(Integer.toHexString(Utf8.byteCount(operation)))
+                    .append("\n").append(operation);
+        }
+        HttpRequest request = HttpRequest.createTestRequest(
+                "http://dummyhostname:19020/reserved-for-internal-use/feedapi",
+                com.yahoo.jdisc.http.HttpRequest.Method.POST,
+                new ByteArrayInputStream(Utf8.toBytes(wireData.toString())));
+        request.getJDiscRequest().headers().add(Headers.VERSION, "3");
+        request.getJDiscRequest().headers().add(Headers.DATA_FORMAT, FeedParams.DataFormat.JSON_UTF8.name());
+        request.getJDiscRequest().headers().add(Headers.TIMEOUT, "1000000000");
+        request.getJDiscRequest().headers().add(Headers.CLIENT_ID, "client123");
+        request.getJDiscRequest().headers().add(Headers.PRIORITY, "LOWEST");
+        request.getJDiscRequest().headers().add(Headers.DRAIN, "true");
+        return request;
+    }
+
+    private FeedHandlerV3 createHandler(int parserThreads, int parserReadAhead) throws Exception {
+        DocumentmanagerConfig documentManagerConfig = new DocumentmanagerConfig(new DocumentmanagerConfig.Builder());
+        FeederConfig feederConfig = new FeederConfig(new FeederConfig.Builder().parserthreads(parserThreads)
+                                                                               .parserreadahead(parserReadAhead));
+        FeedHandlerV3 handler = new FeedHandlerV3(threadPool, documentManagerConfig, null, new NullFeedMetric(),
+                                                  AccessLog.voidAccessLog(), null, feederConfig,
+                                                  new DocumentApiMetrics(MetricReceiver.nullImplementation, "test")) {
+            @Override
+            protected ReferencedResource<SharedSourceSession> retainSource(SessionCache sessionCache,
+                                                                           SourceSessionParams sessionParams) {
+                return new ReferencedResource<>(recordingSession(), () -> {});
+            }
+        };
+        DocumentTypeManager types = new DocumentTypeManager();
+        DocumentType type = new DocumentType("testdocument");
+        type.addField("title", DataType.STRING);
+        types.registerDocumentType(type);
+        handler.injectDocumentManangerForTests(types);
+        return handler;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private SharedSourceSession recordingSession() {
+        SharedSourceSession session = mock(SharedSourceSession.class);
+        try {
+            Mockito.stub(session.sendMessageBlocking(anyObject())).toAnswer((Answer) invocation -> {
+                PutDocumentMessage put = (PutDocumentMessage)invocation.getArguments()[0];
+                ReplyContext context = (ReplyContext)put.getContext();
+                sent.add(context.docId + " " + put.getDocumentPut().getDocument().getId() + " " +
+                         put.getDocumentPut().getDocument().getFieldValue("title"));
+                context.feedReplies.add(new OperationStatus("message", context.docId, ErrorCode.OK, false, "trace"));
+                Result result = mock(Result.class);
+                when(result.isAccepted()).thenReturn(true);
+                return result;
+            });
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        return session;
+    }
+
+}
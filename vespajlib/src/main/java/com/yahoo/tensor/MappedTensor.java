@@ -4,11 +4,23 @@ package com.yahoo.tensor;
 import com.google.common.annotations.Beta;
 import com.google.common.collect.ImmutableMap;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * A sparse implementation of a tensor backed by a Map of cells to values.
+ * A sparse implementation of a tensor.
+ * <p>
+ * The distinct labels of a tensor are stored once, and each cell is represented by the ids of its labels
+ * (their index in the sorted array of distinct labels) and its value, stored in primitive arrays.
+ * Cells are looked up by an open addressing hash index over the label ids. Indexes over the labels of subsets of
+ * the dimensions, used to join and reduce, are created on demand and kept in the tensor for reuse.
  *
  * @author bratseth
  */
@@ -17,34 +29,146 @@ public class MappedTensor implements Tensor {
 
     private final TensorType type;
 
-    private final ImmutableMap<TensorAddress, Double> cells;
+    /** The number of dimensions of the type of this */
+    private final int dimensions;
+
+    /** The distinct labels of this, in sorted order. A label id is an index into this */
+    private final String[] labels;
+
+    /** The label ids of each cell, in the order of the dimensions of the type, one cell after the other */
+    private final int[] labelIds;
+
+    /** The values of the cells of this */
+    private final double[] values;
+
+    /** The index of the cells by all dimensions */
+    private final Index index;
+
+    /** Indexes by subsets of the dimensions, created on demand. Key: the indexes of the dimensions. */
+    private volatile Map<List<Integer>, Index> partialIndexes = null;
+
+    /** The cells of this as a map, created on demand */
+    private volatile Map<TensorAddress, Double> cells = null;
 
     /** Creates a sparse tensor. The cell addresses must match the type. */
     private MappedTensor(TensorType type, Map<TensorAddress, Double> cells) {
         this.type = type;
-        this.cells = ImmutableMap.copyOf(cells);
+        this.dimensions = type.dimensions().size();
+
+        TreeSet<String> distinctLabels = new TreeSet<>();
+        for (TensorAddress address : cells.keySet())
+            for (int i = 0; i < address.size(); i++)
+                distinctLabels.add(address.label(i));
+        this.labels = distinctLabels.toArray(new String[distinctLabels.size()]);
+
+        this.labelIds = new int[cells.size() * dimensions];
+        this.values = new double[cells.size()];
+        int cellIndex = 0;
+        for (Map.Entry<TensorAddress, Double> cell : cells.entrySet()) {
+            for (int i = 0; i < dimensions; i++)
+                labelIds[cellIndex * dimensions + i] = labelIdOf(cell.getKey().label(i));
+            values[cellIndex++] = cell.getValue();
+        }
+        this.index = new Index(allDimensions(dimensions));
     }
 
     @Override
     public TensorType type() { return type; }
-    
+
     @Override
-    public int size() { return cells.size(); }
+    public int size() { return values.length; }
 
     @Override
-    public double get(TensorAddress address) { return cells.getOrDefault(address, Double.NaN); }
+    public double get(TensorAddress address) {
+        if (address.size() != dimensions) return Double.NaN;
+        int[] ids = new int[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            ids[i] = labelIdOf(address.label(i));
+            if (ids[i] < 0) return Double.NaN;
+        }
+        int cellIndex = index.groupOf(ids);
+        if (cellIndex < 0) return Double.NaN;
+        return values[cellIndex];
+    }
 
     @Override
-    public Iterator<Cell> cellIterator() { return new CellIteratorAdaptor(cells.entrySet().iterator()); }
+    public Iterator<Cell> cellIterator() { return new CellIterator(); }
 
     @Override
-    public Iterator<Double> valueIterator() { return cells.values().iterator(); }
+    public Iterator<Double> valueIterator() { return new ValueIterator(); }
 
     @Override
-    public Map<TensorAddress, Double> cells() { return cells; }
+    public Map<TensorAddress, Double> cells() {
+        Map<TensorAddress, Double> cells = this.cells;
+        if (cells == null) { // racing threads may create equal maps, which is harmless
+            ImmutableMap.Builder<TensorAddress, Double> builder = new ImmutableMap.Builder<>();
+            for (int i = 0; i < values.length; i++)
+                builder.put(address(i), values[i]);
+            this.cells = cells = builder.build();
+        }
+        return cells;
+    }
+
+    /** Returns the address of the cell at the given index in the internal layout of this */
+    public TensorAddress address(int cellIndex) {
+        String[] cellLabels = new String[dimensions];
+        for (int i = 0; i < dimensions; i++)
+            cellLabels[i] = labels[labelId(cellIndex, i)];
+        return TensorAddress.of(cellLabels);
+    }
+
+    /**
+     * Returns the value of the cell at the given index in the internal layout of this tensor.
+     * This requires knowledge of the internal layout of cells in this implementation, and should therefore
+     * probably not be used (but when it can be used it is fast).
+     */
+    public double getByDirectIndex(int cellIndex) { return values[cellIndex]; }
+
+    /** Returns the id of the label of the cell at the given index in the given dimension */
+    public int labelId(int cellIndex, int dimensionIndex) { return labelIds[cellIndex * dimensions + dimensionIndex]; }
+
+    /** Returns the id of the given label in this, or -1 if this has no cell with this label */
+    public int labelIdOf(String label) {
+        int id = Arrays.binarySearch(labels, label);
+        return id < 0 ? -1 : id;
+    }
+
+    /** Returns the label having the given id in this */
+    public String label(int labelId) { return labels[labelId]; }
+
+    /** Returns the number of distinct labels in this */
+    public int labelCount() { return labels.length; }
+
+    /**
+     * Returns an index of the cells of this by their labels in the given dimensions.
+     * The index is created on the first request for these dimensions and reused later.
+     *
+     * @param dimensionIndexes the indexes of the dimensions to index by, in the order of the dimensions of the type
+     */
+    public Index index(int[] dimensionIndexes) {
+        if (dimensionIndexes.length == dimensions) return index;
+
+        List<Integer> key = new ArrayList<>(dimensionIndexes.length);
+        for (int dimensionIndex : dimensionIndexes)
+            key.add(dimensionIndex);
+        Map<List<Integer>, Index> partialIndexes = this.partialIndexes;
+        if (partialIndexes == null) {
+            synchronized (this) {
+                if (this.partialIndexes == null)
+                    this.partialIndexes = new ConcurrentHashMap<>();
+                partialIndexes = this.partialIndexes;
+            }
+        }
+        return partialIndexes.computeIfAbsent(key, k -> new Index(dimensionIndexes.clone()));
+    }
 
     @Override
-    public int hashCode() { return cells.hashCode(); }
+    public int hashCode() {
+        int hashCode = 0; // same as the hash code of cells()
+        for (int i = 0; i < values.length; i++)
+            hashCode += address(i).hashCode() ^ Double.hashCode(values[i]);
+        return hashCode;
+    }
 
     @Override
     public String toString() { return Tensor.toStandardString(this); }
@@ -55,17 +179,168 @@ public class MappedTensor implements Tensor {
         return Tensor.equals(this, ((Tensor)other));
     }
 
+    private static int[] allDimensions(int dimensions) {
+        int[] dimensionIndexes = new int[dimensions];
+        for (int i = 0; i < dimensions; i++)
+            dimensionIndexes[i] = i;
+        return dimensionIndexes;
+    }
+
+    /**
+     * An open addressing hash index of the cells of this tensor by their label ids in a subset of the dimensions.
+     * Cells having the same labels in those dimensions form a group, which can be looked up by those labels.
+     * When all dimensions are indexed each group is a single cell, and the group id is the cell index.
+     * <p>
+     * This is multithread safe.
+     */
+    public final class Index {
+
+        /** The indexes of the dimensions this indexes by */
+        private final int[] dimensionIndexes;
+
+        /** The group id + 1 at each slot of the hash table, 0 if the slot is empty. The length is a power of two. */
+        private final int[] table;
+
+        /** The cells of each group, one group after the other, or null when each group is a single cell */
+        private final int[] cellIndexes;
+
+        /** The index into cellIndexes of the first cell in each group, and finally the size of cellIndexes */
+        private final int[] groupStarts;
+
+        private Index(int[] dimensionIndexes) {
+            this.dimensionIndexes = dimensionIndexes;
+            this.table = new int[tableSizeFor(values.length)];
+            if (dimensionIndexes.length == dimensions) { // cells are unique
+                for (int cell = 0; cell < values.length; cell++)
+                    table[findSlot(cell)] = cell + 1;
+                cellIndexes = null;
+                groupStarts = null;
+            }
+            else {
+                int[] groupOfCell = new int[values.length];
+                int[] firstCellOfGroup = new int[values.length];
+                int[] groupSizes = new int[values.length];
+                int groupCount = 0;
+                for (int cell = 0; cell < values.length; cell++) {
+                    int slot = findSlot(cell, firstCellOfGroup);
+                    if (table[slot] == 0) {
+                        firstCellOfGroup[groupCount] = cell;
+                        table[slot] = ++groupCount;
+                    }
+                    groupOfCell[cell] = table[slot] - 1;
+                    groupSizes[groupOfCell[cell]]++;
+                }
+                groupStarts = new int[groupCount + 1];
+                for (int group = 0; group < groupCount; group++)
+                    groupStarts[group + 1] = groupStarts[group] + groupSizes[group];
+                int[] nextInGroup = Arrays.copyOf(groupStarts, groupCount);
+                cellIndexes = new int[values.length];
+                for (int cell = 0; cell < values.length; cell++)
+                    cellIndexes[nextInGroup[groupOfCell[cell]]++] = cell;
+            }
+        }
+
+        /**
+         * Returns the group having the given label ids, or -1 if there is none
+         *
+         * @param groupLabelIds the label ids (in this tensor) of the group, one for each dimension of this index
+         */
+        public int groupOf(int[] groupLabelIds) {
+            int mask = table.length - 1;
+            for (int slot = hash(groupLabelIds) & mask; ; slot = (slot + 1) & mask) {
+                if (table[slot] == 0) return -1;
+                if (hasLabels(firstCellOf(table[slot] - 1), groupLabelIds)) return table[slot] - 1;
+            }
+        }
+
+        /** Returns the number of cells in the given group */
+        public int groupSize(int group) {
+            if (cellIndexes == null) return 1;
+            return groupStarts[group + 1] - groupStarts[group];
+        }
+
+        /** Returns the index of the n'th cell in the given group */
+        public int cellOf(int group, int n) {
+            if (cellIndexes == null) return group;
+            return cellIndexes[groupStarts[group] + n];
+        }
+
+        /** Returns the number of groups in this */
+        public int groupCount() {
+            if (cellIndexes == null) return values.length;
+            return groupStarts.length - 1;
+        }
+
+        private int firstCellOf(int group) { return cellOf(group, 0); }
+
+        /** Returns the slot of the given cell, where the cell id is the group id */
+        private int findSlot(int cell) {
+            int mask = table.length - 1;
+            for (int slot = hash(cell) & mask; ; slot = (slot + 1) & mask) {
+                if (table[slot] == 0) return slot;
+                if (haveSameLabels(table[slot] - 1, cell))
+                    throw new IllegalArgumentException("Multiple cells with address " + address(cell));
+            }
+        }
+
+        /** Returns the slot of the group of the given cell, or the empty slot where it should be inserted */
+        private int findSlot(int cell, int[] firstCellOfGroup) {
+            int mask = table.length - 1;
+            for (int slot = hash(cell) & mask; ; slot = (slot + 1) & mask) {
+                if (table[slot] == 0) return slot;
+                if (haveSameLabels(firstCellOfGroup[table[slot] - 1], cell)) return slot;
+            }
+        }
+
+        private boolean hasLabels(int cell, int[] groupLabelIds) {
+            for (int i = 0; i < dimensionIndexes.length; i++)
+                if (labelId(cell, dimensionIndexes[i]) != groupLabelIds[i]) return false;
+            return true;
+        }
+
+        private boolean haveSameLabels(int cell1, int cell2) {
+            for (int dimensionIndex : dimensionIndexes)
+                if (labelId(cell1, dimensionIndex) != labelId(cell2, dimensionIndex)) return false;
+            return true;
+        }
+
+        private int hash(int cell) {
+            int hash = 1;
+            for (int dimensionIndex : dimensionIndexes)
+                hash = 31 * hash + labelId(cell, dimensionIndex);
+            return spread(hash);
+        }
+
+        private int hash(int[] groupLabelIds) {
+            int hash = 1;
+            for (int labelId : groupLabelIds)
+                hash = 31 * hash + labelId;
+            return spread(hash);
+        }
+
+        private int spread(int hash) {
+            hash *= 0x9E3779B9;
+            return hash ^ (hash >>> 16);
+        }
+
+        /** Returns the smallest power of two which is at least twice the given size */
+        private int tableSizeFor(int size) {
+            return Integer.highestOneBit(Math.max(1, size) * 2 - 1) << 1;
+        }
+
+    }
+
     public static class Builder implements Tensor.Builder {
-    
+
         private final TensorType type;
-        private final ImmutableMap.Builder<TensorAddress, Double> cells = new ImmutableMap.Builder<>();
-    
+        private final Map<TensorAddress, Double> cells = new LinkedHashMap<>();
+
         public static Builder of(TensorType type) { return new Builder(type); }
 
         private Builder(TensorType type) {
             this.type = type;
         }
-        
+
         public CellBuilder cell() {
             return new CellBuilder(type, this);
         }
@@ -75,38 +350,51 @@ public class MappedTensor implements Tensor {
 
         @Override
         public Builder cell(TensorAddress address, double value) {
-            cells.put(address, value);
+            if (cells.put(address, value) != null)
+                throw new IllegalArgumentException("Multiple cells with address " + address.toString(type));
             return this;
         }
 
         @Override
         public Builder cell(double value, int... labels) {
-            cells.put(TensorAddress.of(labels), value);
-            return this;
+            return cell(TensorAddress.of(labels), value);
         }
 
         @Override
         public MappedTensor build() {
-            return new MappedTensor(type, cells.build());
+            return new MappedTensor(type, cells);
         }
-    
+
     }
 
-    private static class CellIteratorAdaptor implements Iterator<Cell> {
+    private class CellIterator implements Iterator<Cell> {
+
+        private int cellIndex = 0;
 
-        private final Iterator<Map.Entry<TensorAddress, Double>> adaptedIterator;
-        
-        private CellIteratorAdaptor(Iterator<Map.Entry<TensorAddress, Double>> adaptedIterator) {
-            this.adaptedIterator = adaptedIterator;
-        }
-        
         @Override
-        public boolean hasNext() { return adaptedIterator.hasNext(); }
+        public boolean hasNext() { return cellIndex < values.length; }
 
         @Override
         public Cell next() {
-            Map.Entry<TensorAddress, Double> entry = adaptedIterator.next();
-            return new Cell(entry.getKey(), entry.getValue()); 
+            if ( ! hasNext()) throw new NoSuchElementException("No cell at " + cellIndex);
+            Cell cell = new Cell(address(cellIndex), values[cellIndex]);
+            cellIndex++;
+            return cell;
+        }
+
+    }
+
+    private class ValueIterator implements Iterator<Double> {
+
+        private int cellIndex = 0;
+
+        @Override
+        public boolean hasNext() { return cellIndex < values.length; }
+
+        @Override
+        public Double next() {
+            if ( ! hasNext()) throw new NoSuchElementException("No cell at " + cellIndex);
+            return values[cellIndex++];
         }
 
     }
@@ -3,10 +3,9 @@ package com.yahoo.tensor.functions;
 
 import com.google.common.annotations.Beta;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Sets;
 import com.yahoo.tensor.DimensionSizes;
 import com.yahoo.tensor.IndexedTensor;
-import com.yahoo.tensor.PartialAddress;
+import com.yahoo.tensor.MappedTensor;
 import com.yahoo.tensor.Tensor;
 import com.yahoo.tensor.TensorAddress;
 import com.yahoo.tensor.TensorType;
@@ -15,13 +14,11 @@ import com.yahoo.tensor.evaluation.EvaluationContext;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.Set;
 import java.util.function.DoubleBinaryOperator;
 
 /**
@@ -72,37 +69,110 @@ public class Join extends PrimitiveTensorFunction {
 
     @Override
     public Tensor evaluate(EvaluationContext context) {
-        Tensor a = argumentA.evaluate(context);
-        Tensor b = argumentB.evaluate(context);
+        return evaluate(argumentA.evaluate(context), argumentB.evaluate(context));
+    }
+
+    /** Returns the result of joining the two given (already evaluated) argument tensors */
+    Tensor evaluate(Tensor a, Tensor b) {
         TensorType joinedType = new TensorType.Builder(a.type(), b.type()).build();
 
         // Choose join algorithm
-        if (hasSingleIndexedDimension(a) && hasSingleIndexedDimension(b) && a.type().dimensions().get(0).name().equals(b.type().dimensions().get(0).name()))
-            return indexedVectorJoin((IndexedTensor)a, (IndexedTensor)b, joinedType);
+        if (a instanceof IndexedTensor && b instanceof IndexedTensor)
+            return indexedJoin((IndexedTensor)a, (IndexedTensor)b, joinedType);
+        else if (a instanceof MappedTensor && b instanceof MappedTensor)
+            return mappedJoin((MappedTensor)a, (MappedTensor)b, joinedType);
         else if (joinedType.dimensions().size() == a.type().dimensions().size() && joinedType.dimensions().size() == b.type().dimensions().size())
             return singleSpaceJoin(a, b, joinedType);
         else if (a.type().dimensions().containsAll(b.type().dimensions()))
-            return subspaceJoin(b, a, joinedType, true);
+            return generalSubspaceJoin(b, a, joinedType, true);
         else if (b.type().dimensions().containsAll(a.type().dimensions()))
-            return subspaceJoin(a, b, joinedType, false);
+            return generalSubspaceJoin(a, b, joinedType, false);
         else
-            return generalJoin(a, b, joinedType);
+            return mappedHashJoin(a, b, joinedType);
     }
-    
-    private boolean hasSingleIndexedDimension(Tensor tensor) {
-        return tensor.type().dimensions().size() == 1 && tensor.type().dimensions().get(0).isIndexed();
+
+    /**
+     * Joins two indexed tensors of any dimensions by stepping through their value arrays in the joined space.
+     * The joined space has the smallest size of the two tensors in each shared dimension.
+     */
+    private Tensor indexedJoin(IndexedTensor a, IndexedTensor b, TensorType joinedType) {
+        DimensionSizes joinedSizes = joinedSize(joinedType, a, b);
+        IndexedTensor.BoundBuilder builder = (IndexedTensor.BoundBuilder)IndexedTensor.Builder.of(joinedType, joinedSizes);
+        StridedIndexes indexes = new StridedIndexes(joinedSizes,
+                                                    StridedIndexes.stridesOf(a.type(), a.dimensionSizes(), joinedType),
+                                                    StridedIndexes.stridesOf(b.type(), b.dimensionSizes(), joinedType));
+        int joinedLength = joinedSizes.totalSize();
+        for (int i = 0; i < joinedLength; i++) {
+            builder.cellByDirectIndex(i, combinator.applyAsDouble(a.getByDirectIndex(indexes.valueIndex(0)),
+                                                                  b.getByDirectIndex(indexes.valueIndex(1))));
+            indexes.next();
+        }
+        return builder.build();
     }
-    
-    private Tensor indexedVectorJoin(IndexedTensor a, IndexedTensor b, TensorType type) {
-        int joinedLength = Math.min(a.dimensionSizes().size(0), b.dimensionSizes().size(0));
-        Iterator<Double> aIterator = a.valueIterator();
-        Iterator<Double> bIterator = b.valueIterator();
-        IndexedTensor.Builder builder = IndexedTensor.Builder.of(type, new DimensionSizes.Builder(1).set(0, joinedLength).build());
-        for (int i = 0; i < joinedLength; i++)
-            builder.cell(combinator.applyAsDouble(aIterator.next(), bIterator.next()), i);
+
+    private Tensor mappedJoin(MappedTensor a, MappedTensor b, TensorType joinedType) {
+        if (a.size() <= b.size())
+            return mappedJoin(a, b, joinedType, false);
+        else
+            return mappedJoin(b, a, joinedType, true);
+    }
+
+    /**
+     * Joins two mapped tensors of any dimensions by looking up each cell of the larger in the index of the smaller
+     * by the dimensions they have in common. This index is kept in the smaller tensor and reused in later joins.
+     */
+    private Tensor mappedJoin(MappedTensor smaller, MappedTensor larger, TensorType joinedType, boolean reversedArgumentOrder) {
+        List<String> commonDimensions = new ArrayList<>();
+        for (TensorType.Dimension dimension : smaller.type().dimensions())
+            if (larger.type().dimensionNames().contains(dimension.name()))
+                commonDimensions.add(dimension.name());
+        int[] commonInSmaller = new int[commonDimensions.size()];
+        int[] commonInLarger = new int[commonDimensions.size()];
+        for (int i = 0; i < commonDimensions.size(); i++) {
+            commonInSmaller[i] = smaller.type().indexOfDimension(commonDimensions.get(i)).get();
+            commonInLarger[i] = larger.type().indexOfDimension(commonDimensions.get(i)).get();
+        }
+        MappedTensor.Index smallerIndex = smaller.index(commonInSmaller);
+
+        // Map each label of the larger tensor to the id of the same label in the smaller, or -1 if not present
+        int[] largerToSmallerLabelIds = new int[larger.labelCount()];
+        for (int labelId = 0; labelId < largerToSmallerLabelIds.length; labelId++)
+            largerToSmallerLabelIds[labelId] = smaller.labelIdOf(larger.label(labelId));
+
+        int[] smallerToJoinedIndexes = mapIndexes(smaller.type(), joinedType);
+        int[] largerToJoinedIndexes = mapIndexes(larger.type(), joinedType);
+        int[] commonLabelIds = new int[commonDimensions.size()];
+        Tensor.Builder builder = Tensor.Builder.of(joinedType);
+        for (int largerCell = 0; largerCell < larger.size(); largerCell++) {
+            int group = findGroup(larger, largerCell, commonInLarger, largerToSmallerLabelIds, smallerIndex, commonLabelIds);
+            if (group < 0) continue; // no match
+            double largerValue = larger.getByDirectIndex(largerCell);
+            for (int n = 0; n < smallerIndex.groupSize(group); n++) {
+                int smallerCell = smallerIndex.cellOf(group, n);
+                String[] joinedLabels = new String[joinedType.dimensions().size()];
+                for (int i = 0; i < smallerToJoinedIndexes.length; i++)
+                    joinedLabels[smallerToJoinedIndexes[i]] = smaller.label(smaller.labelId(smallerCell, i));
+                for (int i = 0; i < largerToJoinedIndexes.length; i++)
+                    joinedLabels[largerToJoinedIndexes[i]] = larger.label(larger.labelId(largerCell, i));
+                double smallerValue = smaller.getByDirectIndex(smallerCell);
+                builder.cell(TensorAddress.of(joinedLabels),
+                             reversedArgumentOrder ? combinator.applyAsDouble(largerValue, smallerValue)
+                                                   : combinator.applyAsDouble(smallerValue, largerValue));
+            }
+        }
         return builder.build();
     }
 
+    /** Returns the group in the index of the smaller tensor matching the given cell, or -1 if none */
+    private int findGroup(MappedTensor larger, int largerCell, int[] commonInLarger, int[] largerToSmallerLabelIds,
+                          MappedTensor.Index smallerIndex, int[] commonLabelIds) {
+        for (int i = 0; i < commonInLarger.length; i++) {
+            commonLabelIds[i] = largerToSmallerLabelIds[larger.labelId(largerCell, commonInLarger[i])];
+            if (commonLabelIds[i] < 0) return -1;
+        }
+        return smallerIndex.groupOf(commonLabelIds);
+    }
+
     /** When both tensors have the same dimensions, at most one cell matches a cell in the other tensor */
     private Tensor singleSpaceJoin(Tensor a, Tensor b, TensorType joinedType) {
         Tensor.Builder builder = Tensor.Builder.of(joinedType);
@@ -115,54 +185,8 @@ public class Join extends PrimitiveTensorFunction {
         return builder.build();
     }
     
-    /** Join a tensor into a superspace */
-    private Tensor subspaceJoin(Tensor subspace, Tensor superspace, TensorType joinedType, boolean reversedArgumentOrder) {
-        if (subspace instanceof IndexedTensor && superspace instanceof IndexedTensor)
-            return indexedSubspaceJoin((IndexedTensor) subspace, (IndexedTensor) superspace, joinedType, reversedArgumentOrder);
-        else
-            return generalSubspaceJoin(subspace, superspace, joinedType, reversedArgumentOrder);
-    }
-
-    private Tensor indexedSubspaceJoin(IndexedTensor subspace, IndexedTensor superspace, TensorType joinedType, boolean reversedArgumentOrder) {
-        if (subspace.size() == 0 || superspace.size() == 0) // special case empty here to avoid doing it when finding sizes
-            return Tensor.Builder.of(joinedType, new DimensionSizes.Builder(joinedType.dimensions().size()).build()).build();
-        
-        DimensionSizes joinedSizes = joinedSize(joinedType, subspace, superspace);
-
-        IndexedTensor.Builder builder = (IndexedTensor.Builder)Tensor.Builder.of(joinedType, joinedSizes);
-
-        // Find dimensions which are only in the supertype
-        Set<String> superDimensionNames = new HashSet<>(superspace.type().dimensionNames());
-        superDimensionNames.removeAll(subspace.type().dimensionNames());
-        
-        for (Iterator<IndexedTensor.SubspaceIterator> i = superspace.subspaceIterator(superDimensionNames, joinedSizes); i.hasNext(); ) {
-            IndexedTensor.SubspaceIterator subspaceInSuper = i.next();
-            joinSubspaces(subspace.valueIterator(), subspace.size(),
-                          subspaceInSuper, subspaceInSuper.size(),
-                          reversedArgumentOrder, builder);
-        }
-        
-        return builder.build();
-    }
-
-    private void joinSubspaces(Iterator<Double> subspace, int subspaceSize,
-                               Iterator<Tensor.Cell> superspace, int superspaceSize,
-                               boolean reversedArgumentOrder, IndexedTensor.Builder builder) {
-        int joinedLength = Math.min(subspaceSize, superspaceSize);
-        if (reversedArgumentOrder) {
-            for (int i = 0; i < joinedLength; i++) {
-                Tensor.Cell supercell = superspace.next();
-                builder.cell(supercell, combinator.applyAsDouble(supercell.getValue(), subspace.next()));
-            }
-        } else {
-            for (int i = 0; i < joinedLength; i++) {
-                Tensor.Cell supercell = superspace.next();
-                builder.cell(supercell, combinator.applyAsDouble(subspace.next(), supercell.getValue()));
-            }
-        }
-    }
-
-    private DimensionSizes joinedSize(TensorType joinedType, IndexedTensor a, IndexedTensor b) {
+    /** Returns the sizes of the space of the join of the given indexed tensors */
+    static DimensionSizes joinedSize(TensorType joinedType, IndexedTensor a, IndexedTensor b) {
         DimensionSizes.Builder builder = new DimensionSizes.Builder(joinedType.dimensions().size());
         for (int i = 0; i < builder.dimensions(); i++) {
             String dimensionName = joinedType.dimensions().get(i).name();
@@ -208,70 +232,6 @@ public class Join extends PrimitiveTensorFunction {
         return TensorAddress.of(subspaceLabels);
     }
 
-    /** Slow join which works for any two tensors */
-    private Tensor generalJoin(Tensor a, Tensor b, TensorType joinedType) {
-        if (a instanceof IndexedTensor && b instanceof IndexedTensor)
-            return indexedGeneralJoin((IndexedTensor) a, (IndexedTensor) b, joinedType);
-        else
-            return mappedHashJoin(a, b, joinedType);
-    }
-
-    private Tensor indexedGeneralJoin(IndexedTensor a, IndexedTensor b, TensorType joinedType) {
-        DimensionSizes joinedSize = joinedSize(joinedType, a, b);
-        Tensor.Builder builder = Tensor.Builder.of(joinedType, joinedSize);
-        int[] aToIndexes = mapIndexes(a.type(), joinedType);
-        int[] bToIndexes = mapIndexes(b.type(), joinedType);
-        joinTo(a, b, joinedType, joinedSize, aToIndexes, bToIndexes, false, builder);
-        joinTo(b, a, joinedType, joinedSize, bToIndexes, aToIndexes, true, builder);
-        return builder.build();
-    }
-
-    private void joinTo(IndexedTensor a, IndexedTensor b, TensorType joinedType, DimensionSizes joinedSize,
-                        int[] aToIndexes, int[] bToIndexes, boolean reversedOrder, Tensor.Builder builder) {
-        Set<String> sharedDimensions = Sets.intersection(a.type().dimensionNames(), b.type().dimensionNames());
-        Set<String> dimensionsOnlyInA = Sets.difference(a.type().dimensionNames(), b.type().dimensionNames());
-
-        DimensionSizes aIterateSize = joinedSizeOf(a.type(), joinedType, joinedSize);
-        DimensionSizes bIterateSize = joinedSizeOf(b.type(), joinedType, joinedSize);
-
-        // for each combination of dimensions only in a
-        for (Iterator<IndexedTensor.SubspaceIterator> ia = a.subspaceIterator(dimensionsOnlyInA, aIterateSize); ia.hasNext(); ) { 
-            IndexedTensor.SubspaceIterator aSubspace = ia.next();
-            // for each combination of dimensions in a which is also in b
-            while (aSubspace.hasNext()) {
-                Tensor.Cell aCell = aSubspace.next();
-                PartialAddress matchingBCells = partialAddress(a.type(), aSubspace.address(), sharedDimensions);
-                // for each matching combination of dimensions ony in b
-                for (IndexedTensor.SubspaceIterator bSubspace = b.cellIterator(matchingBCells, bIterateSize); bSubspace.hasNext(); ) {
-                    Tensor.Cell bCell = bSubspace.next();
-                    TensorAddress joinedAddress = joinAddresses(aCell.getKey(), aToIndexes, bCell.getKey(), bToIndexes, joinedType);
-                    double joinedValue = reversedOrder ? combinator.applyAsDouble(bCell.getValue(), aCell.getValue())
-                                                       : combinator.applyAsDouble(aCell.getValue(), bCell.getValue());
-                    builder.cell(joinedAddress, joinedValue);
-                }
-            }
-        }
-    }
-    
-    private PartialAddress partialAddress(TensorType addressType, TensorAddress address, Set<String> retainDimensions) {
-        PartialAddress.Builder builder = new PartialAddress.Builder(retainDimensions.size());
-        for (int i = 0; i < addressType.dimensions().size(); i++)
-            if (retainDimensions.contains(addressType.dimensions().get(i).name()))
-                builder.add(addressType.dimensions().get(i).name(), address.intLabel(i));
-        return builder.build();
-    }
-    
-    /** Returns the sizes from the joined sizes which are present in the type argument */
-    private DimensionSizes joinedSizeOf(TensorType type, TensorType joinedType, DimensionSizes joinedSizes) {
-        DimensionSizes.Builder builder = new DimensionSizes.Builder(type.dimensions().size());
-        int dimensionIndex = 0;
-        for (int i = 0; i < joinedType.dimensions().size(); i++) {
-            if (type.dimensionNames().contains(joinedType.dimensions().get(i).name()))
-                builder.set(dimensionIndex++, joinedSizes.size(i));
-        }
-        return builder.build();
-    }
-    
     private Tensor mappedGeneralJoin(Tensor a, Tensor b, TensorType joinedType) {
         int[] aToIndexes = mapIndexes(a.type(), joinedType);
         int[] bToIndexes = mapIndexes(b.type(), joinedType);
@@ -3,12 +3,15 @@ package com.yahoo.tensor.functions;
 
 import com.google.common.annotations.Beta;
 import com.google.common.collect.ImmutableList;
+import com.yahoo.tensor.DimensionSizes;
 import com.yahoo.tensor.IndexedTensor;
+import com.yahoo.tensor.MappedTensor;
 import com.yahoo.tensor.Tensor;
 import com.yahoo.tensor.TensorAddress;
 import com.yahoo.tensor.TensorType;
 import com.yahoo.tensor.evaluation.EvaluationContext;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -92,24 +95,38 @@ public class Reduce extends PrimitiveTensorFunction {
 
     @Override
     public Tensor evaluate(EvaluationContext context) {
-        Tensor argument = this.argument.evaluate(context);
+        if (isSumOfProducts()) { // e.g matmul: Avoid creating the joined tensor if both arguments are indexed
+            Join join = (Join)this.argument;
+            Tensor a = join.argumentA().evaluate(context);
+            Tensor b = join.argumentB().evaluate(context);
+            if (a instanceof IndexedTensor && b instanceof IndexedTensor) {
+                Tensor product = indexedSumOfProducts((IndexedTensor)a, (IndexedTensor)b);
+                if (product != null) return product;
+            }
+            return evaluate(join.evaluate(a, b));
+        }
+        return evaluate(this.argument.evaluate(context));
+    }
+
+    private Tensor evaluate(Tensor argument) {
         if ( ! dimensions.isEmpty() && ! argument.type().dimensionNames().containsAll(dimensions))
             throw new IllegalArgumentException("Cannot reduce " + argument + " over dimensions " + 
                                                dimensions + ": Not all those dimensions are present in this tensor");
 
         // Special case: Reduce all
         if (dimensions.isEmpty() || dimensions.size() == argument.type().dimensions().size())
-            if (argument.type().dimensions().size() == 1 && argument instanceof IndexedTensor)
-                return reduceIndexedVector((IndexedTensor)argument);
+            if (argument instanceof IndexedTensor)
+                return reduceAllIndexed((IndexedTensor)argument);
             else
                 return reduceAllGeneral(argument);
         
         // Reduce type
-        TensorType.Builder builder = new TensorType.Builder();
-        for (TensorType.Dimension dimension : argument.type().dimensions())
-            if ( ! dimensions.contains(dimension.name())) // keep
-                builder.dimension(dimension);
-        TensorType reducedType = builder.build();
+        TensorType reducedType = reducedType(argument.type());
+
+        if (argument instanceof IndexedTensor && argument.size() > 0)
+            return reduceIndexed((IndexedTensor)argument, reducedType);
+        if (argument instanceof MappedTensor)
+            return reduceMapped((MappedTensor)argument, reducedType);
         
         // Reduce cells
         Map<TensorAddress, ValueAggregator> aggregatingCells = new HashMap<>();
@@ -125,6 +142,138 @@ public class Reduce extends PrimitiveTensorFunction {
         
         return reducedBuilder.build();
     }
+
+    /** Returns the type resulting from removing the dimensions of this from the given type */
+    private TensorType reducedType(TensorType argumentType) {
+        TensorType.Builder builder = new TensorType.Builder();
+        for (TensorType.Dimension dimension : argumentType.dimensions())
+            if ( ! dimensions.contains(dimension.name())) // keep
+                builder.dimension(dimension);
+        return builder.build();
+    }
+
+    /** Returns the sizes of the dimensions of the given sizes of the argument space which are kept in the reduced type */
+    private DimensionSizes reducedSizes(TensorType reducedType, TensorType argumentType, DimensionSizes argumentSizes) {
+        DimensionSizes.Builder builder = new DimensionSizes.Builder(reducedType.dimensions().size());
+        for (int i = 0; i < builder.dimensions(); i++)
+            builder.set(i, argumentSizes.size(argumentType.indexOfDimension(reducedType.dimensions().get(i).name()).get()));
+        return builder.build();
+    }
+
+    private boolean isSumOfProducts() {
+        return aggregator == Aggregator.sum &&
+               argument instanceof Join &&
+               ((Join)argument).combinator() instanceof ScalarFunctions.Multiplication;
+    }
+
+    /**
+     * Reduces indexed tensors by aggregating directly into an array of values,
+     * stepping through the argument and reduced values by their strides in the argument space.
+     */
+    private Tensor reduceIndexed(IndexedTensor argument, TensorType reducedType) {
+        DimensionSizes reducedSizes = reducedSizes(reducedType, argument.type(), argument.dimensionSizes());
+        double[] aggregated = new double[reducedSizes.totalSize()];
+        Arrays.fill(aggregated, initialValue());
+        StridedIndexes indexes = new StridedIndexes(argument.dimensionSizes(),
+                                                    StridedIndexes.stridesOf(reducedType, reducedSizes, argument.type()));
+        int argumentSize = argument.size();
+        for (int i = 0; i < argumentSize; i++) {
+            int reducedIndex = indexes.valueIndex(0);
+            aggregated[reducedIndex] = aggregate(aggregated[reducedIndex], argument.getByDirectIndex(i));
+            indexes.next();
+        }
+        return buildIndexed(reducedType, reducedSizes, aggregated, argumentSize / aggregated.length);
+    }
+
+    /**
+     * Reduces mapped tensors by aggregating each group of cells in the index of the argument by the
+     * retained dimensions. This index is kept in the argument tensor and reused in later reductions.
+     */
+    private Tensor reduceMapped(MappedTensor argument, TensorType reducedType) {
+        int[] retainedDimensions = new int[reducedType.dimensions().size()];
+        for (int i = 0; i < retainedDimensions.length; i++)
+            retainedDimensions[i] = argument.type().indexOfDimension(reducedType.dimensions().get(i).name()).get();
+        MappedTensor.Index index = argument.index(retainedDimensions);
+
+        Tensor.Builder builder = Tensor.Builder.of(reducedType);
+        for (int group = 0; group < index.groupCount(); group++) {
+            double aggregated = initialValue();
+            int groupSize = index.groupSize(group);
+            for (int n = 0; n < groupSize; n++)
+                aggregated = aggregate(aggregated, argument.getByDirectIndex(index.cellOf(group, n)));
+            if (aggregator == Aggregator.avg)
+                aggregated = aggregated / groupSize;
+
+            int firstCell = index.cellOf(group, 0);
+            String[] reducedLabels = new String[retainedDimensions.length];
+            for (int i = 0; i < retainedDimensions.length; i++)
+                reducedLabels[i] = argument.label(argument.labelId(firstCell, retainedDimensions[i]));
+            builder.cell(TensorAddress.of(reducedLabels), aggregated);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the sum over the dimensions of this of the product of the given indexed tensors
+     * without creating the joined tensor, or null if this is not applicable to these arguments
+     */
+    private Tensor indexedSumOfProducts(IndexedTensor a, IndexedTensor b) {
+        TensorType joinedType = new TensorType.Builder(a.type(), b.type()).build();
+        if ( ! joinedType.dimensionNames().containsAll(dimensions)) return null; // fail with the usual message
+        DimensionSizes joinedSizes = Join.joinedSize(joinedType, a, b);
+        int joinedSize = joinedSizes.totalSize();
+        if (joinedSize == 0) return null; // no cells to reduce
+
+        TensorType reducedType = reducedType(joinedType);
+        if (dimensions.isEmpty()) // reduce all
+            reducedType = TensorType.empty;
+        DimensionSizes reducedSizes = reducedSizes(reducedType, joinedType, joinedSizes);
+        double[] sums = new double[reducedSizes.totalSize()];
+        StridedIndexes indexes = new StridedIndexes(joinedSizes,
+                                                    StridedIndexes.stridesOf(a.type(), a.dimensionSizes(), joinedType),
+                                                    StridedIndexes.stridesOf(b.type(), b.dimensionSizes(), joinedType),
+                                                    StridedIndexes.stridesOf(reducedType, reducedSizes, joinedType));
+        for (int i = 0; i < joinedSize; i++) {
+            sums[indexes.valueIndex(2)] += a.getByDirectIndex(indexes.valueIndex(0)) * b.getByDirectIndex(indexes.valueIndex(1));
+            indexes.next();
+        }
+        return buildIndexed(reducedType, reducedSizes, sums, joinedSize / sums.length);
+    }
+
+    /** Returns the value to start aggregating from, the same as in the value aggregators */
+    private double initialValue() {
+        switch (aggregator) {
+            case prod : return 1.0;
+            case max : return Double.MIN_VALUE;
+            case min : return Double.MAX_VALUE;
+            default: return 0.0;
+        }
+    }
+
+    /** Returns the given aggregated value with the given value aggregated into it */
+    private double aggregate(double aggregatedValue, double value) {
+        switch (aggregator) {
+            case avg : return aggregatedValue + value;
+            case count : return aggregatedValue + 1;
+            case prod : return aggregatedValue * value;
+            case sum : return aggregatedValue + value;
+            case max : return value > aggregatedValue ? value : aggregatedValue;
+            case min : return value < aggregatedValue ? value : aggregatedValue;
+            default: throw new UnsupportedOperationException("Aggregator " + aggregator + " is not implemented");
+        }
+    }
+
+    /**
+     * Builds an indexed tensor from aggregated values
+     *
+     * @param valueCount the number of argument values aggregated into each of the aggregated values
+     */
+    private Tensor buildIndexed(TensorType type, DimensionSizes sizes, double[] aggregated, int valueCount) {
+        IndexedTensor.BoundBuilder builder = (IndexedTensor.BoundBuilder)IndexedTensor.Builder.of(type, sizes);
+        for (int i = 0; i < aggregated.length; i++)
+            builder.cellByDirectIndex(i, aggregator == Aggregator.avg ? aggregated[i] / valueCount : aggregated[i]);
+        return builder.build();
+    }
     
     private TensorAddress reduceDimensions(TensorAddress address, TensorType argumentType, TensorType reducedType) {
         Set<Integer> indexesToRemove = new HashSet<>();
@@ -146,11 +295,14 @@ public class Reduce extends PrimitiveTensorFunction {
         return Tensor.Builder.of(TensorType.empty).cell((valueAggregator.aggregatedValue())).build();
     }
 
-    private Tensor reduceIndexedVector(IndexedTensor argument) {
-        ValueAggregator valueAggregator = ValueAggregator.ofType(aggregator);
-        for (int i = 0; i < argument.dimensionSizes().size(0); i++)
-            valueAggregator.aggregate(argument.get(i));
-        return Tensor.Builder.of(TensorType.empty).cell((valueAggregator.aggregatedValue())).build();
+    private Tensor reduceAllIndexed(IndexedTensor argument) {
+        double aggregated = initialValue();
+        int argumentSize = argument.size();
+        for (int i = 0; i < argumentSize; i++)
+            aggregated = aggregate(aggregated, argument.getByDirectIndex(i));
+        if (aggregator == Aggregator.avg)
+            aggregated = aggregated / argumentSize;
+        return Tensor.Builder.of(TensorType.empty).cell(aggregated).build();
     }
 
     private static abstract class ValueAggregator {
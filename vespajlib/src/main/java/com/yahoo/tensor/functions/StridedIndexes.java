@@ -0,0 +1,83 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.tensor.functions;
+
+import com.yahoo.tensor.DimensionSizes;
+import com.yahoo.tensor.TensorType;
+
+import java.util.Optional;
+
+/**
+ * Iterates over a space of indexed dimensions while keeping track of the corresponding index into the
+ * value array of each of a set of indexed tensors (operands) whose dimensions are a subset of those of the space.
+ * Each operand is stepped by its own stride in each dimension, where a stride of 0 means that the operand
+ * does not have that dimension, such that the same values are visited again for each index in it.
+ * <p>
+ * This allows dense tensor functions to be computed directly on value arrays without creating
+ * addresses or cells.
+ *
+ * @author bratseth
+ */
+final class StridedIndexes {
+
+    private final DimensionSizes sizes;
+
+    /** The stride of each operand in each dimension of the iterated space */
+    private final int[][] strides;
+
+    /** The current index in each dimension of the iterated space */
+    private final int[] indexes;
+
+    /** The current index into the values of each operand */
+    private final int[] valueIndexes;
+
+    /**
+     * Creates an iteration over the given space, positioned at the first cell
+     *
+     * @param sizes the sizes of the space to iterate over
+     * @param strides the strides of each operand, one per dimension of the space, as returned by {@link #stridesOf}
+     */
+    StridedIndexes(DimensionSizes sizes, int[] ... strides) {
+        this.sizes = sizes;
+        this.strides = strides;
+        this.indexes = new int[sizes.dimensions()];
+        this.valueIndexes = new int[strides.length];
+    }
+
+    /** Returns the index into the values of the given operand at the current position */
+    int valueIndex(int operand) { return valueIndexes[operand]; }
+
+    /** Moves to the next position in the space, incrementing indexes of later dimensions before earlier */
+    void next() {
+        for (int dimension = indexes.length - 1; dimension >= 0; dimension--) {
+            if (++indexes[dimension] < sizes.size(dimension)) {
+                for (int operand = 0; operand < strides.length; operand++)
+                    valueIndexes[operand] += strides[operand][dimension];
+                return;
+            }
+            // wrap around this dimension and carry over to the previous one
+            int steps = indexes[dimension] - 1;
+            for (int operand = 0; operand < strides.length; operand++)
+                valueIndexes[operand] -= strides[operand][dimension] * steps;
+            indexes[dimension] = 0;
+        }
+    }
+
+    /**
+     * Returns the stride to use in each dimension of the given space type to step through
+     * the values of a tensor having the given type and dimension sizes.
+     * The stride is 0 in dimensions which are not present in the given type.
+     */
+    static int[] stridesOf(TensorType type, DimensionSizes sizes, TensorType spaceType) {
+        int[] strides = new int[spaceType.dimensions().size()];
+        for (int i = 0; i < strides.length; i++) {
+            Optional<Integer> index = type.indexOfDimension(spaceType.dimensions().get(i).name());
+            if ( ! index.isPresent()) continue;
+            int stride = 1;
+            for (int j = index.get() + 1; j < sizes.dimensions(); j++)
+                stride *= sizes.size(j);
+            strides[i] = stride;
+        }
+        return strides;
+    }
+
+}
@@ -8,6 +8,7 @@ import org.junit.Test;
 import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -52,4 +53,46 @@ public class MappedTensorTestCase {
         assertEquals("{{x:0,y:0}:1.0,{x:1,y:0}:2.0}", tensor.toString());
     }
 
+    @Test
+    public void testCellsMapIsCreatedOnce() {
+        Tensor tensor = Tensor.from("tensor(x{},y{}):{{x:a,y:b}:1.0,{x:b,y:a}:2.0}");
+        assertEquals(2, tensor.cells().size());
+        assertEquals(2.0, tensor.cells().get(TensorAddress.of(new String[] {"b", "a"})), 0.0);
+        assertSame(tensor.cells(), tensor.cells());
+    }
+
+    @Test
+    public void testLookup() {
+        Tensor tensor = Tensor.from("tensor(x{},y{}):{{x:a,y:b}:1.0,{x:b,y:a}:2.0,{x:a,y:c}:3.0}");
+        assertEquals(1.0, tensor.get(TensorAddress.of(new String[] {"a", "b"})), 0.0);
+        assertEquals(2.0, tensor.get(TensorAddress.of(new String[] {"b", "a"})), 0.0);
+        assertTrue(Double.isNaN(tensor.get(TensorAddress.of(new String[] {"b", "b"}))));
+        assertTrue(Double.isNaN(tensor.get(TensorAddress.of(new String[] {"a", "d"}))));
+        assertEquals(3, ((MappedTensor)tensor).labelCount());
+    }
+
+    @Test
+    public void testPartialIndex() {
+        MappedTensor tensor = (MappedTensor)Tensor.from("tensor(x{},y{}):{{x:a,y:b}:1.0,{x:b,y:a}:2.0,{x:a,y:c}:3.0}");
+        MappedTensor.Index index = tensor.index(new int[] {0});
+        assertSame(index, tensor.index(new int[] {0}));
+        assertEquals(2, index.groupCount());
+        int group = index.groupOf(new int[] { tensor.labelIdOf("a") });
+        assertEquals(2, index.groupSize(group));
+        assertEquals(1.0, tensor.getByDirectIndex(index.cellOf(group, 0)), 0.0);
+        assertEquals(3.0, tensor.getByDirectIndex(index.cellOf(group, 1)), 0.0);
+        assertEquals(-1, index.groupOf(new int[] { tensor.labelIdOf("c") }));
+    }
+
+    @Test
+    public void testDuplicateAddress() {
+        try {
+            Tensor.from("tensor(x{}):{{x:a}:1.0,{x:a}:2.0}");
+            fail("Expected exception");
+        }
+        catch (IllegalArgumentException expected) {
+            assertEquals("Multiple cells with address {x:a}", expected.getMessage());
+        }
+    }
+
 }
@@ -46,4 +46,15 @@ public class JoinTestCase {
                              .divide(Tensor.from("tensor(y[],z[]):{ {y:0,z:0}:2, {y:1,z:0}:4, {y:2,z:0}:6 }")));
     }
     
+    @Test
+    public void testMappedJoin() {
+        Tensor t1 = Tensor.from("tensor(x{},y{}):{ {x:a,y:0}:1, {x:a,y:1}:2, {x:b,y:1}:3 }");
+        assertEquals(Tensor.from("tensor(x{},y{}):{ {x:a,y:1}:4, {x:b,y:1}:6 }"),
+                     t1.multiply(Tensor.from("tensor(y{}):{ {y:1}:2, {y:2}:5 }")));
+        assertEquals(Tensor.from("tensor(x{},y{},z{}):{ {x:a,y:1,z:c}:1, {x:b,y:1,z:c}:2 }"),
+                     t1.subtract(Tensor.from("tensor(y{},z{}):{ {y:1,z:c}:1, {y:3,z:d}:1 }")));
+        assertEquals(Tensor.from("tensor(x{},y{},z{}):{ {x:a,y:0,z:c}:2, {x:a,y:1,z:c}:3, {x:b,y:1,z:c}:4 }"),
+                     Tensor.from("tensor(z{}):{ {z:c}:1 }").add(t1));
+    }
+
 }
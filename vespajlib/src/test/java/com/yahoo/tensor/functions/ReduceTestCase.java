@@ -0,0 +1,52 @@
+// Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.tensor.functions;
+
+import com.yahoo.tensor.Tensor;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author bratseth
+ */
+public class ReduceTestCase {
+
+    /** Test the indexed reduce optimization */
+    @Test
+    public void testReduceIndexed() {
+        Tensor t = Tensor.from("tensor(x[],y[]):{{x:0,y:0}:1.0,{x:0,y:1}:2.0,{x:0,y:2}:3.0,{x:1,y:0}:4.0,{x:1,y:1}:5.0,{x:1,y:2}:6.0}");
+        assertEquals(Tensor.from("tensor(y[]):{{y:0}:5.0,{y:1}:7.0,{y:2}:9.0}"), t.reduce(Reduce.Aggregator.sum, "x"));
+        assertEquals(Tensor.from("tensor(x[]):{{x:0}:6.0,{x:1}:15.0}"), t.reduce(Reduce.Aggregator.sum, "y"));
+        assertEquals(Tensor.from("tensor(x[]):{{x:0}:2.0,{x:1}:5.0}"), t.reduce(Reduce.Aggregator.avg, "y"));
+        assertEquals(Tensor.from("tensor(x[]):{{x:0}:3.0,{x:1}:3.0}"), t.reduce(Reduce.Aggregator.count, "y"));
+        assertEquals(Tensor.from("tensor(x[]):{{x:0}:6.0,{x:1}:120.0}"), t.reduce(Reduce.Aggregator.prod, "y"));
+        assertEquals(Tensor.from("tensor(y[]):{{y:0}:4.0,{y:1}:5.0,{y:2}:6.0}"), t.reduce(Reduce.Aggregator.max, "x"));
+        assertEquals(Tensor.from("tensor(y[]):{{y:0}:1.0,{y:1}:2.0,{y:2}:3.0}"), t.reduce(Reduce.Aggregator.min, "x"));
+        assertEquals(Tensor.from("{21.0}"), t.reduce(Reduce.Aggregator.sum));
+        assertEquals(Tensor.from("{3.5}"), t.reduce(Reduce.Aggregator.avg, "x", "y"));
+    }
+
+    /** Test summing the product of indexed tensors without creating the product tensor */
+    @Test
+    public void testMatmulIndexed() {
+        Tensor m = Tensor.from("tensor(x[],y[]):{{x:0,y:0}:1.0,{x:0,y:1}:2.0,{x:0,y:2}:3.0,{x:1,y:0}:4.0,{x:1,y:1}:5.0,{x:1,y:2}:6.0}");
+        Tensor v = Tensor.from("tensor(y[]):{{y:0}:1.0,{y:1}:0.5,{y:2}:2.0}");
+        assertEquals(Tensor.from("tensor(x[]):{{x:0}:8.0,{x:1}:18.5}"), m.matmul(v, "y"));
+        assertEquals(Tensor.from("tensor(x[]):{{x:0}:8.0,{x:1}:18.5}"), v.matmul(m, "y"));
+        assertEquals(Tensor.from("tensor(y[]):{{y:0}:9.0,{y:1}:12.0,{y:2}:15.0}"),
+                     m.matmul(Tensor.from("tensor(x[]):{{x:0}:1.0,{x:1}:2.0}"), "x"));
+
+        Tensor b = Tensor.from("tensor(x[]):{{x:0}:1.0,{x:1}:-1.0}");
+        assertEquals(Tensor.from("tensor(x[]):{{x:0}:9.0,{x:1}:17.5}"),
+                     v.xwPlusB(m, b, "y"));
+
+        // Shorter arguments are joined over the smallest size
+        assertEquals(Tensor.from("tensor(x[]):{{x:0}:2.0,{x:1}:6.5}"),
+                     m.matmul(Tensor.from("tensor(y[]):{{y:0}:1.0,{y:1}:0.5}"), "y"));
+        // Mapped tensors use the general join and reduce
+        assertEquals(Tensor.from("tensor(x{}):{{x:0}:8.0,{x:1}:18.5}"),
+                     Tensor.from("tensor(x{},y{}):{{x:0,y:0}:1.0,{x:0,y:1}:2.0,{x:0,y:2}:3.0,{x:1,y:0}:4.0,{x:1,y:1}:5.0,{x:1,y:2}:6.0}")
+                           .matmul(Tensor.from("tensor(y{}):{{y:0}:1.0,{y:1}:0.5,{y:2}:2.0}"), "y"));
+    }
+
+}